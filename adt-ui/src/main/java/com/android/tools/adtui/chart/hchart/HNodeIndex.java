@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart;
+
+import com.android.tools.adtui.model.HNode;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The nodes of a {@link HNode} tree grouped by their distance from the root, in breadth-first order. In trees where every child lies
+ * within its parent and the nodes of a level don't overlap, the nodes of a level are sorted by start and end, and the ones that intersect a
+ * range are found by binary search rather than by walking the whole tree.
+ */
+final class HNodeIndex<N extends HNode<N>> {
+  @NotNull private final N myRoot;
+  private final long myRootStart;
+  private final long myRootEnd;
+  @NotNull private final List<Level<N>> myLevels = new ArrayList<>();
+  private final int myMaxDepth;
+  private final boolean myOrdered;
+
+  HNodeIndex(@NotNull N root) {
+    myRoot = root;
+    myRootStart = root.getStart();
+    myRootEnd = root.getEnd();
+
+    int maxDepth = root.getDepth();
+    boolean ordered = root.getStart() <= root.getEnd();
+    List<N> level = new ArrayList<>();
+    level.add(root);
+    while (!level.isEmpty()) {
+      myLevels.add(new Level<>(level));
+      List<N> nextLevel = new ArrayList<>();
+      long lastEnd = Long.MIN_VALUE;
+      for (N node : level) {
+        for (int i = 0; i < node.getChildCount(); ++i) {
+          N child = node.getChildAt(i);
+          maxDepth = Math.max(maxDepth, child.getDepth());
+          ordered &= node.getStart() <= child.getStart() && child.getStart() <= child.getEnd() && child.getEnd() <= node.getEnd() &&
+                     lastEnd <= child.getStart();
+          lastEnd = child.getEnd();
+          nextLevel.add(child);
+        }
+      }
+      level = nextLevel;
+    }
+    myMaxDepth = maxDepth;
+    myOrdered = ordered;
+  }
+
+  /**
+   * @return whether the start or the end of the root changed since the index was built, e.g. because the nodes switched to another clock.
+   */
+  boolean isStale() {
+    return myRoot.getStart() != myRootStart || myRoot.getEnd() != myRootEnd;
+  }
+
+  /**
+   * @return whether the nodes of every level are sorted and every child lies within its parent, which the range queries rely on.
+   */
+  boolean isOrdered() {
+    return myOrdered;
+  }
+
+  /**
+   * @return the largest {@link HNode#getDepth()} of the tree.
+   */
+  int getMaxDepth() {
+    return myMaxDepth;
+  }
+
+  int getLevelCount() {
+    return myLevels.size();
+  }
+
+  int getLevelSize(int level) {
+    return myLevels.get(level).myNodes.size();
+  }
+
+  @NotNull
+  N getNode(int level, int index) {
+    return myLevels.get(level).myNodes.get(index);
+  }
+
+  long getStart(int level, int index) {
+    return myLevels.get(level).myStarts[index];
+  }
+
+  long getEnd(int level, int index) {
+    return myLevels.get(level).myEnds[index];
+  }
+
+  /**
+   * @return the index of the first node of the level that ends at or after the given time.
+   */
+  int getFirstIndex(int level, double min) {
+    long[] ends = myLevels.get(level).myEnds;
+    int low = 0;
+    int high = ends.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ends[mid] < min) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index of the first node of the level that starts after the given time.
+   */
+  int getEndIndex(int level, double max) {
+    long[] starts = myLevels.get(level).myStarts;
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= max) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static final class Level<N extends HNode<N>> {
+    @NotNull private final List<N> myNodes;
+    @NotNull private final long[] myStarts;
+    @NotNull private final long[] myEnds;
+
+    private Level(@NotNull List<N> nodes) {
+      myNodes = nodes;
+      myStarts = new long[nodes.size()];
+      myEnds = new long[nodes.size()];
+      for (int i = 0; i < nodes.size(); ++i) {
+        myStarts[i] = nodes.get(i).getStart();
+        myEnds[i] = nodes.get(i).getEnd();
+      }
+    }
+  }
+}
@@ -43,9 +43,7 @@ import java.awt.event.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import javax.swing.AbstractAction;
 import javax.swing.KeyStroke;
 import org.jetbrains.annotations.NotNull;
@@ -114,9 +112,27 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @NotNull
   private final List<N> myDrawnNodes;
 
+  /**
+   * Where each run of drawn nodes of the same depth starts, if the rectangles of every run are sorted and don't overlap, so the node at
+   * a point can be found by binary search. Null otherwise.
+   */
+  @Nullable
+  private List<Integer> myDrawnRunStarts;
+
   @NotNull
   private final HTreeChartReducer<N> myReducer;
 
+  /**
+   * Index of {@link #myRoot}, built lazily.
+   */
+  @Nullable
+  private HNodeIndex<N> myIndex;
+
+  /**
+   * The width of the chart {@link #myNodes} were collected for.
+   */
+  private int myNodesWidth;
+
   @Nullable
   private Image myCanvas;
 
@@ -213,9 +229,9 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @Override
   protected void draw(Graphics2D g, Dimension dim) {
     long startTime = System.nanoTime();
-    if (myDataUpdated) {
+    if (myDataUpdated || myNodesWidth != dim.width) {
       // Nulling out the canvas will trigger a render pass, below
-      updateNodesAndClearCanvas();
+      updateNodesAndClearCanvas(dim.width);
       myDataUpdated = false;
     }
     g.setFont(getFont());
@@ -276,6 +292,7 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     myReducer.reduce(myDrawnRectangles, myDrawnNodes);
 
     assert myDrawnRectangles.size() == myDrawnNodes.size();
+    myDrawnRunStarts = myIndex != null && myIndex.isOrdered() ? findDrawnRunStarts() : null;
     assert myRenderer != null;
     for (int i = 0; i < myDrawnNodes.size(); ++i) {
       N node = myDrawnNodes.get(i);
@@ -291,17 +308,35 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     g.dispose();
   }
 
-  private void updateNodesAndClearCanvas() {
+  private void updateNodesAndClearCanvas(int width) {
     myNodes.clear();
     myRectangles.clear();
     myCanvas = null;
+    myNodesWidth = width;
     if (myRoot == null) {
       return;
     }
 
+    HNodeIndex<N> index = getIndex();
+    if (index.isOrdered()) {
+      addNodesInRange(index, width);
+    }
+    else {
+      addNodesInRange();
+    }
+    if (!myRootVisible && !myNodes.isEmpty()) {
+      myNodes.remove(0);
+      myRectangles.remove(0);
+    }
+  }
+
+  /**
+   * Adds the nodes in range by walking the tree from the root, which only visits the children of nodes in range.
+   */
+  private void addNodesInRange() {
+    assert myRoot != null;
     if (inRange(myRoot)) {
-      myNodes.add(myRoot);
-      myRectangles.add(createRectangle(myRoot));
+      addNode(myRoot);
     }
 
     int head = 0;
@@ -311,15 +346,96 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
       for (int i = 0; i < curNode.getChildCount(); ++i) {
         N child = curNode.getChildAt(i);
         if (inRange(child)) {
-          myNodes.add(child);
-          myRectangles.add(createRectangle(child));
+          addNode(child);
         }
       }
     }
-    if (!myRootVisible && !myNodes.isEmpty()) {
-      myNodes.remove(0);
-      myRectangles.remove(0);
+  }
+
+  /**
+   * Adds the nodes in range level by level, in the same order as {@link #addNodesInRange()}, but only visits the nodes in range. Of the
+   * nodes that fit within a single pixel, only the ones that bound the pixel are added if {@link DefaultHTreeChartReducer} is used, as it
+   * merges the nodes in between into the first one anyway.
+   */
+  private void addNodesInRange(@NotNull HNodeIndex<N> index, int width) {
+    double min = myXRange.getMin();
+    double max = myXRange.getMax();
+    boolean mergePixels = width > 0 && myReducer instanceof DefaultHTreeChartReducer;
+    for (int level = 0; level < index.getLevelCount(); ++level) {
+      int end = index.getEndIndex(level, max);
+      int i = index.getFirstIndex(level, min);
+      while (i < end) {
+        addNode(index.getNode(level, i));
+        if (!mergePixels) {
+          ++i;
+          continue;
+        }
+        double pixel = Math.floor(getCanvasX(index.getStart(level, i), width));
+        if (Math.floor(getCanvasMaxX(index.getStart(level, i), index.getEnd(level, i), width)) != pixel) {
+          ++i;
+          continue;
+        }
+        // The nodes of a level don't overlap, so every node starting within the pixel, except maybe the last one, ends within it.
+        int next = findNextPixel(index, level, i + 1, end, pixel, width);
+        int last = next - 1;
+        if (last - 1 > i && Math.floor(getCanvasMaxX(index.getStart(level, last), index.getEnd(level, last), width)) != pixel) {
+          addNode(index.getNode(level, last - 1));
+        }
+        if (last > i) {
+          addNode(index.getNode(level, last));
+        }
+        i = next;
+      }
+    }
+  }
+
+  /**
+   * @return the index of the first node between {@code from} and {@code to} that starts after the given pixel, or {@code to} if none does.
+   */
+  private int findNextPixel(@NotNull HNodeIndex<N> index, int level, int from, int to, double pixel, int width) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Math.floor(getCanvasX(index.getStart(level, mid), width)) <= pixel) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the X coordinate of the given time on a canvas of the given width, rounded like {@link #redrawToCanvas(Dimension)} does.
+   */
+  private float getCanvasX(long time, int width) {
+    return (float)((time - myXRange.getMin()) / myXRange.getLength()) * width;
+  }
+
+  /**
+   * @return the right edge on a canvas of the given width of the rectangle drawn for a node, rounded like
+   * {@link #redrawToCanvas(Dimension)} does.
+   */
+  private double getCanvasMaxX(long start, long end, int width) {
+    float left = (float)((start - myXRange.getMin()) / myXRange.getLength());
+    float right = (float)((end - myXRange.getMin()) / myXRange.getLength());
+    return left * (float)width + (double)Math.max(0, (right - left) * (float)width - myNodeXPaddingPx);
+  }
+
+  private void addNode(@NotNull N node) {
+    myNodes.add(node);
+    myRectangles.add(createRectangle(node));
+  }
+
+  @NotNull
+  private HNodeIndex<N> getIndex() {
+    assert myRoot != null;
+    if (myIndex == null || myIndex.isStale()) {
+      myIndex = new HNodeIndex<>(myRoot);
     }
+    return myIndex;
   }
 
   private boolean inRange(@NotNull N node) {
@@ -344,13 +460,53 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
 
   public void setHTree(@Nullable N root) {
     this.myRoot = root;
+    myIndex = null;
     changed();
   }
 
   @Nullable
   public N getNodeAt(Point point) {
-    if (point != null) {
-      for (int i = 0; i < myDrawnNodes.size(); ++i) {
+    if (point == null) {
+      return null;
+    }
+    if (myDrawnRunStarts != null) {
+      return getNodeAt(point, myDrawnRunStarts);
+    }
+    for (int i = 0; i < myDrawnNodes.size(); ++i) {
+      if (contains(myDrawnRectangles.get(i), point)) {
+        return myDrawnNodes.get(i);
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private N getNodeAt(@NotNull Point point, @NotNull List<Integer> runStarts) {
+    for (int run = 0; run < runStarts.size(); ++run) {
+      int from = runStarts.get(run);
+      int to = run + 1 < runStarts.size() ? runStarts.get(run + 1) : myDrawnNodes.size();
+      // The rectangles of a run share their Y coordinates.
+      Rectangle2D.Float first = myDrawnRectangles.get(from);
+      if (point.getY() < first.getMinY() || point.getY() > first.getMaxY()) {
+        continue;
+      }
+      // Finds the first rectangle that starts after the point, the ones that contain it come right before.
+      int low = from;
+      int high = to;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (myDrawnRectangles.get(mid).getMinX() <= point.getX()) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      int candidate = low;
+      while (candidate > from && myDrawnRectangles.get(candidate - 1).getMaxX() >= point.getX()) {
+        --candidate;
+      }
+      for (int i = candidate; i < low; ++i) {
         if (contains(myDrawnRectangles.get(i), point)) {
           return myDrawnNodes.get(i);
         }
@@ -359,6 +515,21 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     return null;
   }
 
+  /**
+   * @return where each run of drawn nodes of the same depth starts. Drawn nodes are ordered by level, then by start.
+   */
+  @NotNull
+  private List<Integer> findDrawnRunStarts() {
+    List<Integer> runStarts = new ArrayList<>();
+    for (int i = 0; i < myDrawnNodes.size(); ++i) {
+      if (i == 0 || myDrawnNodes.get(i).getDepth() != myDrawnNodes.get(i - 1).getDepth() ||
+          myDrawnRectangles.get(i).getMinX() < myDrawnRectangles.get(i - 1).getMinX()) {
+        runStarts.add(i);
+      }
+    }
+    return runStarts;
+  }
+
   private static boolean contains(@NotNull Rectangle2D rectangle, @NotNull Point p) {
     return rectangle.getMinX() <= p.getX() && p.getX() <= rectangle.getMaxX() &&
            rectangle.getMinY() <= p.getY() && p.getY() <= rectangle.getMaxY();
@@ -518,22 +689,7 @@ public final class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
       return 0;
     }
 
-    int maxDepth = -1;
-    Queue<N> queue = new LinkedList<>();
-    queue.add(myRoot);
-
-    while (!queue.isEmpty()) {
-      N n = queue.poll();
-      assert n != null;
-      if (n.getDepth() > maxDepth) {
-        maxDepth = n.getDepth();
-      }
-
-      for (int i = 0; i < n.getChildCount(); ++i) {
-        queue.add(n.getChildAt(i));
-      }
-    }
-    maxDepth += 1;
+    int maxDepth = getIndex().getMaxDepth() + 1;
     // The HEIGHT_PADDING is for the chart's toe (the innermost frame on call stacks).
     // We have this because the padding near the chart's head (the outermost frame on call stacks)
     // is there because the root node of the tree is invisible.
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.adtui.model.DefaultHNode;
+import org.junit.Test;
+
+public class HNodeIndexTest {
+  /**
+   * The structure of the tree:
+   *   0 1 2 3 4 5 6 7 8 9 10
+   *   A+++++++++++++++++++++
+   *   B++++++++++   C+++++++
+   *   D++ E++   F++     G++
+   */
+  @Test
+  public void testLevelsAreSortedByStart() {
+    HNodeIndex<DefaultHNode<String>> index = new HNodeIndex<>(createTree());
+
+    assertTrue(index.isOrdered());
+    assertEquals(2, index.getMaxDepth());
+    assertEquals(3, index.getLevelCount());
+    checkLevel(index, 0, "A");
+    checkLevel(index, 1, "B", "C");
+    checkLevel(index, 2, "D", "E", "F", "G");
+  }
+
+  @Test
+  public void testRangeQueries() {
+    HNodeIndex<DefaultHNode<String>> index = new HNodeIndex<>(createTree());
+
+    // Nodes that touch the range are in range.
+    assertEquals(1, index.getFirstIndex(2, 2));
+    assertEquals(3, index.getEndIndex(2, 6));
+    assertEquals(2, index.getFirstIndex(2, 3.5));
+    assertEquals(2, index.getEndIndex(2, 3.5));
+    assertEquals(0, index.getFirstIndex(1, -1));
+    assertEquals(2, index.getEndIndex(1, 11));
+    assertEquals(4, index.getFirstIndex(2, 11));
+  }
+
+  @Test
+  public void testOverlappingNodesAreNotOrdered() {
+    DefaultHNode<String> root = newNode("A", 0, 10, 0);
+    root.addChild(newNode("B", 0, 6, 1));
+    root.addChild(newNode("C", 5, 10, 1));
+    assertFalse(new HNodeIndex<>(root).isOrdered());
+  }
+
+  @Test
+  public void testChildOutsideOfParentIsNotOrdered() {
+    DefaultHNode<String> root = newNode("A", 0, 10, 0);
+    root.addChild(newNode("B", 5, 11, 1));
+    assertFalse(new HNodeIndex<>(root).isOrdered());
+  }
+
+  @Test
+  public void testIndexIsStaleWhenRootChanges() {
+    DefaultHNode<String> root = createTree();
+    HNodeIndex<DefaultHNode<String>> index = new HNodeIndex<>(root);
+    assertFalse(index.isStale());
+    root.setEnd(20);
+    assertTrue(index.isStale());
+  }
+
+  private static void checkLevel(HNodeIndex<DefaultHNode<String>> index, int level, String... ids) {
+    assertEquals(ids.length, index.getLevelSize(level));
+    for (int i = 0; i < ids.length; ++i) {
+      assertEquals(ids[i], index.getNode(level, i).getData());
+    }
+  }
+
+  private static DefaultHNode<String> createTree() {
+    DefaultHNode<String> root = newNode("A", 0, 10, 0);
+    DefaultHNode<String> b = newNode("B", 0, 5, 1);
+    DefaultHNode<String> c = newNode("C", 6, 10, 1);
+    root.addChild(b);
+    root.addChild(c);
+    b.addChild(newNode("D", 0, 1, 2));
+    b.addChild(newNode("E", 2, 3, 2));
+    b.addChild(newNode("F", 4, 5, 2));
+    c.addChild(newNode("G", 8, 9, 2));
+    return root;
+  }
+
+  private static DefaultHNode<String> newNode(String id, long start, long end, int depth) {
+    DefaultHNode<String> node = new DefaultHNode<>(id, start, end);
+    node.setDepth(depth);
+    return node;
+  }
+}
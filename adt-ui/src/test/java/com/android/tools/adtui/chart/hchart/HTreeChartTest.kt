@@ -27,6 +27,8 @@ import java.awt.*
 import com.google.common.truth.Truth.assertThat
 import com.intellij.openapi.util.SystemInfo.isMac
 import java.awt.geom.Rectangle2D
+import java.awt.image.BufferedImage
+import java.util.Random
 
 class HTreeChartTest {
   private lateinit var myUi: FakeUi
@@ -344,6 +346,106 @@ class HTreeChartTest {
     assertThat(myChart.yRange.max).isWithin(EPSILON).of(18.0)
   }
 
+  @Test
+  fun testSkippingNodesWithinAPixelKeepsTheReducedRectangles() {
+    val root = DenseHNodeTree()
+    for (range in listOf(Range(0.0, 10000.0), Range(1234.5, 5678.9), Range(-50.0, 310.0), Range(9990.0, 10100.0))) {
+      // The chart looks the nodes up in its index and skips the ones inside a pixel, as the reducer is a DefaultHTreeChartReducer.
+      val skipping = RecordingReducer()
+      drawChart(root, range, skipping)
+      // The chart looks the nodes up in its index, but passes every one of them to the reducer.
+      val merging = DelegatingReducer()
+      drawChart(root, range, merging)
+
+      // Without the index, the chart walks the tree from the root.
+      assertThat(merging.inputNodes).containsExactlyElementsIn(walkInRange(root, range)).inOrder()
+      assertThat(skipping.reducedRectangles).containsExactlyElementsIn(merging.reducedRectangles).inOrder()
+      assertThat(skipping.reducedNodes).containsExactlyElementsIn(merging.reducedNodes).inOrder()
+    }
+
+    val skipping = RecordingReducer()
+    drawChart(root, Range(0.0, 10000.0), skipping)
+    val merging = DelegatingReducer()
+    drawChart(root, Range(0.0, 10000.0), merging)
+    assertThat(skipping.inputNodes.size).isLessThan(merging.inputNodes.size)
+  }
+
+  /**
+   * Returns a tree spanning [0, 10000] whose levels have nodes of random widths and gaps, many of which fit within a pixel of a 100
+   * pixels wide chart.
+   */
+  private fun DenseHNodeTree(): DefaultHNode<String> {
+    val random = Random(42)
+    val root = DefaultHNode("", 0, 10000)
+    root.depth = 0
+    addDenseChildren(root, 4, random)
+    return root
+  }
+
+  private fun addDenseChildren(parent: DefaultHNode<String>, height: Int, random: Random) {
+    if (height == 0) {
+      return
+    }
+    var time = parent.start
+    while (true) {
+      val start = time + random.nextInt(3)
+      if (start >= parent.end) {
+        return
+      }
+      val child = DefaultHNode("", start, Math.min(parent.end, start + 1 + random.nextInt(200)))
+      child.depth = parent.depth + 1
+      parent.addChild(child)
+      addDenseChildren(child, height - 1, random)
+      time = child.end
+    }
+  }
+
+  private fun drawChart(root: DefaultHNode<String>, range: Range, reducer: HTreeChartReducer<DefaultHNode<String>>) {
+    val chart = HTreeChart.Builder(root, Range(range.min, range.max), FakeRenderer())
+      .setGlobalXRange(Range(-100.0, 10100.0))
+      .setReducer(reducer)
+      .build()
+    chart.size = Dimension(100, myViewHeight)
+    chart.paint(BufferedImage(100, myViewHeight, BufferedImage.TYPE_INT_RGB).createGraphics())
+  }
+
+  private fun walkInRange(root: DefaultHNode<String>, range: Range): List<DefaultHNode<String>> {
+    val inRange = { node: DefaultHNode<String> -> node.start <= range.max && node.end >= range.min }
+    val nodes = mutableListOf<DefaultHNode<String>>()
+    if (inRange(root)) {
+      nodes.add(root)
+    }
+    var head = 0
+    while (head < nodes.size) {
+      nodes.addAll(nodes[head++].children.filter(inRange))
+    }
+    return nodes
+  }
+
+  private class RecordingReducer : DefaultHTreeChartReducer<DefaultHNode<String>>() {
+    val inputNodes = mutableListOf<DefaultHNode<String>>()
+    val reducedRectangles = mutableListOf<Rectangle2D.Float>()
+    val reducedNodes = mutableListOf<DefaultHNode<String>>()
+
+    override fun reduce(rectangles: MutableList<Rectangle2D.Float>, nodes: MutableList<DefaultHNode<String>>) {
+      inputNodes.addAll(nodes)
+      super.reduce(rectangles, nodes)
+      reducedRectangles.addAll(rectangles)
+      reducedNodes.addAll(nodes)
+    }
+  }
+
+  private class DelegatingReducer : HTreeChartReducer<DefaultHNode<String>> {
+    private val reducer = RecordingReducer()
+    val inputNodes get() = reducer.inputNodes
+    val reducedRectangles get() = reducer.reducedRectangles
+    val reducedNodes get() = reducer.reducedNodes
+
+    override fun reduce(rectangles: MutableList<Rectangle2D.Float>, nodes: MutableList<DefaultHNode<String>>) {
+      reducer.reduce(rectangles, nodes)
+    }
+  }
+
   class FakeRenderer : DefaultHRenderer<String>() {
     override fun getFillColor(nodeData: String) = Color.white
 
@@ -33,65 +33,139 @@ import java.util.concurrent.*
  * TestSimpleMethodCall(_JNIEnv*, _jobject*)
  * /usr/local/google/home/ezemtsov/projects/android-apps/sum/app/src/main/cpp/native-lib.cpp:36:7
  *
+ * Responses come back in the order of the requests, so requests are pipelined: they are written without waiting for the previous
+ * responses, which are read by another thread. Batches of requests are spread over a small pool of llvm-symbolizer processes, and
+ * the symbols are kept in an LRU cache.
+ *
  * More info about llvm-symbolizer: https://llvm.org/docs/CommandGuide/llvm-symbolizer.html
  */
 class LlvmSymbolizer(private val symbolizerExe: String,
                      private val symLocator: SymbolFilesLocator,
-                     private val timeoutMsc: Long = 5000) : NativeSymbolizer {
+                     private val timeoutMsc: Long = 5000,
+                     private val processCount: Int = DEFAULT_PROCESS_COUNT,
+                     cacheCapacity: Int = DEFAULT_CACHE_CAPACITY) : NativeSymbolizer {
 
-  private var procHolder : ProcessHolder? = null
-  private val executor : ExecutorService = Executors.newSingleThreadExecutor()
+  companion object {
+    private val DEFAULT_PROCESS_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors())
+    private const val DEFAULT_CACHE_CAPACITY = 100_000
 
-  override fun symbolize(abiArch: String, module: String, offset: Long): Symbol? {
-    val symFiles = symLocator.findSymbolFiles(abiArch, module)
+    /**
+     * Smallest number of requests worth sending to one more symbolizer process.
+     */
+    private const val MIN_REQUESTS_PER_PROCESS = 64
+  }
 
-    for (symFile in symFiles) {
-      val request = formatRequest(symFile, offset)
+  private val procHolders = arrayOfNulls<ProcessHolder>(processCount)
+  private var nextProcHolder = 0
+  private val cache = SymbolCache(cacheCapacity)
 
-      val holder = getProcHolder()
-      val future = executor.submit( Callable<List<String>> {
-        holder.stdin.write(request)
-        holder.stdin.flush()
+  override fun symbolize(abiArch: String, module: String, offset: Long): Symbol? {
+    return symbolize(abiArch, module, listOf(offset))[0]
+  }
 
-        val response: MutableList<String> = mutableListOf()
-        var responseLine: String?
-        while (true) {
-          responseLine = holder.stdout.readLine()
-          if (responseLine == null || responseLine.isEmpty()) {
-            break
-          }
-          response.add(responseLine)
+  override fun symbolize(abiArch: String, module: String, offsets: List<Long>): List<Symbol?> {
+    val results = arrayOfNulls<Symbol>(offsets.size)
+    // Whether symbolizing an offset failed, in which case its result is not cached.
+    val failed = BooleanArray(offsets.size)
+    var pending = offsets.indices.filter {
+      val cached = cache[SymbolKey(abiArch, module, offsets[it])]
+      results[it] = cached?.symbol
+      cached == null
+    }
+    if (pending.isEmpty()) {
+      return results.asList()
+    }
+
+    val symFiles = symLocator.findSymbolFiles(abiArch, module)
+    if (symFiles.isEmpty()) {
+      // Like the symbol files locator, don't remember the missing symbols: a later build of the project may provide them.
+      return results.asList()
+    }
+    for (symFile in symFiles) {
+      val responses = send(pending.map { formatRequest(symFile, offsets[it]) })
+      for ((i, response) in pending.zip(responses)) {
+        if (response == null) {
+          failed[i] = true
+        }
+        else {
+          results[i] = parseResponse(response, module)
         }
-        response
-      })
-      val response : List<String>
-      try {
-        response = future.get(timeoutMsc, TimeUnit.MILLISECONDS)
-      } catch (e: TimeoutException) {
-        getLogger().warn("llvm-symbolizer timed out", e)
-        stop()
-        continue
-      } catch (e: ExecutionException) {
-        getLogger().warn("llvm-symbolizer communication failed", e)
-        stop()
-        continue
       }
+      pending = pending.filter { results[it] == null }
+      if (pending.isEmpty()) {
+        break
+      }
+    }
+
+    for (i in offsets.indices) {
+      if (!failed[i]) {
+        cache[SymbolKey(abiArch, module, offsets[i])] = CachedSymbol(results[i])
+      }
+    }
+    return results.asList()
+  }
 
-      val result = parseResponse(response, module)
-      if (result != null)
-        return result
+  /**
+   * Sends the requests to the symbolizer processes and waits for their responses.
+   *
+   * @return the response of every request, or null for the requests whose symbolizer process failed or timed out.
+   */
+  private fun send(requests: List<String>): List<List<String>?> {
+    val holders = getProcHolders(Math.min(processCount, (requests.size + MIN_REQUESTS_PER_PROCESS - 1) / MIN_REQUESTS_PER_PROCESS))
+    val chunkSize = (requests.size + holders.size - 1) / holders.size
+    val futures = holders.mapIndexed { index, holder ->
+      holder to holder.send(requests.subList(Math.min(index * chunkSize, requests.size),
+                                             Math.min((index + 1) * chunkSize, requests.size)))
     }
 
-    return null
+    val responses = mutableListOf<List<String>?>()
+    for ((holder, holderFutures) in futures) {
+      var failed = false
+      for (future in holderFutures) {
+        if (failed) {
+          // The process was stopped, the remaining requests won't be answered.
+          responses.add(null)
+          continue
+        }
+        // Responses are read in order, so each of them is given its own timeout once the previous one came back.
+        try {
+          responses.add(future.get(timeoutMsc, TimeUnit.MILLISECONDS))
+        }
+        catch (e: TimeoutException) {
+          getLogger().warn("llvm-symbolizer timed out", e)
+          failed = true
+        }
+        catch (e: ExecutionException) {
+          getLogger().warn("llvm-symbolizer communication failed", e)
+          failed = true
+        }
+        if (failed) {
+          stop(holder)
+          responses.add(null)
+        }
+      }
+    }
+    return responses
   }
 
-  private fun getProcHolder() : ProcessHolder {
-    var holder = procHolder
-    if (holder == null || !holder.process.isAlive) {
-      start()
-      holder = procHolder!! // procHolder must't be null after start()
+  /**
+   * @return the given number of running symbolizer processes, starting the ones that are not running anymore.
+   */
+  @Synchronized
+  private fun getProcHolders(count: Int): List<ProcessHolder> {
+    val result = mutableListOf<ProcessHolder>()
+    for (i in 0 until Math.max(1, count)) {
+      val index = nextProcHolder
+      nextProcHolder = (nextProcHolder + 1) % processCount
+      var holder = procHolders[index]
+      if (holder == null || !holder.process.isAlive) {
+        holder?.dispose()
+        holder = start()
+        procHolders[index] = holder
+      }
+      result.add(holder)
     }
-    return holder
+    return result
   }
 
   private fun formatRequest(symFile: File, offset: Long): String {
@@ -126,31 +200,127 @@ class LlvmSymbolizer(private val symbolizerExe: String,
     return Symbol(name, module, sourceFile, lineNumber)
   }
 
-  private fun start() {
-    if (procHolder != null)
-      stop()
-
+  private fun start(): ProcessHolder {
     val builder = ProcessBuilder(symbolizerExe)
     val process = builder.start()
     if (!process.isAlive) {
       throw IOException("Symbolizer process is not alive. Executable: $symbolizerExe")
     }
+    return ProcessHolder(process)
+  }
 
-    val stdin = OutputStreamWriter(process.outputStream, Charsets.UTF_8)
-    val stdout = BufferedReader(InputStreamReader(process.inputStream, Charsets.UTF_8))
-    procHolder = ProcessHolder(process, stdout, stdin)
+  @Synchronized
+  private fun stop(holder: ProcessHolder) {
+    holder.dispose()
+    for (i in procHolders.indices) {
+      if (procHolders[i] === holder) {
+        procHolders[i] = null
+      }
+    }
   }
 
+  @Synchronized
   override fun stop() {
-    procHolder?.dispose()
-    procHolder = null
+    for (i in procHolders.indices) {
+      procHolders[i]?.dispose()
+      procHolders[i] = null
+    }
   }
 
-  private class ProcessHolder(val process: Process,
-                              val stdout: BufferedReader,
-                              val stdin: OutputStreamWriter) : Disposable {
+  /**
+   * A running llvm-symbolizer process. Requests are written by one thread and responses are read by another one, which completes the
+   * futures of the requests in order.
+   */
+  private class ProcessHolder(val process: Process) : Disposable {
+    private val stdin = BufferedWriter(OutputStreamWriter(process.outputStream, Charsets.UTF_8))
+    private val stdout = BufferedReader(InputStreamReader(process.inputStream, Charsets.UTF_8))
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor()
+    private val reader: ExecutorService = Executors.newSingleThreadExecutor()
+    private val pending = LinkedBlockingQueue<CompletableFuture<List<String>>>()
+
+    init {
+      reader.execute(this::readResponses)
+    }
+
+    fun send(requests: List<String>): List<CompletableFuture<List<String>>> {
+      val futures = requests.map { CompletableFuture<List<String>>() }
+      writer.execute {
+        try {
+          for ((request, future) in requests.zip(futures)) {
+            // Queue the future first, so that the reader finds it when the response comes back.
+            pending.add(future)
+            stdin.write(request)
+          }
+          stdin.flush()
+        }
+        catch (e: IOException) {
+          futures.forEach { it.completeExceptionally(e) }
+        }
+      }
+      return futures
+    }
+
+    private fun readResponses() {
+      try {
+        while (true) {
+          val response = readResponse() ?: break
+          pending.poll()?.complete(response)
+        }
+      }
+      catch (e: IOException) {
+        // The process was stopped, which fails the requests left below.
+      }
+      val exception = IOException("llvm-symbolizer output ended")
+      while (true) {
+        val future = pending.poll() ?: break
+        future.completeExceptionally(exception)
+      }
+    }
+
+    /**
+     * @return the lines of the next response, or null if the output of the process ended.
+     */
+    private fun readResponse(): List<String>? {
+      val response: MutableList<String> = mutableListOf()
+      while (true) {
+        val responseLine = stdout.readLine() ?: return null
+        if (responseLine.isEmpty()) {
+          return response
+        }
+        response.add(responseLine)
+      }
+    }
+
     override fun dispose() {
       process.destroy()
+      writer.shutdownNow()
+      reader.shutdown()
+    }
+  }
+
+  private data class SymbolKey(val abiArch: String, val module: String, val offset: Long)
+
+  /**
+   * The result of symbolizing an offset, which is cached even when no symbol was found.
+   */
+  private class CachedSymbol(val symbol: Symbol?)
+
+  /**
+   * Least recently used symbols.
+   */
+  private class SymbolCache(private val capacity: Int) {
+    private val symbols = object : LinkedHashMap<SymbolKey, CachedSymbol>(16, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<SymbolKey, CachedSymbol>?): Boolean {
+        return size > capacity
+      }
+    }
+
+    @Synchronized
+    operator fun get(key: SymbolKey): CachedSymbol? = symbols[key]
+
+    @Synchronized
+    operator fun set(key: SymbolKey, symbol: CachedSymbol) {
+      symbols[key] = symbol
     }
   }
-}
\ No newline at end of file
+}
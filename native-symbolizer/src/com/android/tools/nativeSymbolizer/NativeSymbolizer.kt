@@ -39,6 +39,18 @@ interface NativeSymbolizer {
    */
   @Throws(IOException::class)
   fun symbolize(abiArch: String, module: String, offset: Long): Symbol?
+
+  /**
+   * Obtains information about the functions (symbols) located at the given offsets in a given module. Symbolizing several offsets at once
+   * is usually faster than symbolizing them one by one, which is what the default implementation does.
+   * @return symbols info of every offset, or null for the offsets whose symbol can't be found
+   */
+  @JvmDefault
+  @Throws(IOException::class)
+  fun symbolize(abiArch: String, module: String, offsets: List<Long>): List<Symbol?> {
+    return offsets.map { symbolize(abiArch, module, it) }
+  }
+
   fun stop()
 }
 
@@ -26,6 +26,7 @@ import com.intellij.openapi.module.ModuleManager
 import com.intellij.openapi.project.Project
 import java.io.File
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Given a map of possible symbols locations finds symbol files
@@ -33,12 +34,27 @@ import java.util.*
  */
 class SymbolFilesLocator(private val cpuToSymbolDirs: Map<String, Set<File>>) {
 
+  /**
+   * Symbol files found so far, by CPU architecture and module base name. Modules without symbol files aren't cached, so that
+   * symbols built after the first lookup, e.g. by a later build of the project, are still found.
+   */
+  private val symbolFiles = ConcurrentHashMap<Pair<String, String>, List<File>>()
+
   fun findSymbolFiles(cpuArch: String, module: String): List<File> {
-    // TODO (ezemetsov): Add a cache
+    val baseModuleName = File(File(module).name).nameWithoutExtension
+    val key = Pair(cpuArch, baseModuleName)
+    symbolFiles[key]?.let { return it }
+    val files = listSymbolFiles(cpuArch, baseModuleName)
+    if (files.isNotEmpty()) {
+      symbolFiles[key] = files
+    }
+    return files
+  }
+
+  private fun listSymbolFiles(cpuArch: String, baseModuleName: String): List<File> {
     // Just look in all dirs from the map and find files with the same
     // basename as a given device module.
     val symDirs = cpuToSymbolDirs.getOrDefault(cpuArch, setOf<File>()).toList()
-    val baseModuleName = File(File(module).name).nameWithoutExtension
     val symNameCandidates = arrayListOf(baseModuleName + ".so", baseModuleName + ".dwo")
     val result = mutableListOf<File>()
     for (dir in symDirs) {
@@ -158,6 +158,39 @@ class LlvmSymbolizerTest {
     }
   }
 
+  @Test
+  fun testSymbolizeBatch() {
+    val symbolizer = createSymbolizer()
+    for (arch in architectures) {
+      val expectedSymbolsFile = Paths.get(testDataDir, arch, EXPECTED_SYMBOLS_FILE_NAME).toFile()
+      val expectedNames = mutableListOf<String>()
+      val offsets = mutableListOf<Long>()
+      for (line in expectedSymbolsFile.readLines()) {
+        val symParts = line.split('|')
+        // +1 to get an address within the function, rather than function start address
+        offsets.add(symParts[0].toLong(16) + 1)
+        expectedNames.add(symParts[1])
+      }
+      // An unknown offset in the middle of the batch doesn't shift the other results.
+      offsets.add(offsets.size / 2, 0xffffffffff)
+      expectedNames.add(expectedNames.size / 2, "")
+
+      val symbols = symbolizer.symbolize(arch, LIB_FILE_NAME, offsets)
+      Assert.assertEquals(offsets.size, symbols.size)
+      for ((name, symbol) in expectedNames.zip(symbols)) {
+        if (name.isEmpty()) {
+          Assert.assertNull(symbol)
+        }
+        else {
+          Assert.assertEquals(name, symbol!!.name)
+        }
+      }
+      // Symbols are then served from the cache, even after the symbolizer processes are stopped.
+      symbolizer.stop()
+      Assert.assertEquals(symbols, symbolizer.symbolize(arch, LIB_FILE_NAME, offsets))
+    }
+  }
+
   @Test
   fun testUnknownSymbols() {
     val symbolizer = createSymbolizer()
@@ -168,6 +201,20 @@ class LlvmSymbolizerTest {
     Assert.assertNull(sym)
   }
 
+  @Test
+  fun testSymbolsAddedAfterALookupAreFound() {
+    val symbolDir = FileUtil.createTempDirectory("llvm-symbolizer", "added-symbols-test", true)
+    val symbolizer = LlvmSymbolizer(getLlvmSymbolizerPath(), SymbolFilesLocator(mapOf(Pair("x86", setOf(symbolDir)))))
+    val symParts = Paths.get(testDataDir, "x86", EXPECTED_SYMBOLS_FILE_NAME).toFile().readLines().first().split('|')
+    // +1 to get an address within the function, rather than function start address
+    val offsets = listOf(symParts[0].toLong(16) + 1)
+    Assert.assertEquals(listOf(null), symbolizer.symbolize("x86", LIB_FILE_NAME, offsets))
+
+    // Symbols that were missing because their file wasn't there yet, e.g. before a build, aren't cached.
+    FileUtil.copy(Paths.get(testDataDir, "x86", LIB_FILE_NAME).toFile(), File(symbolDir, LIB_FILE_NAME))
+    Assert.assertEquals(symParts[1], symbolizer.symbolize("x86", LIB_FILE_NAME, offsets)[0]!!.name)
+  }
+
   fun getSymDirMap(): Map<String, Set<File>> {
     val result: MutableMap<String, Set<File>> = hashMapOf()
     for (arch in architectures) {
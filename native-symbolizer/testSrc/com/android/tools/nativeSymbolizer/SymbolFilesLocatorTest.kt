@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import org.junit.Assert
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SymbolFilesLocatorTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun testFindsSymbolFilesAddedAfterAnEmptyLookup() {
+    val symbolDir = tempFolder.newFolder("x86")
+    val locator = SymbolFilesLocator(mapOf("x86" to setOf(symbolDir)))
+    val module = "/data/app/com.someapp.name-abcd09876abds==/lib/x86/libnative-lib.so"
+    Assert.assertTrue(locator.findSymbolFiles("x86", module).isEmpty())
+
+    val symbolFile = symbolDir.resolve("libnative-lib.so")
+    Assert.assertTrue(symbolFile.createNewFile())
+    Assert.assertEquals(listOf(symbolFile), locator.findSymbolFiles("x86", module))
+
+    // Symbol files that were found are kept, even if the directory changes later.
+    Assert.assertTrue(symbolFile.delete())
+    Assert.assertEquals(listOf(symbolFile), locator.findSymbolFiles("x86", module))
+  }
+}
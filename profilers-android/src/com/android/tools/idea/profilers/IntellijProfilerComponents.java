@@ -19,6 +19,7 @@ import com.android.tools.idea.profilers.dataviewer.IntellijDataViewer;
 import com.android.tools.idea.profilers.dataviewer.IntellijImageDataViewer;
 import com.android.tools.idea.profilers.profilingconfig.CpuProfilingConfigurationsDialog;
 import com.android.tools.idea.profilers.stacktrace.IntelliJStackTraceGroup;
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.ContentType;
 import com.android.tools.profilers.ContextMenuInstaller;
 import com.android.tools.profilers.ExportDialog;
@@ -115,7 +116,7 @@ public class IntellijProfilerComponents implements IdeProfilerComponents {
 
   @NotNull
   @Override
-  public DataViewer createDataViewer(@NotNull byte[] content, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint) {
+  public DataViewer createDataViewer(@NotNull ByteString content, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint) {
     // User isn't expected to specify INVALID; it's only meant as an internal fallback
     assert(styleHint != DataViewer.Style.INVALID);
 
@@ -127,9 +128,13 @@ public class IntellijProfilerComponents implements IdeProfilerComponents {
       return viewer;
     }
     if (styleHint == DataViewer.Style.RAW) {
-      return contentType.isSupportedTextType()
-             ? IntellijDataViewer.createRawTextViewer(content)
-             : IntellijDataViewer.createInvalidViewer();
+      if (!contentType.isSupportedTextType()) {
+        return IntellijDataViewer.createInvalidViewer();
+      }
+      // A text area lays out every line of its content up front, which takes too long for large payloads.
+      return content.size() > DataViewer.MAX_FORMATTED_CONTENT_LENGTH
+             ? IntellijDataViewer.createLargeTextViewer(myProject, content, contentType.getFileType())
+             : IntellijDataViewer.createRawTextViewer(content);
     }
     else {
       assert (styleHint == DataViewer.Style.PRETTY);
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.profilers.dataviewer;
 
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.ProfilerFonts;
 import com.android.tools.profilers.dataviewer.DataViewer;
 import com.intellij.codeInsight.actions.ReformatCodeProcessor;
@@ -34,6 +35,7 @@ import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileFactory;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -51,8 +53,8 @@ public final class IntellijDataViewer implements DataViewer {
   /**
    * Create a data viewer that renders its content as is, without any attempt to clean it up.
    */
-  public static IntellijDataViewer createRawTextViewer(@NotNull byte[] content) {
-    JTextArea textArea = new JTextArea(new String(content));
+  public static IntellijDataViewer createRawTextViewer(@NotNull ByteString content) {
+    JTextArea textArea = new JTextArea(content.toString(Charset.defaultCharset()));
     textArea.setLineWrap(true);
     textArea.setFont(ProfilerFonts.H4_FONT);
     textArea.setEditable(false);
@@ -60,28 +62,40 @@ public final class IntellijDataViewer implements DataViewer {
     return new IntellijDataViewer(textArea, Style.RAW);
   }
 
+  /**
+   * Create a data viewer that shows large content as is in an editor, which, unlike a text area, doesn't lay out all of its lines up front.
+   * The content is highlighted if a file type is provided.
+   */
+  @NotNull
+  public static IntellijDataViewer createLargeTextViewer(@NotNull Project project, @NotNull ByteString content, @Nullable FileType fileType) {
+    try {
+      Document document = EditorFactory.getInstance().createDocument(toDocumentText(content).toCharArray());
+      return createEditorViewer(project, document, fileType, Style.RAW);
+    }
+    catch (Exception | AssertionError e) {
+      // Exceptions and AssertionErrors can be thrown by editorFactory.createDocument and editorFactory.createViewer
+      return createInvalidViewer();
+    }
+  }
+
   /**
    * Create a data viewer that automatically formats the content it receives. In cases where it is
    * not able to do this, or it is not desirable to do this (e.g. plain text), it returns a
    * {@link Style#RAW} viewer instead. Be sure to check {@link IntellijDataViewer#getStyle()} if
-   * this matters for your use-case.
+   * this matters for your use-case. Content larger than {@link DataViewer#MAX_FORMATTED_CONTENT_LENGTH} is never formatted.
    *
    * @param fileType An optional file type that can be associated with this content, which,
    *                 if provided, hints to the editor how it should format it.
    */
   @NotNull
   public static IntellijDataViewer createPrettyViewerIfPossible(@NotNull Project project,
-                                                                @NotNull byte[] content,
+                                                                @NotNull ByteString content,
                                                                 @Nullable FileType fileType) {
+    if (content.size() > MAX_FORMATTED_CONTENT_LENGTH) {
+      return createLargeTextViewer(project, content, fileType);
+    }
     try {
-      EditorFactory editorFactory = EditorFactory.getInstance();
-
-      // We need to support documents with \r newlines in them (since network payloads can contain
-      // data from any OS); however, Document will assert if it finds a \r as a line ending in its
-      // content and the user will see a mysterious "NO PREVIEW" message without any information
-      // on why. The Document class allows you to change a setting to allow \r, but this breaks
-      // soft wrapping in the editor.
-      String contentStr = new String(content).replace("\r\n", "\n");
+      String contentStr = toDocumentText(content);
 
       Style style = Style.RAW;
       Document document = null;
@@ -104,35 +118,10 @@ public final class IntellijDataViewer implements DataViewer {
       }
 
       if (document == null) {
-        document = editorFactory.createDocument(contentStr.toCharArray());
+        document = EditorFactory.getInstance().createDocument(contentStr.toCharArray());
       }
 
-      EditorEx editor = (EditorEx)editorFactory.createViewer(document);
-      editor.setCaretVisible(false);
-      EditorSettings settings = editor.getSettings();
-
-      settings.setLineNumbersShown(false);
-      settings.setLineMarkerAreaShown(false);
-      settings.setUseSoftWraps(true);
-
-      settings.setSoftMargins(Collections.emptyList());
-      settings.setRightMarginShown(false);
-
-      settings.setFoldingOutlineShown(true);
-      CodeFoldingManager.getInstance(project).updateFoldRegions(editor);
-
-      if (fileType != null) {
-        editor.setHighlighter(EditorHighlighterFactory.getInstance().createEditorHighlighter(project, fileType));
-      }
-
-      Disposer.register(project, new Disposable() {
-        @Override
-        public void dispose() {
-          editorFactory.releaseEditor(editor);
-        }
-      });
-
-      return new IntellijDataViewer(editor.getComponent(), style);
+      return createEditorViewer(project, document, fileType, style);
     }
     catch (Exception | AssertionError e) {
       // Exceptions and AssertionErrors can be thrown by editorFactory.createDocument and editorFactory.createViewer
@@ -140,6 +129,50 @@ public final class IntellijDataViewer implements DataViewer {
     }
   }
 
+  @NotNull
+  private static String toDocumentText(@NotNull ByteString content) {
+    // We need to support documents with \r newlines in them (since network payloads can contain
+    // data from any OS); however, Document will assert if it finds a \r as a line ending in its
+    // content and the user will see a mysterious "NO PREVIEW" message without any information
+    // on why. The Document class allows you to change a setting to allow \r, but this breaks
+    // soft wrapping in the editor.
+    return content.toString(Charset.defaultCharset()).replace("\r\n", "\n");
+  }
+
+  @NotNull
+  private static IntellijDataViewer createEditorViewer(@NotNull Project project,
+                                                       @NotNull Document document,
+                                                       @Nullable FileType fileType,
+                                                       @NotNull Style style) {
+    EditorFactory editorFactory = EditorFactory.getInstance();
+    EditorEx editor = (EditorEx)editorFactory.createViewer(document);
+    editor.setCaretVisible(false);
+    EditorSettings settings = editor.getSettings();
+
+    settings.setLineNumbersShown(false);
+    settings.setLineMarkerAreaShown(false);
+    settings.setUseSoftWraps(true);
+
+    settings.setSoftMargins(Collections.emptyList());
+    settings.setRightMarginShown(false);
+
+    settings.setFoldingOutlineShown(true);
+    CodeFoldingManager.getInstance(project).updateFoldRegions(editor);
+
+    if (fileType != null) {
+      editor.setHighlighter(EditorHighlighterFactory.getInstance().createEditorHighlighter(project, fileType));
+    }
+
+    Disposer.register(project, new Disposable() {
+      @Override
+      public void dispose() {
+        editorFactory.releaseEditor(editor);
+      }
+    });
+
+    return new IntellijDataViewer(editor.getComponent(), style);
+  }
+
   @NotNull
   public static IntellijDataViewer createInvalidViewer() {
     JComponent component = new JLabel("No preview available", SwingConstants.CENTER);
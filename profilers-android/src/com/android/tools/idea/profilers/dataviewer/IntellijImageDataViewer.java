@@ -16,10 +16,11 @@
 package com.android.tools.idea.profilers.dataviewer;
 
 import com.android.tools.idea.profilers.ResizableImage;
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.dataviewer.ImageDataViewer;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import org.jetbrains.annotations.NotNull;
@@ -36,8 +37,8 @@ public final class IntellijImageDataViewer implements ImageDataViewer {
    * represent an unknown image type, in which case, {@code null} is returned.
    */
   @Nullable
-  public static IntellijImageDataViewer createImageViewer(@NotNull byte[] content) {
-    try (ByteArrayInputStream inputStream = new ByteArrayInputStream(content)) {
+  public static IntellijImageDataViewer createImageViewer(@NotNull ByteString content) {
+    try (InputStream inputStream = content.newInput()) {
       BufferedImage image = ImageIO.read(inputStream);
       if (image == null) {
         return null;
@@ -23,6 +23,7 @@ import com.android.tools.datastore.energy.PowerProfile;
 import com.android.tools.idea.transport.TransportEventPreprocessor;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Cpu;
+import com.android.tools.profiler.proto.Energy;
 import com.android.tools.profiler.proto.Network;
 import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayList;
@@ -47,6 +48,7 @@ public class EnergyUsagePreprocessor implements TransportEventPreprocessor {
   @Nullable private CpuConfig myCpuConfig = null;
   @Nullable private Cpu.CpuUsageData myLastCpuUsageData = null;
   @NotNull private PowerProfile.NetworkType myLastNetworkType = PowerProfile.NetworkType.NONE;
+  @Nullable private BatteryModel.SampleRange mySampleRange = null;
 
   public EnergyUsagePreprocessor(@NotNull LogService logService) {
     this(logService, new BatteryModel(), DEFAULT_SAMPLE_INTERVAL_NS);
@@ -161,14 +163,20 @@ public class EnergyUsagePreprocessor implements TransportEventPreprocessor {
       myDataStartTimestampNs = event.getTimestamp();
     }
     if (event.getTimestamp() - myDataStartTimestampNs > mySampleInterval) {
-      List<Common.Event> result = new ArrayList<>();
-      myBatteryModel.getSamplesBetween(myDataStartTimestampNs, event.getTimestamp()).forEach(
-        sample -> result.add(Common.Event.newBuilder()
-                               .setPid(event.getPid())
-                               .setTimestamp(sample.getTimestamp())
-                               .setKind(Common.Event.Kind.ENERGY_USAGE)
-                               .setEnergyUsage(sample.getEnergyUsage())
-                               .build()));
+      BatteryModel.SampleRange samples = myBatteryModel.getSampleRange(myDataStartTimestampNs, event.getTimestamp(), mySampleRange);
+      List<Common.Event> result = new ArrayList<>(samples.size());
+      for (int i = 0; i < samples.size(); ++i) {
+        result.add(Common.Event.newBuilder()
+                     .setPid(event.getPid())
+                     .setTimestamp(samples.getTimestamp(i))
+                     .setKind(Common.Event.Kind.ENERGY_USAGE)
+                     .setEnergyUsage(Energy.EnergyUsageData.newBuilder()
+                                       .setCpuUsage(samples.getCpuUsage(i))
+                                       .setNetworkUsage(samples.getNetworkUsage(i))
+                                       .setLocationUsage(samples.getLocationUsage(i)))
+                     .build());
+      }
+      mySampleRange = samples;
       myDataStartTimestampNs = event.getTimestamp();
       return result;
     }
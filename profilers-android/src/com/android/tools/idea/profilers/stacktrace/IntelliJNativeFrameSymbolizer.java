@@ -21,7 +21,13 @@ import com.android.tools.profiler.proto.Memory.NativeCallStack;
 import com.android.tools.profilers.stacktrace.NativeFrameSymbolizer;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Wrapper for {@link NativeSymbolizer} to return a NativeCallStack.NativeFrame instead of the Symbol class which profilers don't have a
@@ -52,7 +58,44 @@ public class IntelliJNativeFrameSymbolizer implements NativeFrameSymbolizer {
     catch (IOException | RuntimeException e) {
       getLogger().warn(e);
     }
+    return toSymbolizedFrame(unsymbolizedFrame, instructionOffset, symbol);
+  }
+
+  @NotNull
+  @Override
+  public List<NativeCallStack.NativeFrame> symbolize(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    // Symbolize the frames of each module in one batch.
+    Map<String, List<Integer>> moduleFrames = new LinkedHashMap<>();
+    for (int i = 0; i < unsymbolizedFrames.size(); ++i) {
+      moduleFrames.computeIfAbsent(unsymbolizedFrames.get(i).getModuleName(), module -> new ArrayList<>()).add(i);
+    }
 
+    NativeCallStack.NativeFrame[] symbolizedFrames = new NativeCallStack.NativeFrame[unsymbolizedFrames.size()];
+    for (Map.Entry<String, List<Integer>> entry : moduleFrames.entrySet()) {
+      List<Long> instructionOffsets = new ArrayList<>();
+      for (int index : entry.getValue()) {
+        instructionOffsets.add(getOffsetOfPreviousInstruction(unsymbolizedFrames.get(index).getModuleOffset()));
+      }
+      List<Symbol> symbols = null;
+      try {
+        symbols = mySymbolizer.symbolize(abi, entry.getKey(), instructionOffsets);
+      }
+      catch (IOException | RuntimeException e) {
+        getLogger().warn(e);
+      }
+      for (int i = 0; i < entry.getValue().size(); ++i) {
+        int index = entry.getValue().get(i);
+        symbolizedFrames[index] =
+          toSymbolizedFrame(unsymbolizedFrames.get(index), instructionOffsets.get(i), symbols == null ? null : symbols.get(i));
+      }
+    }
+    return Arrays.asList(symbolizedFrames);
+  }
+
+  @NotNull
+  private static NativeCallStack.NativeFrame toSymbolizedFrame(@NotNull NativeCallStack.NativeFrame unsymbolizedFrame,
+                                                               long instructionOffset,
+                                                               @Nullable Symbol symbol) {
     NativeCallStack.NativeFrame.Builder builder = unsymbolizedFrame.toBuilder();
     if (symbol == null) {
       String unfoundSymbolName = String.format("0x%x", instructionOffset);
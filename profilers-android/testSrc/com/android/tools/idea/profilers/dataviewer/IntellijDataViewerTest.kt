@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.profilers.dataviewer
 
+import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.profilers.dataviewer.DataViewer
 import com.google.common.truth.Truth.assertThat
 import com.intellij.json.JsonFileType
@@ -25,7 +26,7 @@ import com.intellij.testFramework.PlatformTestCase
 class IntellijDataViewerTest : PlatformTestCase() {
   fun testCanCreateRawTextViewer() {
     val dummyText = "ASDF ".repeat(100)
-    val viewer = IntellijDataViewer.createRawTextViewer(dummyText.toByteArray())
+    val viewer = IntellijDataViewer.createRawTextViewer(ByteString.copyFromUtf8(dummyText))
 
     assertThat(viewer.style).isEqualTo(DataViewer.Style.RAW)
     assertThat(viewer.component.preferredSize.height).isGreaterThan(0)
@@ -33,7 +34,7 @@ class IntellijDataViewerTest : PlatformTestCase() {
 
   fun testCanCreatePrettyEditorViewer() {
     val jsonText = """{product: "Studio", version: 3.14}"""
-    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, jsonText.toByteArray(), JsonFileType.INSTANCE)
+    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, ByteString.copyFromUtf8(jsonText), JsonFileType.INSTANCE)
 
     assertThat(viewer.style).isEqualTo(DataViewer.Style.PRETTY)
     assertThat(viewer.component.preferredSize.height).isGreaterThan(0)
@@ -42,13 +43,23 @@ class IntellijDataViewerTest : PlatformTestCase() {
 
   fun testPlainTextCreatesPlainEditorViewerInsteadOfPrettyEditorViewer() {
     val dummyText = "ASDF ".repeat(100)
-    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, dummyText.toByteArray(), PlainTextFileType.INSTANCE)
+    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, ByteString.copyFromUtf8(dummyText), PlainTextFileType.INSTANCE)
 
     assertThat(viewer.style).isEqualTo(DataViewer.Style.RAW)
     assertThat(viewer.component.preferredSize.height).isGreaterThan(0)
     assertExpectedEditorSettings(viewer)
   }
 
+  fun testLargeContentIsNotFormatted() {
+    val jsonText = """{"product": "Studio", "version": 3.14}, """.repeat(DataViewer.MAX_FORMATTED_CONTENT_LENGTH / 20)
+    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, ByteString.copyFromUtf8("[$jsonText]"), JsonFileType.INSTANCE)
+
+    assertThat(viewer.style).isEqualTo(DataViewer.Style.RAW)
+    assertExpectedEditorSettings(viewer)
+    val editor = EditorFactory.getInstance().allEditors.find { it.component == viewer.component }!!
+    assertThat(editor.document.text).isEqualTo("[$jsonText]")
+  }
+
   fun testCanCreateInvalidViewer() {
     val viewer = IntellijDataViewer.createInvalidViewer()
 
@@ -58,7 +69,7 @@ class IntellijDataViewerTest : PlatformTestCase() {
 
   fun testHandlesTextWithWindowsNewlines() {
     val textWithWindowsNewlines = "Content\r\nWith\r\nWindows\r\nNewlines"
-    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, textWithWindowsNewlines.toByteArray(), PlainTextFileType.INSTANCE)
+    val viewer = IntellijDataViewer.createPrettyViewerIfPossible(project, ByteString.copyFromUtf8(textWithWindowsNewlines), PlainTextFileType.INSTANCE)
 
     // At one point, windows newlines would have caused an exception, returning an invalid viewer
     assertThat(viewer.style).isNotEqualTo(DataViewer.Style.INVALID)
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.profilers.dataviewer
 
+import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.profilers.dataviewer.DataViewer
 import com.google.common.truth.Truth.assertThat
 import com.intellij.testFramework.PlatformTestCase
@@ -22,7 +23,7 @@ import com.intellij.testFramework.PlatformTestCase
 class IntellijImageDataViewerTest : PlatformTestCase() {
   fun testCanCreateImageViewer() {
     val viewer = IntellijImageDataViewer.createImageViewer(
-      IntellijImageDataViewerTest::class.java.getResource("/image.png").readBytes())!!
+      ByteString.copyFrom(IntellijImageDataViewerTest::class.java.getResource("/image.png").readBytes()))!!
 
     assertThat(viewer.style).isEqualTo(DataViewer.Style.RAW)
     assertThat(viewer.image.width).isGreaterThan(0)
@@ -31,7 +32,7 @@ class IntellijImageDataViewerTest : PlatformTestCase() {
   }
 
   fun testInvalidImageViewerReturnsNull() {
-    val invalidViewer = IntellijImageDataViewer.createImageViewer("invalid".toByteArray())
+    val invalidViewer = IntellijImageDataViewer.createImageViewer(ByteString.copyFromUtf8("invalid"))
 
     assertThat(invalidViewer).isNull()
   }
@@ -21,6 +21,8 @@ import static com.google.common.truth.Truth.assertThat;
 import com.android.tools.nativeSymbolizer.NativeSymbolizer;
 import com.android.tools.nativeSymbolizer.Symbol;
 import com.android.tools.profiler.proto.Memory.NativeCallStack;
+import java.util.Arrays;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Test;
@@ -58,6 +60,22 @@ public class IntelliJNativeFrameSymbolizerTest {
     assertThat(symbolizedFrame2).isEqualTo(expectedSymbolizedFrame2);
   }
 
+  @Test
+  public void testSymbolizeBatch() {
+    IntelliJNativeFrameSymbolizer frameSymbolizer = new IntelliJNativeFrameSymbolizer(new FakeNativeSymbolizer());
+    NativeCallStack.NativeFrame frame1 = NativeCallStack.NativeFrame.newBuilder().setModuleName("test1").setModuleOffset(100).build();
+    NativeCallStack.NativeFrame frame2 = NativeCallStack.NativeFrame.newBuilder().setModuleName("test2").setModuleOffset(200).build();
+    NativeCallStack.NativeFrame frame3 = NativeCallStack.NativeFrame.newBuilder().setModuleName("test1").setModuleOffset(300).build();
+
+    // Frames of the same module are symbolized together, but the results keep the order of the frames.
+    List<NativeCallStack.NativeFrame> frames = Arrays.asList(frame1, frame2, frame3);
+    List<NativeCallStack.NativeFrame> symbolizedFrames = frameSymbolizer.symbolize("arm", frames);
+    assertThat(symbolizedFrames).hasSize(3);
+    for (int i = 0; i < frames.size(); ++i) {
+      assertThat(symbolizedFrames.get(i)).isEqualTo(frameSymbolizer.symbolize("arm", frames.get(i)));
+    }
+  }
+
   private static class FakeNativeSymbolizer implements NativeSymbolizer {
     @Nullable
     @Override
@@ -22,6 +22,10 @@ import trebuchet.importers.ImportFeedback
 import trebuchet.io.*
 import trebuchet.util.contains
 import trebuchet.util.searchFor
+import java.io.InputStream
+import java.util.Base64
+import java.util.zip.GZIPInputStream
+import java.util.zip.InflaterInputStream
 
 class SystraceExtractor : Extractor {
     private var startIndex: Int = 0
@@ -42,7 +46,7 @@ class SystraceExtractor : Extractor {
                 stream.onWindowReleased = { window -> processWindow(window, pipe) }
                 endIndex = END.find(stream, startIndex)
                 if (endIndex == -1) {
-                    endIndex = stream.endIndex
+                    endIndex = stream.endIndex + 1
                 }
                 stream.onWindowReleased = null
                 stream.windows.forEach { processWindow(it, pipe) }
@@ -50,7 +54,7 @@ class SystraceExtractor : Extractor {
             }
             thread.start()
 
-            processSubStream(SubStream(pipe))
+            processSubStream(openSection(SubStream(pipe)))
 
             thread.join()
 
@@ -62,13 +66,105 @@ class SystraceExtractor : Extractor {
         override fun next(): DataSlice? = pipe.next()
     }
 
+    /**
+     * Peeks at the start of a trace-data section to tell plain text from base64 encoded zlib or gzip data. Encoded sections are decoded
+     * as the importer reads them, so they never have to be held in memory as a whole.
+     */
+    private fun openSection(source: BufferProducer): BufferProducer {
+        val head = mutableListOf<DataSlice>()
+        val prefix = StringBuilder()
+        while (prefix.length < ENCODING_PREFIX_LENGTH) {
+            val slice = source.next() ?: break
+            head.add(slice)
+            for (i in 0 until slice.length) {
+                if (prefix.length == ENCODING_PREFIX_LENGTH) break
+                val c = slice[i].toChar()
+                if (!c.isWhitespace()) prefix.append(c)
+            }
+        }
+        val section = PeekedStream(head, source)
+        if (prefix.length < ENCODING_PREFIX_LENGTH || !prefix.all { BASE64_CHARS.indexOf(it) != -1 }) {
+            return section
+        }
+        val encoded = Base64.getMimeDecoder().wrap(ProducerInputStream(section))
+        return when {
+            prefix.startsWith(GZIP_PREFIX) -> InflatingStream(GZIPInputStream(encoded, DECODED_BUFFER_SIZE), section)
+            ZLIB_PREFIXES.any { prefix.startsWith(it) } -> InflatingStream(InflaterInputStream(encoded), section)
+            else -> section
+        }
+    }
+
+    private class PeekedStream(val head: MutableList<DataSlice>, val source: BufferProducer) : BufferProducer {
+        override fun next(): DataSlice? = if (head.isNotEmpty()) head.removeAt(0) else source.next()
+    }
+
+    private class ProducerInputStream(val source: BufferProducer) : InputStream() {
+        private var slice: DataSlice? = DataSlice()
+        private var index = 0
+
+        // The base64 decoder reads one byte at a time.
+        override fun read(): Int {
+            val current = currentSlice() ?: return -1
+            return current[index++].toInt() and 0xFF
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            val current = currentSlice() ?: return -1
+            val count = minOf(len, current.length - index)
+            System.arraycopy(current.buffer, current.startIndex + index, b, off, count)
+            index += count
+            return count
+        }
+
+        private fun currentSlice(): DataSlice? {
+            var current = slice ?: return null
+            while (index == current.length) {
+                current = source.next() ?: run {
+                    slice = null
+                    return null
+                }
+                slice = current
+                index = 0
+            }
+            return current
+        }
+    }
+
+    /**
+     * Hands out the inflated data in fresh windows of [DECODED_BUFFER_SIZE] bytes, as the reader keeps the windows it was given.
+     */
+    private class InflatingStream(val input: InputStream, val section: BufferProducer) : BufferProducer {
+        override fun next(): DataSlice? {
+            val buffer = ByteArray(DECODED_BUFFER_SIZE)
+            var length = 0
+            while (length < buffer.size) {
+                val read = input.read(buffer, length, buffer.size - length)
+                if (read == -1) break
+                length += read
+            }
+            return if (length == 0) null else DataSlice(buffer, 0, length)
+        }
+
+        override fun close() {
+            try {
+                // Releases the inflater's native memory right away rather than when it is garbage collected.
+                input.close()
+            } finally {
+                // Drain the section so that the thread splitting the html file can move on to the next one.
+                while (section.next() != null) {}
+            }
+        }
+    }
+
     private fun processWindow(window: StreamingReader.Window, pipe: Pipe<DataSlice>) {
         if (window.globalEndIndex >= startIndex && window.globalStartIndex < endIndex) {
-            if (window.globalStartIndex >= startIndex && window.globalEndIndex <= endIndex) {
+            // The window's end index is inclusive, while the section's end index is exclusive.
+            if (window.globalStartIndex >= startIndex && window.globalEndIndex < endIndex) {
                 pipe.add(window.slice)
             } else {
                 val sliceStart = maxOf(startIndex - window.globalStartIndex, 0)
-                val sliceEnd = minOf(endIndex, window.globalEndIndex) - window.globalStartIndex
+                val sliceEnd = minOf(endIndex, window.globalEndIndex + 1) - window.globalStartIndex
                 pipe.add(window.slice.slice(sliceStart, sliceEnd))
             }
         }
@@ -77,6 +173,13 @@ class SystraceExtractor : Extractor {
     private companion object {
         val START = searchFor("""<script class="trace-data" type="application/text">""")
         val END = searchFor("""</script>""")
+
+        const val ENCODING_PREFIX_LENGTH = 16
+        const val DECODED_BUFFER_SIZE = 256 * 1024
+        const val BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/="
+        // Base64 of the gzip magic number and of the common zlib headers.
+        const val GZIP_PREFIX = "H4sI"
+        val ZLIB_PREFIXES = arrayOf("eA", "eF", "eJ", "eN")
     }
 
     object Factory : ExtractorFactory {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package trebuchet.importers.ftrace
+
+import trebuchet.importers.ImportFeedback
+import trebuchet.model.InvalidId
+import trebuchet.model.Model
+import trebuchet.model.SchedulingState
+import trebuchet.model.hasCount
+
+/**
+ * Builds a [Model] from ftrace events that have already been decoded (e.g. from a perfetto trace) instead of from
+ * atrace text lines. Each function mirrors the handler [FtraceImporter] would dispatch to for the equivalent
+ * [FtraceLine], without formatting and re-parsing the line.
+ *
+ * Events are expected to be added in timestamp order. Timestamps are in seconds, like [FtraceLine.timestamp].
+ */
+class FtraceEventImporter(private val feedback: ImportFeedback) {
+    private val state = FtraceImporterState(feedback)
+
+    /**
+     * Equivalent of the trace_event_clock_sync markers written at the start of an atrace capture.
+     *
+     * @param bootTime the time the clocks were sampled, in the same clock as the event timestamps.
+     * @param parentTimestamp the monotonic clock in seconds at [bootTime].
+     * @param realtimeTimestampMs the realtime clock in milliseconds at [bootTime].
+     */
+    fun clockSync(bootTime: Double, parentTimestamp: Double, realtimeTimestampMs: Long) {
+        updateTime(bootTime)
+        state.modelFragment.parentTimestamp = parentTimestamp
+        state.modelFragment.parentTimestampBootTime = bootTime
+        state.modelFragment.realtimeTimestamp = realtimeTimestampMs
+    }
+
+    /**
+     * Should be called for each event with the task that emitted it, before the event itself is added. This is the
+     * equivalent of the "task-pid (tgid)" prefix of an atrace line.
+     *
+     * @param tgid the thread group of [pid] if known, otherwise [InvalidId].
+     * @param task the name of [pid] if known.
+     */
+    fun hintTask(pid: Int, tgid: Int, task: String?) {
+        if (tgid != InvalidId) state.threadFor(pid, tgid, task)
+    }
+
+    fun schedSwitch(timestamp: Double, cpu: Int, prevPid: Int, prevComm: String?, prevState: SchedulingState,
+                    nextPid: Int, nextComm: String?) {
+        updateTime(timestamp)
+        val prevThread = state.threadFor(prevPid)
+        if (prevThread.name == null) {
+            prevThread.hint(name = prevComm)
+        }
+        val nextThread = state.threadFor(nextPid)
+        if (nextThread.name == null) {
+            nextThread.hint(name = nextComm)
+        }
+        prevThread.schedulingStateBuilder.switchState(prevState, timestamp)
+        nextThread.schedulingStateBuilder.switchState(SchedulingState.RUNNING, timestamp)
+        state.cpuFor(cpu).schedulingProcessBuilder.switchProcess(nextThread.process, nextThread, timestamp)
+    }
+
+    fun schedWakeup(timestamp: Double, pid: Int, comm: String?) {
+        updateTime(timestamp)
+        val thread = state.threadFor(pid)
+        if (thread.name == null) {
+            thread.hint(name = comm)
+        }
+        thread.schedulingStateBuilder.switchState(SchedulingState.WAKING, timestamp)
+    }
+
+    /**
+     * Handles the buffer of a print (tracing_mark_write) event, see [TracingMarkerWrite].
+     *
+     * @param pid the thread that wrote the marker.
+     * @param tgid the thread group of [pid] if known, otherwise [InvalidId].
+     * @param task the name of [pid] if known.
+     */
+    fun tracingMarkWrite(timestamp: Double, pid: Int, tgid: Int, task: String?, message: String) {
+        updateTime(timestamp)
+        if (message.isEmpty()) return
+        try {
+            when (message[0].toByte()) {
+                TracingMarkerWrite.Begin -> {
+                    // Begin format: B|<tgid>|<title>
+                    val nameIndex = message.indexOf('|', 2)
+                    val markerTgid = message.substring(2, if (nameIndex == -1) message.length else nameIndex).toInt()
+                    if (tgid != InvalidId && tgid != markerTgid) {
+                        throw IllegalStateException("tgid fight, currently $tgid but trying to set $markerTgid")
+                    }
+                    val name = if (nameIndex == -1) "" else message.substring(nameIndex + 1)
+                    state.threadFor(pid, markerTgid, task).slicesBuilder.beginSlice {
+                        it.startTime = timestamp
+                        it.name = name
+                    }
+                }
+                TracingMarkerWrite.End -> {
+                    // End format: E
+                    val thread = state.threadFor(pid, tgid, task)
+                    thread.slicesBuilder.endSlice {
+                        it.endTime = timestamp
+                        it.populateScheduledSlices(thread.schedulingStateBuilder.slices)
+                    }
+                }
+                TracingMarkerWrite.Counter -> {
+                    // Counter format: C|<tgid>|<name>|<value>
+                    val nameIndex = message.indexOf('|', 2)
+                    val valueIndex = message.indexOf('|', nameIndex + 1)
+                    val markerTgid = message.substring(2, nameIndex).toInt()
+                    val name = message.substring(nameIndex + 1, valueIndex)
+                    val value = readLeadingInt(message, valueIndex + 1)
+                    state.threadFor(pid, markerTgid, task).process.addCounterSample(name, timestamp, value)
+                }
+            }
+        } catch (ex: Exception) {
+            // Match FtraceImporter, which reports malformed lines and moves on to the next one.
+            feedback.reportImportWarning("Failed to parse: '$message'")
+            feedback.reportImportException(ex)
+        }
+    }
+
+    fun cpuFrequency(timestamp: Double, cpu: Int, frequencyKhz: Int) {
+        updateTime(timestamp)
+        state.cpuFor(cpu).frequencies.add(timestamp hasCount frequencyKhz)
+    }
+
+    fun finish(): Model {
+        return Model(state.finish())
+    }
+
+    private fun updateTime(timestamp: Double) {
+        if (state.modelFragment.globalStartTime == 0.0) {
+            state.modelFragment.globalStartTime = timestamp
+        }
+        state.modelFragment.globalEndTime = timestamp
+    }
+
+    /**
+     * Reads an optionally signed int at [start], stopping at the first non digit like [trebuchet.util.BufferReader.readInt].
+     */
+    private fun readLeadingInt(message: String, start: Int): Int {
+        var index = start
+        val negative = index < message.length && message[index] == '-'
+        if (negative) index++
+        var value = 0
+        while (index < message.length && message[index] in '0'..'9') {
+            value = value * 10 + (message[index] - '0')
+            index++
+        }
+        return if (negative) -value else value
+    }
+
+    companion object {
+        // Kernel task state bits as reported in sched_switch's prev_state, see include/linux/sched.h.
+        private const val TASK_INTERRUPTIBLE = 0x0001L
+        private const val TASK_UNINTERRUPTIBLE = 0x0002L
+        private const val TASK_STOPPED = 0x0004L
+        private const val TASK_TRACED = 0x0008L
+        private const val EXIT_DEAD = 0x0010L
+        private const val EXIT_ZOMBIE = 0x0020L
+        private const val TASK_DEAD = 0x0040L
+        private const val TASK_WAKEKILL = 0x0080L
+        private const val TASK_WAKING = 0x0100L
+        private const val TASK_STATE_MASK = 0x01FFL
+
+        /**
+         * Converts the numeric prev_state of a sched_switch event to the [SchedulingState] the atrace text
+         * representation of that state (e.g. "S", "D|K") maps to.
+         */
+        @JvmStatic
+        fun schedulingStateFor(kernelState: Long): SchedulingState {
+            val state = kernelState and TASK_STATE_MASK
+            return when {
+                state == 0L -> SchedulingState.RUNNABLE
+                state and TASK_UNINTERRUPTIBLE != 0L -> when {
+                    state and TASK_WAKEKILL != 0L -> SchedulingState.UNINTR_SLEEP_WAKE_KILL
+                    state and TASK_WAKING != 0L -> SchedulingState.UNINTR_SLEEP_WAKING
+                    else -> SchedulingState.UNINTR_SLEEP
+                }
+                state and TASK_INTERRUPTIBLE != 0L -> SchedulingState.SLEEPING
+                state and TASK_STOPPED != 0L -> SchedulingState.STOPPED
+                state and TASK_TRACED != 0L -> SchedulingState.DEBUG
+                state and EXIT_ZOMBIE != 0L -> SchedulingState.ZOMBIE
+                state and EXIT_DEAD != 0L -> SchedulingState.EXIT_DEAD
+                state and TASK_DEAD != 0L -> SchedulingState.TASK_DEAD
+                state and TASK_WAKEKILL != 0L -> SchedulingState.WAKE_KILL
+                state and TASK_WAKING != 0L -> SchedulingState.WAKING
+                else -> SchedulingState.UNKNOWN
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package trebuchet.importers.ftrace
+
+import trebuchet.io.StreamingReader
+import trebuchet.util.StringCache
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import kotlin.concurrent.thread
+
+/**
+ * Imports an ftrace text dump in three stages that run at the same time: a reader thread cuts the stream into chunks of whole lines,
+ * a pool of workers parses the line headers of each chunk, and the importing thread hands the parsed chunks to a consumer in stream
+ * order. At most a few chunks per worker are in flight, so memory stays bounded however large the trace is.
+ *
+ * [parseChunk] runs on the workers and defaults to [FtraceLineChunk.parse].
+ */
+class FtraceImportPipeline(stringCache: StringCache,
+                           private val chunkSize: Int = DefaultChunkSize,
+                           private val parseChunk: (ByteArray, Int) -> FtraceLineChunk = { bytes, length ->
+                               FtraceLineChunk.parse(bytes, length, stringCache)
+                           }) {
+    companion object {
+        const val DefaultChunkSize = 1 shl 20
+
+        private val WorkerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1)
+        private val Workers: ExecutorService = Executors.newFixedThreadPool(WorkerCount) { runnable ->
+            Thread(runnable, "trebuchet-ftrace-parser").apply { isDaemon = true }
+        }
+        private val EndOfStream: Future<FtraceLineChunk?> = CompletableFuture.completedFuture(null)
+    }
+
+    fun run(stream: StreamingReader, consumer: (FtraceLineChunk) -> Unit) {
+        val parsedChunks = ArrayBlockingQueue<Future<FtraceLineChunk?>>(WorkerCount * 2)
+        val reader = thread(name = "trebuchet-ftrace-reader", isDaemon = true) {
+            try {
+                readChunks(stream) { bytes, length ->
+                    parsedChunks.put(Workers.submit(Callable<FtraceLineChunk?> { parseChunk(bytes, length) }))
+                }
+                parsedChunks.put(EndOfStream)
+            } catch (ex: InterruptedException) {
+                // The importing thread stopped consuming chunks.
+            } catch (ex: Throwable) {
+                try {
+                    parsedChunks.put(CompletableFuture<FtraceLineChunk?>().apply { completeExceptionally(ex) })
+                } catch (interrupted: InterruptedException) {
+                }
+            }
+        }
+        try {
+            while (true) {
+                val chunk = try {
+                    parsedChunks.take().get()
+                } catch (ex: ExecutionException) {
+                    throw ex.cause ?: ex
+                } ?: break
+                consumer(chunk)
+            }
+        } finally {
+            reader.interrupt()
+        }
+    }
+
+    /**
+     * Copies the stream into chunks of about [chunkSize] bytes that end at a line break, except for the last one. The stream's own
+     * buffers can be recycled once they are read, so the chunks don't share memory with them.
+     */
+    private fun readChunks(stream: StreamingReader, emit: (ByteArray, Int) -> Unit) {
+        var buffer = ByteArray(chunkSize)
+        var length = 0
+        var index = stream.startIndex
+        while (stream.loadIndex(index)) {
+            val window = stream.windowFor(index)
+            var from = window.slice.startIndex + (index - window.globalStartIndex)
+            val to = window.slice.endIndex
+            index = window.globalEndIndex + 1
+            while (from < to) {
+                val count = Math.min(to - from, buffer.size - length)
+                System.arraycopy(window.slice.buffer, from, buffer, length, count)
+                length += count
+                from += count
+                if (length < buffer.size) {
+                    continue
+                }
+                var lineEnd = length
+                while (lineEnd > 0 && buffer[lineEnd - 1] != '\n'.toByte()) lineEnd--
+                if (lineEnd == 0) {
+                    // A single line fills the whole chunk.
+                    buffer = buffer.copyOf(buffer.size * 2)
+                    continue
+                }
+                val remaining = length - lineEnd
+                val next = ByteArray(Math.max(chunkSize, remaining * 2))
+                System.arraycopy(buffer, lineEnd, next, 0, remaining)
+                emit(buffer, lineEnd)
+                buffer = next
+                length = remaining
+            }
+        }
+        if (length > 0) {
+            emit(buffer, length)
+        }
+    }
+}
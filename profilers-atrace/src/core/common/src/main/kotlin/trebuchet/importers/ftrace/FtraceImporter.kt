@@ -21,59 +21,64 @@ import trebuchet.importers.Importer
 import trebuchet.importers.ImporterFactory
 import trebuchet.io.DataSlice
 import trebuchet.io.GenericByteBuffer
-import trebuchet.io.StreamingLineReader
 import trebuchet.io.StreamingReader
 import trebuchet.model.fragments.ModelFragment
+import trebuchet.util.BufferReader
+import trebuchet.util.StringCache
 import trebuchet.util.contains
-import java.util.regex.Pattern
 
 class FtraceImporter(val feedback: ImportFeedback) : Importer {
     var foundHeader = false
-    var state = FtraceImporterState(feedback)
-    val parser = FtraceLine.Parser(state.stringCache)
+    // Shared by the threads that parse lines, and kept when the state is reset.
+    private val stringCache = StringCache()
+    var state = FtraceImporterState(feedback, stringCache)
 
-    // Create captured lambads here to avoid extra kotlin-generated overhead
-    private val lineReaderCallback: (DataSlice) -> Unit = this::handleLine
-    private var ftraceParserCallback: (FtraceLine) -> Unit = state::importLine
-    private val coreStartedRegex = Pattern.compile("^#+ CPU \\d buffer started #+")
+    // Reused for every line, as the state only looks at a line while it imports it.
+    private val ftraceLine = FtraceLine()
+    private val function = DataSlice()
+    private val detailsReader = BufferReader()
+    private val failedLine = DataSlice()
 
     override fun import(stream: StreamingReader): ModelFragment? {
-        val lineReader = StreamingLineReader(1024, stream)
         foundHeader = false
-        lineReader.forEachLine(lineReaderCallback)
+        FtraceImportPipeline(stringCache).run(stream, this::importChunk)
         return state.finish()
     }
 
-    fun handleLine(line: DataSlice) {
-        // This should never happen. However due to the dereference below we guard against it so we don't throw out of bounds exceptions.
-        if (line.buffer.size < 2) {
-            return
-        }
-        // The format of the line buffer should be either a series of comments, or a tracer line. Null and empty are handled
-        // at a higher level.
-        if (line[1] == '#'.toByte() && coreStartedRegex.matcher(line.toString()).matches()) {
-            // Fix inconsistencies in traces due to circular buffering.
-            //
-            //  The circular buffers are kept per CPU, so it is not guaranteed that the
-            //  beginning of a slice is overwritten before the end. To work around this, we
-            //  throw away the prefix of the trace where not all CPUs have events yet.
-            state = FtraceImporterState(feedback)
-            ftraceParserCallback = state::importLine
-        }
-        else if (line[0] == '#'.toByte()) {
-            foundHeader = true
-        } else if (foundHeader) {
-            try {
-                parser.parseLine(line, ftraceParserCallback)
-            } catch (ex: Exception) {
-                if (line.toString().isNotBlank()) {
-                    feedback.reportImportWarning("Failed to parse: '$line'")
-                    feedback.reportImportException(ex)
+    private fun importChunk(chunk: FtraceLineChunk) {
+        for (i in 0 until chunk.lineCount) {
+            when (chunk.kindAt(i)) {
+                FtraceLineChunk.BufferStarted -> {
+                    // Fix inconsistencies in traces due to circular buffering.
+                    //
+                    //  The circular buffers are kept per CPU, so it is not guaranteed that the
+                    //  beginning of a slice is overwritten before the end. To work around this, we
+                    //  throw away the prefix of the trace where not all CPUs have events yet.
+                    state = FtraceImporterState(feedback, stringCache)
+                }
+                FtraceLineChunk.Comment -> foundHeader = true
+                FtraceLineChunk.Event -> if (foundHeader) {
+                    try {
+                        state.importLine(chunk.restoreLine(i, ftraceLine, function, detailsReader, stringCache))
+                    } catch (ex: Exception) {
+                        reportFailure(chunk, i, ex)
+                    }
+                }
+                FtraceLineChunk.Failed -> if (foundHeader) {
+                    reportFailure(chunk, i, chunk.errorAt(i))
                 }
             }
         }
     }
 
+    private fun reportFailure(chunk: FtraceLineChunk, index: Int, ex: Exception) {
+        val line = chunk.lineAt(index, failedLine)
+        if (line.toString().isNotBlank()) {
+            feedback.reportImportWarning("Failed to parse: '$line'")
+            feedback.reportImportException(ex)
+        }
+    }
+
     object Factory : ImporterFactory {
         override fun importerFor(buffer: GenericByteBuffer, feedback: ImportFeedback): Importer? {
             if (buffer.contains("# tracer: nop\n", 1000)) {
@@ -25,12 +25,11 @@ import trebuchet.model.fragments.ProcessModelFragment
 import trebuchet.model.fragments.ThreadModelFragment
 import trebuchet.util.StringCache
 
-class FtraceImporterState(feedback: ImportFeedback) {
+class FtraceImporterState(feedback: ImportFeedback, val stringCache: StringCache = StringCache()) {
     private val pidMap = SparseArray<ThreadModelFragment>(50)
     private val cpuMap = SparseArray<CpuModelFragment>(6)
     private val handlers = FunctionRegistry.create()
     val modelFragment = ModelFragment()
-    val stringCache = StringCache()
     private val importData = ImportData(this, feedback)
 
     fun finish(): ModelFragment {
@@ -26,7 +26,7 @@ import java.util.regex.Pattern
 @Suppress("unused")
 const val FtraceLineRE = """^*(.{1,16})-(\d+) +(?:\( *(\d+)?-*\) )?\[(\d+)] (?:[dX.]...)? *([\d.]*): ?([^:]*): (.*)$"""
 
-class FtraceLine private constructor() {
+class FtraceLine internal constructor() {
     private var _task: String? = null
     private var _pid: Int = 0
     private var _tgid: Int = 0
@@ -51,7 +51,7 @@ class FtraceLine private constructor() {
     val function get() = _function
     val functionDetailsReader get() = _functionDetails!!
 
-    private fun set(taskName: String?, pid: Int, tgid: Int, cpu: Int, timestamp: Double,
+    internal fun set(taskName: String?, pid: Int, tgid: Int, cpu: Int, timestamp: Double,
                     func: DataSlice, funcDetails: BufferReader) {
         _task = taskName
         _pid = pid
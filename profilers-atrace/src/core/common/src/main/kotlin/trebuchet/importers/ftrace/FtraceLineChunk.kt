@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package trebuchet.importers.ftrace
+
+import trebuchet.io.DataSlice
+import trebuchet.util.BufferReader
+import trebuchet.util.StringCache
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * A run of whole lines of an ftrace text dump, with the header of every line already parsed. The headers are kept in one array per
+ * field, and the function name and details of each line stay as offsets into [bytes], so a chunk can be parsed on any thread and
+ * replayed in order as [FtraceLine]s on the importing thread.
+ */
+class FtraceLineChunk(val bytes: ByteArray, val length: Int) {
+    companion object {
+        const val Skipped: Byte = 0
+        const val Comment: Byte = 1
+        const val BufferStarted: Byte = 2
+        const val Event: Byte = 3
+        const val Failed: Byte = 4
+
+        // Lines longer than this are dropped, as they were when lines were read with a StreamingLineReader.
+        const val MaxLineLength = 1024
+
+        private val CoreStartedPattern = Pattern.compile("^#+ CPU \\d buffer started #+")
+
+        /**
+         * Splits [bytes] into lines and parses the header of each one. Any thread can parse a chunk, as long as [stringCache] is safe to
+         * share.
+         */
+        fun parse(bytes: ByteArray, length: Int, stringCache: StringCache): FtraceLineChunk {
+            val chunk = FtraceLineChunk(bytes, length)
+            val parser = FtraceLine.Parser(stringCache)
+            val coreStartedMatcher = CoreStartedPattern.matcher("")
+            val line = DataSlice()
+            var lineStart = 0
+            while (lineStart < length) {
+                var newline = lineStart
+                while (newline < length && bytes[newline] != '\n'.toByte()) newline++
+                var lineEnd = newline
+                if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r'.toByte()) lineEnd--
+                if (lineEnd - lineStart <= MaxLineLength) {
+                    line.set(bytes, lineStart, lineEnd)
+                    chunk.add(line, parser, coreStartedMatcher)
+                }
+                lineStart = newline + 1
+            }
+            return chunk
+        }
+    }
+
+    var lineCount = 0
+        private set
+
+    private var kinds = ByteArray(0)
+    private var lineStarts = IntArray(0)
+    private var lineEnds = IntArray(0)
+    private var tasks = arrayOfNulls<String>(0)
+    private var pids = IntArray(0)
+    private var tgids = IntArray(0)
+    private var cpus = IntArray(0)
+    private var timestamps = DoubleArray(0)
+    private var functionStarts = IntArray(0)
+    private var functionEnds = IntArray(0)
+    private var detailsStarts = IntArray(0)
+    private var errors: MutableMap<Int, Exception>? = null
+
+    init {
+        // Most ftrace lines are longer than 64 bytes, so this rarely needs to grow.
+        resize(Math.max(16, length / 64))
+    }
+
+    fun kindAt(index: Int) = kinds[index]
+
+    fun errorAt(index: Int): Exception = errors!![index]!!
+
+    fun lineAt(index: Int, dest: DataSlice = DataSlice()): DataSlice {
+        dest.set(bytes, lineStarts[index], lineEnds[index])
+        return dest
+    }
+
+    /**
+     * Points [line] at the event at [index]. [function] and [detailsReader] are reused to back the function name and details of the line.
+     */
+    fun restoreLine(index: Int, line: FtraceLine, function: DataSlice, detailsReader: BufferReader,
+                    stringCache: StringCache): FtraceLine {
+        function.set(bytes, functionStarts[index], functionEnds[index])
+        detailsReader.buffer = bytes
+        detailsReader.index = detailsStarts[index]
+        detailsReader.endIndexExclusive = lineEnds[index]
+        detailsReader.stringCache = stringCache
+        line.set(tasks[index], pids[index], tgids[index], cpus[index], timestamps[index], function, detailsReader)
+        return line
+    }
+
+    private fun add(line: DataSlice, parser: FtraceLine.Parser, coreStartedMatcher: Matcher) {
+        if (lineCount == kinds.size) {
+            resize(kinds.size * 2)
+        }
+        val index = lineCount++
+        lineStarts[index] = line.startIndex
+        lineEnds[index] = line.endIndex
+        if (line.length == 0) {
+            kinds[index] = Skipped
+        } else if (line.length > 1 && line[1] == '#'.toByte() && coreStartedMatcher.reset(line.toString()).matches()) {
+            kinds[index] = BufferStarted
+        } else if (line[0] == '#'.toByte()) {
+            kinds[index] = Comment
+        } else {
+            kinds[index] = Skipped
+            try {
+                parser.parseLine(line) {
+                    tasks[index] = it.task
+                    pids[index] = it.pid
+                    tgids[index] = it.tgid
+                    cpus[index] = it.cpu
+                    timestamps[index] = it.timestamp
+                    functionStarts[index] = it.function.startIndex
+                    functionEnds[index] = it.function.endIndex
+                    detailsStarts[index] = it.functionDetailsReader.index
+                    kinds[index] = Event
+                }
+            } catch (ex: Exception) {
+                kinds[index] = Failed
+                if (errors == null) {
+                    errors = HashMap()
+                }
+                errors!![index] = ex
+            }
+        }
+    }
+
+    private fun resize(capacity: Int) {
+        kinds = kinds.copyOf(capacity)
+        lineStarts = lineStarts.copyOf(capacity)
+        lineEnds = lineEnds.copyOf(capacity)
+        tasks = tasks.copyOf(capacity)
+        pids = pids.copyOf(capacity)
+        tgids = tgids.copyOf(capacity)
+        cpus = cpus.copyOf(capacity)
+        timestamps = timestamps.copyOf(capacity)
+        functionStarts = functionStarts.copyOf(capacity)
+        functionEnds = functionEnds.copyOf(capacity)
+        detailsStarts = detailsStarts.copyOf(capacity)
+    }
+}
@@ -17,21 +17,27 @@
 package trebuchet.util
 
 import trebuchet.io.DataSlice
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
 
+/**
+ * Interns the strings read from a trace. Safe to share between the threads that parse a trace.
+ */
 class StringCache {
     // we're gonna have a lot of strings probably
-    private val cache: MutableMap<DataSlice, String> = HashMap(1_000)
-    var cacheHits: Int = 0
-        get private set
+    private val cache = ConcurrentHashMap<DataSlice, String>(1_000)
+    private val hits = LongAdder()
+    val cacheHits: Int get() = hits.toInt()
 
     fun stringFor(slice: DataSlice): String {
-        var ret = cache[slice]
-        if (ret == null) {
-            ret = slice.toString()
-            cache.put(slice.compact(), ret)
-        } else {
-            cacheHits++
+        val ret = cache[slice]
+        if (ret != null) {
+            hits.increment()
+            return ret
         }
-        return ret
+        // The slice is usually a view over a reused buffer, so the key has to own its bytes.
+        val key = DataSlice(slice.buffer.copyOfRange(slice.startIndex, slice.endIndex))
+        val string = key.toString()
+        return cache.putIfAbsent(key, string) ?: string
     }
-}
\ No newline at end of file
+}
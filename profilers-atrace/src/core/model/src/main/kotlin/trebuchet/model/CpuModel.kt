@@ -20,6 +20,7 @@ import trebuchet.model.fragments.CpuModelFragment
 class CpuModel constructor(val model: Model, fragment: CpuModelFragment) {
   val id: Int = fragment.id
   val slices = fragment.slices
+  val frequencies: List<CounterValue> = fragment.frequencies
   val hasContent = slices.isNotEmpty()
 
   init {
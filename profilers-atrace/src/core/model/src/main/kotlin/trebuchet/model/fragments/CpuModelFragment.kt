@@ -16,12 +16,17 @@
 
 package trebuchet.model.fragments
 
+import trebuchet.model.CounterValue
 import trebuchet.model.CpuProcessSlice
 import trebuchet.model.base.Slice
 
 
 class CpuModelFragment(var id: Int) {
   val schedulingProcessBuilder = SchedulingProcessFragment.Builder()
+  /**
+   * Frequency changes of this core in kHz, in timestamp order.
+   */
+  val frequencies: MutableList<CounterValue> = mutableListOf()
 
   val slices: List<CpuProcessSlice> get() {
     return schedulingProcessBuilder.slices
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers;
 
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.cpu.CpuProfilerConfigModel;
 import com.android.tools.profilers.cpu.ProfilingConfiguration;
 import com.android.tools.profilers.dataviewer.DataViewer;
@@ -67,7 +68,7 @@ public interface IdeProfilerComponents {
    *                  to check {@link DataViewer#getStyle()} if you need to confirm the style was actually accepted.
    */
   @NotNull
-  DataViewer createDataViewer(@NotNull byte[] bytes, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint);
+  DataViewer createDataViewer(@NotNull ByteString bytes, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint);
 
   @NotNull
   JComponent createResizableImageComponent(@NotNull BufferedImage image);
@@ -43,6 +43,11 @@ public class StatusPanel extends JComponent {
    */
   @NotNull
   private JLabel myDurationLabel = new JLabel();
+  /**
+   * Status, followed by the progress of the operation if it is known.
+   */
+  @NotNull
+  private final JLabel myStatusLabel;
   /**
    * Status itself (e.g. recording, parsing).
    */
@@ -64,6 +69,7 @@ public class StatusPanel extends JComponent {
     myStatus = status;
     myModel.getRange().addDependency(myObserver).onChange(Range.Aspect.RANGE, this::updateDuration);
     myAbortButton = abortText != null ? createAbortButton(abortText) : null;
+    myStatusLabel = createLabel(getStatusText(), false);
     populateContent();
   }
 
@@ -81,13 +87,12 @@ public class StatusPanel extends JComponent {
     statusPanel.setBorder(new LineBorder(ProfilerColors.CPU_CAPTURE_STATUS, 1));
 
     JLabel status = createLabel("Status", true);
-    JLabel actualStatus = createLabel(myStatus, false);
     JLabel duration = createLabel("Duration", true);
     JLabel technology = createLabel("Type", true);
     JLabel actualTechnology = createLabel(myModel.getConfigurationText(), false);
 
     statusPanel.add(status, new TabularLayout.Constraint(1, 1));
-    statusPanel.add(actualStatus, new TabularLayout.Constraint(1, 3));
+    statusPanel.add(myStatusLabel, new TabularLayout.Constraint(1, 3));
     statusPanel.add(duration, new TabularLayout.Constraint(2, 1));
     statusPanel.add(myDurationLabel, new TabularLayout.Constraint(2, 3));
     statusPanel.add(technology, new TabularLayout.Constraint(3, 1));
@@ -103,6 +108,8 @@ public class StatusPanel extends JComponent {
 
   private void updateDuration() {
     myDurationLabel.setText(getDurationText());
+    // The duration is updated regularly while the operation runs, which is often enough to refresh the progress too.
+    myStatusLabel.setText(getStatusText());
   }
 
   private static JLabel createLabel(String text, boolean isRightAligned) {
@@ -126,6 +133,17 @@ public class StatusPanel extends JComponent {
     return myDurationLabel;
   }
 
+  @VisibleForTesting
+  JLabel getStatusLabel() {
+    return myStatusLabel;
+  }
+
+  @NotNull
+  private String getStatusText() {
+    double progress = myModel.getProgress();
+    return progress < 0 ? myStatus : String.format("%s (%d%%)", myStatus, (int)(progress * 100));
+  }
+
   @NotNull
   private String getDurationText() {
     return TimeFormatter
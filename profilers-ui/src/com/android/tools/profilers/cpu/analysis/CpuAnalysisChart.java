@@ -24,6 +24,7 @@ import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.adtui.model.filter.FilterHandler;
 import com.android.tools.adtui.model.filter.FilterResult;
 import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.JComboBoxView;
 import com.android.tools.profilers.ProfilerLayout;
 import com.android.tools.profilers.StudioProfilersView;
@@ -32,10 +33,12 @@ import com.android.tools.profilers.cpu.capturedetails.CaptureDetailsView;
 import com.android.tools.profilers.cpu.capturedetails.ChartDetailsView;
 import com.android.tools.profilers.cpu.capturedetails.TreeDetailsView;
 import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.ui.ComboBox;
 import com.intellij.ui.SimpleListCellRenderer;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -48,6 +51,8 @@ public class CpuAnalysisChart extends CpuAnalysisTab<CpuAnalysisChartModel<?>> {
   private final StudioProfilersView myProfilersView;
   private final JPanel myCaptureDetailsPanel = new JPanel(new BorderLayout());
   private CaptureDetailsView myActiveDetailsView;
+  // Incremented whenever the details are rebuilt, so the details of a build that completes after a newer one started are dropped.
+  private int myDetailsBuildId;
 
   @NotNull
   private final FilterComponent myFilterComponent = buildFilterComponent();
@@ -67,7 +72,7 @@ public class CpuAnalysisChart extends CpuAnalysisTab<CpuAnalysisChartModel<?>> {
     myBinder.bind(CaptureDetails.FlameChart.class, ChartDetailsView.FlameChartDetailsView::new);
 
     getModel().getAspectModel().addDependency(myObserver)
-      .onChange(CpuAnalysisChartModel.Aspect.CLOCK_TYPE, () -> updateDetailsView(getModel().createDetails()));
+      .onChange(CpuAnalysisChartModel.Aspect.CLOCK_TYPE, this::rebuildDetailsView);
 
     buildComponents();
   }
@@ -80,7 +85,7 @@ public class CpuAnalysisChart extends CpuAnalysisTab<CpuAnalysisChartModel<?>> {
     toolbar.add(myFilterComponent, BorderLayout.WEST);
     toolbar.add(buildClockTypeSelector(), BorderLayout.EAST);
 
-    updateDetailsView(getModel().createDetails());
+    rebuildDetailsView();
     add(toolbar, new TabularLayout.Constraint(0, 0));
     add(myCaptureDetailsPanel, new TabularLayout.Constraint(1, 0));
 
@@ -106,7 +111,9 @@ public class CpuAnalysisChart extends CpuAnalysisTab<CpuAnalysisChartModel<?>> {
       @NotNull
       @Override
       protected FilterResult applyFilter(@NotNull Filter filter) {
-        CpuAnalysisChartModel.CaptureDetailsWithFilterResult results = getModel().applyFilterAndCreateDetails(filter);
+        IdeProfilerServices services = getIdeServices();
+        CpuAnalysisChartModel.CaptureDetailsWithFilterResult results =
+          getModel().applyFilterAndCreateDetails(filter, services.getPoolExecutor(), services.getMainExecutor());
         updateDetailsView(results.getCaptureDetails());
         // Return filter result.
         return results.getFilterResult();
@@ -129,12 +136,39 @@ public class CpuAnalysisChart extends CpuAnalysisTab<CpuAnalysisChartModel<?>> {
     return clockTypeSelector;
   }
 
-  private void updateDetailsView(@NotNull CaptureDetails captureDetails) {
+  @NotNull
+  private IdeProfilerServices getIdeServices() {
+    return myProfilersView.getStudioProfilers().getIdeServices();
+  }
+
+  private void rebuildDetailsView() {
+    IdeProfilerServices services = getIdeServices();
+    updateDetailsView(getModel().createDetails(services.getPoolExecutor(), services.getMainExecutor()));
+  }
+
+  /**
+   * Shows the details once they are built, unless the details have been rebuilt in the meantime.
+   */
+  private void updateDetailsView(@NotNull CompletableFuture<CaptureDetails> captureDetails) {
+    int buildId = ++myDetailsBuildId;
+    captureDetails.whenComplete((details, exception) -> {
+      if (exception != null) {
+        Logger.getInstance(CpuAnalysisChart.class).warn("Failed to build the capture details.", exception);
+      }
+      else if (buildId == myDetailsBuildId) {
+        showDetailsView(details);
+      }
+    });
+  }
+
+  private void showDetailsView(@NotNull CaptureDetails captureDetails) {
     myCaptureDetailsPanel.removeAll();
     // Need to hold a hard reference to the capture details view otherwise soft dependencies get cleaned up.
     myActiveDetailsView = myBinder.build(myProfilersView, captureDetails);
     // Capture details view
     myCaptureDetailsPanel.add(myActiveDetailsView.getComponent(), BorderLayout.CENTER);
+    myCaptureDetailsPanel.revalidate();
+    myCaptureDetailsPanel.repaint();
   }
 
   @VisibleForTesting
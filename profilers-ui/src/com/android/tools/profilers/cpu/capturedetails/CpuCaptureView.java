@@ -186,6 +186,11 @@ public class CpuCaptureView {
     protected void updateDuration() {
       myRange.setMax(TimeUnit.MILLISECONDS.toNanos(myStage.getCaptureParser().getParsingElapsedTimeMs()));
     }
+
+    @Override
+    public double getProgress() {
+      return myStage.getCaptureParser().getParsingProgress();
+    }
   }
 
   static class CpuCaptureViewStatusModel implements StatusPanelModel {
@@ -24,6 +24,11 @@ import javax.swing.*;
  * file will be shown in syntax highlighted manner. If a file cannot be displayed, an {@link INVALID} viewer is returned.
  */
 public interface DataViewer {
+  /**
+   * Text content larger than this is shown as is, since formatting builds and rewrites a syntax tree of the whole content, which freezes
+   * the UI for multi-megabyte payloads. Callers shouldn't request a {@link Style#PRETTY} viewer for such content.
+   */
+  int MAX_FORMATTED_CONTENT_LENGTH = 512 * 1024;
 
   enum Style {
     /**
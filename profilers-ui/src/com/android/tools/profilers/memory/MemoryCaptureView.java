@@ -17,8 +17,10 @@ package com.android.tools.profilers.memory;
 
 import com.android.tools.adtui.flat.FlatSeparator;
 import com.android.tools.adtui.model.AspectObserver;
+import com.android.tools.adtui.model.formatter.NumberFormatter;
 import com.android.tools.profilers.IdeProfilerComponents;
 import com.android.tools.profilers.memory.adapters.CaptureObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpDiff;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.ui.JBEmptyBorder;
@@ -26,10 +28,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.android.tools.profilers.ProfilerLayout.createToolbarLayout;
 
 public final class MemoryCaptureView extends AspectObserver {
+  // The number of classes listed in the tooltip of the heap dump diff.
+  private static final int MAX_DIFF_CLASS_COUNT = 10;
+
   private static Logger getLogger() {
     return Logger.getInstance(MemoryCaptureView.class);
   }
@@ -38,6 +45,8 @@ public final class MemoryCaptureView extends AspectObserver {
 
   @NotNull private final JLabel myLabel;
 
+  @NotNull private final JLabel myDiffLabel;
+
   @NotNull private final JPanel myPanel;
 
   @Nullable private CaptureObject myCaptureObject = null;
@@ -46,11 +55,14 @@ public final class MemoryCaptureView extends AspectObserver {
     myStage = stage;
     myStage.getAspect().addDependency(this)
       .onChange(MemoryProfilerAspect.CURRENT_LOADING_CAPTURE, this::reset)
-      .onChange(MemoryProfilerAspect.CURRENT_LOADED_CAPTURE, this::refresh);
+      .onChange(MemoryProfilerAspect.CURRENT_LOADED_CAPTURE, this::refresh)
+      .onChange(MemoryProfilerAspect.HEAP_DUMP_DIFF, this::refreshDiff);
 
     myPanel = new JPanel(createToolbarLayout());
     myLabel = new JLabel();
     myLabel.setBorder(new JBEmptyBorder(0, 11, 0, 3));
+    myDiffLabel = new JLabel();
+    myDiffLabel.setBorder(new JBEmptyBorder(0, 3, 0, 3));
     reset();
   }
 
@@ -60,6 +72,12 @@ public final class MemoryCaptureView extends AspectObserver {
     return myLabel;
   }
 
+  @VisibleForTesting
+  @NotNull
+  JLabel getDiffLabel() {
+    return myDiffLabel;
+  }
+
   @NotNull
   JComponent getComponent() {
     return myPanel;
@@ -68,6 +86,8 @@ public final class MemoryCaptureView extends AspectObserver {
   private void reset() {
     myPanel.removeAll();
     myLabel.setText("");
+    myDiffLabel.setText("");
+    myDiffLabel.setToolTipText(null);
     myCaptureObject = myStage.getSelectedCapture();
   }
 
@@ -81,4 +101,43 @@ public final class MemoryCaptureView extends AspectObserver {
       myPanel.add(new FlatSeparator());
     }
   }
+
+  /**
+   * Shows how the instance count changed since the previous heap dump, and lists the classes that grew the most in the tooltip.
+   */
+  private void refreshDiff() {
+    HeapDumpDiff diff = myStage.getHeapDumpDiff();
+    if (diff == null || myCaptureObject == null || myStage.getSelectedCapture() != myCaptureObject) {
+      return;
+    }
+
+    long instanceCountDelta = 0;
+    for (HeapDumpDiff.ClassDelta delta : diff.getClassDeltas()) {
+      instanceCountDelta += delta.getInstanceCountDelta();
+    }
+    myDiffLabel.setText(String.format("%s instances since the previous heap dump", formatDelta(instanceCountDelta)));
+
+    List<HeapDumpDiff.ClassDelta> deltas = new ArrayList<>(diff.getClassDeltas());
+    deltas.sort(HeapDumpDiff.LARGEST_GROWTH_FIRST);
+    StringBuilder tooltip = new StringBuilder("<html>");
+    for (HeapDumpDiff.ClassDelta delta : deltas.subList(0, Math.min(MAX_DIFF_CLASS_COUNT, deltas.size()))) {
+      tooltip.append(delta.getClassName()).append(": ").append(formatDelta(delta.getInstanceCountDelta())).append(" instances");
+      if (delta.hasRetainedSizeDelta()) {
+        tooltip.append(", ").append(formatDelta(delta.getRetainedSizeDelta())).append(" bytes retained");
+      }
+      tooltip.append("<br>");
+    }
+    myDiffLabel.setToolTipText(tooltip.append("</html>").toString());
+
+    if (myDiffLabel.getParent() != myPanel) {
+      myPanel.add(myDiffLabel);
+      myPanel.add(new FlatSeparator());
+    }
+    myPanel.revalidate();
+  }
+
+  @NotNull
+  private static String formatDelta(long delta) {
+    return (delta > 0 ? "+" : "") + NumberFormatter.formatInteger(delta);
+  }
 }
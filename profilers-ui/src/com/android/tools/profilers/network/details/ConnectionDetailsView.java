@@ -84,8 +84,10 @@ public class ConnectionDetailsView extends JPanel {
   private void populateTabs() {
     myTabs.add(new OverviewTabContent(myStageView.getStage().getStudioProfilers().getIdeServices().getFeatureConfig(),
                                       myStageView.getIdeComponents(), myStageView.getStage().getConnectionsModel()));
-    myTabs.add(new ResponseTabContent(myStageView.getIdeComponents(), myStageView.getStage().getConnectionsModel()));
-    myTabs.add(new RequestTabContent(myStageView.getIdeComponents(), myStageView.getStage().getConnectionsModel()));
+    myTabs.add(new ResponseTabContent(myStageView.getStage().getStudioProfilers().getIdeServices(), myStageView.getIdeComponents(),
+                                      myStageView.getStage().getConnectionsModel()));
+    myTabs.add(new RequestTabContent(myStageView.getStage().getStudioProfilers().getIdeServices(), myStageView.getIdeComponents(),
+                                     myStageView.getStage().getConnectionsModel()));
     myTabs.add(new CallStackTabContent(myStageView.getStage().getConnectionsModel(),
                                        myStageView.getIdeComponents().createStackView(myStageView.getStage().getStackTraceModel())));
 
@@ -20,8 +20,10 @@ import static com.android.tools.profilers.ProfilerFonts.STANDARD_FONT;
 import com.android.tools.adtui.TreeWalker;
 import com.android.tools.adtui.common.AdtUiUtils;
 import com.android.tools.adtui.event.NestedScrollPaneMouseWheelListener;
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.ContentType;
 import com.android.tools.profilers.IdeProfilerComponents;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.dataviewer.DataViewer;
 import com.android.tools.profilers.network.NetworkConnectionsModel;
 import com.android.tools.profilers.network.httpdata.HttpData;
@@ -29,6 +31,7 @@ import com.android.tools.profilers.network.httpdata.Payload;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ui.JBEmptyBorder;
+import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Component;
@@ -40,6 +43,7 @@ import java.awt.event.MouseEvent;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import javax.swing.JComponent;
@@ -58,10 +62,14 @@ final class HttpDataComponentFactory {
   private static final String ID_PAYLOAD_VIEWER = "PAYLOAD_VIEWER";
   private static final Border PAYLOAD_BORDER = new JBEmptyBorder(6, 0, 0, 0);
 
+  private final IdeProfilerServices myIdeServices;
   private final NetworkConnectionsModel myModel;
   private final HttpData myHttpData;
 
-  public HttpDataComponentFactory(@NotNull NetworkConnectionsModel model, @NotNull HttpData httpData) {
+  public HttpDataComponentFactory(@NotNull IdeProfilerServices ideServices,
+                                  @NotNull NetworkConnectionsModel model,
+                                  @NotNull HttpData httpData) {
+    myIdeServices = ideServices;
     myModel = model;
     myHttpData = httpData;
   }
@@ -109,15 +117,47 @@ final class HttpDataComponentFactory {
    * {@link HttpData}'s {@link Payload}. If the payload is empty, this will return a label to
    * indicate that the target payload is not set. If the payload is not empty and is supported for
    * parsing, this will return a component containing both the raw data view and the parsed view.
+   * <p>
+   * Fetching a payload, decoding it and guessing its content type can take a while for large payloads, so it is done on the pool
+   * executor. The returned component shows a loading label until the payload views replace it on the main executor.
    */
   @NotNull
   public JComponent createBodyComponent(@NotNull IdeProfilerComponents components, @NotNull ConnectionType type) {
     Payload payload = type.getPayload(myModel, myHttpData);
-    if (payload.getBytes().isEmpty()) {
-      return TabUiUtils.createHideablePanel(getBodyTitle(type), new JLabel("Not available"), null);
+    JPanel bodyPanel = new JPanel(new BorderLayout());
+    bodyPanel.add(TabUiUtils.createHideablePanel(getBodyTitle(type), new JLabel("Loading..."), null));
+    CompletableFuture
+      .supplyAsync(() -> {
+        payload.getBytes();
+        return payload.getContentType();
+      }, myIdeServices.getPoolExecutor())
+      .whenCompleteAsync((contentType, error) -> {
+        // If the payload couldn't be fetched, it is shown the same way as an empty one.
+        JComponent loadedComponent = error == null
+                                     ? createLoadedBodyComponent(components, type, payload.getBytes(), contentType)
+                                     : createNotAvailableComponent(type);
+        bodyPanel.removeAll();
+        bodyPanel.add(loadedComponent);
+        bodyPanel.revalidate();
+        bodyPanel.repaint();
+      }, myIdeServices.getMainExecutor());
+    return bodyPanel;
+  }
+
+  /**
+   * Creates the body component once the payload has been fetched and decoded.
+   */
+  @NotNull
+  private JComponent createLoadedBodyComponent(@NotNull IdeProfilerComponents components,
+                                               @NotNull ConnectionType type,
+                                               @NotNull ByteString content,
+                                               @NotNull HttpData.ContentType contentType) {
+    if (content.isEmpty()) {
+      return createNotAvailableComponent(type);
     }
-    JComponent rawDataComponent = createRawDataComponent(payload, components);
-    JComponent parsedDataComponent = createParsedDataComponent(payload, components);
+    // Both views share the decoded payload, which can be several megabytes, rather than each getting their own copy of it.
+    JComponent rawDataComponent = createRawDataComponent(contentType, content, components);
+    JComponent parsedDataComponent = createParsedDataComponent(contentType, content, components);
 
     JComponent bodyComponent = rawDataComponent;
     JComponent northEastComponent = null;
@@ -161,15 +201,22 @@ final class HttpDataComponentFactory {
     return TabUiUtils.createHideablePanel(getBodyTitle(type), bodyComponent, northEastComponent);
   }
 
+  @NotNull
+  private JComponent createNotAvailableComponent(@NotNull ConnectionType type) {
+    return TabUiUtils.createHideablePanel(getBodyTitle(type), new JLabel("Not available"), null);
+  }
+
   /**
-   * Creates the raw data view of given {@link Payload}.
+   * Creates the raw data view of given payload content.
    * <p>
    * Assumes the payload is not empty.
    */
   @NotNull
-  private static JComponent createRawDataComponent(@NotNull Payload payload, @NotNull IdeProfilerComponents components) {
-    ContentType contentType = ContentType.fromMimeType(payload.getContentType().getMimeType());
-    DataViewer viewer = components.createDataViewer(payload.getBytes().toByteArray(), contentType, DataViewer.Style.RAW);
+  private static JComponent createRawDataComponent(@NotNull HttpData.ContentType payloadContentType,
+                                                   @NotNull ByteString content,
+                                                   @NotNull IdeProfilerComponents components) {
+    ContentType contentType = ContentType.fromMimeType(payloadContentType.getMimeType());
+    DataViewer viewer = components.createDataViewer(content, contentType, DataViewer.Style.RAW);
     JComponent viewerComponent = viewer.getComponent();
     viewerComponent.setName(ID_PAYLOAD_VIEWER);
     viewerComponent.setBorder(PAYLOAD_BORDER);
@@ -179,22 +226,28 @@ final class HttpDataComponentFactory {
   }
 
   /**
-   * Creates the parsed data view of given {@link Payload}, or returns null if the payload is not applicable for parsing.
+   * Creates the parsed data view of given payload content, or returns null if the payload is not applicable for parsing.
    * <p>
    * Assumes the payload is not empty.
    */
   @Nullable
-  private static JComponent createParsedDataComponent(@NotNull Payload payload, @NotNull IdeProfilerComponents components) {
-    if (payload.getContentType().isFormData()) {
-      String contentToParse = payload.getBytes().toStringUtf8();
+  private static JComponent createParsedDataComponent(@NotNull HttpData.ContentType payloadContentType,
+                                                      @NotNull ByteString content,
+                                                      @NotNull IdeProfilerComponents components) {
+    if (payloadContentType.isFormData()) {
+      String contentToParse = content.toStringUtf8();
       final Map<String, String> parsedContent = new LinkedHashMap<>();
       Stream<String[]> parsedContentStream = Arrays.stream(contentToParse.trim().split("&")).map(s -> s.split("=", 2));
       parsedContentStream.forEach(a -> parsedContent.put(a[0], a.length > 1 ? a[1] : ""));
       return TabUiUtils.createStyledMapComponent(parsedContent);
     }
 
-    ContentType contentType = ContentType.fromMimeType(payload.getContentType().getMimeType());
-    DataViewer viewer = components.createDataViewer(payload.getBytes().toByteArray(), contentType, DataViewer.Style.PRETTY);
+    // Large content is never formatted, and the unformatted viewer we'd get back would only be thrown away below.
+    if (content.size() > DataViewer.MAX_FORMATTED_CONTENT_LENGTH) {
+      return null;
+    }
+    ContentType contentType = ContentType.fromMimeType(payloadContentType.getMimeType());
+    DataViewer viewer = components.createDataViewer(content, contentType, DataViewer.Style.PRETTY);
 
     // Just because we request a "pretty" viewer doesn't mean we'll actually get one. If we didn't,
     // that means formatting support is not provided, so return null as a way to indicate this
@@ -273,7 +273,7 @@ final class OverviewTabContent extends TabContent {
 
     Payload payload = Payload.newResponsePayload(myModel, data);
     String mimeType = payload.getContentType().getMimeType();
-    DataViewer payloadViewer = myComponents.createDataViewer(payload.getBytes().toByteArray(), ContentType.fromMimeType(mimeType),
+    DataViewer payloadViewer = myComponents.createDataViewer(payload.getBytes(), ContentType.fromMimeType(mimeType),
                                                              DataViewer.Style.PRETTY);
     JComponent responsePayloadComponent = payloadViewer.getComponent();
     responsePayloadComponent.setName(ID_RESPONSE_PAYLOAD_VIEWER);
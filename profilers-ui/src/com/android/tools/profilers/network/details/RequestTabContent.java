@@ -16,6 +16,7 @@
 package com.android.tools.profilers.network.details;
 
 import com.android.tools.profilers.IdeProfilerComponents;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.network.NetworkConnectionsModel;
 import com.android.tools.profilers.network.details.HttpDataComponentFactory.ConnectionType;
@@ -36,12 +37,15 @@ final class RequestTabContent extends TabContent {
   // may be missed if users do not set.
   private static final String HEADERS_TITLE = "Application Headers";
 
+  private final IdeProfilerServices myIdeServices;
   private final IdeProfilerComponents myComponents;
   private final NetworkConnectionsModel myModel;
   private JPanel myPanel;
 
-  public RequestTabContent(@NotNull IdeProfilerComponents components,
+  public RequestTabContent(@NotNull IdeProfilerServices ideServices,
+                           @NotNull IdeProfilerComponents components,
                            @NotNull NetworkConnectionsModel model) {
+    myIdeServices = ideServices;
     myComponents = components;
     myModel = model;
   }
@@ -67,7 +71,7 @@ final class RequestTabContent extends TabContent {
       return;
     }
 
-    HttpDataComponentFactory httpDataComponentFactory = new HttpDataComponentFactory(myModel, data);
+    HttpDataComponentFactory httpDataComponentFactory = new HttpDataComponentFactory(myIdeServices, myModel, data);
 
     JComponent headersComponent = httpDataComponentFactory.createHeaderComponent(ConnectionType.REQUEST);
     myPanel.add(TabUiUtils.createHideablePanel(HEADERS_TITLE, headersComponent, null));
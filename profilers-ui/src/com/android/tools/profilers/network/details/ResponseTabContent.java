@@ -16,6 +16,7 @@
 package com.android.tools.profilers.network.details;
 
 import com.android.tools.profilers.IdeProfilerComponents;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.network.NetworkConnectionsModel;
 import com.android.tools.profilers.network.details.HttpDataComponentFactory.ConnectionType;
@@ -34,12 +35,15 @@ import static com.android.tools.profilers.network.details.TabUiUtils.SECTION_TIT
  */
 final class ResponseTabContent extends TabContent {
 
+  private final IdeProfilerServices myIdeServices;
   private final IdeProfilerComponents myComponents;
   private final NetworkConnectionsModel myModel;
   private JPanel myPanel;
 
-  public ResponseTabContent(@NotNull IdeProfilerComponents components,
+  public ResponseTabContent(@NotNull IdeProfilerServices ideServices,
+                            @NotNull IdeProfilerComponents components,
                             @NotNull NetworkConnectionsModel model) {
+    myIdeServices = ideServices;
     myComponents = components;
     myModel = model;
   }
@@ -65,7 +69,7 @@ final class ResponseTabContent extends TabContent {
       return;
     }
 
-    HttpDataComponentFactory httpDataComponentFactory = new HttpDataComponentFactory(myModel, data);
+    HttpDataComponentFactory httpDataComponentFactory = new HttpDataComponentFactory(myIdeServices, myModel, data);
     JComponent headersComponent = httpDataComponentFactory.createHeaderComponent(ConnectionType.RESPONSE);
     myPanel.add(TabUiUtils.createHideablePanel(SECTION_TITLE_HEADERS, headersComponent, null));
     myPanel.add(httpDataComponentFactory.createBodyComponent(myComponents, ConnectionType.RESPONSE));
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers;
 
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.cpu.CpuProfilerConfigModel;
 import com.android.tools.profilers.cpu.ProfilingConfiguration;
 import com.android.tools.profilers.dataviewer.DataViewer;
@@ -149,7 +150,7 @@ public final class FakeIdeProfilerComponents implements IdeProfilerComponents {
 
   @NotNull
   @Override
-  public DataViewer createDataViewer(@NotNull byte[] content, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint) {
+  public DataViewer createDataViewer(@NotNull ByteString content, @NotNull ContentType contentType, @NotNull DataViewer.Style styleHint) {
     if (contentType.isSupportedImageType()) {
       return new ImageDataViewer() {
         private final BufferedImage DUMMY_IMAGE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
@@ -50,6 +50,16 @@ class StatusPanelTest {
     assertThat(panel.durationLabel.text).contains("8")
   }
 
+  @Test
+  fun rangeUpdatesProgressText() {
+    val model = TestStatusPanelModel()
+    val panel = StatusPanel(model, "Parsing", "Abort")
+    assertThat(panel.statusLabel.text).isEqualTo("Parsing")
+    model.testProgress = 0.42
+    model.testRange.max = TimeUnit.SECONDS.toNanos(8).toDouble()
+    assertThat(panel.statusLabel.text).isEqualTo("Parsing (42%)")
+  }
+
   private fun getAbortbutton(panel: StatusPanel) = TreeWalker(panel)
     .descendants()
     .filterIsInstance<JButton>()
@@ -60,6 +70,7 @@ class StatusPanelTest {
 class TestStatusPanelModel : StatusPanelModel {
   var abortCalled = false
   val testRange = Range(0.0, TimeUnit.SECONDS.toNanos(5).toDouble())
+  var testProgress = -1.0
   override fun getConfigurationText(): String {
     return "Test"
   }
@@ -72,4 +83,8 @@ class TestStatusPanelModel : StatusPanelModel {
     abortCalled = true
   }
 
+  override fun getProgress(): Double {
+    return testProgress
+  }
+
 }
\ No newline at end of file
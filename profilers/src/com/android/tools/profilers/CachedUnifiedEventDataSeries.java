@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers;
+
+import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest;
+import com.android.tools.profiler.proto.Transport.GetEventGroupsResponse;
+import com.android.tools.profiler.proto.TransportServiceGrpc;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link UnifiedEventDataSeries} alternative for numeric data that extracts one Long field per {@link Common.Event}. The samples
+ * already fetched are kept in a window of primitive arrays, so only the parts of a requested range that are not covered by the window
+ * are queried from the datastore. During live capture this is the newly streamed tail. Samples outside a margin around the last
+ * requested range are evicted.
+ * <p>
+ * Like {@link UnifiedEventDataSeries}, the data returned for a range includes the last sample before and the first sample after it.
+ * Events are assumed to arrive in timestamp order, which is why the window never extends past the last sample received.
+ */
+public class CachedUnifiedEventDataSeries implements DataSeries<Long> {
+  /**
+   * By default keep one range length of samples on each side of the requested range, so panning by less than a screen is served
+   * from the cache.
+   */
+  private static final double DEFAULT_EVICTION_MARGIN_RATIO = 1.0;
+  private static final int INITIAL_CAPACITY = 256;
+
+  @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myClient;
+  private final long myStreamId;
+  private final int myPid;
+  @NotNull private final Common.Event.Kind myKind;
+  private final int myGroupId;
+  @NotNull private final Function<Common.Event, Long> myFieldExtractor;
+  private final double myEvictionMarginRatio;
+
+  // Samples sorted by timestamp, in nanoseconds. This may include one sample on each side of the covered window.
+  @NotNull private long[] myTimestamps = new long[INITIAL_CAPACITY];
+  @NotNull private long[] myValues = new long[INITIAL_CAPACITY];
+  private int mySize;
+  // The window, in nanoseconds, for which every sample is cached. Empty when myCoveredMin > myCoveredMax.
+  private long myCoveredMin = Long.MAX_VALUE;
+  private long myCoveredMax = Long.MIN_VALUE;
+
+  private int myRequestCount;
+
+  /**
+   * @param client         the grpc client to request data from.
+   * @param streamId
+   * @param pid
+   * @param kind           the data kind ot query.
+   * @param groupId        the group id within the data kind to query. If the data don't have group distinction, use
+   *                       {@link UnifiedEventDataSeries#DEFAULT_GROUP_ID}.
+   * @param fieldExtractor a {@link Function} that extracts a Long field from an {@link Common.Event}.
+   */
+  public CachedUnifiedEventDataSeries(@NotNull TransportServiceGrpc.TransportServiceBlockingStub client,
+                                      long streamId,
+                                      int pid,
+                                      @NotNull Common.Event.Kind kind,
+                                      int groupId,
+                                      @NotNull Function<Common.Event, Long> fieldExtractor) {
+    this(client, streamId, pid, kind, groupId, fieldExtractor, DEFAULT_EVICTION_MARGIN_RATIO);
+  }
+
+  /**
+   * @param evictionMarginRatio how much data to keep on each side of the requested range, as a ratio of the requested range length.
+   */
+  public CachedUnifiedEventDataSeries(@NotNull TransportServiceGrpc.TransportServiceBlockingStub client,
+                                      long streamId,
+                                      int pid,
+                                      @NotNull Common.Event.Kind kind,
+                                      int groupId,
+                                      @NotNull Function<Common.Event, Long> fieldExtractor,
+                                      double evictionMarginRatio) {
+    myClient = client;
+    myStreamId = streamId;
+    myPid = pid;
+    myKind = kind;
+    myGroupId = groupId;
+    myFieldExtractor = fieldExtractor;
+    myEvictionMarginRatio = evictionMarginRatio;
+  }
+
+  @Override
+  public synchronized List<SeriesData<Long>> getDataForRange(Range rangeUs) {
+    long fromNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMin());
+    long toNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMax());
+
+    if (myCoveredMin > myCoveredMax || toNs < myCoveredMin || fromNs > myCoveredMax) {
+      // Nothing cached that is useful for this range, start over.
+      clear();
+      fetch(fromNs, toNs, true);
+    }
+    else {
+      if (fromNs < myCoveredMin) {
+        fetch(fromNs, myCoveredMin - 1, false);
+      }
+      if (toNs > myCoveredMax) {
+        // Start from the last covered timestamp, as more events with the same timestamp may have arrived since.
+        fetch(myCoveredMax, toNs, true);
+      }
+    }
+
+    List<SeriesData<Long>> data = collect(fromNs, toNs);
+    evict(fromNs, toNs);
+    return data;
+  }
+
+  @VisibleForTesting
+  synchronized int getRequestCount() {
+    return myRequestCount;
+  }
+
+  @VisibleForTesting
+  synchronized int getCachedSampleCount() {
+    return mySize;
+  }
+
+  /**
+   * Queries the datastore for [fromNs, toNs] and merges the samples into the cache.
+   *
+   * @param isTail whether the range extends past the newest data received, in which case the window is only extended up to the last
+   *               sample returned since more samples may still arrive.
+   */
+  private void fetch(long fromNs, long toNs, boolean isTail) {
+    GetEventGroupsRequest request = GetEventGroupsRequest.newBuilder()
+      .setStreamId(myStreamId)
+      .setPid(myPid)
+      .setKind(myKind)
+      .setGroupId(myGroupId)
+      .setFromTimestamp(fromNs)
+      .setToTimestamp(toNs)
+      .build();
+    GetEventGroupsResponse response = myClient.getEventGroups(request);
+    myRequestCount++;
+    // See UnifiedEventDataSeries, we don't expect more than one data group.
+    assert response.getGroupsCount() <= 1;
+    List<Common.Event> events = response.getGroupsCount() == 0 ? Collections.emptyList() : response.getGroups(0).getEventsList();
+
+    long lastInRangeNs = Long.MIN_VALUE;
+    removeRange(fromNs, toNs);
+    long[] timestamps = new long[events.size()];
+    long[] values = new long[events.size()];
+    int count = 0;
+    boolean isSorted = true;
+    for (Common.Event event : events) {
+      long timestamp = event.getTimestamp();
+      if (timestamp >= fromNs && timestamp <= toNs) {
+        lastInRangeNs = Math.max(lastInRangeNs, timestamp);
+      }
+      else if (indexOf(timestamp) >= 0) {
+        // The samples just outside the range are kept to answer the -1/+1 samples of later requests, unless they already are.
+        continue;
+      }
+      isSorted &= count == 0 || timestamps[count - 1] <= timestamp;
+      timestamps[count] = timestamp;
+      values[count] = myFieldExtractor.apply(event);
+      count++;
+    }
+    if (!isSorted) {
+      sort(timestamps, values, count);
+    }
+    merge(timestamps, values, count, fromNs, toNs);
+
+    long coveredMax = isTail ? lastInRangeNs : toNs;
+    if (coveredMax < fromNs) {
+      // No samples received in the range yet, so the window does not grow. The samples around the range are still returned for this
+      // request, an empty window is refetched entirely on the next one.
+      return;
+    }
+    myCoveredMin = Math.min(myCoveredMin, fromNs);
+    myCoveredMax = Math.max(myCoveredMax, coveredMax);
+  }
+
+  /**
+   * @return the samples in [fromNs, toNs] along with the last sample before and the first sample after the range.
+   */
+  @NotNull
+  private List<SeriesData<Long>> collect(long fromNs, long toNs) {
+    int start = lowerBound(fromNs);
+    int end = upperBound(toNs);
+    if (start > 0) {
+      start--;
+    }
+    if (end < mySize) {
+      end++;
+    }
+    List<SeriesData<Long>> data = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      data.add(new SeriesData<>(TimeUnit.NANOSECONDS.toMicros(myTimestamps[i]), myValues[i]));
+    }
+    return data;
+  }
+
+  /**
+   * Drops the samples outside of the margin around [fromNs, toNs], keeping one sample on each side of the new window.
+   */
+  private void evict(long fromNs, long toNs) {
+    if (myCoveredMin > myCoveredMax) {
+      return;
+    }
+    long margin = (long)((toNs - fromNs) * myEvictionMarginRatio);
+    long keepMin = Math.max(myCoveredMin, fromNs - margin);
+    long keepMax = Math.min(myCoveredMax, toNs + margin);
+    int start = Math.max(0, lowerBound(keepMin) - 1);
+    int end = Math.min(mySize, upperBound(keepMax) + 1);
+    if (start == 0 && end == mySize) {
+      return;
+    }
+    System.arraycopy(myTimestamps, start, myTimestamps, 0, end - start);
+    System.arraycopy(myValues, start, myValues, 0, end - start);
+    mySize = end - start;
+    myCoveredMin = keepMin;
+    myCoveredMax = keepMax;
+  }
+
+  private void clear() {
+    mySize = 0;
+    myCoveredMin = Long.MAX_VALUE;
+    myCoveredMax = Long.MIN_VALUE;
+  }
+
+  private void removeRange(long fromNs, long toNs) {
+    int start = lowerBound(fromNs);
+    int end = upperBound(toNs);
+    System.arraycopy(myTimestamps, end, myTimestamps, start, mySize - end);
+    System.arraycopy(myValues, end, myValues, start, mySize - end);
+    mySize -= end - start;
+  }
+
+  /**
+   * Sorts the first {@code count} samples by timestamp. Samples with the same timestamp keep the order they were returned in.
+   */
+  private static void sort(@NotNull long[] timestamps, @NotNull long[] values, int count) {
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    // Sorting objects is stable.
+    Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+    long[] sortedTimestamps = new long[count];
+    long[] sortedValues = new long[count];
+    for (int i = 0; i < count; i++) {
+      sortedTimestamps[i] = timestamps[order[i]];
+      sortedValues[i] = values[order[i]];
+    }
+    System.arraycopy(sortedTimestamps, 0, timestamps, 0, count);
+    System.arraycopy(sortedValues, 0, values, 0, count);
+  }
+
+  /**
+   * Merges the first {@code count} samples, sorted by timestamp, into the cache in a single pass rather than inserting them one at a
+   * time. Samples with the same timestamp go after the cached ones and keep the order they were returned in, except for the samples
+   * outside [fromNs, toNs] of which only the first one with a given timestamp is kept.
+   */
+  private void merge(@NotNull long[] timestamps, @NotNull long[] values, int count, long fromNs, long toNs) {
+    if (count == 0) {
+      return;
+    }
+    long[] mergedTimestamps = new long[Math.max(INITIAL_CAPACITY, mySize + count)];
+    long[] mergedValues = new long[mergedTimestamps.length];
+    int size = 0;
+    int cached = 0;
+    for (int fetched = 0; fetched < count; fetched++) {
+      long timestamp = timestamps[fetched];
+      if ((timestamp < fromNs || timestamp > toNs) && fetched > 0 && timestamps[fetched - 1] == timestamp) {
+        continue;
+      }
+      while (cached < mySize && myTimestamps[cached] <= timestamp) {
+        mergedTimestamps[size] = myTimestamps[cached];
+        mergedValues[size++] = myValues[cached++];
+      }
+      mergedTimestamps[size] = timestamp;
+      mergedValues[size++] = values[fetched];
+    }
+    System.arraycopy(myTimestamps, cached, mergedTimestamps, size, mySize - cached);
+    System.arraycopy(myValues, cached, mergedValues, size, mySize - cached);
+    myTimestamps = mergedTimestamps;
+    myValues = mergedValues;
+    mySize = size + mySize - cached;
+  }
+
+  private int indexOf(long timestampNs) {
+    int index = lowerBound(timestampNs);
+    return index < mySize && myTimestamps[index] == timestampNs ? index : -1;
+  }
+
+  /**
+   * @return the index of the first sample with a timestamp >= timestampNs.
+   */
+  private int lowerBound(long timestampNs) {
+    int low = 0;
+    int high = mySize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myTimestamps[mid] < timestampNs) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index of the first sample with a timestamp > timestampNs.
+   */
+  private int upperBound(long timestampNs) {
+    return timestampNs == Long.MAX_VALUE ? mySize : lowerBound(timestampNs + 1);
+  }
+}
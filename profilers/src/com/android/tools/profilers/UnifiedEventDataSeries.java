@@ -22,6 +22,9 @@ import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest;
 import com.android.tools.profiler.proto.Transport.GetEventGroupsResponse;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
+import com.google.common.annotations.VisibleForTesting;
+import io.grpc.Metadata;
+import io.grpc.stub.MetadataUtils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -37,6 +40,19 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
 
   public static final int DEFAULT_GROUP_ID = Common.Event.EventGroupIds.INVALID_VALUE;
 
+  /**
+   * The number of points a requested range is drawn with at most. The datastore is asked for events at the resolution of one such point,
+   * so zoomed-out ranges of numeric series only return the events holding the min, max and last value of each point.
+   */
+  @VisibleForTesting static final int TARGET_POINT_COUNT = 2000;
+
+  /**
+   * The call header the datastore reads the target resolution from. It is the same key as the datastore's own, which lives in a module the
+   * profilers don't depend on.
+   */
+  @VisibleForTesting static final Metadata.Key<String> TARGET_RESOLUTION_HEADER =
+    Metadata.Key.of("transport-target-resolution-ns", Metadata.ASCII_STRING_MARSHALLER);
+
   @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myClient;
   private final long myStreamId;
   private final int myPid;
@@ -76,7 +92,10 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
       .setFromTimestamp(TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMin()))
       .setToTimestamp(TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMax()))
       .build();
-    GetEventGroupsResponse response = myClient.getEventGroups(request);
+    Metadata headers = new Metadata();
+    headers.put(TARGET_RESOLUTION_HEADER, Long.toString(getTargetResolutionNs(rangeUs)));
+    GetEventGroupsResponse response =
+      myClient.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers)).getEventGroups(request);
     // We don't expect more than one data group in our numeric data series. This is to avoid having to sort the data from multiple groups
     // after they are added to the list. We can re-evaluate if the need arises.
     assert response.getGroupsCount() <= 1;
@@ -86,6 +105,11 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
     return myDataExtractor.apply(response.getGroups(0).getEventsList());
   }
 
+  @VisibleForTesting
+  static long getTargetResolutionNs(@NotNull Range rangeUs) {
+    return TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getLength()) / TARGET_POINT_COUNT;
+  }
+
   /**
    * Helper function that constructs list data extractor from a field extractor for the simple case of extracting one field out of every
    * {@link Common.Event}.
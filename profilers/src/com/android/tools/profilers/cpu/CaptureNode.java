@@ -20,13 +20,21 @@ import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.adtui.model.filter.FilterResult;
 import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class CaptureNode implements HNode<CaptureNode> {
 
+  /**
+   * Large traces produce millions of nodes, most of them leaves. Children are kept in a plain array that is only allocated once the first
+   * child is added, rather than in a list object per node.
+   */
+  private static final CaptureNode[] NO_CHILDREN = new CaptureNode[0];
+
   /**
    * Start time with GLOBAL clock.
    */
@@ -48,7 +56,15 @@ public class CaptureNode implements HNode<CaptureNode> {
   private long myEndThread;
 
   @NotNull
-  protected final List<CaptureNode> myChildren;
+  private CaptureNode[] myChildren;
+
+  private int myChildCount;
+
+  /**
+   * The view returned by {@link #getChildren()}, created on its first call so that nodes whose children are never listed don't pay for it.
+   */
+  @Nullable
+  private List<CaptureNode> myChildList;
 
   @NotNull
   private ClockType myClockType;
@@ -73,7 +89,7 @@ public class CaptureNode implements HNode<CaptureNode> {
   private final CaptureNodeModel myData;
 
   public CaptureNode(@NotNull CaptureNodeModel model) {
-    myChildren = new ArrayList<>();
+    myChildren = NO_CHILDREN;
     myClockType = ClockType.GLOBAL;
     myFilterType = FilterType.MATCH;
     myDepth = 0;
@@ -81,13 +97,29 @@ public class CaptureNode implements HNode<CaptureNode> {
   }
 
   public void addChild(CaptureNode node) {
-    myChildren.add(node);
+    appendChild(node);
     node.myParent = this;
   }
 
+  /**
+   * Adds the node to the children of this node, without making this node its parent.
+   */
+  protected void appendChild(@NotNull CaptureNode node) {
+    if (myChildCount == myChildren.length) {
+      myChildren = Arrays.copyOf(myChildren, Math.max(2, myChildCount + (myChildCount >> 1)));
+    }
+    myChildren[myChildCount++] = node;
+  }
+
+  /**
+   * @return a read-only view of the children, which reflects the children added later on.
+   */
   @NotNull
   public List<CaptureNode> getChildren() {
-    return myChildren;
+    if (myChildList == null) {
+      myChildList = new ChildList();
+    }
+    return myChildList;
   }
 
   @NotNull
@@ -97,13 +129,16 @@ public class CaptureNode implements HNode<CaptureNode> {
 
   @Override
   public int getChildCount() {
-    return myChildren.size();
+    return myChildCount;
   }
 
   @NotNull
   @Override
   public CaptureNode getChildAt(int index) {
-    return myChildren.get(index);
+    if (index >= myChildCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + myChildCount);
+    }
+    return myChildren[index];
   }
 
   @Nullable
@@ -208,7 +243,8 @@ public class CaptureNode implements HNode<CaptureNode> {
     ++totalCount;
 
     boolean allChildrenUnmatch = true;
-    for (CaptureNode child : getChildren()) {
+    for (int i = 0; i < myChildCount; ++i) {
+      CaptureNode child = myChildren[i];
       FilterResult result = child.applyFilter(filter, matches);
       matchCount += result.getMatchCount();
       totalCount += result.getTotalCount();
@@ -242,6 +278,18 @@ public class CaptureNode implements HNode<CaptureNode> {
     return getFilterType() == FilterType.UNMATCH;
   }
 
+  private final class ChildList extends AbstractList<CaptureNode> implements RandomAccess {
+    @Override
+    public CaptureNode get(int index) {
+      return getChildAt(index);
+    }
+
+    @Override
+    public int size() {
+      return myChildCount;
+    }
+  }
+
   public enum FilterType {
     /**
      * This {@link CaptureNode} matches to the filter.
@@ -22,7 +22,9 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.Timeline;
 import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profiler.proto.Cpu;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Map;
 import java.util.Set;
 import org.jetbrains.annotations.NotNull;
@@ -168,9 +170,15 @@ public class CpuCapture implements ConfigurableDurationData {
     if (node == null) {
       return;
     }
-    node.setClockType(clockType);
-    for (CaptureNode child : node.getChildren()) {
-      updateClockType(child, clockType);
+    // Call stacks of deep recursions can be far deeper than the JVM stack, so the tree is not traversed recursively.
+    Deque<CaptureNode> stack = new ArrayDeque<>();
+    stack.push(node);
+    while (!stack.isEmpty()) {
+      CaptureNode current = stack.pop();
+      current.setClockType(clockType);
+      for (int i = 0; i < current.getChildCount(); ++i) {
+        stack.push(current.getChildAt(i));
+      }
     }
   }
 
@@ -88,6 +88,11 @@ public class CpuCaptureParser {
    */
   private long myParsingStartTimeMs;
 
+  /**
+   * Fraction of the capture being parsed that has been processed so far, from 0 to 1, or -1 if the parser doesn't report its progress.
+   */
+  private volatile double myParsingProgress = -1;
+
   /**
    * Hint to the parser what process to look for. This is used when parsing Perfetto/Atrace captures that were recorded from the UI.
    */
@@ -165,6 +170,19 @@ public class CpuCaptureParser {
     return System.currentTimeMillis() - myParsingStartTimeMs;
   }
 
+  /**
+   * @return the fraction of the capture being parsed that has been processed so far, or -1 if it is unknown. The parser reports it from
+   * the parsing thread, so no aspect is fired when it changes. Instead, it is read on each {@link CpuProfilerAspect#CAPTURE_ELAPSED_TIME}
+   * fired while parsing.
+   */
+  public double getParsingProgress() {
+    return myParsingProgress;
+  }
+
+  private void setParsingProgress(double progress) {
+    myParsingProgress = progress;
+  }
+
   public void setProcessNameHint(@Nullable String processName, int processIdHint) {
     myProcessNameHint = processName;
     myProcessIdHint = processIdHint;
@@ -193,6 +211,7 @@ public class CpuCaptureParser {
   @VisibleForTesting // In order to be accessible from com.android.tools.profilers.cpu.capturedetails
   public void updateParsingStateWhenStarting() {
     myParsingStartTimeMs = System.currentTimeMillis();
+    myParsingProgress = -1;
     myIsParsing = true;
     myAspect.changed(CpuProfilerAspect.CAPTURE_PARSING);
   }
@@ -278,7 +297,7 @@ public class CpuCaptureParser {
   private CpuCapture tryParsingFileWithDifferentParsers(File traceFile) {
     try {
       // First try parsing the trace file as an ART trace.
-      ArtTraceParser artTraceParser = new ArtTraceParser();
+      ArtTraceParser artTraceParser = new ArtTraceParser(this::setParsingProgress);
       return artTraceParser.parse(traceFile, IMPORTED_TRACE_ID);
     }
     catch (Exception ignored) {
@@ -287,7 +306,7 @@ public class CpuCaptureParser {
 
     try {
       // Then, try parsing the file as a simpleperf trace.
-      SimpleperfTraceParser simpleperfParser = new SimpleperfTraceParser();
+      SimpleperfTraceParser simpleperfParser = new SimpleperfTraceParser(myServices.getPoolExecutor());
       return simpleperfParser.parse(traceFile, IMPORTED_TRACE_ID);
     }
     catch (Exception ignored) {
@@ -479,10 +498,10 @@ public class CpuCaptureParser {
       File trace = CpuCaptureStage.saveCapture(traceId, traceData);
       TraceParser parser;
       if (profilerType == CpuTraceType.ART) {
-        parser = new ArtTraceParser();
+        parser = new ArtTraceParser(this::setParsingProgress);
       }
       else if (profilerType == CpuTraceType.SIMPLEPERF) {
-        parser = new SimpleperfTraceParser();
+        parser = new SimpleperfTraceParser(myServices.getPoolExecutor());
       }
       else if (profilerType == CpuTraceType.ATRACE) {
         parser = new AtraceParser(session.getPid());
@@ -35,6 +35,8 @@ import com.google.common.collect.ImmutableMap;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
@@ -95,23 +97,27 @@ public class CpuAnalysisChartModel<T> extends CpuAnalysisTabModel<T> {
   }
 
   @NotNull
-  public CaptureDetails createDetails() {
-    return applyFilterAndCreateDetails(Filter.EMPTY_FILTER).getCaptureDetails();
+  public CompletableFuture<CaptureDetails> createDetails(@NotNull Executor poolExecutor, @NotNull Executor mainExecutor) {
+    return applyFilterAndCreateDetails(Filter.EMPTY_FILTER, poolExecutor, mainExecutor).getCaptureDetails();
   }
 
   /**
-   * Create capture details from the chart model with a filter applied.
+   * Create capture details from the chart model with a filter applied. The filter is applied right away, while the details are built
+   * with {@link CaptureDetails.Type#buildAsync}.
    *
    * @return capture details and filter result.
    */
   @NotNull
-  public CaptureDetailsWithFilterResult applyFilterAndCreateDetails(@NotNull Filter filter) {
+  public CaptureDetailsWithFilterResult applyFilterAndCreateDetails(@NotNull Filter filter,
+                                                                    @NotNull Executor poolExecutor,
+                                                                    @NotNull Executor mainExecutor) {
     List<CaptureNode> nodes = collectCaptureNodes();
     FilterResult combinedResult = nodes.stream()
       .map(node -> node.applyFilter(filter))
       .reduce(FilterResult::combine)
       .orElseGet(FilterResult::new);
-    return new CaptureDetailsWithFilterResult(myDetailsType.build(myCaptureConvertedRange, nodes, myCapture), combinedResult);
+    return new CaptureDetailsWithFilterResult(
+      myDetailsType.buildAsync(myCaptureConvertedRange, nodes, myCapture, poolExecutor, mainExecutor), combinedResult);
   }
 
   @NotNull
@@ -237,16 +243,16 @@ public class CpuAnalysisChartModel<T> extends CpuAnalysisTabModel<T> {
    * Helper class to hold both a {@link CaptureDetails} and {@link FilterResult}.
    */
   static final class CaptureDetailsWithFilterResult {
-    @NotNull private final CaptureDetails myCaptureDetails;
+    @NotNull private final CompletableFuture<CaptureDetails> myCaptureDetails;
     @NotNull private final FilterResult myFilterResult;
 
-    private CaptureDetailsWithFilterResult(@NotNull CaptureDetails captureDetails, @NotNull FilterResult filterResult) {
+    private CaptureDetailsWithFilterResult(@NotNull CompletableFuture<CaptureDetails> captureDetails, @NotNull FilterResult filterResult) {
       myCaptureDetails = captureDetails;
       myFilterResult = filterResult;
     }
 
     @NotNull
-    CaptureDetails getCaptureDetails() {
+    CompletableFuture<CaptureDetails> getCaptureDetails() {
       return myCaptureDetails;
     }
 
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.art;
+
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleConsumer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decodes an ART method trace into an {@link ArtTraceHandler} without reading the trace onto the heap. The trace is memory-mapped and its
+ * thread and method tables are decoded first. Its call records are then processed in chunks: the records of a chunk are split by thread,
+ * and the call stacks of different threads are built in parallel.
+ * <p>
+ * Only traces that start with the text header are supported, i.e. not the ones recorded in streaming mode.
+ */
+final class ArtTraceDecoder {
+  private static final int TRACE_MAGIC = 0x574f4c53; // 'SLOW'
+  private static final String HEADER_VERSION = "*version";
+  private static final String HEADER_THREADS = "*threads";
+  private static final String HEADER_METHODS = "*methods";
+  private static final String HEADER_END = "*end";
+  private static final String KEY_CLOCK = "clock";
+
+  /**
+   * The largest size of the data header, whose size is stored in 16 bits.
+   */
+  private static final int MAX_DATA_HEADER_SIZE = 0xFFFF;
+
+  /**
+   * Number of call records processed at once, which bounds the memory used to split them by thread.
+   */
+  private static final int DEFAULT_CHUNK_RECORDS = 1 << 20;
+
+  private enum Clock {
+    THREAD_CPU,
+    WALL,
+    DUAL
+  }
+
+  @NotNull private final File myTrace;
+  @NotNull private final ArtTraceHandler myHandler;
+  @NotNull private final DoubleConsumer myProgressListener;
+  private final int myChunkRecords;
+
+  private int myVersion;
+  @NotNull private Clock myClock = Clock.THREAD_CPU;
+
+  /**
+   * The records of the current chunk of every thread seen so far.
+   */
+  private final Map<Integer, ThreadRecords> myThreadRecords = new HashMap<>();
+
+  ArtTraceDecoder(@NotNull File trace, @NotNull ArtTraceHandler handler, @NotNull DoubleConsumer progressListener) {
+    this(trace, handler, progressListener, DEFAULT_CHUNK_RECORDS);
+  }
+
+  @VisibleForTesting
+  ArtTraceDecoder(@NotNull File trace, @NotNull ArtTraceHandler handler, @NotNull DoubleConsumer progressListener, int chunkRecords) {
+    myTrace = trace;
+    myHandler = handler;
+    myProgressListener = progressListener;
+    myChunkRecords = chunkRecords;
+  }
+
+  /**
+   * @return whether the trace starts with the text header, as opposed to traces recorded in streaming mode.
+   */
+  static boolean hasTextHeader(@NotNull File trace) throws IOException {
+    byte[] expected = HEADER_VERSION.getBytes(StandardCharsets.US_ASCII);
+    byte[] actual = new byte[expected.length];
+    try (InputStream input = new FileInputStream(trace)) {
+      int read = 0;
+      while (read < actual.length) {
+        int count = input.read(actual, read, actual.length - read);
+        if (count < 0) {
+          return false;
+        }
+        read += count;
+      }
+    }
+    return Arrays.equals(expected, actual);
+  }
+
+  void decode() throws IOException {
+    try (FileChannel channel = FileChannel.open(myTrace.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      long dataStart = decodeHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE)));
+
+      ByteBuffer dataHeader = channel.map(FileChannel.MapMode.READ_ONLY, dataStart, Math.min(size - dataStart, MAX_DATA_HEADER_SIZE))
+        .order(ByteOrder.LITTLE_ENDIAN);
+      if (dataHeader.getInt() != TRACE_MAGIC) {
+        throw new IOException("Error: magic number mismatch; got " + Integer.toHexString(dataHeader.getInt(0)));
+      }
+      int version = dataHeader.getShort();
+      if (version != myVersion) {
+        throw new IOException(String.format("Error: version number mismatch; got %d in data header but %d in options", version, myVersion));
+      }
+      if (version < 1 || version > 3) {
+        throw new IOException("Error: unsupported trace version number " + version);
+      }
+      int recordsOffset = dataHeader.getShort() & 0xFFFF;
+      myHandler.setStartTimeUs(dataHeader.getLong());
+      int recordSize = version == 1 ? 9 : version == 2 ? 10 : dataHeader.getShort();
+      if (recordSize < getRecordFieldsSize()) {
+        throw new IOException("Error: record size " + recordSize + " is too small");
+      }
+
+      long recordsStart = dataStart + recordsOffset;
+      long recordCount = (size - recordsStart) / recordSize;
+      if ((size - recordsStart) % recordSize != 0) {
+        // The last record is truncated.
+        throw new BufferUnderflowException();
+      }
+      for (long first = 0; first < recordCount; first += myChunkRecords) {
+        int count = (int)Math.min(myChunkRecords, recordCount - first);
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, recordsStart + first * recordSize, (long)count * recordSize);
+        decodeRecords(records, count, recordSize);
+        myProgressListener.accept((double)(first + count) / recordCount);
+      }
+    }
+  }
+
+  /**
+   * Decodes the version, options, threads and methods of the trace.
+   *
+   * @return the offset of the data section, which follows the header.
+   */
+  private long decodeHeader(@NotNull ByteBuffer header) throws IOException {
+    String section = null;
+    boolean versionRead = false;
+    int lineStart = 0;
+    for (int i = 0; i < header.limit(); ++i) {
+      if (header.get(i) != '\n') {
+        continue;
+      }
+      byte[] bytes = new byte[i - lineStart];
+      for (int j = 0; j < bytes.length; ++j) {
+        bytes[j] = header.get(lineStart + j);
+      }
+      String line = new String(bytes, StandardCharsets.UTF_8);
+      lineStart = i + 1;
+
+      if (section == null) {
+        if (!line.equals(HEADER_VERSION)) {
+          throw new IOException("Key section does not have an *version entry");
+        }
+        section = HEADER_VERSION;
+      }
+      else if (line.startsWith("*")) {
+        if (line.equals(HEADER_END)) {
+          return lineStart;
+        }
+        section = line;
+      }
+      else if (section.equals(HEADER_VERSION)) {
+        if (!versionRead) {
+          myVersion = Integer.decode(line);
+          myHandler.setVersion(myVersion);
+          versionRead = true;
+        }
+        else {
+          decodeOption(line);
+        }
+      }
+      else if (section.equals(HEADER_THREADS)) {
+        decodeThread(line);
+      }
+      else if (section.equals(HEADER_METHODS)) {
+        decodeMethod(line);
+      }
+    }
+    throw new IOException("Key section does not have an *end marker");
+  }
+
+  private void decodeOption(@NotNull String line) {
+    int index = line.indexOf('=');
+    if (index < 0) {
+      return;
+    }
+    String key = line.substring(0, index);
+    String value = line.substring(index + 1);
+    if (key.equals(KEY_CLOCK)) {
+      switch (value) {
+        case "thread-cpu":
+          myClock = Clock.THREAD_CPU;
+          break;
+        case "wall":
+          myClock = Clock.WALL;
+          break;
+        case "dual":
+          myClock = Clock.DUAL;
+          break;
+      }
+    }
+    myHandler.setProperty(key, value);
+  }
+
+  private void decodeThread(@NotNull String line) {
+    int index = line.indexOf('\t');
+    if (index < 0) {
+      return;
+    }
+    try {
+      myHandler.addThread(Integer.decode(line.substring(0, index)), line.substring(index).trim());
+    }
+    catch (NumberFormatException ignored) {
+      // Threads with malformed ids are skipped, like traceview does.
+    }
+  }
+
+  private void decodeMethod(@NotNull String line) {
+    String[] tokens = line.split("\t");
+    long id;
+    try {
+      id = Long.decode(tokens[0]);
+    }
+    catch (NumberFormatException ex) {
+      return;
+    }
+    String className = tokens.length > 1 ? tokens[1] : null;
+    String methodName = null;
+    String signature = null;
+    // The method name and signature are followed by the source file and, optionally, the line number.
+    if (tokens.length == 6 || (tokens.length > 3 && tokens[3].startsWith("("))) {
+      methodName = tokens[2];
+      signature = tokens[3];
+    }
+    myHandler.addMethod(id, className, methodName, signature);
+  }
+
+  private int getRecordFieldsSize() {
+    return getThreadIdSize() + 4 + (myClock == Clock.DUAL ? 8 : 4);
+  }
+
+  private int getThreadIdSize() {
+    return myVersion == 1 ? 1 : 2;
+  }
+
+  /**
+   * Splits the records of a chunk by thread, then adds the records of every thread to its call stack in parallel.
+   */
+  private void decodeRecords(@NotNull ByteBuffer records, int count, int recordSize) {
+    records.order(ByteOrder.LITTLE_ENDIAN);
+    myThreadRecords.values().forEach(ThreadRecords::clear);
+
+    int lastThreadId = 0;
+    ThreadRecords lastThread = null;
+    for (int i = 0, offset = 0; i < count; ++i, offset += recordSize) {
+      int threadId = myVersion == 1 ? records.get(offset) : records.getShort(offset);
+      if (lastThread == null || threadId != lastThreadId) {
+        lastThread = myThreadRecords.get(threadId);
+        if (lastThread == null) {
+          lastThread = new ThreadRecords(myHandler.getNodeConstructor(threadId));
+          myThreadRecords.put(threadId, lastThread);
+        }
+        lastThreadId = threadId;
+      }
+      lastThread.add(offset);
+    }
+
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (ThreadRecords thread : myThreadRecords.values()) {
+      if (thread.mySize > 0) {
+        // Buffers are not thread safe, each task reads from its own view of the chunk.
+        ByteBuffer view = records.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        tasks.add(ForkJoinTask.adapt(() -> addRecords(thread, view)));
+      }
+    }
+    if (tasks.size() == 1) {
+      tasks.get(0).invoke();
+      return;
+    }
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+  }
+
+  private void addRecords(@NotNull ThreadRecords thread, @NotNull ByteBuffer records) {
+    int methodOffset = getThreadIdSize();
+    for (int i = 0; i < thread.mySize; ++i) {
+      int offset = thread.myOffsets[i];
+      int methodWord = records.getInt(offset + methodOffset);
+      int threadTime;
+      int globalTime;
+      switch (myClock) {
+        case WALL:
+          globalTime = records.getInt(offset + methodOffset + 4);
+          threadTime = globalTime;
+          break;
+        case DUAL:
+          threadTime = records.getInt(offset + methodOffset + 4);
+          globalTime = records.getInt(offset + methodOffset + 8);
+          break;
+        case THREAD_CPU:
+        default:
+          threadTime = records.getInt(offset + methodOffset + 4);
+          globalTime = threadTime;
+          break;
+      }
+
+      CaptureNodeModel method = myHandler.getMethod(Integer.toUnsignedLong(methodWord & ~0x03));
+      switch (methodWord & 0x03) {
+        case 0:
+          thread.myConstructor.enterMethod(method, threadTime, globalTime);
+          break;
+        case 1: // Method exit
+        case 2: // Method exit by an exception
+          thread.myConstructor.exitMethod(method, threadTime, globalTime);
+          break;
+        default:
+          throw new IllegalStateException("Invalid trace action, expected one of method entry, exit or unroll.");
+      }
+    }
+  }
+
+  /**
+   * Offsets of the records of a thread within a chunk.
+   */
+  private static final class ThreadRecords {
+    @NotNull private final CaptureNodeConstructor myConstructor;
+    @NotNull private int[] myOffsets = new int[16];
+    private int mySize;
+
+    private ThreadRecords(@NotNull CaptureNodeConstructor constructor) {
+      myConstructor = constructor;
+    }
+
+    private void add(int offset) {
+      if (mySize == myOffsets.length) {
+        myOffsets = Arrays.copyOf(myOffsets, mySize * 2);
+      }
+      myOffsets[mySize++] = offset;
+    }
+
+    private void clear() {
+      mySize = 0;
+    }
+  }
+}
@@ -27,6 +27,7 @@ import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -46,6 +47,12 @@ public class ArtTraceHandler implements VmTraceHandler {
    */
   private final Map<Long, CaptureNodeModel> myMethods = new HashMap<>();
 
+  /**
+   * Map from method id to method model, for the methods missing from the trace header. Call stacks of different threads may be built
+   * concurrently (see {@link ArtTraceDecoder}), so unlike {@link #myMethods} it is updated while call records are added.
+   */
+  private final Map<Long, CaptureNodeModel> myUnknownMethods = new ConcurrentHashMap<>();
+
   /**
    * Map from thread id to per thread stack call constructor.
    */
@@ -61,29 +68,45 @@ public class ArtTraceHandler implements VmTraceHandler {
 
   @Override
   public void addMethod(long id, MethodInfo info) {
-    myMethods.put(id, new JavaMethodModel(info.methodName, info.className, info.signature));
+    addMethod(id, info.className, info.methodName, info.signature);
+  }
+
+  void addMethod(long id, String className, String methodName, String signature) {
+    myMethods.put(id, new JavaMethodModel(methodName, className, signature));
   }
 
   @Override
   public void addMethodAction(int threadId, long methodId, TraceAction methodAction,
                               int threadTime, int globalTime) {
-    // create thread info if it doesn't exist
-    if (!myThreads.containsKey(threadId)) {
-      myThreads.put(threadId, String.format("Thread id: %1$d", threadId));
-    }
-
-    // create method info if it doesn't exist
-    if (!myMethods.containsKey(methodId)) {
-      myMethods.put(methodId, new SingleNameModel("unknown"));
-    }
+    getNodeConstructor(threadId).addTraceAction(getMethod(methodId), methodAction, threadTime, globalTime);
+  }
 
+  /**
+   * @return the call stack constructor of the thread, creating the thread if it doesn't exist. Must not be called concurrently.
+   */
+  @NotNull
+  CaptureNodeConstructor getNodeConstructor(int threadId) {
     CaptureNodeConstructor constructor = myNodeConstructors.get(threadId);
     if (constructor == null) {
+      // create thread info if it doesn't exist
+      if (!myThreads.containsKey(threadId)) {
+        myThreads.put(threadId, String.format("Thread id: %1$d", threadId));
+      }
       CaptureNodeModel topLevelModel = createUniqueMethodForThread(threadId);
       constructor = new CaptureNodeConstructor(topLevelModel);
       myNodeConstructors.put(threadId, constructor);
     }
-    constructor.addTraceAction(myMethods.get(methodId), methodAction, threadTime, globalTime);
+    return constructor;
+  }
+
+  /**
+   * @return the model of the method, creating one if it doesn't exist. Can be called concurrently once the methods of the trace header
+   * have been added.
+   */
+  @NotNull
+  CaptureNodeModel getMethod(long methodId) {
+    CaptureNodeModel model = myMethods.get(methodId);
+    return model != null ? model : myUnknownMethods.computeIfAbsent(methodId, id -> new SingleNameModel("unknown"));
   }
 
   private CaptureNodeModel createUniqueMethodForThread(int threadId) {
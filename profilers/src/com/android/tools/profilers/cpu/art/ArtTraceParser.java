@@ -25,6 +25,8 @@ import com.android.tools.profilers.cpu.TraceParser;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.function.DoubleConsumer;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * Receives a binary trace file generated by using ART and parse it into a {@link CpuCapture}
@@ -33,10 +35,29 @@ public class ArtTraceParser implements TraceParser {
 
   private final ArtTraceHandler myTraceHandler = new ArtTraceHandler();
 
+  /**
+   * Notified of the fraction of the call records processed so far, from 0 to 1.
+   */
+  @NotNull private final DoubleConsumer myProgressListener;
+
+  public ArtTraceParser() {
+    this(progress -> {});
+  }
+
+  public ArtTraceParser(@NotNull DoubleConsumer progressListener) {
+    myProgressListener = progressListener;
+  }
+
   @Override
   public CpuCapture parse(File trace, long traceId) throws IOException {
-    VmTraceParser parser = new VmTraceParser(trace, myTraceHandler);
-    parser.parse();
+    if (ArtTraceDecoder.hasTextHeader(trace)) {
+      new ArtTraceDecoder(trace, myTraceHandler, myProgressListener).decode();
+    }
+    else {
+      // Traces recorded in streaming mode store their threads and methods after the call records.
+      VmTraceParser parser = new VmTraceParser(trace, myTraceHandler);
+      parser.parse();
+    }
     return new CpuCapture(this, traceId, Cpu.CpuTraceType.ART);
   }
 
@@ -61,7 +61,7 @@ class CaptureNodeConstructor {
     }
   }
 
-  private void enterMethod(CaptureNodeModel captureNodeModel, int threadTime, int globalTime) {
+  void enterMethod(CaptureNodeModel captureNodeModel, int threadTime, int globalTime) {
     CaptureNode node = new CaptureNode(captureNodeModel);
     node.setStartGlobal(globalTime);
     node.setStartThread(threadTime);
@@ -75,7 +75,7 @@ class CaptureNodeConstructor {
     myCurrentNode = node;
   }
 
-  private void exitMethod(CaptureNodeModel captureNodeModel, long threadTime, long globalTime) {
+  void exitMethod(CaptureNodeModel captureNodeModel, long threadTime, long globalTime) {
     if (myCurrentNode != null) {
       if (myCurrentNode.getData() != captureNodeModel) {
         String msg = String
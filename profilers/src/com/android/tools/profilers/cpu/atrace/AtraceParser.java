@@ -157,19 +157,18 @@ public class AtraceParser implements TraceParser {
    */
   private void parseModelIfNeeded(@NotNull File file) throws IOException {
     if (myModel == null) {
-      TrebuchetBufferProducer producer;
       if (AtraceProducer.verifyFileHasAtraceHeader(file)) {
-        producer = new AtraceProducer();
+        TrebuchetBufferProducer producer = new AtraceProducer();
+        if (!producer.parseFile(file)) {
+          throw new IOException("Failed to parse file: " + file.getAbsolutePath());
+        }
+        ImportTask task = new ImportTask(new PrintlnImportFeedback());
+        myModel = task.importBuffer(producer);
       }
       else {
-        producer = new PerfettoProducer();
-      }
-      if (!producer.parseFile(file)) {
-        throw new IOException("Failed to parse file: " + file.getAbsolutePath());
+        // Perfetto events are imported straight into the model instead of going through atrace lines.
+        myModel = new PerfettoImporter(new PrintlnImportFeedback()).importFile(file);
       }
-
-      ImportTask task = new ImportTask(new PrintlnImportFeedback());
-      myModel = task.importBuffer(producer);
       // We check if we have a parent timestamp. If not this could be from an imported trace.
       // In the case it is 0, we use the first timestamp of our capture as a reference point.
       if (Double.compare(myModel.getParentTimestamp(), 0.0) == 0) {
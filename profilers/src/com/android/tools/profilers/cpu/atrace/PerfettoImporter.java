@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import com.android.tools.idea.protobuf.CodedInputStream;
+import com.android.tools.idea.protobuf.ExtensionRegistryLite;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.containers.Predicate;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import perfetto.protos.PerfettoTrace;
+import trebuchet.importers.ImportFeedback;
+import trebuchet.importers.ftrace.FtraceEventImporter;
+import trebuchet.model.ConstantsKt;
+import trebuchet.model.Model;
+
+/**
+ * This class builds a trebuchet {@link Model} directly from the ftrace events of a perfetto trace. Unlike {@link PerfettoProducer} it
+ * does not format each event as an atrace line for trebuchet to parse back, the decoded fields are passed straight to the model
+ * fragment builders through {@link FtraceEventImporter}.
+ */
+public class PerfettoImporter {
+  // Events we know how to add to the model, the rest are dropped before sorting.
+  private static final Predicate<PerfettoTrace.FtraceEvent> IS_SUPPORTED_EVENT = event ->
+    event.hasSchedSwitch() ||
+    event.hasSchedWakeup() ||
+    event.hasSchedWaking() ||
+    event.hasPrint() ||
+    event.hasCpuFrequency();
+
+  @NotNull private final ImportFeedback myFeedback;
+
+  private static double nanosToSeconds(double nanos) {
+    return nanos / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PerfettoImporter.class);
+  }
+
+  public PerfettoImporter(@NotNull ImportFeedback feedback) {
+    myFeedback = feedback;
+  }
+
+  @NotNull
+  public Model importFile(@NotNull File file) throws IOException {
+    ExtensionRegistryLite packetRegistry = ExtensionRegistryLite.newInstance();
+    PerfettoTrace.registerAllExtensions(packetRegistry);
+    // Events only reference threads by id, so a first pass collects thread names and thread groups before any event is imported.
+    PerfettoTraceMetadata metadata = PerfettoTraceMetadata.read(file, packetRegistry);
+
+    // Events within and across bundles are out of order, however the model builders expect them in time order. Each event is encoded
+    // as the cpu of its bundle followed by the serialized event.
+    PerfettoPacketSorter sorter = new PerfettoPacketSorter();
+    try {
+      try (FileInputStream fileStream = new FileInputStream(file)) {
+        CodedInputStream inputStream = CodedInputStream.newInstance(fileStream);
+        PerfettoTrace.TracePacket packet;
+        while ((packet = PerfettoProducer.readOnePacket(inputStream, packetRegistry)) != null) {
+          if (!packet.hasFtraceEvents()) {
+            continue;
+          }
+          PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
+          for (PerfettoTrace.FtraceEvent event : bundle.getEventList()) {
+            if (IS_SUPPORTED_EVENT.apply(event)) {
+              byte[] eventBytes = event.toByteArray();
+              byte[] record = new byte[Integer.BYTES + eventBytes.length];
+              ByteBuffer.wrap(record).putInt(bundle.getCpu()).put(eventBytes);
+              sorter.addRecord(event.getTimestamp(), record);
+            }
+          }
+        }
+      }
+      sorter.resetForIterator();
+
+      FtraceEventImporter importer = new FtraceEventImporter(myFeedback);
+      // Each perfetto trace has many clock sync packets. We need the mono and real time clocks from the first packet to align
+      // timestamps with ftrace to timestamps from studio.
+      if (metadata.hasClockSync()) {
+        importer.clockSync(nanosToSeconds(metadata.getBoottimeTimestampNs()),
+                           nanosToSeconds(metadata.getMonotonicTimestampNs()),
+                           TimeUnit.NANOSECONDS.toMillis(metadata.getRealtimeTimestampNs()));
+      }
+      else {
+        getLogger().warn("Perfetto trace has no clock snapshot, timestamps will not be aligned.");
+      }
+      while (sorter.hasNext()) {
+        byte[] record = sorter.nextRecord();
+        int cpu = ByteBuffer.wrap(record).getInt();
+        PerfettoTrace.FtraceEvent event =
+          PerfettoTrace.FtraceEvent.parser().parseFrom(record, Integer.BYTES, record.length - Integer.BYTES, packetRegistry);
+        importEvent(importer, metadata, event, cpu);
+      }
+      return importer.finish();
+    }
+    finally {
+      sorter.close();
+    }
+  }
+
+  private static void importEvent(@NotNull FtraceEventImporter importer,
+                                  @NotNull PerfettoTraceMetadata metadata,
+                                  @NotNull PerfettoTrace.FtraceEvent event,
+                                  int cpu) {
+    double timestamp = nanosToSeconds(event.getTimestamp());
+    int pid = event.getPid();
+    int tgid = metadata.getTidToTgid().getOrDefault(pid, ConstantsKt.InvalidId);
+    String task = metadata.getTidToName().get(pid);
+    importer.hintTask(pid, tgid, task);
+
+    if (event.hasSchedSwitch()) {
+      PerfettoTrace.SchedSwitchFtraceEvent sched = event.getSchedSwitch();
+      importer.schedSwitch(timestamp, cpu, sched.getPrevPid(), sched.getPrevComm(),
+                           FtraceEventImporter.schedulingStateFor(sched.getPrevState()), sched.getNextPid(), sched.getNextComm());
+    }
+    else if (event.hasSchedWakeup()) {
+      PerfettoTrace.SchedWakeupFtraceEvent sched = event.getSchedWakeup();
+      importer.schedWakeup(timestamp, sched.getPid(), sched.getComm());
+    }
+    else if (event.hasSchedWaking()) {
+      // Like the atrace line importer, waking is handled as a wakeup.
+      PerfettoTrace.SchedWakingFtraceEvent sched = event.getSchedWaking();
+      importer.schedWakeup(timestamp, sched.getPid(), sched.getComm());
+    }
+    else if (event.hasPrint()) {
+      importer.tracingMarkWrite(timestamp, pid, tgid, task, event.getPrint().getBuf().replace("\n", ""));
+    }
+    else if (event.hasCpuFrequency()) {
+      PerfettoTrace.CpuFrequencyFtraceEvent frequency = event.getCpuFrequency();
+      importer.cpuFrequency(timestamp, frequency.getCpuId(), frequency.getState());
+    }
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * This class collects records generated from {@link perfetto.protos.PerfettoTrace.FtraceEventBundle}s, either atrace lines or encoded
+ * events, and returns them ordered by timestamp. The bundles come in out of order, as well as the events within a bundle, so every
+ * record needs to be sorted before trebuchet can consume it.
+ * <p>
+ * Records are buffered in primitive arrays (timestamps, offsets and lengths) backed by a single byte buffer. When the buffered data
+ * exceeds the heap budget the buffer is sorted and spilled as a run to a temp file. Once all records have been added,
+ * {@link #resetForIterator()} sorts whatever is still buffered and the iterator k-way merges the in-memory run with the spilled runs, which
+ * are read back through memory-mapped buffers, or streamed from their files if they can't be mapped. Records with equal timestamps are
+ * returned in the order they were added.
+ */
+public class PerfettoPacketSorter implements Iterator<String> {
+  /**
+   * Default amount of heap used to buffer records before spilling a sorted run to disk. A 30 second capture generates a few hundred MB
+   * of lines, so this keeps the number of runs (and memory-mapped files) to a handful.
+   */
+  private static final long DEFAULT_HEAP_BUDGET_BYTES = 64 * 1024 * 1024;
+  /**
+   * Per-record bookkeeping cost: one long timestamp, one int offset and one int length.
+   */
+  private static final int BYTES_PER_RECORD_ENTRY = Long.BYTES + Integer.BYTES * 2;
+  private static final int INITIAL_RECORD_CAPACITY = 1024;
+
+  private final long myHeapBudgetBytes;
+  private final List<File> myRunFiles = new ArrayList<>();
+  /**
+   * Set once spilling a run failed, after which every record is kept in memory. Otherwise each added record would try, and fail, to
+   * spill the whole buffer again.
+   */
+  private boolean mySpillDisabled;
+
+  private long[] myTimestamps = new long[INITIAL_RECORD_CAPACITY];
+  private int[] myOffsets = new int[INITIAL_RECORD_CAPACITY];
+  private int[] myLengths = new int[INITIAL_RECORD_CAPACITY];
+  private byte[] myRecordData = new byte[INITIAL_RECORD_CAPACITY * 64];
+  private int myRecordCount;
+  private int myRecordDataSize;
+
+  /**
+   * Runs ordered by their next timestamp. Null until {@link #resetForIterator()} is called.
+   */
+  @Nullable private PriorityQueue<SortedRun> myMergeQueue;
+  /**
+   * Every run opened by {@link #resetForIterator()}, including the exhausted ones, so {@link #close()} can release them.
+   */
+  private final List<SortedRun> myOpenRuns = new ArrayList<>();
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PerfettoPacketSorter.class);
+  }
+
+  public PerfettoPacketSorter() {
+    this(DEFAULT_HEAP_BUDGET_BYTES);
+  }
+
+  @VisibleForTesting
+  public PerfettoPacketSorter(long heapBudgetBytes) {
+    myHeapBudgetBytes = heapBudgetBytes;
+  }
+
+  /**
+   * As a trace file is loaded each event of a {@link perfetto.protos.PerfettoTrace.FtraceEventBundle} should be converted to a line and
+   * added to the sorter along with its timestamp.
+   */
+  public void addLine(long timestamp, @NotNull String line) {
+    addRecord(timestamp, line.getBytes(Charsets.UTF_8));
+  }
+
+  /**
+   * Adds an opaque record to be returned by {@link #nextRecord()}. Lines and records should not be mixed in one sorter.
+   */
+  public void addRecord(long timestamp, @NotNull byte[] record) {
+    if (myMergeQueue != null) {
+      getLogger().warn("Attempted to add a record after the sorter has been reset for iteration.");
+      return;
+    }
+    if (myRecordCount > 0 && !mySpillDisabled &&
+        (long)(myRecordCount + 1) * BYTES_PER_RECORD_ENTRY + myRecordDataSize + record.length > myHeapBudgetBytes) {
+      spillRun();
+    }
+    ensureCapacity(record.length);
+    System.arraycopy(record, 0, myRecordData, myRecordDataSize, record.length);
+    myTimestamps[myRecordCount] = timestamp;
+    myOffsets[myRecordCount] = myRecordDataSize;
+    myLengths[myRecordCount] = record.length;
+    myRecordDataSize += record.length;
+    myRecordCount++;
+  }
+
+  /**
+   * This function should be called when we want to finalize this class for writing and enable it for reading.
+   * The records still in memory are sorted and every spilled run is mapped back in to be merged.
+   *
+   * @throws IOException if a spilled run can be neither mapped nor read, in which case its records would be missing.
+   */
+  public void resetForIterator() throws IOException {
+    if (myMergeQueue != null) {
+      return;
+    }
+    myMergeQueue = new PriorityQueue<>();
+    // Spilled runs are added first, as they contain the records that were added first. This keeps records with equal timestamps in
+    // the order they were added.
+    for (int i = 0; i < myRunFiles.size(); i++) {
+      File runFile = myRunFiles.get(i);
+      SortedRun run;
+      try {
+        run = new MappedRun(runFile, i);
+      }
+      catch (IOException ex) {
+        // Mapping can fail when the address space runs out, reading the run sequentially doesn't need any.
+        getLogger().warn("Failed to map a sorted run, streaming it instead.", ex);
+        run = new StreamedRun(runFile, i);
+      }
+      myOpenRuns.add(run);
+      addRun(run);
+    }
+    SortedRun inMemoryRun = new InMemoryRun(sortedIndices(), myRunFiles.size());
+    myOpenRuns.add(inMemoryRun);
+    addRun(inMemoryRun);
+  }
+
+  /**
+   * Free all buffered records and delete any run spilled to disk.
+   */
+  public void close() {
+    myMergeQueue = null;
+    // The runs are released before their files are deleted, as open or mapped files can't be deleted on Windows. A mapping is only
+    // unmapped once its buffer is garbage collected though, so a file that still can't be deleted is deleted on exit.
+    for (SortedRun run : myOpenRuns) {
+      run.close();
+    }
+    myOpenRuns.clear();
+    for (File runFile : myRunFiles) {
+      FileUtil.delete(runFile);
+    }
+    myRunFiles.clear();
+
+    // Reset to the initial state.
+    myTimestamps = new long[INITIAL_RECORD_CAPACITY];
+    myOffsets = new int[INITIAL_RECORD_CAPACITY];
+    myLengths = new int[INITIAL_RECORD_CAPACITY];
+    myRecordData = new byte[INITIAL_RECORD_CAPACITY * 64];
+    myRecordCount = 0;
+    myRecordDataSize = 0;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return myMergeQueue != null && !myMergeQueue.isEmpty();
+  }
+
+  @Override
+  @NotNull
+  public String next() {
+    return new String(nextRecord(), Charsets.UTF_8);
+  }
+
+  /**
+   * @return the bytes of the next record in timestamp order.
+   */
+  @NotNull
+  public byte[] nextRecord() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SortedRun run = myMergeQueue.poll();
+    byte[] record = run.takeRecord();
+    addRun(run);
+    return record;
+  }
+
+  private void addRun(@NotNull SortedRun run) {
+    assert myMergeQueue != null;
+    if (run.hasRecord()) {
+      myMergeQueue.add(run);
+    }
+    else {
+      run.close();
+    }
+  }
+
+  private void ensureCapacity(int recordLength) {
+    if (myRecordCount == myTimestamps.length) {
+      int capacity = myTimestamps.length * 2;
+      myTimestamps = Arrays.copyOf(myTimestamps, capacity);
+      myOffsets = Arrays.copyOf(myOffsets, capacity);
+      myLengths = Arrays.copyOf(myLengths, capacity);
+    }
+    if (myRecordDataSize + recordLength > myRecordData.length) {
+      int capacity = Math.max(myRecordData.length * 2, myRecordDataSize + recordLength);
+      myRecordData = Arrays.copyOf(myRecordData, capacity);
+    }
+  }
+
+  /**
+   * Sorts the buffered records and writes them to a temp file as a sequence of (timestamp, length, bytes) entries.
+   */
+  private void spillRun() {
+    int[] order = sortedIndices();
+    try {
+      File runFile = FileUtil.createTempFile("perfetto", ".run", true);
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
+        for (int index : order) {
+          output.writeLong(myTimestamps[index]);
+          output.writeInt(myLengths[index]);
+          output.write(myRecordData, myOffsets[index], myLengths[index]);
+        }
+      }
+      myRunFiles.add(runFile);
+    }
+    catch (IOException ex) {
+      // If we can't spill, keep the records in memory rather than dropping them.
+      getLogger().warn("Failed to spill a sorted run, keeping every record in memory.", ex);
+      mySpillDisabled = true;
+      return;
+    }
+    myRecordCount = 0;
+    myRecordDataSize = 0;
+  }
+
+  /**
+   * @return the indices of the buffered records, stably sorted by timestamp.
+   */
+  @NotNull
+  private int[] sortedIndices() {
+    int[] indices = new int[myRecordCount];
+    for (int i = 0; i < myRecordCount; i++) {
+      indices[i] = i;
+    }
+    mergeSort(indices, new int[myRecordCount], 0, myRecordCount, myTimestamps);
+    return indices;
+  }
+
+  /**
+   * Stable merge sort of {@code indices[from, to)} keyed by {@code keys[index]}. Perfetto bundles are mostly sorted already so runs that
+   * are in order are detected and skip the merge step.
+   */
+  private static void mergeSort(@NotNull int[] indices, @NotNull int[] scratch, int from, int to, @NotNull long[] keys) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(indices, scratch, from, mid, keys);
+    mergeSort(indices, scratch, mid, to, keys);
+    if (keys[indices[mid - 1]] <= keys[indices[mid]]) {
+      return;
+    }
+    System.arraycopy(indices, from, scratch, from, to - from);
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < mid && keys[scratch[left]] <= keys[scratch[right]])) {
+        indices[i] = scratch[left++];
+      }
+      else {
+        indices[i] = scratch[right++];
+      }
+    }
+  }
+
+  /**
+   * A sequence of records sorted by timestamp. Runs are compared by their next timestamp, then by the order they were created in.
+   */
+  private abstract static class SortedRun implements Comparable<SortedRun> {
+    private final int myRunIndex;
+
+    SortedRun(int runIndex) {
+      myRunIndex = runIndex;
+    }
+
+    abstract boolean hasRecord();
+
+    abstract long peekTimestamp();
+
+    @NotNull
+    abstract byte[] takeRecord();
+
+    /**
+     * Releases the resources of the run, after which it has no more records.
+     */
+    void close() {
+    }
+
+    @Override
+    public int compareTo(@NotNull SortedRun other) {
+      int result = Long.compare(peekTimestamp(), other.peekTimestamp());
+      return result != 0 ? result : Integer.compare(myRunIndex, other.myRunIndex);
+    }
+  }
+
+  /**
+   * The records that were never spilled to disk.
+   */
+  private final class InMemoryRun extends SortedRun {
+    @NotNull private final int[] myOrder;
+    private int myPosition;
+
+    InMemoryRun(@NotNull int[] order, int runIndex) {
+      super(runIndex);
+      myOrder = order;
+    }
+
+    @Override
+    boolean hasRecord() {
+      return myPosition < myOrder.length;
+    }
+
+    @Override
+    long peekTimestamp() {
+      return myTimestamps[myOrder[myPosition]];
+    }
+
+    @NotNull
+    @Override
+    byte[] takeRecord() {
+      int index = myOrder[myPosition++];
+      return Arrays.copyOfRange(myRecordData, myOffsets[index], myOffsets[index] + myLengths[index]);
+    }
+  }
+
+  /**
+   * A run spilled to disk, read back through a memory-mapped buffer.
+   */
+  private static final class MappedRun extends SortedRun {
+    @Nullable private MappedByteBuffer myBuffer;
+
+    MappedRun(@NotNull File runFile, int runIndex) throws IOException {
+      super(runIndex);
+      try (RandomAccessFile file = new RandomAccessFile(runFile, "r"); FileChannel channel = file.getChannel()) {
+        myBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+
+    @Override
+    boolean hasRecord() {
+      return myBuffer != null && myBuffer.hasRemaining();
+    }
+
+    @Override
+    long peekTimestamp() {
+      assert myBuffer != null;
+      return myBuffer.getLong(myBuffer.position());
+    }
+
+    @NotNull
+    @Override
+    byte[] takeRecord() {
+      assert myBuffer != null;
+      myBuffer.getLong();
+      byte[] record = new byte[myBuffer.getInt()];
+      myBuffer.get(record);
+      return record;
+    }
+
+    @Override
+    void close() {
+      // Dropping the buffer lets it, and its mapping, be garbage collected.
+      myBuffer = null;
+    }
+  }
+
+  /**
+   * A run spilled to disk, read back sequentially through a buffered stream. Used for the runs that can't be mapped.
+   */
+  private static final class StreamedRun extends SortedRun {
+    @NotNull private final DataInputStream myInput;
+    private long myRemainingBytes;
+    private long myNextTimestamp;
+
+    StreamedRun(@NotNull File runFile, int runIndex) throws IOException {
+      super(runIndex);
+      myRemainingBytes = runFile.length();
+      myInput = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+      try {
+        readTimestamp();
+      }
+      catch (IOException ex) {
+        myInput.close();
+        throw ex;
+      }
+    }
+
+    @Override
+    boolean hasRecord() {
+      return myRemainingBytes > 0;
+    }
+
+    @Override
+    long peekTimestamp() {
+      return myNextTimestamp;
+    }
+
+    @NotNull
+    @Override
+    byte[] takeRecord() {
+      try {
+        byte[] record = new byte[myInput.readInt()];
+        myInput.readFully(record);
+        myRemainingBytes -= Long.BYTES + Integer.BYTES + record.length;
+        readTimestamp();
+        return record;
+      }
+      catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+
+    private void readTimestamp() throws IOException {
+      if (myRemainingBytes > 0) {
+        myNextTimestamp = myInput.readLong();
+      }
+    }
+
+    @Override
+    void close() {
+      myRemainingBytes = 0;
+      try {
+        myInput.close();
+      }
+      catch (IOException ex) {
+        getLogger().warn(ex);
+      }
+    }
+  }
+}
@@ -25,7 +25,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayDeque;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
@@ -49,9 +48,8 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     event.hasSchedWaking() ||
     event.hasPrint();
 
-  // Maps thread id to thread group id. A tgid is the thread id at the root of the tree. This is also known as the PID in user space.
   private final ArrayDeque<String> myGeneratedTrebuchetLines = new ArrayDeque<>();
-  private final PerfettoPacketDBSorter mySorter = new PerfettoPacketDBSorter();
+  private final PerfettoPacketSorter mySorter = new PerfettoPacketSorter();
 
   private static double nanosToSeconds(double nanos) {
     return nanos / TimeUnit.SECONDS.toNanos(1);
@@ -92,7 +90,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
    *
    * @return Null is returned for end of stream, otherwise a trace packet is returned.
    */
-  private static PerfettoTrace.TracePacket readOnePacket(CodedInputStream stream, ExtensionRegistryLite packetRegistry) {
+  static PerfettoTrace.TracePacket readOnePacket(CodedInputStream stream, ExtensionRegistryLite packetRegistry) {
     try {
       // Coded Input Streams by default only let you read in 64KB of data from one proto message. Because our root level proto message is
       // greater than this we need to reset the size counter each time we read a new packet.
@@ -136,58 +134,18 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
   }
 
   private void convertToTraceLines(File file) throws IOException {
-    Map<Integer, Integer> myTidToTgid = new HashMap<>();
-    Map<Integer, String> myTidToName = new HashMap<>();
-
-    // Add a special case name for thread id 0.
-    // Thread id 0 is used for events that are generated by the system not associated with any process.
-    // In systrace and perfetto they use <idle> as the name for events generated with this thread id.
-    myTidToName.put(0, "<idle>");
-    // The clock sync packet is set to the first packet encountered with a clock snapshot.
-    PerfettoTrace.TracePacket clockSyncPacket = null;
-
     // Do a first pass on the file in order to collect all thread names, and thread group names mapped to id.
     // This allows us to properly build the list of threads / events required by trebuchet for it to
     // map threads to processes.
     ExtensionRegistryLite packetRegistry = ExtensionRegistryLite.newInstance();
     PerfettoTrace.registerAllExtensions(packetRegistry);
-    CodedInputStream inputStream = CodedInputStream.newInstance(new FileInputStream(file));
-    PerfettoTrace.TracePacket packet;
-    while ((packet = readOnePacket(inputStream, packetRegistry)) != null) {
-      if (packet.hasFtraceEvents()) {
-        PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
-        for (PerfettoTrace.FtraceEvent event : bundle.getEventList()) {
-          if (!event.hasSchedSwitch()) {
-            continue;
-          }
-          PerfettoTrace.SchedSwitchFtraceEvent schedSwitch = event.getSchedSwitch();
-          myTidToName.putIfAbsent(schedSwitch.getPrevPid(), schedSwitch.getPrevComm());
-          myTidToName.putIfAbsent(schedSwitch.getNextPid(), schedSwitch.getNextComm());
-        }
-      }
-      else if (packet.hasProcessTree()) {
-        PerfettoTrace.ProcessTree processTree = packet.getProcessTree();
-        for (PerfettoTrace.ProcessTree.Process process : processTree.getProcessesList()) {
-          // Main threads will have the same pid as tgid.
-          myTidToTgid.putIfAbsent(process.getPid(), process.getPid());
-        }
-        for (PerfettoTrace.ProcessTree.Thread thread : processTree.getThreadsList()) {
-          myTidToTgid.putIfAbsent(thread.getTid(), thread.getTgid());
-          if (thread.hasName()) {
-            myTidToName.putIfAbsent(thread.getTid(), thread.getName());
-          }
-        }
-      }
-      else if (packet.hasClockSnapshot() && clockSyncPacket == null) {
-        // We only want the first clock sync packet.
-        clockSyncPacket = packet;
-      }
-    }
+    PerfettoTraceMetadata metadata = PerfettoTraceMetadata.read(file, packetRegistry);
 
-    LineFormatter formatter = new LineFormatter(myTidToTgid, myTidToName);
+    LineFormatter formatter = new LineFormatter(metadata.getTidToTgid(), metadata.getTidToName());
 
     // Do a second pass on the file now that we have all thread names do a second pass on the file to generate the lines for trebuchet.
-    inputStream = CodedInputStream.newInstance(new FileInputStream(file));
+    CodedInputStream inputStream = CodedInputStream.newInstance(new FileInputStream(file));
+    PerfettoTrace.TracePacket packet;
     while ((packet = readOnePacket(inputStream, packetRegistry)) != null) {
       if (packet.hasFtraceEvents()) {
         PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
@@ -205,47 +163,20 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
 
     // Each perfetto trace has many clock sync packets. We need the mono and real time clocks from the first packet to align timestamps with
     // ftrace to timestamps from studio.
-    assert clockSyncPacket != null;
-    addClockSyncLines(clockSyncPacket, formatter);
+    assert metadata.hasClockSync();
+    addClockSyncLines(metadata, formatter);
     mySorter.resetForIterator();
   }
 
-  private void addClockSyncLines(@NotNull PerfettoTrace.TracePacket clockSyncPacket, LineFormatter formatter) {
-    PerfettoTrace.ClockSnapshot snapshot = clockSyncPacket.getClockSnapshot();
-    PerfettoTrace.ClockSnapshot.Clock monotonicClock = null;
-    PerfettoTrace.ClockSnapshot.Clock realtimeClock = null;
-    PerfettoTrace.ClockSnapshot.Clock boottimeClock = null;
-    for (PerfettoTrace.ClockSnapshot.Clock clock : snapshot.getClocksList()) {
-      PerfettoTrace.ClockSnapshot.Clock.BuiltinClocks clockType =
-        PerfettoTrace.ClockSnapshot.Clock.BuiltinClocks.forNumber(clock.getClockId());
-
-      if (clockType == null) {
-        continue;
-      }
-
-      switch (clockType) {
-        case MONOTONIC:
-          monotonicClock = clock;
-          break;
-        case REALTIME:
-          realtimeClock = clock;
-          break;
-        case BOOTTIME:
-          boottimeClock = clock;
-          break;
-        default:
-          // do nothing for other clocks
-      }
-    }
-    assert monotonicClock != null && realtimeClock != null && boottimeClock != null;
+  private void addClockSyncLines(@NotNull PerfettoTraceMetadata metadata, LineFormatter formatter) {
     //<...>-29454 (-----) [002] ...1 1214209.724359: tracing_mark_write: trace_event_clock_sync: parent_ts=539454.250000
-    myGeneratedTrebuchetLines.add(formatter.formatEventPrefix(boottimeClock.getTimestamp(), 0, Short.MAX_VALUE) +
+    myGeneratedTrebuchetLines.add(formatter.formatEventPrefix(metadata.getBoottimeTimestampNs(), 0, Short.MAX_VALUE) +
                                   String.format("tracing_mark_write: trace_event_clock_sync: parent_ts=%.6f",
-                                               nanosToSeconds(monotonicClock.getTimestamp())));
+                                               nanosToSeconds(metadata.getMonotonicTimestampNs())));
     //<...>-29454 (-----) [002] ...1 1214209.724366: tracing_mark_write: trace_event_clock_sync: realtime_ts=1520548500187
-    myGeneratedTrebuchetLines.add(formatter.formatEventPrefix(boottimeClock.getTimestamp(), 0, Short.MAX_VALUE) +
+    myGeneratedTrebuchetLines.add(formatter.formatEventPrefix(metadata.getBoottimeTimestampNs(), 0, Short.MAX_VALUE) +
                                   "tracing_mark_write: trace_event_clock_sync: realtime_ts=" +
-                                  nanosToMillis(realtimeClock.getTimestamp()));
+                                  nanosToMillis(metadata.getRealtimeTimestampNs()));
   }
 
   @Nullable
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace;
+
+import com.android.tools.idea.protobuf.CodedInputStream;
+import com.android.tools.idea.protobuf.ExtensionRegistryLite;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import perfetto.protos.PerfettoTrace;
+
+/**
+ * Thread names, thread group ids and clock sync values collected by a first pass over a perfetto trace. Events reference threads by id
+ * only, so this information is needed before events can be mapped to processes.
+ */
+final class PerfettoTraceMetadata {
+  // Maps thread id to thread group id. A tgid is the thread id at the root of the tree. This is also known as the PID in user space.
+  @NotNull private final Map<Integer, Integer> myTidToTgid = new HashMap<>();
+  @NotNull private final Map<Integer, String> myTidToName = new HashMap<>();
+  // The first clock snapshot packet found in the trace, null if the trace has none.
+  @Nullable private PerfettoTrace.ClockSnapshot.Clock myMonotonicClock;
+  @Nullable private PerfettoTrace.ClockSnapshot.Clock myRealtimeClock;
+  @Nullable private PerfettoTrace.ClockSnapshot.Clock myBoottimeClock;
+
+  private PerfettoTraceMetadata() {
+    // Add a special case name for thread id 0.
+    // Thread id 0 is used for events that are generated by the system not associated with any process.
+    // In systrace and perfetto they use <idle> as the name for events generated with this thread id.
+    myTidToName.put(0, "<idle>");
+  }
+
+  @NotNull
+  static PerfettoTraceMetadata read(@NotNull File file, @NotNull ExtensionRegistryLite packetRegistry) throws IOException {
+    PerfettoTraceMetadata metadata = new PerfettoTraceMetadata();
+    boolean foundClockSnapshot = false;
+    try (FileInputStream fileStream = new FileInputStream(file)) {
+      CodedInputStream inputStream = CodedInputStream.newInstance(fileStream);
+      PerfettoTrace.TracePacket packet;
+      while ((packet = PerfettoProducer.readOnePacket(inputStream, packetRegistry)) != null) {
+        if (packet.hasFtraceEvents()) {
+          PerfettoTrace.FtraceEventBundle bundle = packet.getFtraceEvents();
+          for (PerfettoTrace.FtraceEvent event : bundle.getEventList()) {
+            if (!event.hasSchedSwitch()) {
+              continue;
+            }
+            PerfettoTrace.SchedSwitchFtraceEvent schedSwitch = event.getSchedSwitch();
+            metadata.myTidToName.putIfAbsent(schedSwitch.getPrevPid(), schedSwitch.getPrevComm());
+            metadata.myTidToName.putIfAbsent(schedSwitch.getNextPid(), schedSwitch.getNextComm());
+          }
+        }
+        else if (packet.hasProcessTree()) {
+          PerfettoTrace.ProcessTree processTree = packet.getProcessTree();
+          for (PerfettoTrace.ProcessTree.Process process : processTree.getProcessesList()) {
+            // Main threads will have the same pid as tgid.
+            metadata.myTidToTgid.putIfAbsent(process.getPid(), process.getPid());
+          }
+          for (PerfettoTrace.ProcessTree.Thread thread : processTree.getThreadsList()) {
+            metadata.myTidToTgid.putIfAbsent(thread.getTid(), thread.getTgid());
+            if (thread.hasName()) {
+              metadata.myTidToName.putIfAbsent(thread.getTid(), thread.getName());
+            }
+          }
+        }
+        else if (packet.hasClockSnapshot() && !foundClockSnapshot) {
+          // We only want the first clock sync packet.
+          foundClockSnapshot = true;
+          metadata.readClocks(packet.getClockSnapshot());
+        }
+      }
+    }
+    return metadata;
+  }
+
+  private void readClocks(@NotNull PerfettoTrace.ClockSnapshot snapshot) {
+    for (PerfettoTrace.ClockSnapshot.Clock clock : snapshot.getClocksList()) {
+      PerfettoTrace.ClockSnapshot.Clock.BuiltinClocks clockType =
+        PerfettoTrace.ClockSnapshot.Clock.BuiltinClocks.forNumber(clock.getClockId());
+
+      if (clockType == null) {
+        continue;
+      }
+
+      switch (clockType) {
+        case MONOTONIC:
+          myMonotonicClock = clock;
+          break;
+        case REALTIME:
+          myRealtimeClock = clock;
+          break;
+        case BOOTTIME:
+          myBoottimeClock = clock;
+          break;
+        default:
+          // do nothing for other clocks
+      }
+    }
+  }
+
+  @NotNull
+  Map<Integer, Integer> getTidToTgid() {
+    return myTidToTgid;
+  }
+
+  @NotNull
+  Map<Integer, String> getTidToName() {
+    return myTidToName;
+  }
+
+  /**
+   * @return true if the monotonic, realtime and boottime clocks were all found in the first clock snapshot of the trace.
+   */
+  boolean hasClockSync() {
+    return myMonotonicClock != null && myRealtimeClock != null && myBoottimeClock != null;
+  }
+
+  long getMonotonicTimestampNs() {
+    assert myMonotonicClock != null;
+    return myMonotonicClock.getTimestamp();
+  }
+
+  long getRealtimeTimestampNs() {
+    assert myRealtimeClock != null;
+    return myRealtimeClock.getTimestamp();
+  }
+
+  long getBoottimeTimestampNs() {
+    assert myBoottimeClock != null;
+    return myBoottimeClock.getTimestamp();
+  }
+}
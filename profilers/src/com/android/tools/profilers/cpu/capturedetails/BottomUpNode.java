@@ -20,35 +20,51 @@ import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import gnu.trove.TIntObjectHashMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.Callable;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
+  /**
+   * The nodes of the root are grouped by method in chunks of this size in parallel.
+   */
+  private static final int GROUPING_CHUNK_SIZE = 64 * 1024;
 
   private final List<CaptureNode> myPathNodes = new ArrayList<>();
   private final boolean myIsRoot;
+  @NotNull private final MethodIdInterner myMethodIds;
   private boolean myChildrenBuilt;
 
-  private BottomUpNode(String id) {
+  /**
+   * The nodes at the top of the call stack, which make up the total (see {@link #update(Range)}), and the clock they were found with.
+   */
+  @Nullable private CaptureNodeIntervals myOuterIntervals;
+  @Nullable private ClockType myOuterClockType;
+
+  private BottomUpNode(String id, @NotNull MethodIdInterner methodIds) {
     super(id);
     myIsRoot = false;
+    myMethodIds = methodIds;
     myChildrenBuilt = false;
   }
 
   public BottomUpNode(@NotNull CaptureNode node) {
     super("Root");
     myIsRoot = true;
+    myMethodIds = new MethodIdInterner();
     myChildrenBuilt = true;
 
     List<CaptureNode> allNodes = new ArrayList<>();
     // Pre-order traversal with Stack.
     // The traversal will sort nodes by CaptureNode#getStart(), if they'll be equal then ancestor will come first.
-    Stack<CaptureNode> stack = new Stack<>();
-    stack.add(node);
+    Deque<CaptureNode> stack = new ArrayDeque<>();
+    stack.push(node);
     while (!stack.isEmpty()) {
       CaptureNode curNode = stack.pop();
       // If we don't have an Id then we exclude this node from being added as a child to the parent.
@@ -57,43 +73,42 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
         allNodes.add(curNode);
       }
       // Adding in reverse order so that the first child is processed first
-      for (int i = curNode.getChildren().size() - 1; i >= 0; --i) {
-        stack.add(curNode.getChildren().get(i));
+      for (int i = curNode.getChildCount() - 1; i >= 0; --i) {
+        stack.push(curNode.getChildAt(i));
       }
     }
 
-    // We use a separate map for unmatched children, because we can not merge unmatched with matched,
-    // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, BottomUpNode> children = new HashMap<>();
-    Map<String, BottomUpNode> unmatchedChildren = new HashMap<>();
-
-    for (CaptureNode curNode : allNodes) {
-      String curId = curNode.getData().getId();
-
-      BottomUpNode child = curNode.isUnmatched() ? unmatchedChildren.get(curId) : children.get(curId);
-      if (child == null) {
-        child = new BottomUpNode(curId);
-        if (curNode.isUnmatched()) {
-          unmatchedChildren.put(curId, child);
-        }
-        else {
-          children.put(curId, child);
+    // Groups consecutive chunks of the nodes in parallel, then merges the groups of each chunk in order, so the children and their nodes
+    // end up in the same order as if the nodes were grouped one by one.
+    List<Callable<NodeGroups>> computations = new ArrayList<>();
+    for (int start = 0; start < allNodes.size(); start += GROUPING_CHUNK_SIZE) {
+      List<CaptureNode> chunk = allNodes.subList(start, Math.min(allNodes.size(), start + GROUPING_CHUNK_SIZE));
+      computations.add(() -> {
+        NodeGroups groups = new NodeGroups();
+        for (CaptureNode curNode : chunk) {
+          groups.add(myMethodIds.getId(curNode), curNode.isUnmatched(), curNode, curNode);
         }
-        addChild(child);
-      }
-      child.addPathNode(curNode);
-      child.addNode(curNode);
+        return groups;
+      });
+    }
+    NodeGroups groups = new NodeGroups();
+    for (NodeGroups chunkGroups : computeInParallel(computations)) {
+      groups.addAll(chunkGroups);
+    }
+    for (NodeGroup group : groups.myGroups) {
+      BottomUpNode child = new BottomUpNode(group.myPathNodes.get(0).getData().getId(), myMethodIds);
+      child.myPathNodes.addAll(group.myPathNodes);
+      child.addNodes(group.myNodes);
+      addChild(child);
     }
 
     addNode(node);
 
+    List<Callable<Boolean>> childComputations = new ArrayList<>();
     for (BottomUpNode child : getChildren()) {
-      child.buildChildren();
+      childComputations.add(child::buildChildren);
     }
-  }
-
-  private void addPathNode(@NotNull CaptureNode node) {
-    myPathNodes.add(node);
+    computeInParallel(childComputations);
   }
 
   public boolean buildChildren() {
@@ -103,29 +118,20 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
     // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, BottomUpNode> children = new HashMap<>();
-    Map<String, BottomUpNode> unmatchedChildren = new HashMap<>();
-
+    NodeGroups groups = new NodeGroups();
     assert myPathNodes.size() == getNodes().size();
     for (int i = 0; i < myPathNodes.size(); ++i) {
       CaptureNode parent = myPathNodes.get(i).getParent();
       if (parent == null) {
         continue;
       }
-      String parentId = parent.getData().getId();
-      BottomUpNode child = parent.isUnmatched() ? unmatchedChildren.get(parentId) : children.get(parentId);
-      if (child == null) {
-        child = new BottomUpNode(parentId);
-        if (parent.isUnmatched()) {
-          unmatchedChildren.put(parentId, child);
-        }
-        else {
-          children.put(parentId, child);
-        }
-        addChild(child);
-      }
-      child.addPathNode(parent);
-      child.addNode(getNodes().get(i));
+      groups.add(myMethodIds.getId(parent), parent.isUnmatched(), parent, getNodes().get(i));
+    }
+    for (NodeGroup group : groups.myGroups) {
+      BottomUpNode child = new BottomUpNode(group.myPathNodes.get(0).getData().getId(), myMethodIds);
+      child.myPathNodes.addAll(group.myPathNodes);
+      child.addNodes(group.myNodes);
+      addChild(child);
     }
 
     myChildrenBuilt = true;
@@ -134,15 +140,49 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
   @Override
   public void update(@NotNull Range range) {
+    ClockType clockType = myNodes.isEmpty() ? ClockType.GLOBAL : myNodes.get(0).getClockType();
+    if (myOuterIntervals == null || myOuterClockType != clockType) {
+      // Which nodes are at the top of the call stack depends on the clock of the nodes, but not on the range.
+      myOuterIntervals = new CaptureNodeIntervals(findOuterNodes(), ClockType.GLOBAL);
+      myOuterClockType = clockType;
+      invalidateTotals();
+    }
+    super.update(range);
+  }
+
+  @Override
+  protected void addTotals(@NotNull Range range, double sign) {
     // how much time was spent in this call stack path, and in the functions it called
-    myGlobalTotal = 0;
+    double total = 0;
     // how much time was spent doing work directly in this call stack path
     double self = 0;
 
-    // The node that is at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20],
-    // then the second method can't be outerSoFarByParent.
-    // It's used to exclude nodes which aren't at the top of the
-    // call stack from the total time calculation.
+    assert myOuterIntervals != null;
+    for (int i = myOuterIntervals.getFirstIndex(range), end = myOuterIntervals.getEndIndex(range); i < end; ++i) {
+      total += getIntersection(range, myOuterIntervals.getNode(i), ClockType.GLOBAL);
+    }
+
+    CaptureNodeIntervals intervals = getIntervals(ClockType.GLOBAL);
+    int end = intervals.areChildrenNested() ? intervals.getEndIndex(range) : intervals.size();
+    for (int i = intervals.areChildrenNested() ? intervals.getFirstIndex(range) : 0; i < end; ++i) {
+      CaptureNode node = intervals.getNode(i);
+      self += getIntersection(range, node, ClockType.GLOBAL);
+      for (int c = 0; c < node.getChildCount(); ++c) {
+        self -= getIntersection(range, node.getChildAt(c), ClockType.GLOBAL);
+      }
+    }
+
+    myGlobalTotal += sign * total;
+    myGlobalChildrenTotal += sign * (total - self);
+  }
+
+  /**
+   * @return the nodes at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20], then the second method is
+   * excluded, as its time is already counted by the first one.
+   */
+  @NotNull
+  private List<CaptureNode> findOuterNodes() {
+    List<CaptureNode> outerNodes = new ArrayList<>();
     // When multiple threads with the same ID are selected, the nodes are merged. When this happens nodes may be interlaced between
     // each of the threads. As such we keep a mapping of outer so far by parents to keep the book keeping done properly.
     HashMap<CaptureNode, CaptureNode> outerSoFarByParent = new HashMap<>();
@@ -153,32 +193,23 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
       // We use the root node to distinguish if two nodes share the same tree. In the event of multi-select we want to compute the bottom
       // up calculation independently for each tree then sum them after the fact.
       CaptureNode root = findRootNode(node);
-      CaptureNode outerSoFar = outerSoFarByParent.getOrDefault(root, null);
+      CaptureNode outerSoFar = outerSoFarByParent.get(root);
       if (outerSoFar == null || node.getEnd() > outerSoFar.getEnd()) {
         if (outerSoFar != null) {
           // |outerSoFarByParent| is at the top of the call stack
-          myGlobalTotal += getIntersection(range, outerSoFar, ClockType.GLOBAL);
+          outerNodes.add(outerSoFar);
         }
         outerSoFarByParent.put(root, node);
       }
-
-      self += getIntersection(range, node, ClockType.GLOBAL);
-      for (CaptureNode child : node.getChildren()) {
-        self -= getIntersection(range, child, ClockType.GLOBAL);
-      }
     }
-
-    for(CaptureNode outerSoFar : outerSoFarByParent.values()) {
-      // |outerSoFarByParent| is at the top of the call stack
-      myGlobalTotal += getIntersection(range, outerSoFar, ClockType.GLOBAL);
-    }
-    myGlobalChildrenTotal = myGlobalTotal - self;
+    outerNodes.addAll(outerSoFarByParent.values());
+    return outerNodes;
   }
 
   @NotNull
   private static CaptureNode findRootNode(@NotNull CaptureNode node) {
-    if (node.getParent() != null) {
-      return findRootNode(node.getParent());
+    while (node.getParent() != null) {
+      node = node.getParent();
     }
     return node;
   }
@@ -200,4 +231,56 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
     }
     return myPathNodes.get(0).getFilterType();
   }
+
+  /**
+   * Nodes grouped by method and filter type, in the order the groups were first added to.
+   */
+  private static final class NodeGroups {
+    // We use a separate map for unmatched nodes, because we can not merge unmatched with matched,
+    // i.e all merged nodes should have the same {@link CaptureNode.FilterType};
+    private final TIntObjectHashMap<NodeGroup> myMatchedGroups = new TIntObjectHashMap<>();
+    private final TIntObjectHashMap<NodeGroup> myUnmatchedGroups = new TIntObjectHashMap<>();
+    private final List<NodeGroup> myGroups = new ArrayList<>();
+
+    void add(int methodId, boolean unmatched, @NotNull CaptureNode pathNode, @NotNull CaptureNode node) {
+      getGroup(methodId, unmatched).add(pathNode, node);
+    }
+
+    void addAll(@NotNull NodeGroups other) {
+      for (NodeGroup otherGroup : other.myGroups) {
+        NodeGroup group = getGroup(otherGroup.myMethodId, otherGroup.myUnmatched);
+        group.myPathNodes.addAll(otherGroup.myPathNodes);
+        group.myNodes.addAll(otherGroup.myNodes);
+      }
+    }
+
+    @NotNull
+    private NodeGroup getGroup(int methodId, boolean unmatched) {
+      TIntObjectHashMap<NodeGroup> groups = unmatched ? myUnmatchedGroups : myMatchedGroups;
+      NodeGroup group = groups.get(methodId);
+      if (group == null) {
+        group = new NodeGroup(methodId, unmatched);
+        groups.put(methodId, group);
+        myGroups.add(group);
+      }
+      return group;
+    }
+  }
+
+  private static final class NodeGroup {
+    private final int myMethodId;
+    private final boolean myUnmatched;
+    private final List<CaptureNode> myPathNodes = new ArrayList<>();
+    private final List<CaptureNode> myNodes = new ArrayList<>();
+
+    NodeGroup(int methodId, boolean unmatched) {
+      myMethodId = methodId;
+      myUnmatched = unmatched;
+    }
+
+    void add(@NotNull CaptureNode pathNode, @NotNull CaptureNode node) {
+      myPathNodes.add(pathNode);
+      myNodes.add(node);
+    }
+  }
 }
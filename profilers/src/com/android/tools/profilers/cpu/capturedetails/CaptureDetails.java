@@ -26,6 +26,9 @@ import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -35,11 +38,11 @@ import org.jetbrains.annotations.Nullable;
  */
 public abstract class CaptureDetails {
   public enum Type {
-    TOP_DOWN(TopDown::new),
-    BOTTOM_UP(BottomUp::new),
-    CALL_CHART(CallChart::new),
-    FLAME_CHART(FlameChart::new),
-    RENDER_AUDIT(RenderAuditCaptureDetails::new);
+    TOP_DOWN(TopDown::prepare),
+    BOTTOM_UP(BottomUp::prepare),
+    CALL_CHART((range, nodes, cpuCapture) -> () -> new CallChart(range, nodes, cpuCapture)),
+    FLAME_CHART(FlameChart::prepare),
+    RENDER_AUDIT((range, nodes, cpuCapture) -> () -> new RenderAuditCaptureDetails(range, nodes, cpuCapture));
 
     @NotNull
     private final CaptureDetailsBuilder myBuilder;
@@ -49,7 +52,21 @@ public abstract class CaptureDetails {
     }
 
     public CaptureDetails build(@NotNull Range range, @NotNull List<CaptureNode> node, @NotNull CpuCapture cpuCapture) {
-      return myBuilder.build(range, node, cpuCapture);
+      return myBuilder.prepare(range, node, cpuCapture).get();
+    }
+
+    /**
+     * Same as {@link #build}, but the trees of the details are built on {@param poolExecutor}, so a large capture doesn't block the
+     * calling thread, and the details are then created on {@param mainExecutor}, the thread that updates the range they listen to.
+     */
+    @NotNull
+    public CompletableFuture<CaptureDetails> buildAsync(@NotNull Range range,
+                                                        @NotNull List<CaptureNode> nodes,
+                                                        @NotNull CpuCapture cpuCapture,
+                                                        @NotNull Executor poolExecutor,
+                                                        @NotNull Executor mainExecutor) {
+      return CompletableFuture.supplyAsync(() -> myBuilder.prepare(range, nodes, cpuCapture), poolExecutor)
+        .thenApplyAsync(Supplier::get, mainExecutor);
     }
   }
 
@@ -75,8 +92,26 @@ public abstract class CaptureDetails {
      *                     nodes will be reparented to this new node.
      *                     Note: This reparenting is done via the {@link VisualNodeCaptureNode} so no CaptureNode data is mutated.
      * @param cpuCapture The capture which the captureNodes were referenced from.
+     * @return a supplier of the details. The expensive part of the build, e.g. the tree of the nodes, is done before returning and may run
+     *         on any thread, but the supplier listens to the range and has to run on the thread that updates it.
      */
-    CaptureDetails build(Range range, List<CaptureNode> captureNodes, CpuCapture cpuCapture);
+    Supplier<CaptureDetails> prepare(Range range, List<CaptureNode> captureNodes, CpuCapture cpuCapture);
+  }
+
+  /**
+   * @return a node that is the parent of all the {@param nodes} and spans the whole capture, or null if there are no nodes.
+   */
+  @Nullable
+  private static VisualNodeCaptureNode createCaptureRoot(@NotNull List<CaptureNode> nodes, @NotNull CpuCapture cpuCapture) {
+    if (nodes.isEmpty()) {
+      return null;
+    }
+    Range captureRange = cpuCapture.getRange();
+    VisualNodeCaptureNode visual = new VisualNodeCaptureNode(new SingleNameModel(""));
+    nodes.forEach(visual::addChild);
+    visual.setStartGlobal((long)captureRange.getMin());
+    visual.setEndGlobal((long)captureRange.getMax());
+    return visual;
   }
 
   static abstract class ChartDetails extends CaptureDetails {
@@ -91,17 +126,26 @@ public abstract class CaptureDetails {
     @Nullable private final TopDownTreeModel myModel;
 
     TopDown(@NotNull Range range, @NotNull List<CaptureNode> nodes, @NotNull CpuCapture cpuCapture) {
+      this(range, buildTree(nodes, cpuCapture), cpuCapture);
+    }
+
+    private TopDown(@NotNull Range range, @Nullable TopDownNode root, @NotNull CpuCapture cpuCapture) {
       super(cpuCapture);
-      if (nodes.isEmpty()) {
-        myModel = null;
-        return;
-      }
-      Range captureRange = cpuCapture.getRange();
-      VisualNodeCaptureNode visual = new VisualNodeCaptureNode(new SingleNameModel(""));
-      nodes.forEach(visual::addChild);
-      visual.setStartGlobal((long)captureRange.getMin());
-      visual.setEndGlobal((long)captureRange.getMax());
-      myModel = new TopDownTreeModel(range, new TopDownNode(visual));
+      myModel = root == null ? null : new TopDownTreeModel(range, root);
+    }
+
+    @NotNull
+    private static Supplier<CaptureDetails> prepare(@NotNull Range range,
+                                                    @NotNull List<CaptureNode> nodes,
+                                                    @NotNull CpuCapture cpuCapture) {
+      TopDownNode root = buildTree(nodes, cpuCapture);
+      return () -> new TopDown(range, root, cpuCapture);
+    }
+
+    @Nullable
+    private static TopDownNode buildTree(@NotNull List<CaptureNode> nodes, @NotNull CpuCapture cpuCapture) {
+      VisualNodeCaptureNode visual = createCaptureRoot(nodes, cpuCapture);
+      return visual == null ? null : new TopDownNode(visual);
     }
 
     @Nullable
@@ -120,19 +164,31 @@ public abstract class CaptureDetails {
     @Nullable private BottomUpTreeModel myModel;
 
     BottomUp(@NotNull Range range, @NotNull List<CaptureNode> nodes, @NotNull CpuCapture cpuCapture) {
+      this(range, buildTree(nodes, cpuCapture), cpuCapture);
+    }
+
+    private BottomUp(@NotNull Range range, @Nullable BottomUpNode root, @NotNull CpuCapture cpuCapture) {
       super(cpuCapture);
-      if (nodes.isEmpty()) {
+      if (root == null) {
         myModel = null;
         return;
       }
-      Range captureRange = cpuCapture.getRange();
-      VisualNodeCaptureNode visual = new VisualNodeCaptureNode(new SingleNameModel(""));
-      nodes.forEach(visual::addChild);
-      visual.setStartGlobal((long)captureRange.getMin());
-      visual.setEndGlobal((long)captureRange.getMax());
-      BottomUpNode buNode = new BottomUpNode(visual);
-      buNode.update(range);
-      myModel = new BottomUpTreeModel(range, buNode);
+      root.update(range);
+      myModel = new BottomUpTreeModel(range, root);
+    }
+
+    @NotNull
+    private static Supplier<CaptureDetails> prepare(@NotNull Range range,
+                                                    @NotNull List<CaptureNode> nodes,
+                                                    @NotNull CpuCapture cpuCapture) {
+      BottomUpNode root = buildTree(nodes, cpuCapture);
+      return () -> new BottomUp(range, root, cpuCapture);
+    }
+
+    @Nullable
+    private static BottomUpNode buildTree(@NotNull List<CaptureNode> nodes, @NotNull CpuCapture cpuCapture) {
+      VisualNodeCaptureNode visual = createCaptureRoot(nodes, cpuCapture);
+      return visual == null ? null : new BottomUpNode(visual);
     }
 
     @Nullable
@@ -197,16 +253,37 @@ public abstract class CaptureDetails {
     @NotNull private final AspectModel<Aspect> myAspectModel;
 
     FlameChart(@NotNull Range selectionRange, @NotNull List<CaptureNode> captureNodes, @NotNull CpuCapture cpuCapture) {
+      this(selectionRange, buildTree(captureNodes), cpuCapture);
+    }
+
+    private FlameChart(@NotNull Range selectionRange, @Nullable TopDownNode topDownNode, @NotNull CpuCapture cpuCapture) {
       super(cpuCapture);
       mySelectionRange = selectionRange;
       myFlameRange = new Range();
       myAspectModel = new AspectModel<>();
+      myTopDownNode = topDownNode;
 
-      if (captureNodes.isEmpty()) {
+      if (topDownNode == null) {
         myFlameNode = null;
-        myTopDownNode = null;
         return;
       }
+      selectionRange.addDependency(myAspectModel).onChange(Range.Aspect.RANGE, this::selectionRangeChanged);
+      selectionRangeChanged();
+    }
+
+    @NotNull
+    private static Supplier<CaptureDetails> prepare(@NotNull Range selectionRange,
+                                                    @NotNull List<CaptureNode> captureNodes,
+                                                    @NotNull CpuCapture cpuCapture) {
+      TopDownNode topDownNode = buildTree(captureNodes);
+      return () -> new FlameChart(selectionRange, topDownNode, cpuCapture);
+    }
+
+    @Nullable
+    private static TopDownNode buildTree(@NotNull List<CaptureNode> captureNodes) {
+      if (captureNodes.isEmpty()) {
+        return null;
+      }
       VisualNodeCaptureNode visual = new VisualNodeCaptureNode(new SingleNameModel(""));
       captureNodes.sort(Comparator.comparingLong(CaptureNode::getStartGlobal));
       captureNodes.forEach(visual::addChild);
@@ -214,8 +291,8 @@ public abstract class CaptureDetails {
       visual.setStartGlobal(captureNodes.get(0).getStartGlobal());
 
       // Update the node to compute the total children time.
-      myTopDownNode = new TopDownNode(visual);
-      myTopDownNode.update(new Range(0, Double.MAX_VALUE));
+      TopDownNode topDownNode = new TopDownNode(visual);
+      topDownNode.update(new Range(0, Double.MAX_VALUE));
 
       // This gets mapped to the sum of all children. this makes an assumption that this node has 0 self time.
       // Because we are creating this node that is a valid assumption.
@@ -223,9 +300,8 @@ public abstract class CaptureDetails {
       // When they are merged the sum of time is less than or equal to the total time of each node. We need the time to
       // be accurate as when we compute the capture space to screen space calculations for the graph we need to know what
       // 100% is.
-      visual.setEndGlobal(visual.getStartGlobal() + (long)myTopDownNode.getGlobalChildrenTotal());
-      selectionRange.addDependency(myAspectModel).onChange(Range.Aspect.RANGE, this::selectionRangeChanged);
-      selectionRangeChanged();
+      visual.setEndGlobal(visual.getStartGlobal() + (long)topDownNode.getGlobalChildrenTotal());
+      return topDownNode;
     }
 
     private void selectionRangeChanged() {
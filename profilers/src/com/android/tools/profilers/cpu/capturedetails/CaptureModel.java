@@ -19,12 +19,14 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.filter.Filter;
 import com.android.tools.adtui.model.filter.FilterResult;
 import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.IdeProfilerServices;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuCapture;
 import com.android.tools.profilers.cpu.CpuProfilerAspect;
 import com.android.tools.profilers.cpu.CpuProfilerStage;
 import com.google.common.collect.ImmutableMap;
+import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -83,6 +85,17 @@ public class CaptureModel {
   @Nullable
   private CaptureDetails myDetails;
 
+  /**
+   * Type of the details that were last asked for, which {@link #myDetails} is until they are built.
+   */
+  @Nullable
+  private CaptureDetails.Type myDetailsType;
+
+  /**
+   * Incremented whenever the details are rebuilt, so the details of a build that completes after a newer one started are dropped.
+   */
+  private int myDetailsBuildId;
+
   /**
    * Reference to a selection range converted to ClockType.THREAD.
    */
@@ -178,7 +191,7 @@ public class CaptureModel {
   }
 
   public void setDetails(@Nullable CaptureDetails.Type type) {
-    if (type != null && myDetails != null && type == myDetails.getType()) {
+    if (type != null && type == myDetailsType) {
       return;
     }
 
@@ -203,6 +216,7 @@ public class CaptureModel {
    */
   private void rebuildDetails(@Nullable CaptureDetails.Type suggestedType) {
     updateCaptureConvertedRange();
+    int buildId = ++myDetailsBuildId;
     if (myCapture != null) {
       // Grab the currently selected thread and apply any filters the user set.
       CaptureNode node = getNode();
@@ -210,20 +224,41 @@ public class CaptureModel {
         myFilterResult = node.applyFilter(myFilter);
       }
       if (suggestedType == null) {
-        suggestedType = myDetails == null ? CaptureDetails.Type.CALL_CHART : myDetails.getType();
+        suggestedType = myDetailsType == null ? CaptureDetails.Type.CALL_CHART : myDetailsType;
       }
+      myDetailsType = suggestedType;
       List<CaptureNode> nodes = node == null ? Collections.emptyList() : Collections.singletonList(node);
-      myDetails = suggestedType.build(myCaptureConvertedRange, nodes, myCapture);
+      // Building the trees of a large capture takes a while, so it is done off the UI thread.
+      IdeProfilerServices services = myStage.getStudioProfilers().getIdeServices();
+      suggestedType.buildAsync(myCaptureConvertedRange, nodes, myCapture, services.getPoolExecutor(), services.getMainExecutor())
+        .whenComplete((details, exception) -> {
+          if (exception != null) {
+            getLogger().warn("Failed to build the capture details.", exception);
+          }
+          else if (buildId == myDetailsBuildId) {
+            setBuiltDetails(details);
+          }
+        });
     }
     else {
       // If we don't have a capture clear the filter state and the details.
       myFilter = Filter.EMPTY_FILTER;
-      myDetails = null;
+      myDetailsType = null;
+      setBuiltDetails(null);
     }
+  }
+
+  private void setBuiltDetails(@Nullable CaptureDetails details) {
+    myDetails = details;
     // Let everyone know the state of details has changed. This needs to be done after we set myDetails.
     myStage.getAspect().changed(CpuProfilerAspect.CAPTURE_DETAILS);
   }
 
+  @NotNull
+  private static Logger getLogger() {
+    return Logger.getInstance(CaptureModel.class);
+  }
+
   private void rebuildDetails() {
     rebuildDetails(null);
   }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.CaptureNode;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link CaptureNode}s sorted by their start with the running maximum of their ends, for one clock. The nodes that can intersect a range
+ * are then a contiguous run found by two binary searches, instead of every node.
+ */
+final class CaptureNodeIntervals {
+  @NotNull private final CaptureNode[] myNodes;
+  @NotNull private final long[] myStarts;
+  @NotNull private final long[] myMaxEnds;
+
+  /**
+   * Whether the children of every node lie within it, so children only intersect a range if their parent does.
+   */
+  private final boolean myChildrenNested;
+
+  CaptureNodeIntervals(@NotNull List<CaptureNode> nodes, @NotNull ClockType clockType) {
+    myNodes = nodes.toArray(new CaptureNode[0]);
+    Arrays.sort(myNodes, Comparator.comparingLong(node -> getStart(node, clockType)));
+    myStarts = new long[myNodes.length];
+    myMaxEnds = new long[myNodes.length];
+    long maxEnd = Long.MIN_VALUE;
+    boolean childrenNested = true;
+    for (int i = 0; i < myNodes.length; ++i) {
+      CaptureNode node = myNodes[i];
+      long start = getStart(node, clockType);
+      long end = getEnd(node, clockType);
+      myStarts[i] = start;
+      maxEnd = Math.max(maxEnd, end);
+      myMaxEnds[i] = maxEnd;
+      for (int c = 0; c < node.getChildCount() && childrenNested; ++c) {
+        CaptureNode child = node.getChildAt(c);
+        childrenNested = start <= getStart(child, clockType) && getEnd(child, clockType) <= end;
+      }
+    }
+    myChildrenNested = childrenNested;
+  }
+
+  int size() {
+    return myNodes.length;
+  }
+
+  @NotNull
+  CaptureNode getNode(int index) {
+    return myNodes[index];
+  }
+
+  /**
+   * @return the index of the first node that can intersect the range.
+   */
+  int getFirstIndex(@NotNull Range range) {
+    // Every node before the first running maximum past the range min ends before the range.
+    int low = 0;
+    int high = myMaxEnds.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myMaxEnds[mid] > range.getMin()) {
+        high = mid;
+      }
+      else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index past the last node that can intersect the range.
+   */
+  int getEndIndex(@NotNull Range range) {
+    int low = 0;
+    int high = myStarts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myStarts[mid] < range.getMax()) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return whether any node intersects the range, excluding nodes that only touch it.
+   */
+  boolean intersects(@NotNull Range range) {
+    // The first node whose running maximum is past the range min ends past it itself, and it has the smallest start of the rest.
+    int first = getFirstIndex(range);
+    return first < myStarts.length && myStarts[first] < range.getMax();
+  }
+
+  /**
+   * @return whether only the children of nodes that can intersect a range can intersect it. Otherwise the children of every node have
+   * to be considered.
+   */
+  boolean areChildrenNested() {
+    return myChildrenNested;
+  }
+
+  private static long getStart(@NotNull CaptureNode node, @NotNull ClockType clockType) {
+    return clockType == ClockType.GLOBAL ? node.getStartGlobal() : node.getStartThread();
+  }
+
+  private static long getEnd(@NotNull CaptureNode node, @NotNull ClockType clockType) {
+    return clockType == ClockType.GLOBAL ? node.getEndGlobal() : node.getEndThread();
+  }
+}
@@ -21,9 +21,21 @@ import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public abstract class CpuTreeNode<T extends CpuTreeNode> {
+  /**
+   * Totals closer to zero than this are rounding leftovers of incremental updates.
+   */
+  private static final double TOTAL_EPSILON = 1e-6;
+
   /**
    * References to {@link CaptureNode} that are used to extract information from to represent this CpuTreeNode,
    * such as {@link #getGlobalTotal()}, {@link #getGlobalChildrenTotal()}, etc...
@@ -37,6 +49,17 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   protected double myThreadTotal = 0;
   protected double myThreadChildrenTotal = 0;
 
+  /**
+   * Range the totals were last computed for. Totals are sums of intersections with the range, so moving the range only has to account
+   * for the nodes intersecting the difference between the two ranges.
+   */
+  private boolean myTotalsValid;
+  private double myTotalsMin;
+  private double myTotalsMax;
+
+  @Nullable private CaptureNodeIntervals myGlobalIntervals;
+  @Nullable private CaptureNodeIntervals myThreadIntervals;
+
   public CpuTreeNode(String id) {
     myId = id;
   }
@@ -47,6 +70,7 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
 
   protected void addNode(@NotNull CaptureNode node) {
     myNodes.add(node);
+    invalidateTotals();
   }
 
   protected void addNodes(@NotNull List<CaptureNode> nodes) {
@@ -83,19 +107,104 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   }
 
   public void update(@NotNull Range range) {
-    myGlobalTotal = 0.0;
-    myGlobalChildrenTotal = 0;
-    myThreadTotal = 0.0;
-    myThreadChildrenTotal = 0;
+    if (myTotalsValid && myTotalsMin == range.getMin() && myTotalsMax == range.getMax()) {
+      return;
+    }
+    Range previous = new Range(myTotalsMin, myTotalsMax);
+    if (!myTotalsValid || previous.getIntersectionLength(range) == 0) {
+      clearTotals();
+      addTotals(range, 1);
+    }
+    else {
+      for (Range added : range.subtract(previous)) {
+        addTotals(added, 1);
+      }
+      for (Range removed : previous.subtract(range)) {
+        addTotals(removed, -1);
+      }
+      snapTotals();
+    }
+    myTotalsValid = true;
+    myTotalsMin = range.getMin();
+    myTotalsMax = range.getMax();
+  }
 
-    for (CaptureNode node : myNodes) {
-      myGlobalTotal += getIntersection(range, node, ClockType.GLOBAL);
-      myThreadTotal += getIntersection(range, node, ClockType.THREAD);
-      for (CaptureNode child : node.getChildren()) {
-        myGlobalChildrenTotal += getIntersection(range, child, ClockType.GLOBAL);
-        myThreadChildrenTotal += getIntersection(range, child, ClockType.THREAD);
+  /**
+   * Adds the totals of the nodes within the given range, multiplied by the sign, to the current totals.
+   */
+  protected void addTotals(@NotNull Range range, double sign) {
+    double globalTotal = 0;
+    double globalChildrenTotal = 0;
+    CaptureNodeIntervals globalIntervals = getIntervals(ClockType.GLOBAL);
+    int end = globalIntervals.areChildrenNested() ? globalIntervals.getEndIndex(range) : globalIntervals.size();
+    for (int i = globalIntervals.areChildrenNested() ? globalIntervals.getFirstIndex(range) : 0; i < end; ++i) {
+      CaptureNode node = globalIntervals.getNode(i);
+      globalTotal += getIntersection(range, node, ClockType.GLOBAL);
+      for (int c = 0; c < node.getChildCount(); ++c) {
+        globalChildrenTotal += getIntersection(range, node.getChildAt(c), ClockType.GLOBAL);
+      }
+    }
+
+    double threadTotal = 0;
+    double threadChildrenTotal = 0;
+    CaptureNodeIntervals threadIntervals = getIntervals(ClockType.THREAD);
+    end = threadIntervals.areChildrenNested() ? threadIntervals.getEndIndex(range) : threadIntervals.size();
+    for (int i = threadIntervals.areChildrenNested() ? threadIntervals.getFirstIndex(range) : 0; i < end; ++i) {
+      CaptureNode node = threadIntervals.getNode(i);
+      threadTotal += getIntersection(range, node, ClockType.THREAD);
+      for (int c = 0; c < node.getChildCount(); ++c) {
+        threadChildrenTotal += getIntersection(range, node.getChildAt(c), ClockType.THREAD);
+      }
+    }
+
+    myGlobalTotal += sign * globalTotal;
+    myGlobalChildrenTotal += sign * globalChildrenTotal;
+    myThreadTotal += sign * threadTotal;
+    myThreadChildrenTotal += sign * threadChildrenTotal;
+  }
+
+  /**
+   * @return {@link #myNodes} sorted for range queries on the given clock.
+   */
+  @NotNull
+  protected CaptureNodeIntervals getIntervals(@NotNull ClockType clockType) {
+    if (clockType == ClockType.GLOBAL) {
+      if (myGlobalIntervals == null) {
+        myGlobalIntervals = new CaptureNodeIntervals(myNodes, ClockType.GLOBAL);
       }
+      return myGlobalIntervals;
+    }
+    if (myThreadIntervals == null) {
+      myThreadIntervals = new CaptureNodeIntervals(myNodes, ClockType.THREAD);
     }
+    return myThreadIntervals;
+  }
+
+  /**
+   * Makes the next {@link #update(Range)} compute the totals from scratch, e.g. because the nodes changed.
+   */
+  protected void invalidateTotals() {
+    myTotalsValid = false;
+    myGlobalIntervals = null;
+    myThreadIntervals = null;
+  }
+
+  private void clearTotals() {
+    myGlobalTotal = 0;
+    myGlobalChildrenTotal = 0;
+    myThreadTotal = 0;
+    myThreadChildrenTotal = 0;
+  }
+
+  private void snapTotals() {
+    myGlobalTotal = snap(myGlobalTotal);
+    myGlobalChildrenTotal = snap(myGlobalChildrenTotal);
+    myThreadTotal = snap(myThreadTotal);
+    myThreadChildrenTotal = snap(myThreadChildrenTotal);
+  }
+
+  private static double snap(double total) {
+    return Math.abs(total) < TOTAL_EPSILON ? 0 : total;
   }
 
   protected static double getIntersection(@NotNull Range range, @NotNull CaptureNode node, @NotNull ClockType type) {
@@ -105,14 +214,51 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   }
 
   public boolean inRange(Range range) {
-    return myNodes.stream().anyMatch(node -> node.getStart() < range.getMax() && range.getMin() < node.getEnd());
+    // The nodes of a tree share the clock type of their capture.
+    return !myNodes.isEmpty() && getIntervals(myNodes.get(0).getClockType()).intersects(range);
   }
 
   public void reset() {
-    myGlobalTotal = 0;
-    myGlobalChildrenTotal = 0;
-    myThreadTotal = 0;
-    myThreadChildrenTotal = 0;
+    clearTotals();
+    myTotalsValid = false;
+  }
+
+  /**
+   * Runs the computations on the pool of {@link TreeBuilderPool} and returns their results in order. Aggregating the nodes of large
+   * captures is CPU bound, and the subtrees of different children can be aggregated independently. The calling thread waits for the
+   * results, so this should not be called from the UI thread, see {@link CaptureDetails.Type#buildAsync}.
+   */
+  @NotNull
+  static <R> List<R> computeInParallel(@NotNull List<Callable<R>> computations) {
+    List<ForkJoinTask<R>> tasks = computations.stream().map(ForkJoinTask::adapt).collect(Collectors.toList());
+    if (ForkJoinTask.getPool() == TreeBuilderPool.POOL) {
+      ForkJoinTask.invokeAll(tasks);
+    }
+    else {
+      TreeBuilderPool.POOL.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+    return tasks.stream().map(ForkJoinTask::join).collect(Collectors.toList());
+  }
+
+  /**
+   * Holds the pool the trees are built on, created the first time a tree is. It is not the common pool, so building the trees of a large
+   * capture neither competes with nor waits behind unrelated tasks of the IDE.
+   */
+  private static final class TreeBuilderPool {
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+      Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+      pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Profiler CPU tree builder " + thread.getPoolIndex());
+        return thread;
+      },
+      null,
+      false);
   }
 
   @NotNull
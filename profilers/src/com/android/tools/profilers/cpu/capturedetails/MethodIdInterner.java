@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Maps the method ids of {@link CaptureNode}s to ints, so the nodes of a tree are merged by comparing ints rather than method signatures.
+ * Shared by the nodes of a tree, which may be built from several threads.
+ */
+final class MethodIdInterner {
+  private final Map<String, Integer> myIds = new ConcurrentHashMap<>();
+  private final AtomicInteger myNextId = new AtomicInteger();
+
+  int getId(@NotNull String methodId) {
+    Integer id = myIds.get(methodId);
+    return id != null ? id : myIds.computeIfAbsent(methodId, key -> myNextId.getAndIncrement());
+  }
+
+  int getId(@NotNull CaptureNode node) {
+    return getId(node.getData().getId());
+  }
+}
@@ -17,10 +17,12 @@ package com.android.tools.profilers.cpu.capturedetails;
 
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A top-down CPU usage tree. This is a node on that tree and represents all the calls that share the same callstack upto a point.
@@ -29,32 +31,64 @@ import java.util.TreeMap;
 public class TopDownNode extends CpuTreeNode<TopDownNode> {
   private static final String INVALID_ID = "";
 
+  /**
+   * The children of nodes up to this depth are built in parallel. Deeper subtrees are built by the task of their ancestor at this depth.
+   */
+  private static final int PARALLEL_DEPTH = 2;
+
+  @NotNull private final MethodIdInterner myMethodIds;
+  private final int myMethodId;
+
   public TopDownNode(@NotNull CaptureNode node) {
+    this(node, new MethodIdInterner(), 0);
+  }
+
+  private TopDownNode(@NotNull CaptureNode node, @NotNull MethodIdInterner methodIds, int depth) {
     super(node.getData() == null ? INVALID_ID : node.getData().getId());
+    myMethodIds = methodIds;
+    myMethodId = methodIds.getId(getId());
     addNode(node);
 
+    List<TopDownNode> children = buildChildren(node, depth);
     // We're adding unmatched children separately, because we don't want to merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType}.
-    addChildren(node, false);
-    addChildren(node, true);
+    addChildren(children, false);
+    addChildren(children, true);
+  }
+
+  @NotNull
+  private List<TopDownNode> buildChildren(@NotNull CaptureNode node, int depth) {
+    List<TopDownNode> children = new ArrayList<>(node.getChildCount());
+    if (depth < PARALLEL_DEPTH && node.getChildCount() > 1) {
+      List<Callable<TopDownNode>> computations = new ArrayList<>(node.getChildCount());
+      for (CaptureNode child : node.getChildren()) {
+        assert child.getData() != null;
+        computations.add(() -> new TopDownNode(child, myMethodIds, depth + 1));
+      }
+      children.addAll(computeInParallel(computations));
+    }
+    else {
+      for (CaptureNode child : node.getChildren()) {
+        assert child.getData() != null;
+        children.add(new TopDownNode(child, myMethodIds, depth + 1));
+      }
+    }
+    return children;
   }
 
   /**
-   * Adds children of {@param node} whose filter type matches to the flag {@param unmatched}.
+   * Adds the children whose filter type matches to the flag {@param unmatched}, merging the ones of the same method.
    */
-  private void addChildren(@NotNull CaptureNode node, boolean unmatched) {
-    Map<String, TopDownNode> children = new TreeMap<>();
-    for (CaptureNode child : node.getChildren()) {
-      assert child.getData() != null;
-
-      if (unmatched != child.isUnmatched()) {
+  private void addChildren(@NotNull List<TopDownNode> children, boolean unmatched) {
+    TIntObjectHashMap<TopDownNode> childrenById = new TIntObjectHashMap<>();
+    for (TopDownNode other : children) {
+      if (unmatched != other.isUnmatched()) {
         continue;
       }
 
-      TopDownNode prev = children.get(child.getData().getId());
-      TopDownNode other = new TopDownNode(child);
+      TopDownNode prev = childrenById.get(other.myMethodId);
       if (prev == null) {
-        children.put(child.getData().getId(), other);
+        childrenById.put(other.myMethodId, other);
         addChild(other);
       }
       else {
@@ -68,14 +102,14 @@ public class TopDownNode extends CpuTreeNode<TopDownNode> {
 
     // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, TopDownNode> children = new TreeMap<>();
-    Map<String, TopDownNode> unmatchedChildren = new TreeMap<>();
+    TIntObjectHashMap<TopDownNode> children = new TIntObjectHashMap<>();
+    TIntObjectHashMap<TopDownNode> unmatchedChildren = new TIntObjectHashMap<>();
 
     for (TopDownNode child : getChildren()) {
       if (child.isUnmatched()) {
-        unmatchedChildren.put(child.getId(), child);
+        unmatchedChildren.put(child.myMethodId, child);
       } else {
-        children.put(child.getId(), child);
+        children.put(child.myMethodId, child);
       }
     }
 
@@ -83,9 +117,9 @@ public class TopDownNode extends CpuTreeNode<TopDownNode> {
       TopDownNode existing;
 
       if (otherChild.isUnmatched()) {
-        existing = unmatchedChildren.get(otherChild.getId());
+        existing = unmatchedChildren.get(otherChild.myMethodId);
       } else {
-        existing = children.get(otherChild.getId());
+        existing = children.get(otherChild.myMethodId);
       }
       if (existing != null) {
         existing.merge(otherChild);
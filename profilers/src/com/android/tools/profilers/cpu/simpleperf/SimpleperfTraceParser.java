@@ -26,7 +26,7 @@ import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,12 +36,17 @@ import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Parses a trace file obtained using simpleperf to a map threadId -> {@link CaptureNode}.
@@ -118,11 +123,27 @@ public class SimpleperfTraceParser implements TraceParser {
    */
   private String myAppDataFolderPrefix;
 
+  /**
+   * Executor used to build the call trees of different threads concurrently.
+   */
+  @NotNull private final Executor myExecutor;
+
+  /**
+   * Maps a call site to its {@link CaptureNodeModel}, so each symbol of {@link #myFiles} is parsed once rather than once per node.
+   * It is shared by the threads whose call trees are built concurrently.
+   */
+  private final Map<CallSite, CaptureNodeModel> myMethodModels = new ConcurrentHashMap<>();
+
   public SimpleperfTraceParser() {
+    this(MoreExecutors.directExecutor());
+  }
+
+  public SimpleperfTraceParser(@NotNull Executor executor) {
     myFiles = new HashMap<>();
     mySamples = new ArrayList<>();
     myCaptureTrees = new HashMap<>();
     myThreads = new HashMap<>();
+    myExecutor = executor;
   }
 
   /**
@@ -301,9 +322,31 @@ public class SimpleperfTraceParser implements TraceParser {
     // Split the samples per thread.
     Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
 
-    // Process the samples for each thread
+    // Process the samples of each thread concurrently. The trees are only added to myCaptureTrees once they are all built.
+    Map<Integer, CompletableFuture<CaptureNode>> threadTrees = new HashMap<>();
     for (Map.Entry<Integer, List<SimpleperfReport.Sample>> threadSamplesEntry : threadSamples.entrySet()) {
-      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue());
+      int threadId = threadSamplesEntry.getKey();
+      List<SimpleperfReport.Sample> samples = threadSamplesEntry.getValue();
+      if (!myThreads.containsKey(threadId)) {
+        throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+      }
+      threadTrees.put(threadId, CompletableFuture.supplyAsync(() -> parseThreadSamples(threadId, samples), myExecutor));
+    }
+
+    for (Map.Entry<Integer, CompletableFuture<CaptureNode>> threadTreeEntry : threadTrees.entrySet()) {
+      CaptureNode root;
+      try {
+        root = threadTreeEntry.getValue().join();
+      }
+      catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException)e.getCause();
+        }
+        throw e;
+      }
+      int threadId = threadTreeEntry.getKey();
+      SimpleperfReport.Thread thread = myThreads.get(threadId);
+      myCaptureTrees.put(new CpuThreadInfo(threadId, thread.getThreadName(), threadId == thread.getProcessId()), root);
     }
   }
 
@@ -335,39 +378,27 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the list of samples of a thread into a {@link CaptureNode} tree.
+   * Parses the list of samples of a thread into a {@link CaptureNode} tree. Called concurrently for different threads, so it must only
+   * read the state of the parser, except for {@link #myMethodModels}.
+   *
+   * @return the root of the tree, which represents the thread itself.
    */
-  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
-    if (threadSamples.isEmpty()) {
-      getLog().warn(String.format("Warning: No samples read for thread %s (%d)", myThreads.get(threadId), threadId));
-      return;
-    }
-
-    if (!myThreads.containsKey(threadId)) {
-      throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
-    }
-
+  @NotNull
+  private CaptureNode parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
     // Add a root node to represent the thread itself.
     long firstTimestamp = threadSamples.get(0).getTime();
     SimpleperfReport.Thread thread = myThreads.get(threadId);
     CaptureNode root = createCaptureNode(new SingleNameModel(thread.getThreadName()), firstTimestamp);
     root.setDepth(0);
-    myCaptureTrees.put(new CpuThreadInfo(threadId, thread.getThreadName(), threadId == thread.getProcessId()), root);
 
-    // Parse the first call chain so we have a value for lastCallchain
-    List<SimpleperfReport.Sample.CallChainEntry> previousCallChain = Lists.reverse(threadSamples.get(0).getCallchainList());
-    // Node used to traverse the tree. In the first traversal we pass an empty list as previous call chain and root as last visited node.
-    CaptureNode lastVisitedNode = parseCallChain(previousCallChain, Collections.emptyList(), threadSamples.get(0).getTime(), root);
+    // Node used to traverse the tree. In the first traversal there is no previous call chain and root is the last visited node.
+    CaptureNode lastVisitedNode = parseCallChain(threadSamples.get(0), null, threadSamples.get(0).getTime(), root);
 
     // Now parse all the rest of the samples collected for this thread
     for (int i = 1; i < threadSamples.size(); i++) {
       SimpleperfReport.Sample sample = threadSamples.get(i);
-      // Reverse the call chain order because simpleperf returns the call chains ordered from leaf to root,
-      // so reversing it makes the traversal easier.
-      List<SimpleperfReport.Sample.CallChainEntry> callChain = Lists.reverse(sample.getCallchainList());
       // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
-      lastVisitedNode = parseCallChain(callChain, previousCallChain, sample.getTime(), lastVisitedNode);
-      previousCallChain = callChain;
+      lastVisitedNode = parseCallChain(sample, threadSamples.get(i - 1), sample.getTime(), lastVisitedNode);
     }
 
     // Finally, update the end timestamp of the nodes in the last sample of the thread, which should be the last sample's timestamp.
@@ -376,6 +407,17 @@ public class SimpleperfTraceParser implements TraceParser {
     updateAncestorsEndTime(lastTimestamp, lastVisitedNode);
     // update the root timestamp
     setNodeEndTime(root, lastTimestamp);
+    return root;
+  }
+
+  /**
+   * Simpleperf returns the call chains ordered from leaf to root. Rather than reversing them, call chain entries are accessed by their
+   * distance from the root, which makes the traversal easier.
+   *
+   * @return the entry of the sample's call chain at the given depth, where 0 is the outermost call.
+   */
+  private static SimpleperfReport.Sample.CallChainEntry getCallChainEntry(SimpleperfReport.Sample sample, int depth) {
+    return sample.getCallchain(sample.getCallchainCount() - 1 - depth);
   }
 
   /**
@@ -391,33 +433,34 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Given a {@link SimpleperfReport.Sample.CallChainEntry} and the previous one, add the new method calls as nodes to the tree and set
+   * Given the call chain of a {@link SimpleperfReport.Sample} and the previous one, add the new method calls as nodes to the tree and set
    * their start time to the given timestamp. Also, check which methods are not on the call chain anymore and update their end time.
    * Receives a {@link CaptureNode} as a starting point to traverse the tree when adding new nodes or visiting existing ones. Returns the
    * last visited node.
    */
-  private CaptureNode parseCallChain(List<SimpleperfReport.Sample.CallChainEntry> callChain,
-                                     List<SimpleperfReport.Sample.CallChainEntry> previousCallChain,
+  private CaptureNode parseCallChain(SimpleperfReport.Sample sample, @Nullable SimpleperfReport.Sample previousSample,
                                      long sampleTimestamp, CaptureNode lastVisitedNode) {
     // Node used to traverse the tree when adding new nodes or going up to find the divergent node ancestor.
     CaptureNode traversalNode = lastVisitedNode;
+    int callChainSize = sample.getCallchainCount();
+    int previousCallChainSize = previousSample == null ? 0 : previousSample.getCallchainCount();
 
     // Find the node where the current call chain diverge from the previous one
     int divergenceIndex = 0;
-    while (divergenceIndex < callChain.size() && divergenceIndex < previousCallChain.size() &&
-           equals(previousCallChain.get(divergenceIndex), callChain.get(divergenceIndex))) {
+    while (divergenceIndex < callChainSize && divergenceIndex < previousCallChainSize &&
+           equals(getCallChainEntry(previousSample, divergenceIndex), getCallChainEntry(sample, divergenceIndex))) {
       divergenceIndex++;
     }
 
     // If there is a divergence, we update the end time of the traversal node and go up in the tree until we find the divergent node parent.
-    if (divergenceIndex < previousCallChain.size()) {
-      int divergenceCount = previousCallChain.size() - divergenceIndex;
+    if (divergenceIndex < previousCallChainSize) {
+      int divergenceCount = previousCallChainSize - divergenceIndex;
       traversalNode = findDivergenceAndUpdateEndTime(divergenceCount, sampleTimestamp, traversalNode);
     }
 
     // We add the new nodes (if any) present in the new call chain as descendants of the parent of the first divergent node.
-    if (divergenceIndex < callChain.size()) {
-      traversalNode = addNewNodes(callChain, traversalNode, divergenceIndex, sampleTimestamp);
+    if (divergenceIndex < callChainSize) {
+      traversalNode = addNewNodes(sample, traversalNode, divergenceIndex, sampleTimestamp);
     }
 
     // Finally, return the traversal node.
@@ -442,13 +485,12 @@ public class SimpleperfTraceParser implements TraceParser {
    * Given a list of call chain entries and a start index, convert them to {@link CaptureNode} and add them as descendants of a given node.
    * Returns the last visited (added) node.
    */
-  private CaptureNode addNewNodes(List<SimpleperfReport.Sample.CallChainEntry> callChain,
-                                  CaptureNode node, int startIndex, long startTimestamp) {
+  private CaptureNode addNewNodes(SimpleperfReport.Sample sample, CaptureNode node, int startIndex, long startTimestamp) {
     assert node != null;
-    for (int i = startIndex; i < callChain.size(); i++) {
+    for (int i = startIndex; i < sample.getCallchainCount(); i++) {
       // Get the parent function vAddress. That corresponds to the line of the parent function where the current function is called.
-      long parentVAddress = i > 0 ? callChain.get(i - 1).getVaddrInFile() : -1;
-      CaptureNode child = createCaptureNode(methodModelFromCallchainEntry(callChain.get(i), parentVAddress), startTimestamp);
+      long parentVAddress = i > 0 ? getCallChainEntry(sample, i - 1).getVaddrInFile() : -1;
+      CaptureNode child = createCaptureNode(methodModelFromCallchainEntry(getCallChainEntry(sample, i), parentVAddress), startTimestamp);
       node.addChild(child);
       child.setDepth(node.getDepth() + 1);
       node = child;
@@ -458,6 +500,21 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   private CaptureNodeModel methodModelFromCallchainEntry(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
+    // Models of unknown symbols depend on the address of the entry itself, the other ones on the address of their caller.
+    long vAddress = callChainEntry.getSymbolId() == INVALID_SYMBOL_ID ? callChainEntry.getVaddrInFile() : parentVAddress;
+    CallSite callSite = new CallSite(callChainEntry.getFileId(), callChainEntry.getSymbolId(), vAddress);
+    CaptureNodeModel model = myMethodModels.get(callSite);
+    if (model == null) {
+      model = createMethodModel(callChainEntry, parentVAddress);
+      CaptureNodeModel existing = myMethodModels.putIfAbsent(callSite, model);
+      if (existing != null) {
+        model = existing;
+      }
+    }
+    return model;
+  }
+
+  private CaptureNodeModel createMethodModel(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
     int symbolId = callChainEntry.getSymbolId();
     SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
     if (symbolFile == null) {
@@ -474,4 +531,33 @@ public class SimpleperfTraceParser implements TraceParser {
     boolean isUserWritten = symbolFile.getPath().startsWith(myAppDataFolderPrefix);
     return NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId), isUserWritten, symbolFile.getPath(), parentVAddress);
   }
+
+  /**
+   * A symbol of a file together with the address that its {@link CaptureNodeModel} refers to.
+   */
+  private static final class CallSite {
+    private final int myFileId;
+    private final int mySymbolId;
+    private final long myVAddress;
+
+    private CallSite(int fileId, int symbolId, long vAddress) {
+      myFileId = fileId;
+      mySymbolId = symbolId;
+      myVAddress = vAddress;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CallSite)) {
+        return false;
+      }
+      CallSite other = (CallSite)obj;
+      return myFileId == other.myFileId && mySymbolId == other.mySymbolId && myVAddress == other.myVAddress;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myFileId, mySymbolId, myVAddress);
+    }
+  }
 }
@@ -30,4 +30,5 @@ public enum MemoryProfilerAspect {
   CURRENT_FIELD_PATH,
   CURRENT_FILTER,
   LIVE_ALLOCATION_SAMPLING_MODE,
+  HEAP_DUMP_DIFF,
 }
@@ -63,6 +63,9 @@ import com.android.tools.profilers.event.EventMonitor;
 import com.android.tools.profilers.memory.adapters.CaptureObject;
 import com.android.tools.profilers.memory.adapters.ClassSet;
 import com.android.tools.profilers.memory.adapters.FieldObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpCaptureObject;
+import com.android.tools.profilers.memory.adapters.HeapDumpDiff;
+import com.android.tools.profilers.memory.adapters.HeapDumpSummary;
 import com.android.tools.profilers.memory.adapters.HeapSet;
 import com.android.tools.profilers.memory.adapters.InstanceObject;
 import com.android.tools.profilers.stacktrace.CodeLocation;
@@ -81,6 +84,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -145,6 +149,11 @@ public class MemoryProfilerStage extends StreamingStage implements CodeNavigator
   private final CaptureElapsedTimeUpdatable myCaptureElapsedTimeUpdatable = new CaptureElapsedTimeUpdatable();
   private long myPendingCaptureStartTime = INVALID_START_TIME;
   private long myPendingLegacyAllocationStartTimeNs = INVALID_START_TIME;
+  /**
+   * Summaries of the heap dumps loaded in this stage, by start time, so that a heap dump can be compared with the one before it.
+   */
+  @NotNull private final TreeMap<Long, HeapDumpSummary> myHeapDumpSummaries = new TreeMap<>();
+  @Nullable private HeapDumpDiff myHeapDumpDiff;
 
   @NotNull private final AllocationSamplingRateDataSeries myAllocationSamplingRateDataSeries;
   @NotNull private final DurationDataModel<AllocationSamplingRateDurationData> myAllocationSamplingRateDurations;
@@ -667,6 +676,7 @@ public class MemoryProfilerStage extends StreamingStage implements CodeNavigator
     if (!mySelection.selectCaptureEntry(durationData == null ? null : durationData.getCaptureEntry())) {
       return;
     }
+    myHeapDumpDiff = null;
 
     myUpdateCaptureOnSelection = false;
     CaptureObject captureObject = mySelection.getCaptureObject();
@@ -703,6 +713,9 @@ public class MemoryProfilerStage extends StreamingStage implements CodeNavigator
           try {
             CaptureObject loadedCaptureObject = future.get();
             if (mySelection.finishSelectingCaptureObject(loadedCaptureObject)) {
+              if (loadedCaptureObject instanceof HeapDumpCaptureObject) {
+                summarizeHeapDump((HeapDumpCaptureObject)loadedCaptureObject, joiner == null ? MoreExecutors.directExecutor() : joiner);
+              }
               Collection<HeapSet> heaps = loadedCaptureObject.getHeapSets();
               if (heaps.isEmpty()) {
                 return;
@@ -840,6 +853,30 @@ public class MemoryProfilerStage extends StreamingStage implements CodeNavigator
     return mySelection.getCaptureObject();
   }
 
+  /**
+   * @return the changes between the selected heap dump and the closest earlier heap dump loaded in this stage, or null if there is none
+   * or the selected heap dump isn't summarized yet.
+   */
+  @Nullable
+  public HeapDumpDiff getHeapDumpDiff() {
+    return myHeapDumpDiff;
+  }
+
+  /**
+   * Summarizes the heap dump once its retained sizes are computed, and compares it with the closest earlier heap dump that was summarized.
+   * The summaries don't reference the captures, so the earlier heap dumps don't need to stay loaded.
+   */
+  private void summarizeHeapDump(@NotNull HeapDumpCaptureObject capture, @NotNull Executor joiner) {
+    capture.summarize().thenAcceptAsync(summary -> {
+      myHeapDumpSummaries.put(capture.getStartTimeNs(), summary);
+      Map.Entry<Long, HeapDumpSummary> previous = myHeapDumpSummaries.lowerEntry(capture.getStartTimeNs());
+      if (previous != null && mySelection.getCaptureObject() == capture) {
+        myHeapDumpDiff = new HeapDumpDiff(previous.getValue(), summary);
+        myAspect.changed(MemoryProfilerAspect.HEAP_DUMP_DIFF);
+      }
+    }, joiner);
+  }
+
   @NotNull
   public MemoryProfilerConfiguration getConfiguration() {
     return myConfiguration;
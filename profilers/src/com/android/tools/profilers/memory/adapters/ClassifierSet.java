@@ -38,6 +38,9 @@ public abstract class ClassifierSet implements MemoryObject {
   // Note that instances here can also appear in the set of snapshot instances (e.g. when a instance is allocated before the selection
   // and deallocation within the selection).
   @NotNull protected final Set<InstanceObject> myDeltaInstances = new LinkedHashSet<>(0);
+  // The groups of delta instances whose InstanceObjects haven't been created yet. Their instances are counted in the totals, and are only
+  // added to myDeltaInstances once they are needed, e.g. when the instances of this set are listed.
+  @NotNull protected final List<LazyInstanceGroup> myLazyInstanceGroups = new ArrayList<>(0);
 
   // Lazily create the Classifier, as it is configurable and isn't necessary until nodes under this node needs to be classified.
   @Nullable protected Classifier myClassifier = null;
@@ -270,9 +273,79 @@ public abstract class ClassifierSet implements MemoryObject {
     return instanceRemoved;
   }
 
+  /**
+   * Add a group of delta instances of the same class without creating their {@link InstanceObject}s, and update the accounting of the
+   * "total" values. The instances are created once they are listed, or when the group cannot be classified as a whole.
+   */
+  void addLazyInstanceGroup(@NotNull LazyInstanceGroup group) {
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(group.getClassEntry(), true);
+      if (classifierSet == null) {
+        // The instances of the class don't all belong to the same child, e.g. when they are arranged by call stack.
+        group.createInstances().forEach(this::addDeltaInstanceObject);
+        return;
+      }
+      classifierSet.addLazyInstanceGroup(group);
+    }
+    else {
+      assert !myLazyInstanceGroups.contains(group);
+      myLazyInstanceGroups.add(group);
+    }
+
+    myDeltaAllocations += group.getInstanceCount();
+    myTotalNativeSize += group.getTotalNativeSize();
+    myTotalShallowSize += group.getTotalShallowSize();
+    myTotalRetainedSize += group.getTotalRetainedSize();
+    myNeedsRefiltering = true;
+  }
+
+  /**
+   * Add to the retained size of an instance that is already in the set, e.g. when the retained sizes are computed after the instances were
+   * added.
+   * Return true if the set contains the instance.
+   */
+  public boolean addRetainedSize(@NotNull InstanceObject instanceObject, long retainedSize) {
+    boolean containsInstance;
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(instanceObject, false);
+      containsInstance = classifierSet != null && classifierSet.addRetainedSize(instanceObject, retainedSize);
+    }
+    else {
+      containsInstance = mySnapshotInstances.contains(instanceObject) || myDeltaInstances.contains(instanceObject);
+    }
+
+    if (containsInstance) {
+      myTotalRetainedSize += retainedSize;
+      myNeedsRefiltering = true;
+    }
+    return containsInstance;
+  }
+
+  /**
+   * Add to the retained size of an instance of a group whose instances haven't been created yet.
+   * Return true if the set contains the group.
+   */
+  boolean addRetainedSize(@NotNull LazyInstanceGroup group, long retainedSize) {
+    boolean containsGroup;
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(group.getClassEntry(), false);
+      containsGroup = classifierSet != null && classifierSet.addRetainedSize(group, retainedSize);
+    }
+    else {
+      containsGroup = myLazyInstanceGroups.contains(group);
+    }
+
+    if (containsGroup) {
+      myTotalRetainedSize += retainedSize;
+      myNeedsRefiltering = true;
+    }
+    return containsGroup;
+  }
+
   public void clearClassifierSets() {
     mySnapshotInstances.clear();
     myDeltaInstances.clear();
+    myLazyInstanceGroups.clear();
     myClassifier = createSubClassifier();
     mySnapshotObjectCount = 0;
     myDeltaAllocations = 0;
@@ -290,7 +363,7 @@ public abstract class ClassifierSet implements MemoryObject {
     if (myClassifier == null) {
       Set<InstanceObject> total = new HashSet<>(mySnapshotInstances);
       total.addAll(myDeltaInstances);
-      return total.size();
+      return total.size() + myLazyInstanceGroups.stream().mapToInt(LazyInstanceGroup::getInstanceCount).sum();
     }
     else {
       return (int)getInstancesStream().count();
@@ -302,6 +375,7 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @NotNull
   public Stream<InstanceObject> getInstancesStream() {
+    createLazyInstances(null);
     Stream<InstanceObject> total = Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct();
     if (myClassifier == null) {
       return total;
@@ -342,6 +416,34 @@ public abstract class ClassifierSet implements MemoryObject {
     }
   }
 
+  /**
+   * Return the stream of the groups whose instances haven't been created yet.
+   */
+  @NotNull
+  protected Stream<LazyInstanceGroup> getLazyInstanceGroupStream() {
+    if (myClassifier == null) {
+      return myLazyInstanceGroups.stream();
+    }
+    else {
+      return Stream.concat(myClassifier.getAllClassifierSets().stream().flatMap(ClassifierSet::getLazyInstanceGroupStream),
+                           myLazyInstanceGroups.stream());
+    }
+  }
+
+  /**
+   * Create the instances of the groups of this set, or only of the groups of {@code classEntry} if it isn't null, and move them to the
+   * delta instances. The totals already account for them.
+   */
+  private void createLazyInstances(@Nullable ClassDb.ClassEntry classEntry) {
+    for (Iterator<LazyInstanceGroup> iterator = myLazyInstanceGroups.iterator(); iterator.hasNext(); ) {
+      LazyInstanceGroup group = iterator.next();
+      if (classEntry == null || classEntry.equals(group.getClassEntry())) {
+        myDeltaInstances.addAll(group.createInstances());
+        iterator.remove();
+      }
+    }
+  }
+
   public boolean hasStackInfo() {
     return myInstancesWithStackInfoCount > 0;
   }
@@ -362,6 +464,7 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @Nullable
   public ClassifierSet findContainingClassifierSet(@NotNull InstanceObject target) {
+    createLazyInstances(target.getClassEntry());
     boolean instancesContainsTarget =
       Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
         .isPresent();
@@ -409,9 +512,32 @@ public abstract class ClassifierSet implements MemoryObject {
     if (myClassifier == null) {
       myClassifier = createSubClassifier();
       myClassifier.partition(mySnapshotInstances, myDeltaInstances);
+      partitionLazyInstanceGroups();
     }
   }
 
+  /**
+   * Move the groups whose instances haven't been created yet to the child ClassifierSets, without creating their instances if the whole
+   * group belongs to the same child.
+   */
+  private void partitionLazyInstanceGroups() {
+    assert myClassifier != null;
+    if (myClassifier.isTerminalClassifier()) {
+      return;
+    }
+
+    for (LazyInstanceGroup group : myLazyInstanceGroups) {
+      ClassifierSet classifierSet = myClassifier.getClassifierSet(group.getClassEntry(), true);
+      if (classifierSet != null) {
+        classifierSet.addLazyInstanceGroup(group);
+      }
+      else {
+        group.createInstances().forEach(instance -> myClassifier.getClassifierSet(instance, true).addDeltaInstanceObject(instance));
+      }
+    }
+    myLazyInstanceGroups.clear();
+  }
+
   /**
    * Gets the classifier this class will use to classify its instances.
    */
@@ -520,6 +646,15 @@ public abstract class ClassifierSet implements MemoryObject {
     @Nullable
     public abstract ClassifierSet getClassifierSet(@NotNull InstanceObject instance, boolean createIfAbsent);
 
+    /**
+     * Retrieve the next-level ClassifierSet that every instance of the given class belongs to, like
+     * {@link #getClassifierSet(InstanceObject, boolean)}. Return null if the instances of a class can belong to different ClassifierSets.
+     */
+    @Nullable
+    public ClassifierSet getClassifierSet(@NotNull ClassDb.ClassEntry classEntry, boolean createIfAbsent) {
+      return null;
+    }
+
     /**
      * Gets a {@link List} of the child ClassifierSets.
      */
@@ -558,4 +693,27 @@ public abstract class ClassifierSet implements MemoryObject {
       deltaInstances.clear();
     }
   }
+
+  /**
+   * A group of instances of the same class that is added to a ClassifierSet before the {@link InstanceObject}s of the instances are
+   * created, e.g. the instances of a class in a heap dump.
+   */
+  interface LazyInstanceGroup {
+    @NotNull
+    ClassDb.ClassEntry getClassEntry();
+
+    int getInstanceCount();
+
+    long getTotalShallowSize();
+
+    long getTotalNativeSize();
+
+    long getTotalRetainedSize();
+
+    /**
+     * Create the objects of the instances of the group, or return the ones that have already been created.
+     */
+    @NotNull
+    List<InstanceObject> createInstances();
+  }
 }
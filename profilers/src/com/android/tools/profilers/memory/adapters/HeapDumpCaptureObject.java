@@ -29,7 +29,7 @@ import com.android.tools.perflib.heap.Heap;
 import com.android.tools.perflib.heap.Instance;
 import com.android.tools.perflib.heap.Snapshot;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
-import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Memory.HeapDumpInfo;
 import com.android.tools.profiler.proto.Transport;
@@ -45,8 +45,14 @@ import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import gnu.trove.TLongObjectHashMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -55,9 +61,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -65,6 +73,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class HeapDumpCaptureObject implements CaptureObject {
+  // The number of instances whose retained sizes are added to the classifier sets in one go on the query joiner.
+  private static final int RETAINED_SIZE_BATCH_SIZE = 1 << 16;
 
   @NotNull
   private final ProfilerClient myClient;
@@ -78,8 +88,13 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   private final Map<Integer, HeapSet> myHeapSets = new HashMap<>();
 
+  // The objects of the classes, which are created when the capture is loaded. The objects of the other instances are created as they are
+  // needed by myInstanceIndex.
   @NotNull
-  private final TLongObjectHashMap<InstanceObject> myInstanceIndex = new TLongObjectHashMap<>();
+  private final TLongObjectHashMap<InstanceObject> myClassObjectIndex = new TLongObjectHashMap<>();
+
+  @Nullable
+  private volatile HeapDumpInstanceIndex myInstanceIndex;
 
   @NotNull
   private final ClassDb myClassDb = new ClassDb();
@@ -93,8 +108,26 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Nullable
   private volatile Snapshot mySnapshot;
 
+  /**
+   * The temporary copy of the heap dump the snapshot is read from, and its mapping. Both are released on {@link #unload()}.
+   */
+  @Nullable
+  private volatile File myHeapDumpFile;
+
+  @Nullable
+  private volatile MemoryMappedFileBuffer myHeapDumpBuffer;
+
+  @Nullable
+  private volatile HeapDumpDominators myDominators;
+
   private volatile boolean myIsLoadingError = false;
 
+  /**
+   * Completed once the retained sizes of every instance are known, and cancelled if loading fails or the capture is unloaded first.
+   */
+  @NotNull
+  private final CompletableFuture<Void> myRetainedSizesFuture = new CompletableFuture<>();
+
   private boolean myHasNativeAllocations;
 
   @NotNull
@@ -107,6 +140,10 @@ public class HeapDumpCaptureObject implements CaptureObject {
   private final ExecutorService myExecutorService =
     Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("memory-heapdump-instancefilters").build());
 
+  private static Logger getLogger() {
+    return Logger.getInstance(HeapDumpCaptureObject.class);
+  }
+
   public HeapDumpCaptureObject(@NotNull ProfilerClient client,
                                @NotNull Common.Session session,
                                @NotNull HeapDumpInfo heapDumpInfo,
@@ -206,19 +243,53 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
     if (response.getContents() == ByteString.EMPTY) {
       myIsLoadingError = true;
+      myRetainedSizesFuture.cancel(false);
+      return false;
+    }
+
+    // The snapshot reads the heap dump from a memory-mapped file rather than from a copy on the Java heap, so the response can be
+    // collected before the snapshot is built. Instance fields are then decoded from the mapped file on demand.
+    MemoryMappedFileBuffer buffer;
+    try {
+      myHeapDumpFile = FileUtil.createTempFile(String.format("heapdump_%d", myHeapDumpInfo.getStartTime()), ".hprof", true);
+      try (FileOutputStream outputStream = new FileOutputStream(myHeapDumpFile)) {
+        response.getContents().writeTo(outputStream);
+      }
+      response = null;
+      buffer = new MemoryMappedFileBuffer(myHeapDumpFile);
+      myHeapDumpBuffer = buffer;
+    }
+    catch (IOException e) {
+      getLogger().warn("Failed to load heap dump", e);
+      releaseHeapDumpFile();
+      myIsLoadingError = true;
+      myRetainedSizesFuture.cancel(false);
       return false;
     }
 
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getContents().asReadOnlyByteBuffer());
     Snapshot snapshot;
     NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
-    if (myProguardMap != null) {
-      snapshot = Snapshot.createSnapshot(buffer, myProguardMap, Collections.singletonList(nativeRegistryPostProcessor));
+    try {
+      if (myProguardMap != null) {
+        snapshot = Snapshot.createSnapshot(buffer, myProguardMap, Collections.singletonList(nativeRegistryPostProcessor));
+      }
+      else {
+        snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Collections.singletonList(nativeRegistryPostProcessor));
+      }
     }
-    else {
-      snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Collections.singletonList(nativeRegistryPostProcessor));
+    catch (RuntimeException e) {
+      releaseHeapDumpFile();
+      myRetainedSizesFuture.cancel(false);
+      throw e;
     }
-    snapshot.computeDominators();
+    // The depths are needed to show and filter the instances, while the retained sizes are only needed to show them, so when the capture
+    // is loaded for the UI the dominators are computed in the background and the retained sizes are added to the heap sets as they come.
+    HeapDumpDominators dominators = new HeapDumpDominators(snapshot);
+    if (queryJoiner == null) {
+      dominators.computeRetainedSizes();
+      dominators.publishRetainedSizes(dominators.getNodeCount());
+    }
+    myDominators = dominators;
     myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
     mySnapshot = snapshot;
 
@@ -237,33 +308,23 @@ public class HeapDumpCaptureObject implements CaptureObject {
     }
 
     InstanceObject finalJavaLangClassObject = javaLangClassObject;
+    Map<Integer, HeapSet> heapSetsById = new HashMap<>(heapSets.size());
     for (Heap heap : snapshot.getHeaps()) {
       HeapSet heapSet = heapSets.get(heap);
+      heapSetsById.put(heap.getId(), heapSet);
       heap.getClasses().forEach(classObj -> {
         InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj);
-        assert !myInstanceIndex.containsKey(classObj.getId());
-        myInstanceIndex.put(classObj.getId(), classObject);
+        assert !myClassObjectIndex.containsKey(classObj.getId());
+        myClassObjectIndex.put(classObj.getId(), classObject);
         heapSet.addDeltaInstanceObject(classObject);
       });
     }
 
-    for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = heapSets.get(heap);
-      heap.forEachInstance(instance -> {
-        assert !JAVA_LANG_CLASS.equals(instance.getClassObj().getClassName());
-
-        ClassObj classObj = instance.getClassObj();
-        ClassDb.ClassEntry classEntry =
-          classObj.getSuperClassObj() != null ?
-          myClassDb.registerClass(classObj.getId(), classObj.getSuperClassObj().getId(), classObj.getClassName()) :
-          myClassDb.registerClass(classObj.getId(), classObj.getClassName());
-        InstanceObject instanceObject = new HeapDumpInstanceObject(this, instance, classEntry, null);
-        assert !myInstanceIndex.containsKey(instance.getId());
-        myInstanceIndex.put(instance.getId(), instanceObject);
-        heapSet.addDeltaInstanceObject(instanceObject);
-        return true;
-      });
-    }
+    // The other instances are indexed by class, and their objects are only created once their class is expanded, or when they are
+    // referenced by an instance that is shown.
+    HeapDumpInstanceIndex instanceIndex = new HeapDumpInstanceIndex(this, dominators);
+    myInstanceIndex = instanceIndex;
+    instanceIndex.getGroups().forEach(group -> heapSetsById.get(group.getHeapId()).addLazyInstanceGroup(group));
     heapSets.forEach((key, value) -> {
       if ("default".equals(key.getName())) {
         if (heapSets.size() == 1 || key.getInstancesCount() > 0) {
@@ -277,9 +338,73 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
     myStage.refreshSelectedHeap();
 
+    if (queryJoiner != null) {
+      myExecutorService.execute(() -> computeRetainedSizes(dominators, instanceIndex, queryJoiner));
+    }
+    else {
+      myRetainedSizesFuture.complete(null);
+    }
+
     return true;
   }
 
+  private void computeRetainedSizes(@NotNull HeapDumpDominators dominators,
+                                    @NotNull HeapDumpInstanceIndex instanceIndex,
+                                    @NotNull Executor joiner) {
+    dominators.computeRetainedSizes();
+    for (int start = 1; start < dominators.getNodeCount(); start += RETAINED_SIZE_BATCH_SIZE) {
+      int batchStart = start;
+      int batchEnd = Math.min(start + RETAINED_SIZE_BATCH_SIZE, dominators.getNodeCount());
+      joiner.execute(() -> {
+        // The sizes become visible to the instances at the same time as they are added to the heap sets, so that sets that are built
+        // later, e.g. by an instance filter, agree with the totals of the sets built before.
+        dominators.publishRetainedSizes(batchEnd);
+        for (int node = batchStart; node < batchEnd; ++node) {
+          long retainedSize = dominators.getComputedRetainedSize(node);
+          if (retainedSize == 0) {
+            continue;
+          }
+          HeapDumpInstanceIndex.InstanceGroup group = instanceIndex.getGroup(node);
+          if (group == null) {
+            InstanceObject classObject = myClassObjectIndex.get(dominators.getInstance(node).getId());
+            HeapSet heapSet = classObject == null ? null : myHeapSets.get(classObject.getHeapId());
+            if (heapSet != null) {
+              heapSet.addRetainedSize(classObject, retainedSize);
+            }
+            continue;
+          }
+
+          // The instances of a group are only looked up once the group has been expanded or filtered.
+          instanceIndex.addRetainedSize(node, retainedSize);
+          HeapSet heapSet = myHeapSets.get(group.getHeapId());
+          if (heapSet != null && !heapSet.addRetainedSize(group, retainedSize)) {
+            InstanceObject instanceObject = instanceIndex.getInstanceObject(node);
+            assert instanceObject != null;
+            heapSet.addRetainedSize(instanceObject, retainedSize);
+          }
+        }
+        myStage.refreshSelectedHeap();
+      });
+    }
+    joiner.execute(() -> myRetainedSizesFuture.complete(null));
+  }
+
+  /**
+   * Summarizes the capture once the retained sizes of every instance are known. The summary is built on the instance filter thread from
+   * every instance of the heap dump, including the ones hidden by the current filters, using the totals of the instance index so that
+   * no instance object is created.
+   */
+  @NotNull
+  public CompletableFuture<HeapDumpSummary> summarize() {
+    return myRetainedSizesFuture.thenApplyAsync(ignored -> {
+      List<InstanceObject> classObjects = new ArrayList<>(myClassObjectIndex.size());
+      myClassObjectIndex.forEachValue(classObjects::add);
+      HeapDumpInstanceIndex instanceIndex = myInstanceIndex;
+      assert instanceIndex != null;
+      return HeapDumpSummary.create(classObjects.stream(), instanceIndex.getGroups(), this::getHeapSet);
+    }, myExecutorService);
+  }
+
   @Override
   public boolean isDoneLoading() {
     return mySnapshot != null || myIsLoadingError;
@@ -292,7 +417,42 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public void unload() {
+    // Cancelled first so that no summary is scheduled on the executor once it is shut down.
+    myRetainedSizesFuture.cancel(false);
     myExecutorService.shutdownNow();
+    // An instance filter that is still running may be reading the mapped heap dump, so it is only released once the filter is done.
+    myStage.getStudioProfilers().getIdeServices().getPoolExecutor().execute(() -> {
+      try {
+        myExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      releaseHeapDumpFile();
+    });
+  }
+
+  /**
+   * Unmaps the heap dump and deletes its temporary file. The file cannot be deleted on Windows while it is still mapped.
+   */
+  private synchronized void releaseHeapDumpFile() {
+    if (myHeapDumpBuffer != null) {
+      myHeapDumpBuffer.dispose();
+      myHeapDumpBuffer = null;
+    }
+    if (myHeapDumpFile != null) {
+      if (!FileUtil.delete(myHeapDumpFile)) {
+        getLogger().warn("Failed to delete " + myHeapDumpFile);
+      }
+      myHeapDumpFile = null;
+    }
+  }
+
+  @VisibleForTesting
+  @Nullable
+  File getHeapDumpFile() {
+    return myHeapDumpFile;
   }
 
   @NotNull
@@ -319,7 +479,53 @@ public class HeapDumpCaptureObject implements CaptureObject {
       return null;
     }
 
-    return myInstanceIndex.get(instance.getId());
+    InstanceObject classObject = myClassObjectIndex.get(instance.getId());
+    if (classObject != null) {
+      return classObject;
+    }
+    HeapDumpInstanceIndex instanceIndex = myInstanceIndex;
+    return instanceIndex == null ? null : instanceIndex.getInstanceObject(instance);
+  }
+
+  @VisibleForTesting
+  @Nullable
+  HeapDumpInstanceIndex getInstanceIndex() {
+    return myInstanceIndex;
+  }
+
+  /**
+   * @return the number of hops from a GC root to the instance, or {@link Integer#MAX_VALUE} if it is not reachable.
+   */
+  int getDepth(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getDistanceToGcRoot() : dominators.getDepth(instance);
+  }
+
+  /**
+   * @return the retained size of the instance, or {@link MemoryObject#INVALID_VALUE} if it is still being computed.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getTotalRetainedSize() : dominators.getRetainedSize(instance);
+  }
+
+  @NotNull
+  List<Instance> getHardReferrers(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getHardReverseReferences() : dominators.getHardReferrers(instance);
+  }
+
+  @Nullable
+  List<Instance> getSoftReferrers(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getSoftReverseReferences() : dominators.getSoftReferrers(instance);
+  }
+
+  @NotNull
+  ClassDb.ClassEntry registerClass(@NotNull ClassObj classObj) {
+    return classObj.getSuperClassObj() != null ?
+           myClassDb.registerClass(classObj.getId(), classObj.getSuperClassObj().getId(), classObj.getClassName()) :
+           myClassDb.registerClass(classObj.getId(), classObj.getClassName());
   }
 
   @NotNull
@@ -394,12 +600,16 @@ public class HeapDumpCaptureObject implements CaptureObject {
     myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATING);
     myExecutorService.execute(() -> {
       // Run the remaining analyzers on the full instance set, since we don't know the the instances that have been removed from the
-      // HeapSets using the filter that we are removing.
-      Set<InstanceObject> allInstances = new HashSet<>(myInstanceIndex.size());
-      myInstanceIndex.forEachValue(instance -> allInstances.add(instance));
-      Set<InstanceObject> matchedInstances = allInstances;
-      for (CaptureObjectInstanceFilter filter : myCurrentInstanceFilters) {
-        matchedInstances = filter.filter(matchedInstances, myClassDb);
+      // HeapSets using the filter that we are removing. Without any filter left, the instances are added back by class instead.
+      HeapDumpInstanceIndex instanceIndex = myInstanceIndex;
+      assert instanceIndex != null;
+      Set<InstanceObject> matchedInstances = null;
+      if (!myCurrentInstanceFilters.isEmpty()) {
+        matchedInstances = new HashSet<>(instanceIndex.createAllInstances());
+        myClassObjectIndex.forEachValue(matchedInstances::add);
+        for (CaptureObjectInstanceFilter filter : myCurrentInstanceFilters) {
+          matchedInstances = filter.filter(matchedInstances, myClassDb);
+        }
       }
 
       Set<InstanceObject> matchedInstancesFinal = matchedInstances;
@@ -408,7 +618,13 @@ public class HeapDumpCaptureObject implements CaptureObject {
           heap.clearClassifierSets();
         }
 
-        matchedInstancesFinal.forEach(instance -> myHeapSets.get(instance.getHeapId()).addDeltaInstanceObject(instance));
+        if (matchedInstancesFinal == null) {
+          myClassObjectIndex.forEachValue(classObject -> myHeapSets.get(classObject.getHeapId()).addDeltaInstanceObject(classObject));
+          instanceIndex.getGroups().forEach(group -> myHeapSets.get(group.getHeapId()).addLazyInstanceGroup(group));
+        }
+        else {
+          matchedInstancesFinal.forEach(instance -> myHeapSets.get(instance.getHeapId()).addDeltaInstanceObject(instance));
+        }
         myStage.getAspect().changed(MemoryProfilerAspect.CURRENT_HEAP_UPDATED);
         myStage.refreshSelectedHeap();
       });
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The classes whose instance count, shallow size or retained size changed between two heap dumps. Classes are matched by heap name and
+ * class name, since the ids of a class are not stable across dumps.
+ */
+public final class HeapDumpDiff {
+  /**
+   * Sorts the classes that grew the most, in retained size and then in instance count, first. Classes whose retained size delta isn't
+   * known come after the others.
+   */
+  public static final Comparator<ClassDelta> LARGEST_GROWTH_FIRST =
+    Comparator.comparing(ClassDelta::hasRetainedSizeDelta)
+      .thenComparingLong(ClassDelta::getRetainedSizeDelta)
+      .thenComparingInt(ClassDelta::getInstanceCountDelta)
+      .reversed();
+
+  @NotNull private final List<ClassDelta> myClassDeltas;
+
+  /**
+   * Walks the classes of both summaries in order, so that comparing the summaries takes linear time.
+   */
+  public HeapDumpDiff(@NotNull HeapDumpSummary before, @NotNull HeapDumpSummary after) {
+    List<ClassDelta> classDeltas = new ArrayList<>();
+    int beforeIndex = 0;
+    int afterIndex = 0;
+    while (beforeIndex < before.getClassCount() || afterIndex < after.getClassCount()) {
+      int order;
+      if (beforeIndex == before.getClassCount()) {
+        order = 1;
+      }
+      else if (afterIndex == after.getClassCount()) {
+        order = -1;
+      }
+      else {
+        order = before.compareClass(beforeIndex, after, afterIndex);
+      }
+
+      ClassDelta delta;
+      if (order < 0) {
+        // The class has no instances in the later dump.
+        delta = new ClassDelta(before.getHeapName(beforeIndex), before.getClassName(beforeIndex), -before.getInstanceCount(beforeIndex),
+                               -before.getShallowSize(beforeIndex), -before.getRetainedSize(beforeIndex),
+                               before.getRetainedSize(beforeIndex) != INVALID_VALUE);
+        beforeIndex++;
+      }
+      else if (order > 0) {
+        delta = new ClassDelta(after.getHeapName(afterIndex), after.getClassName(afterIndex), after.getInstanceCount(afterIndex),
+                               after.getShallowSize(afterIndex), after.getRetainedSize(afterIndex),
+                               after.getRetainedSize(afterIndex) != INVALID_VALUE);
+        afterIndex++;
+      }
+      else {
+        delta = new ClassDelta(after.getHeapName(afterIndex), after.getClassName(afterIndex),
+                               after.getInstanceCount(afterIndex) - before.getInstanceCount(beforeIndex),
+                               after.getShallowSize(afterIndex) - before.getShallowSize(beforeIndex),
+                               after.getRetainedSize(afterIndex) - before.getRetainedSize(beforeIndex),
+                               after.getRetainedSize(afterIndex) != INVALID_VALUE && before.getRetainedSize(beforeIndex) != INVALID_VALUE);
+        beforeIndex++;
+        afterIndex++;
+      }
+
+      if (delta.getInstanceCountDelta() != 0 || delta.getShallowSizeDelta() != 0 || delta.getRetainedSizeDelta() != 0) {
+        classDeltas.add(delta);
+      }
+    }
+    myClassDeltas = Collections.unmodifiableList(classDeltas);
+  }
+
+  /**
+   * @return the classes that changed, sorted by heap name and then by class name.
+   */
+  @NotNull
+  public List<ClassDelta> getClassDeltas() {
+    return myClassDeltas;
+  }
+
+  public static final class ClassDelta {
+    @NotNull private final String myHeapName;
+    @NotNull private final String myClassName;
+    private final int myInstanceCountDelta;
+    private final long myShallowSizeDelta;
+    private final long myRetainedSizeDelta;
+    private final boolean myHasRetainedSizeDelta;
+
+    /**
+     * @param hasRetainedSizeDelta whether the retained size of the class is known in both summaries, otherwise the retained size delta is
+     *                             ignored.
+     */
+    private ClassDelta(@NotNull String heapName,
+                       @NotNull String className,
+                       int instanceCountDelta,
+                       long shallowSizeDelta,
+                       long retainedSizeDelta,
+                       boolean hasRetainedSizeDelta) {
+      myHeapName = heapName;
+      myClassName = className;
+      myInstanceCountDelta = instanceCountDelta;
+      myShallowSizeDelta = shallowSizeDelta;
+      myRetainedSizeDelta = hasRetainedSizeDelta ? retainedSizeDelta : 0;
+      myHasRetainedSizeDelta = hasRetainedSizeDelta;
+    }
+
+    @NotNull
+    public String getHeapName() {
+      return myHeapName;
+    }
+
+    @NotNull
+    public String getClassName() {
+      return myClassName;
+    }
+
+    public int getInstanceCountDelta() {
+      return myInstanceCountDelta;
+    }
+
+    public long getShallowSizeDelta() {
+      return myShallowSizeDelta;
+    }
+
+    /**
+     * @return the change in retained size, or 0 if it isn't known.
+     */
+    public long getRetainedSizeDelta() {
+      return myRetainedSizeDelta;
+    }
+
+    public boolean hasRetainedSizeDelta() {
+      return myHasRetainedSizeDelta;
+    }
+  }
+}
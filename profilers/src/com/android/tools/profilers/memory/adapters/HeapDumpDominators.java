@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
+
+import com.android.tools.perflib.heap.ArrayInstance;
+import com.android.tools.perflib.heap.ClassInstance;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.RootObj;
+import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.perflib.heap.Type;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The reference graph of a heap dump, the distance of its instances to a GC root, and their retained sizes.
+ *
+ * Instances are numbered once, in heap order, and the graph is kept in primitive arrays indexed by these numbers, so that neither the
+ * reachability marking nor the dominator computation goes back to the heap dump. The instances are marked level by level from the GC
+ * roots, with the instances of each level split across the cores. The immediate dominators are computed with the Semi-NCA algorithm,
+ * and the retained size of an instance is its shallow size plus the retained sizes of the instances it immediately dominates.
+ *
+ * The referent of a {@link java.lang.ref.Reference} is a soft reference: it doesn't keep the referent alive, so it is neither followed
+ * when computing depths nor when computing dominators.
+ */
+final class HeapDumpDominators {
+  private static final String JAVA_LANG_REF_REFERENCE = "java.lang.ref.Reference";
+  private static final String REFERENT_FIELD_NAME = "referent";
+  // A virtual node that references every GC root.
+  static final int ROOT = 0;
+  private static final int FRONTIER_CHUNK_SIZE = 4096;
+
+  @NotNull private final TLongIntHashMap myNodes = new TLongIntHashMap();
+  // The instance of each node. The virtual root has none.
+  @NotNull private final Instance[] myInstances;
+  @NotNull private final int[] mySizes;
+  // The hard references of each node, e.g. the references of node n are at mySuccessors[mySuccessorStarts[n]..mySuccessorStarts[n+1]).
+  @NotNull private final int[] mySuccessorStarts;
+  @NotNull private final int[] mySuccessors;
+  @NotNull private final int[] myPredecessorStarts;
+  @NotNull private final int[] myPredecessors;
+  @NotNull private final int[] mySoftPredecessorStarts;
+  @NotNull private final int[] mySoftPredecessors;
+  @NotNull private final AtomicIntegerArray myDepths;
+
+  @Nullable private long[] myRetainedSizes;
+  // Retained sizes are only visible for nodes below this one, so that they can be published to the UI in batches.
+  private volatile int myPublishedNodeCount = 0;
+
+  /**
+   * Reads the references of every instance of the snapshot. Instances decode their fields from the heap dump buffer, which isn't thread
+   * safe, so this is done on the calling thread.
+   */
+  HeapDumpDominators(@NotNull Snapshot snapshot) {
+    List<Instance> instances = new ArrayList<>();
+    instances.add(null);
+    for (Heap heap : snapshot.getHeaps()) {
+      for (ClassObj classObj : heap.getClasses()) {
+        myNodes.put(classObj.getId(), instances.size());
+        instances.add(classObj);
+      }
+      heap.forEachInstance(instance -> {
+        myNodes.put(instance.getId(), instances.size());
+        instances.add(instance);
+        return true;
+      });
+    }
+    myInstances = instances.toArray(new Instance[0]);
+
+    int nodeCount = myInstances.length;
+    mySizes = new int[nodeCount];
+    TIntArrayList edgeSources = new TIntArrayList();
+    TIntArrayList edgeTargets = new TIntArrayList();
+    TIntArrayList softEdgeSources = new TIntArrayList();
+    TIntArrayList softEdgeTargets = new TIntArrayList();
+    for (RootObj root : snapshot.getGCRoots()) {
+      int target = getNode(root.getReferredInstance());
+      if (target != ROOT) {
+        edgeSources.add(ROOT);
+        edgeTargets.add(target);
+      }
+    }
+
+    Map<ClassObj, Boolean> referenceClasses = new IdentityHashMap<>();
+    for (int node = 1; node < nodeCount; ++node) {
+      Instance instance = myInstances[node];
+      mySizes[node] = instance.getSize();
+      if (instance instanceof ClassInstance) {
+        boolean isReference = isReferenceClass(instance.getClassObj(), referenceClasses);
+        for (ClassInstance.FieldValue value : ((ClassInstance)instance).getValues()) {
+          if (value.getField().getType() != Type.OBJECT) {
+            continue;
+          }
+          int target = getNode(value.getValue());
+          if (target == ROOT) {
+            continue;
+          }
+          if (isReference && REFERENT_FIELD_NAME.equals(value.getField().getName())) {
+            softEdgeSources.add(node);
+            softEdgeTargets.add(target);
+          }
+          else {
+            edgeSources.add(node);
+            edgeTargets.add(target);
+          }
+        }
+      }
+      else if (instance instanceof ArrayInstance) {
+        ArrayInstance arrayInstance = (ArrayInstance)instance;
+        if (arrayInstance.getArrayType() == Type.OBJECT) {
+          addEdges(node, arrayInstance.getValues(), edgeSources, edgeTargets);
+        }
+      }
+      else if (instance instanceof ClassObj) {
+        addEdges(node, ((ClassObj)instance).getStaticFieldValues().values().toArray(), edgeSources, edgeTargets);
+      }
+    }
+
+    int[] sources = edgeSources.toNativeArray();
+    int[] targets = edgeTargets.toNativeArray();
+    mySuccessorStarts = new int[nodeCount + 1];
+    mySuccessors = groupBy(sources, targets, mySuccessorStarts);
+    myPredecessorStarts = new int[nodeCount + 1];
+    myPredecessors = groupBy(targets, sources, myPredecessorStarts);
+    mySoftPredecessorStarts = new int[nodeCount + 1];
+    mySoftPredecessors = groupBy(softEdgeTargets.toNativeArray(), softEdgeSources.toNativeArray(), mySoftPredecessorStarts);
+    myDepths = computeDepths();
+  }
+
+  /**
+   * @return the number of hops from a GC root to the instance, or {@link Integer#MAX_VALUE} if it is not reachable.
+   */
+  int getDepth(@NotNull Instance instance) {
+    int node = getNode(instance);
+    return node == ROOT ? Integer.MAX_VALUE : myDepths.get(node);
+  }
+
+  /**
+   * @return the retained size of the instance, or {@link MemoryObject#INVALID_VALUE} if it hasn't been published yet.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    return getRetainedSize(getNode(instance));
+  }
+
+  /**
+   * @return the retained size of the node, or {@link MemoryObject#INVALID_VALUE} if it hasn't been published yet.
+   */
+  long getRetainedSize(int node) {
+    if (node == ROOT || node >= myPublishedNodeCount) {
+      return INVALID_VALUE;
+    }
+    assert myRetainedSizes != null;
+    return myRetainedSizes[node];
+  }
+
+  /**
+   * @return the instances that hold a hard reference to the instance.
+   */
+  @NotNull
+  List<Instance> getHardReferrers(@NotNull Instance instance) {
+    return getReferrers(getNode(instance), myPredecessorStarts, myPredecessors);
+  }
+
+  /**
+   * @return the {@link java.lang.ref.Reference}s whose referent is the instance.
+   */
+  @NotNull
+  List<Instance> getSoftReferrers(@NotNull Instance instance) {
+    return getReferrers(getNode(instance), mySoftPredecessorStarts, mySoftPredecessors);
+  }
+
+  /**
+   * @return the number of nodes, including the virtual root, which is node 0.
+   */
+  int getNodeCount() {
+    return myInstances.length;
+  }
+
+  @NotNull
+  Instance getInstance(int node) {
+    assert node != ROOT;
+    return myInstances[node];
+  }
+
+  /**
+   * Makes the retained sizes of the nodes below {@code nodeCount} visible to {@link #getRetainedSize(Instance)}.
+   */
+  void publishRetainedSizes(int nodeCount) {
+    assert myRetainedSizes != null && nodeCount >= myPublishedNodeCount;
+    myPublishedNodeCount = nodeCount;
+  }
+
+  /**
+   * @return the retained size of the node, whether or not it has been published yet.
+   */
+  long getComputedRetainedSize(int node) {
+    assert myRetainedSizes != null;
+    return myRetainedSizes[node];
+  }
+
+  /**
+   * Computes the immediate dominator of every reachable node with the Semi-NCA algorithm, and then the retained sizes bottom-up the
+   * dominator tree. Only the primitive arrays are read, so this can run in the background while the instances are being shown.
+   */
+  void computeRetainedSizes() {
+    int nodeCount = myInstances.length;
+    // Number the reachable nodes in depth-first order.
+    int[] preorder = new int[nodeCount];
+    Arrays.fill(preorder, -1);
+    int[] vertices = new int[nodeCount];
+    int[] parents = new int[nodeCount];
+    int[] stack = new int[nodeCount];
+    int[] nextEdges = new int[nodeCount];
+    int count = 0;
+    int top = 0;
+    preorder[ROOT] = count;
+    vertices[count++] = ROOT;
+    stack[top++] = ROOT;
+    nextEdges[ROOT] = mySuccessorStarts[ROOT];
+    while (top > 0) {
+      int node = stack[top - 1];
+      if (nextEdges[node] == mySuccessorStarts[node + 1]) {
+        --top;
+        continue;
+      }
+      int successor = mySuccessors[nextEdges[node]++];
+      if (preorder[successor] < 0) {
+        parents[count] = preorder[node];
+        preorder[successor] = count;
+        vertices[count++] = successor;
+        nextEdges[successor] = mySuccessorStarts[successor];
+        stack[top++] = successor;
+      }
+    }
+
+    // Compute the semi-dominators, linking the nodes to their DFS parent in reverse preorder.
+    int[] semis = new int[count];
+    int[] labels = new int[count];
+    int[] ancestors = new int[count];
+    for (int i = 0; i < count; ++i) {
+      labels[i] = i;
+      ancestors[i] = parents[i];
+    }
+    for (int i = count - 1; i > 0; --i) {
+      int semi = i;
+      int node = vertices[i];
+      for (int edge = myPredecessorStarts[node]; edge < myPredecessorStarts[node + 1]; ++edge) {
+        int predecessor = preorder[myPredecessors[edge]];
+        if (predecessor < 0) {
+          continue;
+        }
+        semi = Math.min(semi, predecessor <= i ? predecessor : eval(predecessor, i, ancestors, labels, stack));
+      }
+      semis[i] = semi;
+      labels[i] = semi;
+    }
+
+    // The immediate dominator of a node is its nearest ancestor in the DFS tree that isn't below its semi-dominator.
+    int[] dominators = parents;
+    for (int i = 1; i < count; ++i) {
+      int dominator = dominators[i];
+      while (dominator > semis[i]) {
+        dominator = dominators[dominator];
+      }
+      dominators[i] = dominator;
+    }
+
+    long[] retainedSizes = new long[nodeCount];
+    for (int i = 1; i < count; ++i) {
+      retainedSizes[vertices[i]] = mySizes[vertices[i]];
+    }
+    for (int i = count - 1; i > 0; --i) {
+      retainedSizes[vertices[dominators[i]]] += retainedSizes[vertices[i]];
+    }
+    myRetainedSizes = retainedSizes;
+  }
+
+  /**
+   * @return the smallest semi-dominator on the path from the node to the first of its DFS ancestors that hasn't been processed yet, i.e.
+   * whose preorder number isn't greater than {@code last}. The path is compressed along the way.
+   */
+  private static int eval(int node, int last, int[] ancestors, int[] labels, int[] stack) {
+    int top = 0;
+    int current = node;
+    while (ancestors[current] > last) {
+      stack[top++] = current;
+      current = ancestors[current];
+    }
+    while (top > 0) {
+      int descendant = stack[--top];
+      int ancestor = ancestors[descendant];
+      if (labels[ancestor] < labels[descendant]) {
+        labels[descendant] = labels[ancestor];
+      }
+      ancestors[descendant] = ancestors[ancestor];
+    }
+    return labels[node];
+  }
+
+  /**
+   * Marks the nodes reachable from the GC roots a level at a time. The nodes of a level are split in chunks that are expanded in parallel,
+   * and a node belongs to the chunk that sets its depth first.
+   */
+  @NotNull
+  private AtomicIntegerArray computeDepths() {
+    AtomicIntegerArray depths = new AtomicIntegerArray(myInstances.length);
+    for (int node = 0; node < myInstances.length; ++node) {
+      depths.set(node, Integer.MAX_VALUE);
+    }
+    depths.set(ROOT, -1);
+    int[] frontier = {ROOT};
+    for (int depth = 0; frontier.length > 0; ++depth) {
+      int[] level = frontier;
+      int levelDepth = depth;
+      frontier = IntStream.range(0, (level.length + FRONTIER_CHUNK_SIZE - 1) / FRONTIER_CHUNK_SIZE)
+        .parallel()
+        .mapToObj(chunk -> {
+          TIntArrayList marked = new TIntArrayList();
+          for (int i = chunk * FRONTIER_CHUNK_SIZE; i < Math.min(level.length, (chunk + 1) * FRONTIER_CHUNK_SIZE); ++i) {
+            int node = level[i];
+            for (int edge = mySuccessorStarts[node]; edge < mySuccessorStarts[node + 1]; ++edge) {
+              int successor = mySuccessors[edge];
+              if (depths.get(successor) == Integer.MAX_VALUE && depths.compareAndSet(successor, Integer.MAX_VALUE, levelDepth)) {
+                marked.add(successor);
+              }
+            }
+          }
+          return marked.toNativeArray();
+        })
+        .flatMapToInt(Arrays::stream)
+        .toArray();
+    }
+    return depths;
+  }
+
+  /**
+   * @return the node of the instance, or the virtual root if the value isn't an instance of the snapshot.
+   */
+  int getNode(@Nullable Object value) {
+    // Nodes start at 1, so the default value of the map is the virtual root, which isn't referenced by any instance.
+    return value instanceof Instance ? myNodes.get(((Instance)value).getId()) : ROOT;
+  }
+
+  private void addEdges(int source, @NotNull Object[] values, @NotNull TIntArrayList sources, @NotNull TIntArrayList targets) {
+    for (Object value : values) {
+      int target = getNode(value);
+      if (target != ROOT) {
+        sources.add(source);
+        targets.add(target);
+      }
+    }
+  }
+
+  @NotNull
+  private List<Instance> getReferrers(int node, @NotNull int[] starts, @NotNull int[] referrers) {
+    if (node == ROOT) {
+      return new ArrayList<>();
+    }
+    // The edges were added in the order of their sources, so the references of a referrer to the same instance are next to each other.
+    List<Instance> instances = new ArrayList<>(starts[node + 1] - starts[node]);
+    for (int edge = starts[node]; edge < starts[node + 1]; ++edge) {
+      if (referrers[edge] != ROOT && (edge == starts[node] || referrers[edge] != referrers[edge - 1])) {
+        instances.add(myInstances[referrers[edge]]);
+      }
+    }
+    return instances;
+  }
+
+  private static boolean isReferenceClass(@Nullable ClassObj classObj, @NotNull Map<ClassObj, Boolean> referenceClasses) {
+    if (classObj == null) {
+      return false;
+    }
+    Boolean isReference = referenceClasses.get(classObj);
+    if (isReference == null) {
+      isReference = JAVA_LANG_REF_REFERENCE.equals(classObj.getClassName()) ||
+                    isReferenceClass(classObj.getSuperClassObj(), referenceClasses);
+      referenceClasses.put(classObj, isReference);
+    }
+    return isReference;
+  }
+
+  /**
+   * Sorts the values by key with a counting sort, and fills {@code starts} with the index of the first value of each key.
+   */
+  @NotNull
+  private static int[] groupBy(@NotNull int[] keys, @NotNull int[] values, @NotNull int[] starts) {
+    for (int key : keys) {
+      starts[key + 1]++;
+    }
+    for (int i = 1; i < starts.length; ++i) {
+      starts[i] += starts[i - 1];
+    }
+    int[] next = Arrays.copyOf(starts, starts.length - 1);
+    int[] grouped = new int[values.length];
+    for (int i = 0; i < keys.length; ++i) {
+      grouped[next[keys[i]]++] = values[i];
+    }
+    return grouped;
+  }
+}
@@ -79,8 +79,8 @@ final class HeapDumpFieldObject implements FieldObject {
 
         myNativeSize = instance.getNativeSize();
         myShallowSize = instance.getSize();
-        myRetainedSize = instance.getTotalRetainedSize();
-        myDepth = instance.getDistanceToGcRoot();
+        myRetainedSize = captureObject.getRetainedSize(instance);
+        myDepth = captureObject.getDepth(instance);
       }
     }
     else {
@@ -89,7 +89,7 @@ final class HeapDumpFieldObject implements FieldObject {
       myNativeSize = 0;
       myShallowSize = type.getSize();
       myRetainedSize = type.getSize();
-      myDepth = parentInstance.getDistanceToGcRoot();
+      myDepth = captureObject.getDepth(parentInstance);
     }
 
     myHashCode = Arrays.hashCode(new Object[]{myInstanceObject, getFieldName(), getValueType(), myField.getValue()});
@@ -131,7 +131,8 @@ final class HeapDumpFieldObject implements FieldObject {
 
   @Override
   public long getRetainedSize() {
-    return myRetainedSize;
+    // The retained size of an instance may only be computed after the field has been created.
+    return myInstanceObject != null ? myInstanceObject.getRetainedSize() : myRetainedSize;
   }
 
   @Override
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
+
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Instance;
+import gnu.trove.TLongIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Indexes the instances of a heap dump by class and heap, so that their {@link InstanceObject}s are only created once they are needed,
+ * e.g. when their class is expanded. The instances are kept as their nodes in {@link HeapDumpDominators}, i.e. their position in the
+ * instance table of the snapshot, and each group keeps the totals that the {@link ClassifierSet}s show before its instances are created.
+ *
+ * The classes themselves are not indexed, as the capture creates their instances when it is loaded.
+ */
+final class HeapDumpInstanceIndex {
+  private static final int NO_GROUP = -1;
+
+  @NotNull private final HeapDumpCaptureObject myCaptureObject;
+  @NotNull private final HeapDumpDominators myDominators;
+  @NotNull private final List<InstanceGroup> myGroups;
+  // The group of every node, or NO_GROUP for the virtual root and the classes.
+  @NotNull private final int[] myNodeGroups;
+  // The nodes of group i are myGroupNodes[myGroupStarts[i]] to myGroupNodes[myGroupStarts[i + 1] - 1], in increasing order.
+  @NotNull private final int[] myGroupStarts;
+  @NotNull private final int[] myGroupNodes;
+
+  HeapDumpInstanceIndex(@NotNull HeapDumpCaptureObject captureObject, @NotNull HeapDumpDominators dominators) {
+    myCaptureObject = captureObject;
+    myDominators = dominators;
+
+    int nodeCount = dominators.getNodeCount();
+    List<InstanceGroup> groups = new ArrayList<>();
+    Map<Integer, TLongIntHashMap> heapClassGroups = new HashMap<>();
+    myNodeGroups = new int[nodeCount];
+    myNodeGroups[HeapDumpDominators.ROOT] = NO_GROUP;
+    for (int node = 1; node < nodeCount; ++node) {
+      Instance instance = dominators.getInstance(node);
+      if (instance instanceof ClassObj) {
+        myNodeGroups[node] = NO_GROUP;
+        continue;
+      }
+
+      ClassObj classObj = instance.getClassObj();
+      int heapId = instance.getHeap().getId();
+      TLongIntHashMap classGroups = heapClassGroups.computeIfAbsent(heapId, id -> new TLongIntHashMap());
+      int group;
+      if (classGroups.containsKey(classObj.getId())) {
+        group = classGroups.get(classObj.getId());
+      }
+      else {
+        group = groups.size();
+        classGroups.put(classObj.getId(), group);
+        groups.add(new InstanceGroup(group, heapId, captureObject.registerClass(classObj)));
+      }
+      myNodeGroups[node] = group;
+      groups.get(group).add(node, instance);
+    }
+    myGroups = Collections.unmodifiableList(groups);
+
+    // Sort the nodes by group with a counting sort, which keeps the nodes of each group in increasing order.
+    myGroupStarts = new int[groups.size() + 1];
+    for (int group = 0; group < groups.size(); ++group) {
+      myGroupStarts[group + 1] = myGroupStarts[group] + groups.get(group).myInstanceCount;
+    }
+    int[] next = Arrays.copyOf(myGroupStarts, groups.size());
+    myGroupNodes = new int[myGroupStarts[groups.size()]];
+    for (int node = 1; node < nodeCount; ++node) {
+      if (myNodeGroups[node] != NO_GROUP) {
+        myGroupNodes[next[myNodeGroups[node]]++] = node;
+      }
+    }
+  }
+
+  @NotNull
+  List<InstanceGroup> getGroups() {
+    return myGroups;
+  }
+
+  /**
+   * @return the group of the node, or null if it isn't indexed, e.g. because it is a class.
+   */
+  @Nullable
+  InstanceGroup getGroup(int node) {
+    int group = myNodeGroups[node];
+    return group == NO_GROUP ? null : myGroups.get(group);
+  }
+
+  /**
+   * @return the object of the instance, which is created the first time it is asked for, or null if the instance isn't indexed.
+   */
+  @Nullable
+  InstanceObject getInstanceObject(@NotNull Instance instance) {
+    int node = myDominators.getNode(instance);
+    return node == HeapDumpDominators.ROOT ? null : getInstanceObject(node);
+  }
+
+  @Nullable
+  InstanceObject getInstanceObject(int node) {
+    InstanceGroup group = getGroup(node);
+    return group == null ? null : group.getInstanceObject(node);
+  }
+
+  /**
+   * Creates the objects of every indexed instance that doesn't have one yet, e.g. to run an instance filter on all of them.
+   */
+  @NotNull
+  List<InstanceObject> createAllInstances() {
+    List<InstanceObject> instances = new ArrayList<>(myGroupNodes.length);
+    myGroups.forEach(group -> instances.addAll(group.createInstances()));
+    return instances;
+  }
+
+  /**
+   * Adds the retained size of a node, once it is known, to the total of its group.
+   */
+  void addRetainedSize(int node, long retainedSize) {
+    InstanceGroup group = getGroup(node);
+    if (group != null) {
+      group.myTotalRetainedSize += retainedSize;
+    }
+  }
+
+  /**
+   * @return the number of instance objects that have been created so far.
+   */
+  int getCreatedInstanceCount() {
+    return myGroups.stream().mapToInt(InstanceGroup::getCreatedInstanceCount).sum();
+  }
+
+  /**
+   * The instances of a class in a heap.
+   */
+  final class InstanceGroup implements ClassifierSet.LazyInstanceGroup {
+    private final int myIndex;
+    private final int myHeapId;
+    @NotNull private final ClassDb.ClassEntry myClassEntry;
+    private int myInstanceCount;
+    private long myTotalShallowSize;
+    private long myTotalNativeSize;
+    // Only updated on the joiner while the retained sizes are published, and read by the summary once they all are.
+    private long myTotalRetainedSize;
+    // The objects of the instances of the group, in the order of their nodes. Allocated when the first object is created.
+    @Nullable private InstanceObject[] myInstances;
+    private int myCreatedInstanceCount;
+
+    private InstanceGroup(int index, int heapId, @NotNull ClassDb.ClassEntry classEntry) {
+      myIndex = index;
+      myHeapId = heapId;
+      myClassEntry = classEntry;
+    }
+
+    private void add(int node, @NotNull Instance instance) {
+      myInstanceCount++;
+      myTotalShallowSize += instance.getSize();
+      myTotalNativeSize += instance.getNativeSize();
+      long retainedSize = myDominators.getRetainedSize(node);
+      myTotalRetainedSize += retainedSize == INVALID_VALUE ? 0 : retainedSize;
+    }
+
+    int getHeapId() {
+      return myHeapId;
+    }
+
+    @NotNull
+    @Override
+    public ClassDb.ClassEntry getClassEntry() {
+      return myClassEntry;
+    }
+
+    @Override
+    public int getInstanceCount() {
+      return myInstanceCount;
+    }
+
+    @Override
+    public long getTotalShallowSize() {
+      return myTotalShallowSize;
+    }
+
+    @Override
+    public long getTotalNativeSize() {
+      return myTotalNativeSize;
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+      return myTotalRetainedSize;
+    }
+
+    @NotNull
+    @Override
+    public synchronized List<InstanceObject> createInstances() {
+      int start = myGroupStarts[myIndex];
+      List<InstanceObject> instances = new ArrayList<>(myInstanceCount);
+      for (int i = 0; i < myInstanceCount; ++i) {
+        instances.add(getInstanceObjectAt(i, myGroupNodes[start + i]));
+      }
+      return instances;
+    }
+
+    @NotNull
+    private synchronized InstanceObject getInstanceObject(int node) {
+      int start = myGroupStarts[myIndex];
+      int position = Arrays.binarySearch(myGroupNodes, start, myGroupStarts[myIndex + 1], node);
+      assert position >= 0;
+      return getInstanceObjectAt(position - start, node);
+    }
+
+    private synchronized int getCreatedInstanceCount() {
+      return myCreatedInstanceCount;
+    }
+
+    @NotNull
+    private InstanceObject getInstanceObjectAt(int position, int node) {
+      if (myInstances == null) {
+        myInstances = new InstanceObject[myInstanceCount];
+      }
+      InstanceObject instanceObject = myInstances[position];
+      if (instanceObject == null) {
+        instanceObject = new HeapDumpInstanceObject(myCaptureObject, myDominators.getInstance(node), myClassEntry, null);
+        myInstances[position] = instanceObject;
+        myCreatedInstanceCount++;
+      }
+      return instanceObject;
+    }
+  }
+}
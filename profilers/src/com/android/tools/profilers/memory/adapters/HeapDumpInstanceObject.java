@@ -33,7 +33,6 @@ import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.
 class HeapDumpInstanceObject implements InstanceObject {
   private static final String NAME_FORMATTER = "%s@%d (0x%x)";
   private static final int MAX_VALUE_TEXT_LENGTH = 1024;
-  private static final Comparator<Instance> DEPTH_COMPARATOR = Comparator.comparingInt(Instance::getDistanceToGcRoot);
   private static final String INVALID_STRING_VALUE = " ...<invalid string value>...";
   private static final Map<Type, ValueType> VALUE_TYPE_MAP = ImmutableMap.<Type, ValueObject.ValueType>builder()
     .put(Type.BOOLEAN, BOOLEAN)
@@ -52,7 +51,7 @@ class HeapDumpInstanceObject implements InstanceObject {
   @NotNull private final HeapDumpCaptureObject myCaptureObject;
   @NotNull private final Instance myInstance;
   @NotNull private final ClassDb.ClassEntry myClassEntry;
-  @NotNull private final String myMemoizedLabel;
+  @Nullable private String myMemoizedLabel;
 
   HeapDumpInstanceObject(@NotNull HeapDumpCaptureObject captureObject,
                          @NotNull Instance instance,
@@ -62,8 +61,6 @@ class HeapDumpInstanceObject implements InstanceObject {
     myInstance = instance;
     myClassEntry = classEntry;
 
-    myMemoizedLabel =
-      String.format(NAME_FORMATTER, myClassEntry.getSimpleClassName(), myInstance.getUniqueId(), myInstance.getUniqueId());
     if (precomputedValueType != null) {
       myValueType = precomputedValueType;
       return;
@@ -109,6 +106,11 @@ class HeapDumpInstanceObject implements InstanceObject {
   @Override
   public String getValueText() {
     // TODO show length of array instance
+    // Every instance of the heap dump has an object, so the label is only formatted once it is shown.
+    if (myMemoizedLabel == null) {
+      myMemoizedLabel =
+        String.format(NAME_FORMATTER, myClassEntry.getSimpleClassName(), myInstance.getUniqueId(), myInstance.getUniqueId());
+    }
     return myMemoizedLabel;
   }
 
@@ -150,7 +152,7 @@ class HeapDumpInstanceObject implements InstanceObject {
 
   @Override
   public int getDepth() {
-    return myInstance.getDistanceToGcRoot();
+    return myCaptureObject.getDepth(myInstance);
   }
 
   @Override
@@ -165,7 +167,7 @@ class HeapDumpInstanceObject implements InstanceObject {
 
   @Override
   public long getRetainedSize() {
-    return myInstance.getTotalRetainedSize();
+    return myCaptureObject.getRetainedSize(myInstance);
   }
 
   @Override
@@ -302,14 +304,17 @@ class HeapDumpInstanceObject implements InstanceObject {
   @VisibleForTesting
   @NotNull
   public List<ReferenceObject> extractReferences() {
+    Comparator<Instance> depthComparator = Comparator.comparingInt(myCaptureObject::getDepth);
+
     // Sort hard referrers to appear first.
-    List<Instance> sortedReferences = new ArrayList<>(myInstance.getHardReverseReferences());
-    sortedReferences.sort(DEPTH_COMPARATOR);
+    List<Instance> sortedReferences = new ArrayList<>(myCaptureObject.getHardReferrers(myInstance));
+    sortedReferences.sort(depthComparator);
 
     // Sort soft referrers to appear second.
-    if (myInstance.getSoftReverseReferences() != null) {
-      List<Instance> sortedSoftReferences = new ArrayList<>(myInstance.getSoftReverseReferences());
-      sortedSoftReferences.sort(DEPTH_COMPARATOR);
+    List<Instance> softReferences = myCaptureObject.getSoftReferrers(myInstance);
+    if (softReferences != null) {
+      List<Instance> sortedSoftReferences = new ArrayList<>(softReferences);
+      sortedSoftReferences.sort(depthComparator);
       sortedReferences.addAll(sortedSoftReferences);
     }
 
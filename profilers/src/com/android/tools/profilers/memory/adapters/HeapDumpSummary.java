@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The number of instances and the total shallow and retained sizes of every class of a capture, per heap. A summary doesn't reference
+ * the capture it was made from, so a capture can be unloaded once it is summarized, and two heap dumps can be compared with
+ * {@link HeapDumpDiff} without both being decoded at the same time.
+ *
+ * The classes are sorted by heap name and then by class name.
+ */
+public final class HeapDumpSummary {
+  @NotNull private final String[] myHeapNames;
+  @NotNull private final String[] myClassNames;
+  @NotNull private final int[] myInstanceCounts;
+  @NotNull private final long[] myShallowSizes;
+  @NotNull private final long[] myRetainedSizes;
+
+  private HeapDumpSummary(int classCount) {
+    myHeapNames = new String[classCount];
+    myClassNames = new String[classCount];
+    myInstanceCounts = new int[classCount];
+    myShallowSizes = new long[classCount];
+    myRetainedSizes = new long[classCount];
+  }
+
+  /**
+   * Summarizes the instances of a loaded capture. A class with an instance whose retained size isn't known, e.g. because it is still being
+   * computed, has no retained size. See {@link HeapDumpCaptureObject#summarize()} to summarize a heap dump once its retained sizes are
+   * computed.
+   */
+  @NotNull
+  public static HeapDumpSummary create(@NotNull CaptureObject capture) {
+    return create(capture.getInstances(), capture::getHeapSet);
+  }
+
+  @NotNull
+  static HeapDumpSummary create(@NotNull Stream<InstanceObject> instances, @NotNull IntFunction<HeapSet> heapSets) {
+    return create(instances, Collections.emptyList(), heapSets);
+  }
+
+  /**
+   * Summarizes the instances together with the groups of a {@link HeapDumpInstanceIndex}, without creating the objects of the instances of
+   * the groups. The retained sizes of the groups must be complete.
+   */
+  @NotNull
+  static HeapDumpSummary create(@NotNull Stream<InstanceObject> instances,
+                                @NotNull Collection<HeapDumpInstanceIndex.InstanceGroup> groups,
+                                @NotNull IntFunction<HeapSet> heapSets) {
+    Map<Integer, String> heapNames = new HashMap<>();
+    Map<String, Map<String, ClassTotals>> heaps = new HashMap<>();
+    IntFunction<String> heapName = id -> heapNames.computeIfAbsent(id, heapId -> {
+      HeapSet heapSet = heapSets.apply(heapId);
+      return heapSet == null ? "" : heapSet.getName();
+    });
+    instances.forEach(instance -> {
+      ClassTotals totals = getClassTotals(heaps, heapName.apply(instance.getHeapId()), instance.getClassEntry().getClassName());
+      totals.myInstanceCount++;
+      totals.myShallowSize += instance.getShallowSize() == INVALID_VALUE ? 0 : instance.getShallowSize();
+      totals.addRetainedSize(instance.getRetainedSize());
+    });
+    groups.forEach(group -> {
+      ClassTotals totals = getClassTotals(heaps, heapName.apply(group.getHeapId()), group.getClassEntry().getClassName());
+      totals.myInstanceCount += group.getInstanceCount();
+      totals.myShallowSize += group.getTotalShallowSize();
+      totals.addRetainedSize(group.getTotalRetainedSize());
+    });
+
+    List<ClassTotals> classes = new ArrayList<>();
+    heaps.values().forEach(heap -> classes.addAll(heap.values()));
+    classes.sort(Comparator.comparing((ClassTotals totals) -> totals.myHeapName).thenComparing(totals -> totals.myClassName));
+
+    HeapDumpSummary summary = new HeapDumpSummary(classes.size());
+    for (int i = 0; i < classes.size(); ++i) {
+      ClassTotals totals = classes.get(i);
+      summary.myHeapNames[i] = totals.myHeapName;
+      summary.myClassNames[i] = totals.myClassName;
+      summary.myInstanceCounts[i] = totals.myInstanceCount;
+      summary.myShallowSizes[i] = totals.myShallowSize;
+      summary.myRetainedSizes[i] = totals.myRetainedSize;
+    }
+    return summary;
+  }
+
+  @NotNull
+  private static ClassTotals getClassTotals(@NotNull Map<String, Map<String, ClassTotals>> heaps,
+                                            @NotNull String heapName,
+                                            @NotNull String className) {
+    return heaps.computeIfAbsent(heapName, name -> new HashMap<>()).computeIfAbsent(className, name -> new ClassTotals(heapName, name));
+  }
+
+  public int getClassCount() {
+    return myClassNames.length;
+  }
+
+  @NotNull
+  public String getHeapName(int index) {
+    return myHeapNames[index];
+  }
+
+  @NotNull
+  public String getClassName(int index) {
+    return myClassNames[index];
+  }
+
+  public int getInstanceCount(int index) {
+    return myInstanceCounts[index];
+  }
+
+  public long getShallowSize(int index) {
+    return myShallowSizes[index];
+  }
+
+  /**
+   * @return the total retained size of the instances of the class, or {@link MemoryObject#INVALID_VALUE} if it isn't known.
+   */
+  public long getRetainedSize(int index) {
+    return myRetainedSizes[index];
+  }
+
+  /**
+   * Compares the class at {@code index} with the class at {@code otherIndex} of another summary, in the order of the classes.
+   */
+  int compareClass(int index, @NotNull HeapDumpSummary other, int otherIndex) {
+    int result = myHeapNames[index].compareTo(other.myHeapNames[otherIndex]);
+    return result != 0 ? result : myClassNames[index].compareTo(other.myClassNames[otherIndex]);
+  }
+
+  private static final class ClassTotals {
+    @NotNull private final String myHeapName;
+    @NotNull private final String myClassName;
+    private int myInstanceCount;
+    private long myShallowSize;
+    private long myRetainedSize;
+
+    private ClassTotals(@NotNull String heapName, @NotNull String className) {
+      myHeapName = heapName;
+      myClassName = className;
+    }
+
+    private void addRetainedSize(long retainedSize) {
+      if (retainedSize == INVALID_VALUE || myRetainedSize == INVALID_VALUE) {
+        myRetainedSize = INVALID_VALUE;
+      }
+      else {
+        myRetainedSize += retainedSize;
+      }
+    }
+  }
+}
@@ -49,11 +49,14 @@ public class HeapSet extends ClassifierSet {
     // Subsequent calls to getChildrenClassifierSets will re-partition them to the correct child ClassifierSet.
     List<InstanceObject> snapshotStream = getSnapshotInstanceStream().collect(Collectors.toList());
     List<InstanceObject> deltaStream = getDeltaInstanceStream().collect(Collectors.toList());
+    List<LazyInstanceGroup> lazyInstanceGroups = getLazyInstanceGroupStream().collect(Collectors.toList());
     myDeltaInstances.clear();
     mySnapshotInstances.clear();
+    myLazyInstanceGroups.clear();
     myClassifier = null;
     myDeltaInstances.addAll(deltaStream);
     mySnapshotInstances.addAll(snapshotStream);
+    myLazyInstanceGroups.addAll(lazyInstanceGroups);
     myNeedsRefiltering = true;
   }
 
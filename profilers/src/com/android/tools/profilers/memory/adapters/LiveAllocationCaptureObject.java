@@ -93,6 +93,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
   @VisibleForTesting final ExecutorService myExecutorService;
   private final ClassDb myClassDb;
   private final TIntObjectHashMap<LiveAllocationInstanceObject> myInstanceMap;
+  @NotNull private final LiveAllocationCheckpoints myCheckpoints;
   private final TIntObjectHashMap<Memory.AllocationStack> myCallstackMap;
   // Mapping from unsymbolized addresses to symbolized native frames
   @NotNull private final TLongObjectHashMap<NativeCallStack.NativeFrame> myNativeFrameMap;
@@ -132,6 +133,7 @@ public class LiveAllocationCaptureObject implements CaptureObject {
 
     myClassDb = new ClassDb();
     myInstanceMap = new TIntObjectHashMap<>();
+    myCheckpoints = new LiveAllocationCheckpoints(session.getStartTimestamp(), LiveAllocationCheckpoints.DEFAULT_INTERVAL_NS);
     myCallstackMap = new TIntObjectHashMap<>();
     myNativeFrameMap = new TLongObjectHashMap<>();
     myMethodIdMap = new TLongObjectHashMap<>();
@@ -492,41 +494,74 @@ public class LiveAllocationCaptureObject implements CaptureObject {
    * Populates the input list with all instance objects that are alive at |snapshotTimeNs|.
    */
   private void queryJavaInstanceSnapshot(long snapshotTimeNs, @NotNull List<InstanceObject> snapshotList) {
-    // Retrieve all the event samples from the start of the session until the snapshot time.
-    long sessionStartNs = mySession.getStartTimestamp();
-    List<Memory.BatchAllocationEvents> eventsList = getAllocationEvents(sessionStartNs, snapshotTimeNs);
-    Map<Integer, LiveAllocationInstanceObject> liveInstanceMap = new LinkedHashMap<>();
-    for (Memory.BatchAllocationEvents events : eventsList) {
-      // Only consider events up to but excluding the snapshot time.
-      Iterator<AllocationEvent> itr = events.getEventsList().stream().filter(evt -> evt.getTimestamp() < snapshotTimeNs)
-        .sorted(Comparator.comparingLong(AllocationEvent::getTimestamp)).iterator();
-      while (itr.hasNext()) {
-        AllocationEvent event = itr.next();
-        LiveAllocationInstanceObject instance;
-        switch (event.getEventCase()) {
-          case ALLOC_DATA:
-            // Allocation - create an InstanceObject. This might be removed later if there is a corresponding FREE_DATA event.
-            AllocationEvent.Allocation allocation = event.getAllocData();
-            instance = getOrCreateInstanceObject(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(),
-                                                 allocation.getThreadId(), allocation.getSize(), allocation.getHeapId());
-            instance.setAllocationTime(event.getTimestamp());
-            liveInstanceMap.put(allocation.getTag(), instance);
-            break;
-          case FREE_DATA:
-            // Deallocation - there should be a matching InstanceObject.
-            AllocationEvent.Deallocation deallocation = event.getFreeData();
-            liveInstanceMap.remove(deallocation.getTag());
-            // Don't keep deallocated objects around in the cache to avoid bloating memory.
-            myInstanceMap.remove(deallocation.getTag());
-            break;
-          case CLASS_DATA:
-            // ignore CLASS_DATA as they are handled via context updates.
-            break;
-        }
+    // Start from the latest checkpoint before the snapshot time, and only replay the events after it. Without a checkpoint, replay the
+    // events from the start of the session.
+    long replayStartNs = mySession.getStartTimestamp();
+    long minTimestampNs = Long.MIN_VALUE;
+    LiveAllocationCheckpoints.LiveSet liveSet;
+    Map.Entry<Long, LiveAllocationCheckpoints.LiveSet> checkpoint = myCheckpoints.getCheckpoint(snapshotTimeNs);
+    if (checkpoint != null) {
+      replayStartNs = checkpoint.getKey();
+      minTimestampNs = checkpoint.getKey();
+      liveSet = new LiveAllocationCheckpoints.LiveSet(checkpoint.getValue());
+    }
+    else {
+      liveSet = new LiveAllocationCheckpoints.LiveSet();
+    }
+
+    // Only consider events up to but excluding the snapshot time.
+    long lowerBoundNs = minTimestampNs;
+    List<Memory.BatchAllocationEvents> eventsList = getAllocationEvents(replayStartNs, snapshotTimeNs);
+    List<AllocationEvent> events = eventsList.stream().flatMap(batch -> batch.getEventsList().stream())
+      .filter(evt -> evt.getTimestamp() >= lowerBoundNs && evt.getTimestamp() < snapshotTimeNs)
+      .sorted(Comparator.comparingLong(AllocationEvent::getTimestamp)).collect(Collectors.toList());
+
+    long nextCheckpointNs = myCheckpoints.getNextCheckpointTime(replayStartNs);
+    for (AllocationEvent event : events) {
+      while (nextCheckpointNs <= event.getTimestamp()) {
+        nextCheckpointNs = addCheckpoint(nextCheckpointNs, liveSet);
+      }
+      switch (event.getEventCase()) {
+        case ALLOC_DATA:
+          // Allocation - this might be removed later if there is a corresponding FREE_DATA event.
+          AllocationEvent.Allocation allocation = event.getAllocData();
+          liveSet.allocate(allocation.getTag(), allocation.getClassTag(), allocation.getStackId(), allocation.getThreadId(),
+                           allocation.getHeapId(), allocation.getSize(), event.getTimestamp());
+          break;
+        case FREE_DATA:
+          liveSet.free(event.getFreeData().getTag());
+          break;
+        case CLASS_DATA:
+          // ignore CLASS_DATA as they are handled via context updates.
+          break;
       }
     }
+    while (nextCheckpointNs <= snapshotTimeNs) {
+      nextCheckpointNs = addCheckpoint(nextCheckpointNs, liveSet);
+    }
 
-    snapshotList.addAll(liveInstanceMap.values());
+    // Only create instance objects for the instances that are still alive, to avoid bloating memory.
+    for (int row = 0; row < liveSet.getRowCount(); ++row) {
+      if (liveSet.isLive(row)) {
+        LiveAllocationInstanceObject instance =
+          getOrCreateInstanceObject(liveSet.getTag(row), liveSet.getClassTag(row), liveSet.getStackId(row), liveSet.getThreadId(row),
+                                    liveSet.getSize(row), liveSet.getHeapId(row));
+        instance.setAllocationTime(liveSet.getAllocationTime(row));
+        snapshotList.add(instance);
+      }
+    }
+  }
+
+  /**
+   * Records the instances alive right before |checkpointTimeNs|, unless events before that time may still be arriving from the device.
+   *
+   * @return the time of the next checkpoint.
+   */
+  private long addCheckpoint(long checkpointTimeNs, @NotNull LiveAllocationCheckpoints.LiveSet liveSet) {
+    if (checkpointTimeNs + QUERY_BUFFER_NS <= myLastSeenTimestampNs) {
+      myCheckpoints.addCheckpoint(checkpointTimeNs, liveSet);
+    }
+    return myCheckpoints.getNextCheckpointTime(checkpointTimeNs);
   }
 
   private void queryJniReferencesSnapshot(long snapshotTimeNs, @NotNull List<InstanceObject> snapshotList) {
@@ -710,7 +745,8 @@ public class LiveAllocationCaptureObject implements CaptureObject {
     }
 
 
-    NativeCallStack.Builder builder = NativeCallStack.newBuilder();
+    // Symbolize the frames that haven't been seen yet in one batch.
+    List<NativeCallStack.NativeFrame> unsymbolizedFrames = new ArrayList<>();
     for (long address : backtrace.getAddressesList()) {
       if (!myNativeFrameMap.containsKey(address)) {
         String module = "";
@@ -724,11 +760,21 @@ public class LiveAllocationCaptureObject implements CaptureObject {
 
         NativeCallStack.NativeFrame unsymbolizedFrame = NativeCallStack.NativeFrame.newBuilder()
           .setAddress(address).setModuleName(module).setModuleOffset(offset).build();
-        NativeCallStack.NativeFrame symbolizedFrame = myStage.getStudioProfilers().getIdeServices().getNativeFrameSymbolizer()
-          .symbolize(myStage.getStudioProfilers().getSessionsManager().getSelectedSessionMetaData().getProcessAbi(), unsymbolizedFrame);
-        myNativeFrameMap.put(address, symbolizedFrame);
+        // Reserve the address so that frames repeated in the backtrace are only symbolized once.
+        myNativeFrameMap.put(address, unsymbolizedFrame);
+        unsymbolizedFrames.add(unsymbolizedFrame);
       }
+    }
+    if (!unsymbolizedFrames.isEmpty()) {
+      List<NativeCallStack.NativeFrame> symbolizedFrames = myStage.getStudioProfilers().getIdeServices().getNativeFrameSymbolizer()
+        .symbolize(myStage.getStudioProfilers().getSessionsManager().getSelectedSessionMetaData().getProcessAbi(), unsymbolizedFrames);
+      for (int i = 0; i < unsymbolizedFrames.size(); ++i) {
+        myNativeFrameMap.put(unsymbolizedFrames.get(i).getAddress(), symbolizedFrames.get(i));
+      }
+    }
 
+    NativeCallStack.Builder builder = NativeCallStack.newBuilder();
+    for (long address : backtrace.getAddressesList()) {
       builder.addFrames(myNativeFrameMap.get(address));
     }
     return builder.build();
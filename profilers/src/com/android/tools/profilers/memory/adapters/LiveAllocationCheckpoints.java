@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.google.common.annotations.VisibleForTesting;
+import gnu.trove.TIntIntHashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Copies of the set of live Java instances of a live allocation session, taken at regular points in time. The live set at any time can
+ * then be rebuilt from the nearest checkpoint before it rather than by replaying the allocation events from the start of the session.
+ *
+ * Checkpoints are taken at multiples of the interval from the start of the session. When there are too many of them, or when together
+ * they take more than a byte budget, every other checkpoint is dropped and the interval is doubled, so that long sessions keep a bounded
+ * number of checkpoints and sessions with many live instances keep a bounded amount of memory. At least one checkpoint is kept.
+ */
+final class LiveAllocationCheckpoints {
+  static final long DEFAULT_INTERVAL_NS = TimeUnit.SECONDS.toNanos(30);
+  static final int MAX_CHECKPOINT_COUNT = 32;
+  /**
+   * The default budget of the checkpoints, as estimated by {@link LiveSet#getEstimatedBytes()}. A checkpoint takes 36 bytes per live
+   * instance, so this fits about 3.7 million live instances across all checkpoints.
+   */
+  static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+  private final long myOriginNs;
+  private final long myMaxBytes;
+  private long myIntervalNs;
+  @NotNull private final TreeMap<Long, LiveSet> myCheckpoints = new TreeMap<>();
+  private long myTotalBytes;
+
+  LiveAllocationCheckpoints(long originNs, long intervalNs) {
+    this(originNs, intervalNs, DEFAULT_MAX_BYTES);
+  }
+
+  @VisibleForTesting
+  LiveAllocationCheckpoints(long originNs, long intervalNs, long maxBytes) {
+    assert intervalNs > 0;
+    myOriginNs = originNs;
+    myIntervalNs = intervalNs;
+    myMaxBytes = maxBytes;
+  }
+
+  /**
+   * @return the latest checkpoint at or before the given time, or null if there is none.
+   */
+  @Nullable
+  synchronized Map.Entry<Long, LiveSet> getCheckpoint(long timeNs) {
+    return myCheckpoints.floorEntry(timeNs);
+  }
+
+  /**
+   * @return the first time after the given time at which a checkpoint should be taken.
+   */
+  synchronized long getNextCheckpointTime(long timeNs) {
+    if (timeNs < myOriginNs) {
+      return myOriginNs;
+    }
+    return myOriginNs + ((timeNs - myOriginNs) / myIntervalNs + 1) * myIntervalNs;
+  }
+
+  /**
+   * Keeps a compact copy of the instances that are alive right before {@code timeNs}, i.e. of the instances that were allocated but not
+   * freed by the events before that time.
+   */
+  synchronized void addCheckpoint(long timeNs, @NotNull LiveSet liveSet) {
+    if (myCheckpoints.containsKey(timeNs)) {
+      return;
+    }
+    LiveSet checkpoint = liveSet.compactCopy();
+    myCheckpoints.put(timeNs, checkpoint);
+    myTotalBytes += checkpoint.getEstimatedBytes();
+    while (myCheckpoints.size() > MAX_CHECKPOINT_COUNT || (myTotalBytes > myMaxBytes && myCheckpoints.size() > 1)) {
+      myIntervalNs *= 2;
+      for (Iterator<Map.Entry<Long, LiveSet>> it = myCheckpoints.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Long, LiveSet> entry = it.next();
+        if ((entry.getKey() - myOriginNs) % myIntervalNs != 0) {
+          myTotalBytes -= entry.getValue().getEstimatedBytes();
+          it.remove();
+        }
+      }
+    }
+  }
+
+  synchronized int getCheckpointCount() {
+    return myCheckpoints.size();
+  }
+
+  synchronized long getIntervalNs() {
+    return myIntervalNs;
+  }
+
+  /**
+   * The instances alive at some point in time, as one column per instance attribute. Instances are kept in allocation order. Freed
+   * instances leave a gap in the columns until more than half of the rows are gaps, at which point the columns are compacted.
+   */
+  static final class LiveSet {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The row of each live instance, built from the columns when the set is modified.
+    @Nullable private TIntIntHashMap myRowsByTag;
+    @NotNull private final BitSet myFreedRows = new BitSet();
+    @NotNull private int[] myTags;
+    @NotNull private int[] myClassTags;
+    @NotNull private int[] myStackIds;
+    @NotNull private int[] myThreadIds;
+    @NotNull private int[] myHeapIds;
+    @NotNull private long[] mySizes;
+    @NotNull private long[] myAllocationTimes;
+    private int myRowCount;
+    private int myLiveCount;
+
+    LiveSet() {
+      this(INITIAL_CAPACITY);
+    }
+
+    private LiveSet(int capacity) {
+      myTags = new int[capacity];
+      myClassTags = new int[capacity];
+      myStackIds = new int[capacity];
+      myThreadIds = new int[capacity];
+      myHeapIds = new int[capacity];
+      mySizes = new long[capacity];
+      myAllocationTimes = new long[capacity];
+    }
+
+    /**
+     * Creates a modifiable copy of a checkpoint.
+     */
+    LiveSet(@NotNull LiveSet checkpoint) {
+      this(Math.max(INITIAL_CAPACITY, checkpoint.myRowCount));
+      checkpoint.copyRowsTo(this);
+    }
+
+    int getRowCount() {
+      return myRowCount;
+    }
+
+    /**
+     * @return the size of the columns, i.e. of the set without its index.
+     */
+    long getEstimatedBytes() {
+      return (long)myTags.length * (5 * Integer.BYTES + 2 * Long.BYTES);
+    }
+
+    int getLiveCount() {
+      return myLiveCount;
+    }
+
+    boolean isLive(int row) {
+      return !myFreedRows.get(row);
+    }
+
+    int getTag(int row) {
+      return myTags[row];
+    }
+
+    int getClassTag(int row) {
+      return myClassTags[row];
+    }
+
+    int getStackId(int row) {
+      return myStackIds[row];
+    }
+
+    int getThreadId(int row) {
+      return myThreadIds[row];
+    }
+
+    int getHeapId(int row) {
+      return myHeapIds[row];
+    }
+
+    long getSize(int row) {
+      return mySizes[row];
+    }
+
+    long getAllocationTime(int row) {
+      return myAllocationTimes[row];
+    }
+
+    void allocate(int tag, int classTag, int stackId, int threadId, int heapId, long size, long allocationTimeNs) {
+      // A tag that is reused without a free event in between replaces the previous instance, as the previous instance can't be freed
+      // anymore.
+      free(tag);
+      if (myRowCount == myTags.length) {
+        grow();
+      }
+      int row = myRowCount++;
+      myTags[row] = tag;
+      myClassTags[row] = classTag;
+      myStackIds[row] = stackId;
+      myThreadIds[row] = threadId;
+      myHeapIds[row] = heapId;
+      mySizes[row] = size;
+      myAllocationTimes[row] = allocationTimeNs;
+      getRowsByTag().put(tag, row);
+      myLiveCount++;
+    }
+
+    void free(int tag) {
+      TIntIntHashMap rowsByTag = getRowsByTag();
+      if (!rowsByTag.containsKey(tag)) {
+        return;
+      }
+      myFreedRows.set(rowsByTag.remove(tag));
+      myLiveCount--;
+      if (myLiveCount < myRowCount / 2 && myRowCount > INITIAL_CAPACITY) {
+        compact();
+      }
+    }
+
+    /**
+     * @return a copy of the live rows only, without an index. The copy is not meant to be modified.
+     */
+    @NotNull
+    LiveSet compactCopy() {
+      LiveSet copy = new LiveSet(myLiveCount);
+      copyRowsTo(copy);
+      copy.myRowsByTag = null;
+      return copy;
+    }
+
+    private void copyRowsTo(@NotNull LiveSet target) {
+      for (int row = 0; row < myRowCount; ++row) {
+        if (!myFreedRows.get(row)) {
+          int targetRow = target.myRowCount++;
+          target.myTags[targetRow] = myTags[row];
+          target.myClassTags[targetRow] = myClassTags[row];
+          target.myStackIds[targetRow] = myStackIds[row];
+          target.myThreadIds[targetRow] = myThreadIds[row];
+          target.myHeapIds[targetRow] = myHeapIds[row];
+          target.mySizes[targetRow] = mySizes[row];
+          target.myAllocationTimes[targetRow] = myAllocationTimes[row];
+        }
+      }
+      target.myLiveCount = target.myRowCount;
+      target.myRowsByTag = null;
+    }
+
+    @NotNull
+    private TIntIntHashMap getRowsByTag() {
+      if (myRowsByTag == null) {
+        myRowsByTag = new TIntIntHashMap(Math.max(myRowCount, INITIAL_CAPACITY));
+        for (int row = 0; row < myRowCount; ++row) {
+          if (!myFreedRows.get(row)) {
+            myRowsByTag.put(myTags[row], row);
+          }
+        }
+      }
+      return myRowsByTag;
+    }
+
+    private void grow() {
+      int capacity = Math.max(INITIAL_CAPACITY, myTags.length * 2);
+      myTags = Arrays.copyOf(myTags, capacity);
+      myClassTags = Arrays.copyOf(myClassTags, capacity);
+      myStackIds = Arrays.copyOf(myStackIds, capacity);
+      myThreadIds = Arrays.copyOf(myThreadIds, capacity);
+      myHeapIds = Arrays.copyOf(myHeapIds, capacity);
+      mySizes = Arrays.copyOf(mySizes, capacity);
+      myAllocationTimes = Arrays.copyOf(myAllocationTimes, capacity);
+    }
+
+    private void compact() {
+      int liveRow = 0;
+      for (int row = 0; row < myRowCount; ++row) {
+        if (!myFreedRows.get(row)) {
+          myTags[liveRow] = myTags[row];
+          myClassTags[liveRow] = myClassTags[row];
+          myStackIds[liveRow] = myStackIds[row];
+          myThreadIds[liveRow] = myThreadIds[row];
+          myHeapIds[liveRow] = myHeapIds[row];
+          mySizes[liveRow] = mySizes[row];
+          myAllocationTimes[liveRow] = myAllocationTimes[row];
+          liveRow++;
+        }
+      }
+      myRowCount = liveRow;
+      myFreedRows.clear();
+      // The rows have moved, so the index is rebuilt the next time it is needed.
+      myRowsByTag = null;
+    }
+  }
+}
@@ -62,8 +62,13 @@ public class PackageSet extends ClassifierSet {
     @Nullable
     @Override
     public ClassifierSet getClassifierSet(@NotNull InstanceObject instance, boolean createIfAbsent) {
-      if (myPackageNameIndex >= instance.getClassEntry().getSplitPackageName().length) {
-        ClassDb.ClassEntry classEntry = instance.getClassEntry();
+      return getClassifierSet(instance.getClassEntry(), createIfAbsent);
+    }
+
+    @Nullable
+    @Override
+    public ClassifierSet getClassifierSet(@NotNull ClassDb.ClassEntry classEntry, boolean createIfAbsent) {
+      if (myPackageNameIndex >= classEntry.getSplitPackageName().length) {
         ClassSet classSet = myClassMap.get(classEntry);
         if (classSet == null && createIfAbsent) {
           classSet = new ClassSet(classEntry);
@@ -72,7 +77,7 @@ public class PackageSet extends ClassifierSet {
         return classSet;
       }
       else {
-        String subPackageName = instance.getClassEntry().getSplitPackageName()[myPackageNameIndex];
+        String subPackageName = classEntry.getSplitPackageName()[myPackageNameIndex];
         PackageSet packageSet = myPackageElements.get(subPackageName);
         if (packageSet == null && createIfAbsent) {
           packageSet = new PackageSet(myCaptureObject, subPackageName, myPackageNameIndex);
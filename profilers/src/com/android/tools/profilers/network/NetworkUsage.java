@@ -21,8 +21,8 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.NetworkServiceGrpc;
+import com.android.tools.profilers.CachedUnifiedEventDataSeries;
 import com.android.tools.profilers.StudioProfilers;
-import com.android.tools.profilers.UnifiedEventDataSeries;
 import org.jetbrains.annotations.NotNull;
 
 public class NetworkUsage extends LineChartModel {
@@ -56,15 +56,14 @@ public class NetworkUsage extends LineChartModel {
   @NotNull
   public DataSeries<Long> createSeries(@NotNull StudioProfilers profilers, @NotNull NetworkTrafficDataSeries.Type trafficType) {
     if (profilers.getIdeServices().getFeatureConfig().isUnifiedPipelineEnabled()) {
-      return new UnifiedEventDataSeries<>(profilers.getClient().getTransportClient(),
-                                          profilers.getSession().getStreamId(),
-                                          profilers.getSession().getPid(),
-                                          Common.Event.Kind.NETWORK_SPEED,
-                                          trafficType == NetworkTrafficDataSeries.Type.BYTES_SENT
-                                          ? Common.Event.EventGroupIds.NETWORK_TX_VALUE
-                                          : Common.Event.EventGroupIds.NETWORK_RX_VALUE,
-                                          UnifiedEventDataSeries
-                                            .fromFieldToDataExtractor(event -> event.getNetworkSpeed().getThroughput()));
+      return new CachedUnifiedEventDataSeries(profilers.getClient().getTransportClient(),
+                                              profilers.getSession().getStreamId(),
+                                              profilers.getSession().getPid(),
+                                              Common.Event.Kind.NETWORK_SPEED,
+                                              trafficType == NetworkTrafficDataSeries.Type.BYTES_SENT
+                                              ? Common.Event.EventGroupIds.NETWORK_TX_VALUE
+                                              : Common.Event.EventGroupIds.NETWORK_RX_VALUE,
+                                              event -> event.getNetworkSpeed().getThroughput());
     }
     else {
       NetworkServiceGrpc.NetworkServiceBlockingStub client = profilers.getClient().getNetworkClient();
@@ -27,26 +27,82 @@ import com.android.tools.profiler.proto.Transport.GetEventGroupsResponse;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.profilers.network.httpdata.HttpData;
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.util.text.StringUtil;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.LongSupplier;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * A {@link NetworkConnectionsModel} that uses the new event pipeline to fetch http connection data originated from an app.
+ * <p>
+ * Connections are cached by group id, from the start of a window that begins one range length before the requested range. After the
+ * first query, only the events since the latest event seen so far are requested, so each query costs about as much as the connections
+ * that changed since the previous one. Every {@link #FULL_QUERY_INTERVAL_NS}, or when a range starts before the window, the events since
+ * the start of the window are requested again, which picks up connections that reached the datastore too late for the incremental
+ * queries. Connections that ended before the window are evicted. The {@link HttpData} of a connection is only rebuilt when its events
+ * change, so completed connections keep theirs.
  */
 public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
+  /**
+   * How far before the latest event seen each incremental query starts. Events of different connections can reach the transport slightly
+   * out of order, and a connection that both starts and ends before the start of a query would otherwise never be seen.
+   */
+  private static final long QUERY_OVERLAP_NS = TimeUnit.SECONDS.toNanos(1);
+  /**
+   * How often, in wall-clock time, the events of the whole window are requested instead of the latest ones. The agent can batch events for
+   * longer than {@link #QUERY_OVERLAP_NS}, so a connection that ended before the start of the incremental queries is missed until the next
+   * full query.
+   */
+  @VisibleForTesting static final long FULL_QUERY_INTERVAL_NS = TimeUnit.SECONDS.toNanos(5);
+
   @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myTransportService;
   @NotNull private final Common.Session mySession;
 
+  /**
+   * Connections seen so far, in the order in which they were first seen.
+   */
+  @NotNull private final Map<Long, Connection> myConnections = new LinkedHashMap<>();
+  /**
+   * Thread events seen so far, by connection id. Sets, as incremental queries return the latest thread event of a connection again.
+   */
+  @NotNull private final Map<Long, Set<Common.Event>> myThreadEvents = new HashMap<>();
+  /**
+   * The start of the window from which connections are cached, or {@link Long#MAX_VALUE} before the first query.
+   */
+  private long myWindowStartNs = Long.MAX_VALUE;
+  /**
+   * The latest timestamp of the events seen so far, or {@link Long#MIN_VALUE} before the first query.
+   */
+  private long myLastEventTimestampNs = Long.MIN_VALUE;
+  @NotNull private final LongSupplier myClockNs;
+  /**
+   * The time of the last full query, according to {@link #myClockNs}.
+   */
+  private long myLastFullQueryTimeNs;
+
   public RpcNetworkConnectionsModel(@NotNull TransportServiceGrpc.TransportServiceBlockingStub transportService,
                                     @NotNull Common.Session session) {
+    this(transportService, session, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  RpcNetworkConnectionsModel(@NotNull TransportServiceGrpc.TransportServiceBlockingStub transportService,
+                             @NotNull Common.Session session,
+                             @NotNull LongSupplier clockNs) {
     myTransportService = transportService;
     mySession = session;
+    myClockNs = clockNs;
   }
 
   @NotNull
@@ -54,51 +110,170 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
   public List<HttpData> getData(@NotNull Range timeCurrentRangeUs) {
     long queryStartTimeNs = TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMin());
     long queryEndTimeNs = TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMax());
-    GetEventGroupsRequest request = GetEventGroupsRequest.newBuilder()
-      .setStreamId(mySession.getStreamId())
-      .setPid(mySession.getPid())
-      .setKind(Common.Event.Kind.NETWORK_HTTP_CONNECTION)
-      .build();
-    GetEventGroupsResponse response = myTransportService.getEventGroups(request);
+    // Keep one range length before the range, so that panning back by less than that doesn't query the events again.
+    updateConnections(Math.max(0, queryStartTimeNs - (queryEndTimeNs - queryStartTimeNs)));
+
+    List<HttpData> httpDataList = new ArrayList<>();
+    for (Connection connection : myConnections.values()) {
+      // Skip connections that occur before or after the query range.
+      if (connection.myFirstTimestampNs > queryEndTimeNs ||
+          (connection.myLastTimestampNs < queryStartTimeNs && connection.myIsEnded)) {
+        continue;
+      }
+      HttpData data = connection.getData(myThreadEvents.get(connection.myId));
+      if (data != null) {
+        httpDataList.add(data);
+      }
+    }
+    return httpDataList;
+  }
+
+  /**
+   * Fetches the connection and thread events that happened since the previous query, or all of those since the start of the window when
+   * a full query is due, merges them into the cached connections and evicts the connections that ended before the window.
+   */
+  private void updateConnections(long windowStartNs) {
+    long nowNs = myClockNs.getAsLong();
+    boolean isIncremental = myLastEventTimestampNs != Long.MIN_VALUE && windowStartNs >= myWindowStartNs &&
+                            nowNs - myLastFullQueryTimeNs < FULL_QUERY_INTERVAL_NS;
+    if (!isIncremental) {
+      myLastFullQueryTimeNs = nowNs;
+    }
+    long fromTimestampNs = isIncremental ? Math.max(0, myLastEventTimestampNs - QUERY_OVERLAP_NS) : windowStartNs;
+    mergeEventGroups(Common.Event.Kind.NETWORK_HTTP_CONNECTION, fromTimestampNs);
+    mergeEventGroups(Common.Event.Kind.NETWORK_HTTP_THREAD, fromTimestampNs);
+
+    myWindowStartNs = windowStartNs;
+    Iterator<Connection> connections = myConnections.values().iterator();
+    while (connections.hasNext()) {
+      Connection connection = connections.next();
+      if (connection.myIsEnded && connection.myLastTimestampNs < windowStartNs) {
+        connections.remove();
+        myThreadEvents.remove(connection.myId);
+      }
+    }
+    // Thread events never end, so the queries keep returning those of connections that ended before the window.
+    myThreadEvents.entrySet().removeIf(entry -> !myConnections.containsKey(entry.getKey()) &&
+                                                entry.getValue().stream().allMatch(event -> event.getTimestamp() < windowStartNs));
+  }
+
+  private void mergeEventGroups(@NotNull Common.Event.Kind kind, long fromTimestampNs) {
+    // The query also returns the latest event before fromTimestampNs of the groups that haven't ended yet.
+    GetEventGroupsResponse response = myTransportService.getEventGroups(buildRequest(kind, fromTimestampNs, 0));
+    for (EventGroup group : response.getGroupsList()) {
+      List<Common.Event> events = group.getEventsList();
+      myLastEventTimestampNs = Math.max(myLastEventTimestampNs, events.get(events.size() - 1).getTimestamp());
+      // A group that is first seen with an event from before the query, e.g. a connection that started before the window or that was
+      // evicted, may have had more events before that one, so the whole group is fetched once.
+      if (fromTimestampNs > 0 && !isKnownGroup(kind, group.getGroupId()) && events.get(0).getTimestamp() < fromTimestampNs) {
+        for (EventGroup fullGroup : myTransportService.getEventGroups(buildRequest(kind, 0, group.getGroupId())).getGroupsList()) {
+          events = fullGroup.getEventsList();
+        }
+      }
+      for (Common.Event event : events) {
+        addEvent(kind, group.getGroupId(), event);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getCachedConnectionCount() {
+    return myConnections.size();
+  }
+
+  private boolean isKnownGroup(@NotNull Common.Event.Kind kind, long groupId) {
+    return kind == Common.Event.Kind.NETWORK_HTTP_THREAD ? myThreadEvents.containsKey(groupId) : myConnections.containsKey(groupId);
+  }
 
-    GetEventGroupsRequest threadRequest = GetEventGroupsRequest.newBuilder()
+  private void addEvent(@NotNull Common.Event.Kind kind, long groupId, @NotNull Common.Event event) {
+    if (kind == Common.Event.Kind.NETWORK_HTTP_THREAD) {
+      if (myThreadEvents.computeIfAbsent(groupId, id -> new LinkedHashSet<>()).add(event) && myConnections.containsKey(groupId)) {
+        myConnections.get(groupId).invalidate();
+      }
+    }
+    else {
+      myConnections.computeIfAbsent(groupId, Connection::new).addEvent(event);
+    }
+  }
+
+  @NotNull
+  private GetEventGroupsRequest buildRequest(@NotNull Common.Event.Kind kind, long fromTimestampNs, long groupId) {
+    GetEventGroupsRequest.Builder request = GetEventGroupsRequest.newBuilder()
       .setStreamId(mySession.getStreamId())
       .setPid(mySession.getPid())
-      .setKind(Common.Event.Kind.NETWORK_HTTP_THREAD)
-      .build();
-    Map<Long, List<Common.Event>> connectionThreadMap = myTransportService.getEventGroups(threadRequest)
-      .getGroupsList().stream().collect(Collectors.toMap(EventGroup::getGroupId, EventGroup::getEventsList));
-
-    List<HttpData> httpDataList = new ArrayList<>(response.getGroupsCount());
-    for (EventGroup connectionGroup : response.getGroupsList()) {
-      // Skip event groups that occur before or after the query range.
-      if (connectionGroup.getEvents(0).getTimestamp() > queryEndTimeNs ||
-          (connectionGroup.getEvents(connectionGroup.getEventsCount() - 1).getTimestamp() < queryStartTimeNs &&
-           connectionGroup.getEvents(connectionGroup.getEventsCount() - 1).getIsEnded())) {
-        continue;
+      .setKind(kind);
+    if (fromTimestampNs > 0) {
+      request.setFromTimestamp(fromTimestampNs);
+    }
+    if (groupId != 0) {
+      request.setGroupId(groupId);
+    }
+    return request.build();
+  }
+
+  /**
+   * The events of one connection seen so far, along with the {@link HttpData} built from them.
+   */
+  private static final class Connection {
+    private final long myId;
+    // Events that are returned again by an overlapping query are equal to the ones already seen, and don't change the connection.
+    @NotNull private final Map<NetworkHttpConnectionData.UnionCase, Common.Event> myEvents =
+      new EnumMap<>(NetworkHttpConnectionData.UnionCase.class);
+    private long myFirstTimestampNs = Long.MAX_VALUE;
+    private long myLastTimestampNs = Long.MIN_VALUE;
+    private boolean myIsEnded;
+    // Built from the events when first needed, and rebuilt only after they or the thread events of the connection change.
+    @Nullable private HttpData myData;
+
+    private Connection(long id) {
+      myId = id;
+    }
+
+    private void addEvent(@NotNull Common.Event event) {
+      if (event.equals(myEvents.put(event.getNetworkHttpConnection().getUnionCase(), event))) {
+        return;
+      }
+      myFirstTimestampNs = Math.min(myFirstTimestampNs, event.getTimestamp());
+      if (event.getTimestamp() >= myLastTimestampNs) {
+        myLastTimestampNs = event.getTimestamp();
+        myIsEnded = event.getIsEnded();
+      }
+      myData = null;
+    }
+
+    private void invalidate() {
+      myData = null;
+    }
+
+    @Nullable
+    private HttpData getData(@Nullable Set<Common.Event> threadEvents) {
+      if (myData == null) {
+        myData = buildData(threadEvents);
       }
+      return myData;
+    }
 
-      Map<NetworkHttpConnectionData.UnionCase, Common.Event> events = new HashMap<>();
-      connectionGroup.getEventsList().forEach(e -> events.put(e.getNetworkHttpConnection().getUnionCase(), e));
+    @Nullable
+    private HttpData buildData(@Nullable Set<Common.Event> threadEvents) {
       Common.Event requestStartEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_STARTED, Common.Event.getDefaultInstance());
+        myEvents.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_STARTED, Common.Event.getDefaultInstance());
       Common.Event requestCompleteEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_COMPLETED, Common.Event.getDefaultInstance());
+        myEvents.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_REQUEST_COMPLETED, Common.Event.getDefaultInstance());
       Common.Event responseStartEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_STARTED, Common.Event.getDefaultInstance());
+        myEvents.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_STARTED, Common.Event.getDefaultInstance());
       Common.Event responseCompleteEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_COMPLETED, Common.Event.getDefaultInstance());
+        myEvents.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_RESPONSE_COMPLETED, Common.Event.getDefaultInstance());
       Common.Event connectionEndEvent =
-        events.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_CLOSED, Common.Event.getDefaultInstance());
+        myEvents.getOrDefault(NetworkHttpConnectionData.UnionCase.HTTP_CLOSED, Common.Event.getDefaultInstance());
 
       // Ingore the group if we missed the starting request event.
       if (requestStartEvent.equals(Common.Event.getDefaultInstance())) {
-        continue;
+        return null;
       }
 
       // We must also have thread information associated with the connection.
-      if (!connectionThreadMap.containsKey(connectionGroup.getGroupId())) {
-        continue;
+      if (threadEvents == null) {
+        return null;
       }
 
       long requestStartTimeUs = TimeUnit.NANOSECONDS.toMicros(requestStartEvent.getTimestamp());
@@ -106,13 +281,14 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
       long respondStartTimeUs = TimeUnit.NANOSECONDS.toMicros(responseStartEvent.getTimestamp());
       long respondCompleteTimeUs = TimeUnit.NANOSECONDS.toMicros(responseCompleteEvent.getTimestamp());
       long connectionEndTimeUs = TimeUnit.NANOSECONDS.toMicros(connectionEndEvent.getTimestamp());
-      List<HttpData.JavaThread> threadData = connectionThreadMap.get(connectionGroup.getGroupId()).stream()
-        .map(e -> e.getNetworkHttpThread()).map(proto -> new HttpData.JavaThread(proto.getId(), proto.getName()))
-        .collect(Collectors.toList());
+      List<HttpData.JavaThread> threadData = new ArrayList<>(threadEvents.size());
+      for (Common.Event event : threadEvents) {
+        threadData.add(new HttpData.JavaThread(event.getNetworkHttpThread().getId(), event.getNetworkHttpThread().getName()));
+      }
 
       HttpData.Builder httpBuilder =
         new HttpData.Builder(
-          connectionGroup.getGroupId(),
+          myId,
           requestStartTimeUs,
           requestCompleteTimeUs,
           respondStartTimeUs,
@@ -136,11 +312,8 @@ public class RpcNetworkConnectionsModel implements NetworkConnectionsModel {
         httpBuilder.setResponsePayloadId(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadId());
         httpBuilder.setResponsePayloadSize(responseCompleteEvent.getNetworkHttpConnection().getHttpResponseCompleted().getPayloadSize());
       }
-
-      httpDataList.add(httpBuilder.build());
+      return httpBuilder.build();
     }
-
-    return httpDataList;
   }
 
   @NotNull
@@ -17,19 +17,32 @@ package com.android.tools.profilers.network.httpdata;
 
 import com.android.tools.profilers.network.NetworkConnectionsModel;
 import com.android.tools.idea.protobuf.ByteString;
-import com.intellij.openapi.util.io.FileUtil;
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A class for fetching the payload data associated with an {@link HttpData} instance.
  */
 public abstract class Payload {
+  /**
+   * Decoded payloads are read in chunks of up to this size, which are then shared by the returned {@link ByteString} rather than copied
+   * into one array.
+   */
+  private static final int MAX_DECODE_CHUNK_SIZE = 256 * 1024;
+  /**
+   * How many bytes at the start of a payload are looked at to guess its type, when its header doesn't specify one.
+   */
+  private static final int CONTENT_SNIFF_LENGTH = 64;
+
   @NotNull private final NetworkConnectionsModel myModel;
   @Nullable private ByteString myCachedBytes;
 
@@ -79,7 +92,7 @@ public abstract class Payload {
   protected abstract HttpData.Header getHeader();
 
   /**
-   * Get this payload as a byte string.
+   * Get this payload as a byte string, decoded if its content encoding is gzip or deflate.
    */
   @NotNull
   public final ByteString getBytes() {
@@ -87,23 +100,98 @@ public abstract class Payload {
       return myCachedBytes;
     }
 
-    myCachedBytes = myModel.requestBytes(getId());
-    String contentEncoding = getHeader().getContentEncoding();
-    if (StringUtil.toLowerCase(contentEncoding).contains("gzip")) {
-      try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(myCachedBytes.toByteArray()))) {
-        myCachedBytes = ByteString.copyFrom(FileUtil.loadBytes(inputStream));
-      }
-      catch (IOException ignored) {
-        // If we got here, it means we failed to unzip data that was supposedly zipped. Just
-        // fallback and return the content directly.
-      }
-    }
-
+    myCachedBytes = decode(myModel.requestBytes(getId()), getHeader().getContentEncoding());
     return myCachedBytes;
   }
 
+  /**
+   * Returns the content type from the payload's header or, if the header doesn't have one, a content type guessed from the first bytes of
+   * the payload. The guessed content type is empty if the payload is not a common image, JSON, XML or HTML document.
+   */
   @NotNull
   public HttpData.ContentType getContentType() {
-    return getHeader().getContentType();
+    HttpData.ContentType contentType = getHeader().getContentType();
+    if (!contentType.isEmpty()) {
+      return contentType;
+    }
+    return new HttpData.ContentType(sniffMimeType(getBytes()));
+  }
+
+  /**
+   * Decodes the bytes straight from the fetched byte string, one chunk at a time, so that a large payload is not copied into a temporary
+   * array before and after it is decoded.
+   */
+  @NotNull
+  private static ByteString decode(@NotNull ByteString bytes, @NotNull String contentEncoding) {
+    String encoding = StringUtil.toLowerCase(contentEncoding);
+    if (bytes.isEmpty() || !(encoding.contains("gzip") || encoding.contains("deflate"))) {
+      return bytes;
+    }
+
+    try (InputStream inputStream = encoding.contains("gzip") ? new GZIPInputStream(bytes.newInput()) : newInflaterStream(bytes)) {
+      return ByteString.readFrom(inputStream, 256, MAX_DECODE_CHUNK_SIZE);
+    }
+    catch (IOException ignored) {
+      // If we got here, it means we failed to decode data that was supposedly encoded. Just
+      // fallback and return the content directly.
+      return bytes;
+    }
+  }
+
+  /**
+   * The deflate content encoding is meant to be zlib data, but some servers send raw deflate data instead, so the zlib header is checked
+   * first.
+   */
+  @NotNull
+  private static InputStream newInflaterStream(@NotNull ByteString bytes) {
+    boolean hasZlibHeader = bytes.size() >= 2 &&
+                            (bytes.byteAt(0) & 0x0F) == 8 &&
+                            ((bytes.byteAt(0) & 0xFF) * 256 + (bytes.byteAt(1) & 0xFF)) % 31 == 0;
+    return new InflaterInputStream(bytes.newInput(), new Inflater(!hasZlibHeader));
+  }
+
+  /**
+   * Guesses the MIME type of a payload from its first bytes, or returns an empty string if it is not a known type.
+   */
+  @VisibleForTesting
+  @NotNull
+  static String sniffMimeType(@NotNull ByteString bytes) {
+    ByteString prefix = bytes.substring(0, Math.min(bytes.size(), CONTENT_SNIFF_LENGTH));
+    if (startsWith(prefix, 0, 0x89, 'P', 'N', 'G')) {
+      return "image/png";
+    }
+    if (startsWith(prefix, 0, 0xFF, 0xD8, 0xFF)) {
+      return "image/jpeg";
+    }
+    if (startsWith(prefix, 0, 'G', 'I', 'F', '8')) {
+      return "image/gif";
+    }
+    if (startsWith(prefix, 0, 'R', 'I', 'F', 'F') && startsWith(prefix, 8, 'W', 'E', 'B', 'P')) {
+      return "image/webp";
+    }
+
+    String text = prefix.toString(StandardCharsets.UTF_8).replace("\uFEFF", "").trim();
+    if (text.startsWith("{") || text.startsWith("[")) {
+      return "application/json";
+    }
+    if (text.startsWith("<?xml")) {
+      return "application/xml";
+    }
+    if (StringUtil.startsWithIgnoreCase(text, "<!doctype html") || StringUtil.startsWithIgnoreCase(text, "<html")) {
+      return "text/html";
+    }
+    return "";
+  }
+
+  private static boolean startsWith(@NotNull ByteString bytes, int offset, int... expected) {
+    if (bytes.size() < offset + expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; ++i) {
+      if ((bytes.byteAt(offset + i) & 0xFF) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 }
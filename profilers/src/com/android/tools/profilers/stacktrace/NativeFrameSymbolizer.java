@@ -16,6 +16,8 @@
 package com.android.tools.profilers.stacktrace;
 
 import com.android.tools.profiler.proto.Memory.NativeCallStack;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -24,4 +26,14 @@ import org.jetbrains.annotations.NotNull;
 public interface NativeFrameSymbolizer {
   @NotNull
   NativeCallStack.NativeFrame symbolize(String abi, NativeCallStack.NativeFrame unsymbolizedFrame);
+
+  /**
+   * Resolves several frames at once, which implementations may do faster than resolving them one by one.
+   *
+   * @return the resolved frames, in the order of the given frames.
+   */
+  @NotNull
+  default List<NativeCallStack.NativeFrame> symbolize(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    return unsymbolizedFrames.stream().map(frame -> symbolize(abi, frame)).collect(Collectors.toList());
+  }
 }
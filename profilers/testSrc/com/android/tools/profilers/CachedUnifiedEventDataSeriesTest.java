@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers;
+
+import static com.android.tools.profiler.proto.Common.Event.EventGroupIds.NETWORK_TX_VALUE;
+
+import com.android.tools.adtui.model.FakeTimer;
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.idea.transport.faketransport.FakeGrpcChannel;
+import com.android.tools.idea.transport.faketransport.FakeTransportService;
+import com.android.tools.profiler.proto.Common;
+import com.google.common.truth.Truth;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CachedUnifiedEventDataSeriesTest {
+  // Use an arbitrary stream id because we don't care in the data series.
+  private static final int STREAM_ID = 1;
+
+  private final FakeTransportService myService = new FakeTransportService(new FakeTimer());
+  @Rule public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("CachedUnifiedEventDataSeriesTest", myService);
+
+  @Test
+  public void dataMatchesUncachedSeries() {
+    for (long timestampUs = 10; timestampUs <= 50; timestampUs += 10) {
+      myService.addEventToStream(STREAM_ID, ProfilersTestData.generateNetworkTxEvent(timestampUs, (int)timestampUs * 10).build());
+    }
+    UnifiedEventDataSeries<Long> uncached = new UnifiedEventDataSeries<>(new ProfilerClient(myGrpcChannel.getName()).getTransportClient(),
+                                                                         STREAM_ID,
+                                                                         0,
+                                                                         Common.Event.Kind.NETWORK_SPEED,
+                                                                         NETWORK_TX_VALUE,
+                                                                         UnifiedEventDataSeries.fromFieldToDataExtractor(
+                                                                           event -> event.getNetworkSpeed().getThroughput()));
+    CachedUnifiedEventDataSeries cached = createSeries(1.0);
+
+    Range[] ranges = {new Range(1, 100), new Range(25, 35), new Range(20, 30), new Range(45, 100), new Range(1, 15)};
+    for (Range range : ranges) {
+      Truth.assertThat(toPairs(cached.getDataForRange(range))).containsExactlyElementsIn(toPairs(uncached.getDataForRange(range))).inOrder();
+    }
+  }
+
+  @Test
+  public void onlyTheTailIsFetched() {
+    for (long timestampUs = 10; timestampUs <= 50; timestampUs += 10) {
+      myService.addEventToStream(STREAM_ID, ProfilersTestData.generateNetworkTxEvent(timestampUs, (int)timestampUs).build());
+    }
+    CachedUnifiedEventDataSeries series = createSeries(1.0);
+    Truth.assertThat(toTimestamps(series.getDataForRange(new Range(1, 50)))).containsExactly(10L, 20L, 30L, 40L, 50L).inOrder();
+    Truth.assertThat(series.getRequestCount()).isEqualTo(1);
+
+    // A range within the cached window is served without a request.
+    Truth.assertThat(toTimestamps(series.getDataForRange(new Range(10, 40)))).containsExactly(10L, 20L, 30L, 40L, 50L).inOrder();
+    Truth.assertThat(series.getRequestCount()).isEqualTo(1);
+
+    // Newly streamed data is fetched with a single request for the tail.
+    myService.addEventToStream(STREAM_ID, ProfilersTestData.generateNetworkTxEvent(60, 60).build());
+    Truth.assertThat(toTimestamps(series.getDataForRange(new Range(10, 60)))).containsExactly(10L, 20L, 30L, 40L, 50L, 60L).inOrder();
+    Truth.assertThat(series.getRequestCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void samplesOutsideMarginAreEvicted() {
+    for (long timestampUs = 10; timestampUs <= 50; timestampUs += 10) {
+      myService.addEventToStream(STREAM_ID, ProfilersTestData.generateNetworkTxEvent(timestampUs, (int)timestampUs).build());
+    }
+    CachedUnifiedEventDataSeries series = createSeries(0);
+    series.getDataForRange(new Range(1, 50));
+    Truth.assertThat(series.getCachedSampleCount()).isEqualTo(5);
+
+    // Only the range and one sample on each side of it are kept.
+    Truth.assertThat(toTimestamps(series.getDataForRange(new Range(30, 40)))).containsExactly(20L, 30L, 40L, 50L).inOrder();
+    Truth.assertThat(series.getCachedSampleCount()).isEqualTo(4);
+
+    // Panning back to evicted data fetches it again.
+    Truth.assertThat(toTimestamps(series.getDataForRange(new Range(10, 40)))).containsExactly(10L, 20L, 30L, 40L, 50L).inOrder();
+    Truth.assertThat(series.getRequestCount()).isEqualTo(2);
+  }
+
+  private CachedUnifiedEventDataSeries createSeries(double evictionMarginRatio) {
+    return new CachedUnifiedEventDataSeries(new ProfilerClient(myGrpcChannel.getName()).getTransportClient(),
+                                            STREAM_ID,
+                                            0,
+                                            Common.Event.Kind.NETWORK_SPEED,
+                                            NETWORK_TX_VALUE,
+                                            event -> event.getNetworkSpeed().getThroughput(),
+                                            evictionMarginRatio);
+  }
+
+  private static List<Long> toTimestamps(List<SeriesData<Long>> data) {
+    return data.stream().map(sample -> sample.x).collect(Collectors.toList());
+  }
+
+  private static List<String> toPairs(List<SeriesData<Long>> data) {
+    return data.stream().map(sample -> sample.x + ":" + sample.value).collect(Collectors.toList());
+  }
+}
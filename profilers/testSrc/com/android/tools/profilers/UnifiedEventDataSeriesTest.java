@@ -21,11 +21,19 @@ import static com.android.tools.profiler.proto.Common.Event.EventGroupIds.NETWOR
 import com.android.tools.adtui.model.FakeTimer;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.datastore.service.TransportService;
 import com.android.tools.idea.transport.faketransport.FakeGrpcChannel;
 import com.android.tools.idea.transport.faketransport.FakeTransportService;
 import com.android.tools.profiler.proto.Common;
 import com.google.common.truth.Truth;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.junit.Rule;
 import org.junit.Test;
@@ -35,7 +43,19 @@ public class UnifiedEventDataSeriesTest {
   private static final int STREAM_ID = 1;
 
   private final FakeTransportService myService = new FakeTransportService(new FakeTimer());
-  @Rule public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("UnifiedEventDataSeriesTest", myService);
+  private final List<String> myRequestedResolutions = new ArrayList<>();
+  @Rule public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel(
+    "UnifiedEventDataSeriesTest",
+    () -> ServerInterceptors.intercept(myService, new ServerInterceptor() {
+      @Override
+      public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                   Metadata headers,
+                                                                   ServerCallHandler<ReqT, RespT> next) {
+        // Read with the datastore's key, which the client defines separately.
+        myRequestedResolutions.add(headers.get(TransportService.TARGET_RESOLUTION_HEADER));
+        return next.startCall(call, headers);
+      }
+    }));
 
   @Test
   public void testGetDataForXRange() {
@@ -69,6 +89,20 @@ public class UnifiedEventDataSeriesTest {
     Truth.assertThat(data2.stream().map(data -> data.value).collect(Collectors.toList())).containsExactly(20L, 40L, 60L);
   }
 
+  @Test
+  public void testRequestsTargetResolution() {
+    UnifiedEventDataSeries<Long> series = new UnifiedEventDataSeries<>(new ProfilerClient(myGrpcChannel.getName()).getTransportClient(),
+                                                                       STREAM_ID,
+                                                                       0,
+                                                                       Common.Event.Kind.NETWORK_SPEED,
+                                                                       NETWORK_TX_VALUE,
+                                                                       UnifiedEventDataSeries.fromFieldToDataExtractor(
+                                                                         event -> event.getNetworkSpeed().getThroughput()));
+    series.getDataForRange(new Range(0, TimeUnit.MINUTES.toMicros(10)));
+    long expectedResolutionNs = TimeUnit.MINUTES.toNanos(10) / UnifiedEventDataSeries.TARGET_POINT_COUNT;
+    Truth.assertThat(myRequestedResolutions).containsExactly(Long.toString(expectedResolutionNs));
+  }
+
   @Test(expected = AssertionError.class)
   public void testAssertOnMultipleGroupData() {
     myService.addEventToStream(STREAM_ID, ProfilersTestData.generateNetworkTxEvent(1, 10).build());
@@ -85,6 +85,37 @@ public class CaptureNodeTest {
     assertThat(visualParent.getChildAt(0)).isEqualTo(childA);
   }
 
+  @Test
+  public void childrenViewReflectsAddedChildren() {
+    CaptureNode parent = new CaptureNode(new StubCaptureNodeModel());
+    List<CaptureNode> children = parent.getChildren();
+    assertThat(children).isEmpty();
+
+    List<CaptureNode> added = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      CaptureNode child = new CaptureNode(new StubCaptureNodeModel());
+      parent.addChild(child);
+      added.add(child);
+    }
+    assertThat(children).containsExactlyElementsIn(added).inOrder();
+    assertThat(parent.getChildCount()).isEqualTo(10);
+    assertThat(parent.getLastChild()).isEqualTo(added.get(9));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void childrenViewIsReadOnly() {
+    CaptureNode parent = new CaptureNode(new StubCaptureNodeModel());
+    parent.getChildren().add(new CaptureNode(new StubCaptureNodeModel()));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void childOutOfBounds() {
+    CaptureNode parent = new CaptureNode(new StubCaptureNodeModel());
+    parent.addChild(new CaptureNode(new StubCaptureNodeModel()));
+    // The children array has room for more children than were added.
+    parent.getChildAt(1);
+  }
+
   @Test
   public void testFilter() {
     CaptureNode node = createFilterTestTree();
@@ -159,6 +159,18 @@ class CpuCaptureParserTest {
     assertThat(capture.isDualClock).isTrue()
   }
 
+  @Test
+  fun parsingArtFilesReportsProgress() {
+    val parser = CpuCaptureParser(FakeIdeProfilerServices())
+    assertThat(parser.parsingProgress).isEqualTo(-1.0)
+    parser.parse(CpuProfilerTestUtils.getTraceFile("valid_trace.trace"))!!.get()
+    assertThat(parser.parsingProgress).isEqualTo(1.0)
+
+    // Progress is unknown again when the next parsing starts.
+    parser.updateParsingStateWhenStarting()
+    assertThat(parser.parsingProgress).isEqualTo(-1.0)
+  }
+
   @Test
   fun parsingSimpleperfFilesShouldProduceCpuCapture() {
     val parser = CpuCaptureParser(FakeIdeProfilerServices())
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.art;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.CpuProfilerTestUtils;
+import com.android.tools.profilers.cpu.CpuThreadInfo;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import org.junit.Test;
+
+public class ArtTraceDecoderTest {
+  @Test
+  public void testTreeStructure() throws IOException {
+    ArtTraceHandler handler = decode("basic.trace", 1 << 20, progress -> {});
+    Map<CpuThreadInfo, CaptureNode> trees = handler.getThreadsGraph();
+    assertEquals(1, trees.size());
+    CpuThreadInfo thread = trees.keySet().iterator().next();
+    assertEquals("AsyncTask #1", thread.getName());
+    assertEquals(11, thread.getId());
+
+    CaptureNode node = trees.get(thread);
+    assertEquals("AsyncTask #1", node.getData().getId());
+    assertEquals(1374703971214985L, node.getStartGlobal());
+    assertEquals(1374703971215049L, node.getEndGlobal());
+    assertEquals(3, node.getChildren().size());
+
+    CaptureNode foo = node.getChildren().get(1);
+    assertEquals("com/test/android/traceview/Basic.foo()V", foo.getData().getId());
+    assertEquals(1374703971215001L, foo.getStartGlobal());
+    assertEquals(1374703971215008L, foo.getEndGlobal());
+    assertEquals(1374703971215001L, foo.getStartThread());
+    assertEquals(1374703971215008L, foo.getEndThread());
+
+    CaptureNode start = node.getChildren().get(0).getChildren().get(0);
+    assertEquals("android/os/Debug.startMethodTracing(Ljava/lang/String;II)V", start.getData().getId());
+    assertEquals(1374703971214987L, start.getStartGlobal());
+    assertEquals(1374703971214992L, start.getEndGlobal());
+    assertEquals(1374703971214986L, start.getStartThread());
+    assertEquals(1374703971214992L, start.getEndThread());
+  }
+
+  @Test
+  public void testChunkSizeDoesNotChangeTrees() throws IOException {
+    Map<Integer, CaptureNode> expected = getTreesById(decode("valid_trace.trace", 1 << 20, progress -> {}));
+    Map<Integer, CaptureNode> actual = getTreesById(decode("valid_trace.trace", 7, progress -> {}));
+    assertTrue(expected.size() > 1);
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<Integer, CaptureNode> entry : expected.entrySet()) {
+      assertSameTree(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void testProgressIsReportedForEveryChunk() throws IOException {
+    List<Double> progress = new ArrayList<>();
+    decode("basic.trace", 4, progress::add);
+    assertFalse(progress.isEmpty());
+    for (int i = 1; i < progress.size(); ++i) {
+      assertTrue(progress.get(i - 1) < progress.get(i));
+    }
+    assertEquals(1, progress.get(progress.size() - 1), 0);
+  }
+
+  @Test
+  public void testTruncatedRecordThrowsException() throws IOException {
+    try {
+      decode("corrupted_trace.trace", 1 << 20, progress -> {});
+      fail();
+    }
+    catch (BufferUnderflowException expected) {
+    }
+  }
+
+  @Test
+  public void testTextHeaderIsDetected() throws IOException {
+    assertTrue(ArtTraceDecoder.hasTextHeader(CpuProfilerTestUtils.getTraceFile("basic.trace")));
+    assertFalse(ArtTraceDecoder.hasTextHeader(CpuProfilerTestUtils.getTraceFile("simpleperf_callchain.trace")));
+  }
+
+  private static ArtTraceHandler decode(String traceName, int chunkRecords, DoubleConsumer listener) throws IOException {
+    File trace = CpuProfilerTestUtils.getTraceFile(traceName);
+    ArtTraceHandler handler = new ArtTraceHandler();
+    new ArtTraceDecoder(trace, handler, listener, chunkRecords).decode();
+    return handler;
+  }
+
+  private static Map<Integer, CaptureNode> getTreesById(ArtTraceHandler handler) {
+    Map<Integer, CaptureNode> trees = new HashMap<>();
+    handler.getThreadsGraph().forEach((thread, tree) -> trees.put(thread.getId(), tree));
+    return trees;
+  }
+
+  private static void assertSameTree(CaptureNode expected, CaptureNode actual) {
+    assertEquals(expected.getData().getId(), actual.getData().getId());
+    assertEquals(expected.getStartGlobal(), actual.getStartGlobal());
+    assertEquals(expected.getEndGlobal(), actual.getEndGlobal());
+    assertEquals(expected.getStartThread(), actual.getStartThread());
+    assertEquals(expected.getEndThread(), actual.getEndThread());
+    assertEquals(expected.getDepth(), actual.getDepth());
+    assertEquals(expected.getChildren().size(), actual.getChildren().size());
+    for (int i = 0; i < expected.getChildren().size(); ++i) {
+      assertSameTree(expected.getChildren().get(i), actual.getChildren().get(i));
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.fail
+import org.junit.Test
+import trebuchet.importers.ftrace.FtraceImportPipeline
+import trebuchet.importers.ftrace.FtraceLineChunk
+import trebuchet.io.BufferProducer
+import trebuchet.io.DataSlice
+import trebuchet.io.StreamingReader
+import trebuchet.util.StringCache
+
+class FtraceImportPipelineTest {
+
+  @Test
+  fun lineSpanningChunkBoundaryStartsTheNextChunk() {
+    val chunks = importChunks("aaaa\nbbbbb\ncc\n", chunkSize = 8)
+    assertThat(chunks.map { it.text }).containsExactly("aaaa\n", "bbbbb\n", "cc\n").inOrder()
+    assertThat(chunks.flatMap { it.lines }).containsExactly("aaaa", "bbbbb", "cc").inOrder()
+  }
+
+  @Test
+  fun lineLongerThanChunkGrowsTheChunk() {
+    val longLine = "0123456789abcdefghij"
+    val chunks = importChunks("$longLine\nxy\n", chunkSize = 8)
+    assertThat(chunks.map { it.text }).containsExactly("$longLine\nxy\n")
+    assertThat(chunks.flatMap { it.lines }).containsExactly(longLine, "xy").inOrder()
+  }
+
+  @Test
+  fun carriageReturnAtChunkBoundaryIsStripped() {
+    // The first chunk fills up right after the '\r', so the rest of its line moves to the next chunk.
+    val chunks = importChunks("a\nbcde\r\nf\r\n", chunkSize = 7)
+    assertThat(chunks.map { it.text }).containsExactly("a\n", "bcde\r\nf\r\n").inOrder()
+    assertThat(chunks.flatMap { it.lines }).containsExactly("a", "bcde", "f").inOrder()
+  }
+
+  @Test
+  fun linesLongerThanTheLimitAreDropped() {
+    val longestLine = "x".repeat(FtraceLineChunk.MaxLineLength)
+    val tooLongLine = "y".repeat(FtraceLineChunk.MaxLineLength + 1)
+    val chunks = importChunks("$longestLine\n$tooLongLine\nz\n", chunkSize = 64)
+    assertThat(chunks.flatMap { it.lines }).containsExactly(longestLine, "z").inOrder()
+  }
+
+  @Test
+  fun finalLineWithoutNewlineIsKept() {
+    val chunks = importChunks("ab\ncd", chunkSize = 4)
+    assertThat(chunks.map { it.text }).containsExactly("ab\n", "cd").inOrder()
+    assertThat(chunks.flatMap { it.lines }).containsExactly("ab", "cd").inOrder()
+  }
+
+  @Test
+  fun readerExceptionReachesTheImportingThread() {
+    val failure = IllegalStateException("read failed")
+    val producer = object : BufferProducer {
+      var calls = 0
+      override fun next(): DataSlice? {
+        if (calls++ > 0) {
+          throw failure
+        }
+        return DataSlice("ab\ncd\n".toByteArray())
+      }
+    }
+    try {
+      FtraceImportPipeline(StringCache(), 4).run(StreamingReader(producer)) { }
+      fail("The reader exception should be rethrown")
+    }
+    catch (ex: IllegalStateException) {
+      assertThat(ex).isSameAs(failure)
+    }
+  }
+
+  @Test
+  fun workerExceptionReachesTheImportingThread() {
+    val failure = IllegalStateException("parse failed")
+    val consumed = mutableListOf<String>()
+    val pipeline = FtraceImportPipeline(StringCache(), 4) { bytes, length ->
+      if (String(bytes, 0, length) == "cd\n") {
+        throw failure
+      }
+      FtraceLineChunk.parse(bytes, length, StringCache())
+    }
+    try {
+      pipeline.run(StreamingReader(SplitProducer("ab\ncd\nef\n".toByteArray(), 2))) { consumed.add(String(it.bytes, 0, it.length)) }
+      fail("The worker exception should be rethrown")
+    }
+    catch (ex: IllegalStateException) {
+      assertThat(ex).isSameAs(failure)
+    }
+    // Chunks before the failing one are still consumed in order.
+    assertThat(consumed).containsExactly("ab\n")
+  }
+
+  private class ImportedChunk(val text: String, val lines: List<String>)
+
+  private fun importChunks(text: String, chunkSize: Int): List<ImportedChunk> {
+    val chunks = mutableListOf<ImportedChunk>()
+    // Small windows make the chunk boundaries fall in the middle of the stream's own buffers.
+    FtraceImportPipeline(StringCache(), chunkSize).run(StreamingReader(SplitProducer(text.toByteArray(), 3))) { chunk ->
+      chunks.add(ImportedChunk(String(chunk.bytes, 0, chunk.length), (0 until chunk.lineCount).map { chunk.lineAt(it).toString() }))
+    }
+    return chunks
+  }
+
+  /**
+   * Produces [bytes] in slices of at most [windowSize] bytes.
+   */
+  private class SplitProducer(private val bytes: ByteArray, private val windowSize: Int) : BufferProducer {
+    private var offset = 0
+
+    override fun next(): DataSlice? {
+      if (offset >= bytes.size) {
+        return null
+      }
+      val end = Math.min(bytes.size, offset + windowSize)
+      val slice = DataSlice(bytes, offset, end)
+      offset = end
+      return slice
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.atrace
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import trebuchet.extractors.html.SystraceExtractor
+import trebuchet.io.BufferProducer
+import trebuchet.io.DataSlice
+import trebuchet.io.StreamingReader
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.util.Base64
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPOutputStream
+
+class SystraceExtractorTest {
+
+  @Test
+  fun plainSectionIsExtractedWhateverTheWindowBoundaries() {
+    val html = wrapInHtml(TRACE)
+    // Every window size puts the start and the end of the section at a different position within a window.
+    for (windowSize in 1..html.length) {
+      assertThat(extractSections(html, windowSize)).containsExactly(TRACE)
+    }
+  }
+
+  @Test
+  fun sectionWithoutClosingTagKeepsItsLastByte() {
+    val html = "<html>\n$START_TAG\n$TRACE"
+    for (windowSize in 1..html.length) {
+      assertThat(extractSections(html, windowSize)).containsExactly(TRACE)
+    }
+  }
+
+  @Test
+  fun base64GzipSectionIsDecoded() {
+    val html = wrapInHtml(encode(TRACE) { GZIPOutputStream(it) })
+    assertThat(extractSections(html, 7)).containsExactly(TRACE)
+  }
+
+  @Test
+  fun base64ZlibSectionIsDecoded() {
+    val html = wrapInHtml(encode(TRACE) { DeflaterOutputStream(it) })
+    assertThat(extractSections(html, 7)).containsExactly(TRACE)
+  }
+
+  @Test
+  fun sectionsAfterAPartiallyReadEncodedSectionAreExtracted() {
+    val html = "<html>\n$START_TAG\n${encode(TRACE) { GZIPOutputStream(it) }}\n$END_TAG\n$START_TAG\n$TRACE$END_TAG\n</html>"
+    val sections = mutableListOf<String>()
+    SystraceExtractor().extract(StreamingReader(SplitProducer(html.toByteArray(), 5), KEPT_BYTES)) { section ->
+      // Only read the first window of each section, closing it has to skip the rest.
+      val slice = section.next()!!
+      sections.add(String(slice.buffer, slice.startIndex, slice.length))
+      section.close()
+    }
+    assertThat(sections).hasSize(2)
+    assertThat(sections[0]).isEqualTo(TRACE)
+    assertThat(TRACE).startsWith(sections[1])
+  }
+
+  private fun extractSections(html: String, windowSize: Int): List<String> {
+    val sections = mutableListOf<String>()
+    SystraceExtractor().extract(StreamingReader(SplitProducer(html.toByteArray(), windowSize), KEPT_BYTES)) { section ->
+      val text = ByteArrayOutputStream()
+      while (true) {
+        val slice = section.next() ?: break
+        text.write(slice.buffer, slice.startIndex, slice.length)
+      }
+      section.close()
+      sections.add(text.toString(Charsets.UTF_8.name()))
+    }
+    return sections
+  }
+
+  private fun wrapInHtml(section: String) = "<html>\n$START_TAG\n$section$END_TAG\n</html>"
+
+  private fun encode(text: String, compress: (OutputStream) -> OutputStream): String {
+    val compressed = ByteArrayOutputStream()
+    compress(compressed).use { it.write(text.toByteArray()) }
+    return Base64.getMimeEncoder().encodeToString(compressed.toByteArray())
+  }
+
+  /**
+   * Produces [bytes] in slices of at most [windowSize] bytes.
+   */
+  private class SplitProducer(private val bytes: ByteArray, private val windowSize: Int) : BufferProducer {
+    private var offset = 0
+
+    override fun next(): DataSlice? {
+      if (offset >= bytes.size) {
+        return null
+      }
+      val end = Math.min(bytes.size, offset + windowSize)
+      val slice = DataSlice(bytes, offset, end)
+      offset = end
+      return slice
+    }
+  }
+
+  private companion object {
+    const val START_TAG = """<script class="trace-data" type="application/text">"""
+    const val END_TAG = "</script>"
+    // Small enough for the reader to release windows while the end of a section is searched for, but larger than the tags.
+    const val KEPT_BYTES = 128
+    val TRACE = (1..20).joinToString("") { "<idle>-0     (-----) [00$it] d..2 $it.000000: sched_switch: prev_comm=swapper\n" }
+  }
+}
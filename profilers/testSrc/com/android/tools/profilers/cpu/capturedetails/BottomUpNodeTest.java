@@ -284,6 +284,24 @@ public class BottomUpNodeTest {
     assertEquals(1, nodeA.getGlobalChildrenTotal(), EPS);
   }
 
+  @Test
+  public void testUpdatingRangeMatchesFreshTotals() {
+    Range[] ranges = {new Range(0, 40), new Range(3, 37), new Range(1, 22), new Range(21, 40), new Range(0, 6), new Range(6, 24)};
+    List<BottomUpNode> updated = new ArrayList<>();
+    traverse(new BottomUpNode(createComplexTree()), updated);
+    for (Range range : ranges) {
+      List<BottomUpNode> fresh = new ArrayList<>();
+      traverse(new BottomUpNode(createComplexTree()), fresh);
+      assertEquals(fresh.size(), updated.size());
+      for (int i = 0; i < fresh.size(); ++i) {
+        updated.get(i).update(range);
+        fresh.get(i).update(range);
+        assertEquals(fresh.get(i).getGlobalTotal(), updated.get(i).getGlobalTotal(), EPS);
+        assertEquals(fresh.get(i).getGlobalChildrenTotal(), updated.get(i).getGlobalChildrenTotal(), EPS);
+      }
+    }
+  }
+
   /**
    * The structure of the tree:
    * main [0..100]
@@ -42,6 +42,10 @@ import com.android.tools.profilers.memory.FakeMemoryService;
 import com.android.tools.profilers.network.FakeNetworkService;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import org.junit.Before;
 import org.junit.Rule;
@@ -142,6 +146,26 @@ public class CaptureModelTest {
     assertThat(tracker.getLastCaptureDetailsType()).isNull();
   }
 
+  @Test
+  public void treeIsBuiltOnThePoolExecutorAndDetailsAreCreatedOnTheMainExecutor()
+    throws IOException, ExecutionException, InterruptedException {
+    CpuCapture capture = CpuProfilerTestUtils.getValidCapture();
+    List<Runnable> poolTasks = new ArrayList<>();
+    List<Runnable> mainTasks = new ArrayList<>();
+    CompletableFuture<CaptureDetails> details = CaptureDetails.Type.TOP_DOWN.buildAsync(
+      new Range(), Collections.singletonList(capture.getCaptureNode(capture.getMainThreadId())), capture, poolTasks::add, mainTasks::add);
+    // Nothing is built on the calling thread.
+    assertThat(poolTasks).hasSize(1);
+    assertThat(mainTasks).isEmpty();
+
+    poolTasks.get(0).run();
+    assertThat(details.isDone()).isFalse();
+    assertThat(mainTasks).hasSize(1);
+
+    mainTasks.get(0).run();
+    assertThat(((CaptureDetails.TopDown)details.get()).getModel()).isNotNull();
+  }
+
   @Test
   public void detailsSetWithoutACaptureReturnsNullDetails() {
     myModel.setCapture(null);
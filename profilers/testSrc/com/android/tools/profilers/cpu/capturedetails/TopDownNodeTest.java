@@ -142,6 +142,27 @@ public class TopDownNodeTest {
     assertEquals(0, topDown.getThreadTotal(), 0);
   }
 
+  @Test
+  public void testUpdatingRangeMatchesFreshTotals() {
+    TopDownNode topDown = new TopDownNode(createTree());
+    TopDownNode nodeB = topDown.getChildren().get(0);
+    Range[] ranges = {new Range(0, 30), new Range(4, 26), new Range(2, 28), new Range(8, 14), new Range(24, 30), new Range(0, 3)};
+    for (Range range : ranges) {
+      topDown.update(range);
+      nodeB.update(range);
+
+      TopDownNode fresh = new TopDownNode(createTree());
+      fresh.update(range);
+      fresh.getChildren().get(0).update(range);
+      assertEquals(fresh.getGlobalTotal(), topDown.getGlobalTotal(), 0);
+      assertEquals(fresh.getGlobalChildrenTotal(), topDown.getGlobalChildrenTotal(), 0);
+      assertEquals(fresh.getThreadTotal(), topDown.getThreadTotal(), 0);
+      assertEquals(fresh.getChildren().get(0).getGlobalTotal(), nodeB.getGlobalTotal(), 0);
+      assertEquals(fresh.getChildren().get(0).getGlobalChildrenTotal(), nodeB.getGlobalChildrenTotal(), 0);
+      assertEquals(fresh.getChildren().get(0).getThreadTotal(), nodeB.getThreadTotal(), 0);
+    }
+  }
+
   /**
    * Creates a test to be used for testing. The shape of the tree is as follows:
    *              0123456789012345678901234567890
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.perfetto
+
+import com.android.tools.profilers.cpu.CpuProfilerTestUtils
+import com.android.tools.profilers.cpu.atrace.PerfettoImporter
+import com.android.tools.profilers.cpu.atrace.PerfettoProducer
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import trebuchet.importers.ftrace.FtraceEventImporter
+import trebuchet.model.Model
+import trebuchet.model.SchedulingState
+import trebuchet.task.ImportTask
+import trebuchet.util.PrintlnImportFeedback
+
+class PerfettoImporterTest {
+
+  @Test
+  fun modelMatchesAtraceLineImport() {
+    val traceFile = CpuProfilerTestUtils.getTraceFile("perfetto.trace")
+    val producer = PerfettoProducer()
+    assertThat(producer.parseFile(traceFile)).isTrue()
+    val lineModel = ImportTask(PrintlnImportFeedback()).importBuffer(producer)
+
+    val model = PerfettoImporter(PrintlnImportFeedback()).importFile(traceFile)
+    assertThat(model.processes.keys).containsExactlyElementsIn(lineModel.processes.keys)
+    assertThat(model.cpus.map { it.id }).containsExactlyElementsIn(lineModel.cpus.map { it.id }).inOrder()
+    assertThat(model.parentTimestamp).isWithin(1e-6).of(lineModel.parentTimestamp)
+    assertThat(model.beginTimestamp).isWithin(1e-6).of(lineModel.beginTimestamp)
+    // cpu_frequency events are not converted to atrace lines, so they can extend the end of the model.
+    assertThat(model.endTimestamp).isAtLeast(lineModel.endTimestamp - 1e-6)
+    // Both sched_wakeup and sched_waking events mark threads as waking.
+    assertThat(wakingSliceCounts(model)).isEqualTo(wakingSliceCounts(lineModel))
+  }
+
+  private fun wakingSliceCounts(model: Model): Map<Int, Int> {
+    return model.processes.values.flatMap { it.threads }.associate { thread ->
+      thread.id to thread.schedSlices.count { it.state == SchedulingState.WAKING }
+    }
+  }
+
+  @Test
+  fun kernelTaskStatesAreMapped() {
+    assertThat(FtraceEventImporter.schedulingStateFor(0L)).isEqualTo(SchedulingState.RUNNABLE)
+    assertThat(FtraceEventImporter.schedulingStateFor(1L)).isEqualTo(SchedulingState.SLEEPING)
+    assertThat(FtraceEventImporter.schedulingStateFor(2L)).isEqualTo(SchedulingState.UNINTR_SLEEP)
+    assertThat(FtraceEventImporter.schedulingStateFor(2L or 0x80L)).isEqualTo(SchedulingState.UNINTR_SLEEP_WAKE_KILL)
+    assertThat(FtraceEventImporter.schedulingStateFor(0x20L)).isEqualTo(SchedulingState.ZOMBIE)
+  }
+}
@@ -15,18 +15,15 @@
  */
 package com.android.tools.profilers.cpu.perfetto
 
-import com.android.tools.profilers.cpu.CpuProfilerTestUtils
-import com.android.tools.profilers.cpu.atrace.PerfettoPacketDBSorter
+import com.android.tools.profilers.cpu.atrace.PerfettoPacketSorter
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
-import perfetto.protos.PerfettoTrace
-import java.io.FileInputStream
 
 class PerfettoSorterTest {
 
   @Test
   fun formattedLinesAreReturnedOnNext() {
-    val sorter = PerfettoPacketDBSorter()
+    val sorter = PerfettoPacketSorter()
     sorter.addLine(0, "Some line")
     assertThat(sorter.hasNext()).isFalse()
     sorter.resetForIterator()
@@ -36,7 +33,7 @@ class PerfettoSorterTest {
 
   @Test
   fun hasNextCanBeCalledMultipleTimes() {
-    val sorter = PerfettoPacketDBSorter()
+    val sorter = PerfettoPacketSorter()
     sorter.addLine(0, "Some Line")
     assertThat(sorter.hasNext()).isFalse()
     sorter.resetForIterator()
@@ -45,4 +42,42 @@ class PerfettoSorterTest {
     assertThat(sorter.hasNext()).isTrue()
     assertThat(sorter.next()).isEqualTo("Some Line")
   }
+
+  @Test
+  fun linesAreReturnedInTimestampOrder() {
+    val sorter = PerfettoPacketSorter()
+    sorter.addLine(30, "Third")
+    sorter.addLine(10, "First")
+    sorter.addLine(20, "Second")
+    sorter.addLine(10, "First again")
+    sorter.resetForIterator()
+    assertThat(sorter.asSequence().toList()).containsExactly("First", "First again", "Second", "Third").inOrder()
+  }
+
+  @Test
+  fun spilledRunsAreMergedInTimestampOrder() {
+    // A tiny budget forces a run to be spilled to disk every few lines.
+    val sorter = PerfettoPacketSorter(64)
+    val timestamps = (0 until 100).map { (it * 37L) % 100 }
+    timestamps.forEach { sorter.addLine(it, "Line $it") }
+    sorter.resetForIterator()
+    assertThat(sorter.asSequence().toList()).containsExactlyElementsIn(timestamps.sorted().map { "Line $it" }).inOrder()
+    sorter.close()
+    assertThat(sorter.hasNext()).isFalse()
+  }
+
+  @Test
+  fun closeReleasesRunsThatAreNotFullyRead() {
+    val sorter = PerfettoPacketSorter(64)
+    (0 until 100L).forEach { sorter.addLine(it, "Line $it") }
+    sorter.resetForIterator()
+    assertThat(sorter.next()).isEqualTo("Line 0")
+    sorter.close()
+    assertThat(sorter.hasNext()).isFalse()
+
+    // The sorter can be reused once closed.
+    sorter.addLine(0, "Some line")
+    sorter.resetForIterator()
+    assertThat(sorter.asSequence().toList()).containsExactly("Some line")
+  }
 }
@@ -25,6 +25,7 @@ import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
 import com.google.common.collect.Lists;
 import com.intellij.openapi.util.io.FileUtil;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,6 +34,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.traceFileToByteString;
@@ -233,6 +236,36 @@ public class SimpleperfTraceParserTest {
     assertEquals(expected.getMax(), myParser.getRange().getMax(), 0);
   }
 
+  @Test
+  public void treesBuiltConcurrentlyShouldMatchTreesBuiltSequentially() throws IOException {
+    myParser.parse(myTraceFile, 0);
+    Map<Integer, CaptureNode> expected = new HashMap<>();
+    myParser.getCaptureTrees().forEach((thread, tree) -> expected.put(thread.getId(), tree));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      SimpleperfTraceParser parser = new SimpleperfTraceParser(executor);
+      parser.parse(myTraceFile, 0);
+      assertEquals(expected.size(), parser.getCaptureTrees().size());
+      parser.getCaptureTrees().forEach((thread, tree) -> assertSameTree(expected.get(thread.getId()), tree));
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void assertSameTree(CaptureNode expected, CaptureNode actual) {
+    assertNotNull(expected);
+    assertEquals(expected.getData().getFullName(), actual.getData().getFullName());
+    assertEquals(expected.getStartGlobal(), actual.getStartGlobal());
+    assertEquals(expected.getEndGlobal(), actual.getEndGlobal());
+    assertEquals(expected.getDepth(), actual.getDepth());
+    assertEquals(expected.getChildCount(), actual.getChildCount());
+    for (int i = 0; i < expected.getChildCount(); ++i) {
+      assertSameTree(expected.getChildAt(i), actual.getChildAt(i));
+    }
+  }
+
   /**
    * Checks that a {@link CaptureNode} tree starts with "__start_thread -> __pthread_start", then verifies the node just after then.
    */
@@ -16,11 +16,13 @@
 package com.android.tools.profilers.memory.adapters;
 
 import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
+import static com.android.tools.profilers.memory.adapters.MemoryObject.INVALID_VALUE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.android.testutils.TestUtils;
 import com.android.tools.adtui.model.FakeTimer;
@@ -43,13 +45,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
@@ -178,6 +183,156 @@ public class HeapDumpCaptureObjectTest {
     assertNotNull(defaultHeap);
   }
 
+  @Test
+  public void testUnloadDeletesHeapDumpFile() throws Exception {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()), ProfilersTestData.SESSION_DATA, dumpInfo,
+                                null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myTransportService.addFile(Long.toString(3), ByteString.copyFrom(snapshotBuilder.getByteBuffer()));
+    capture.load(null, null);
+    assertFalse(capture.isError());
+
+    File heapDumpFile = capture.getHeapDumpFile();
+    assertNotNull(heapDumpFile);
+    assertTrue(heapDumpFile.exists());
+    // The ide services run pooled tasks right away, so the file is released by the time unload returns.
+    capture.unload();
+    assertNull(capture.getHeapDumpFile());
+    assertFalse(heapDumpFile.exists());
+  }
+
+  @Test
+  public void testRetainedSizesArePublishedToHeapSets() throws Exception {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()), ProfilersTestData.SESSION_DATA, dumpInfo,
+                                null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+
+    // - 1 holds references to 2 and 3, which both hold a reference to 4
+    // - 1 is the only root, so it dominates every other instance
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(4, 0, 0)
+      .addReferences(1, 2, 3)
+      .addReferences(2, 4)
+      .addReferences(3, 4)
+      .addRoot(1);
+    myTransportService.addFile(Long.toString(3), ByteString.copyFrom(snapshotBuilder.getByteBuffer()));
+    // Run the tasks that the capture posts to the joiner on the test thread, as the UI thread would.
+    List<Runnable> joinerTasks = Collections.synchronizedList(new ArrayList<>());
+    capture.load(null, joinerTasks::add);
+    assertTrue(capture.isDoneLoading());
+    assertFalse(capture.isError());
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    ClassSet classSet1 = findChildClassSetWithName(testHeap, "Class0");
+    ClassSet classSet4 = findChildClassSetWithName(testHeap, "Class3");
+    InstanceObject instance1 = classSet1.getInstancesStream().findFirst().orElse(null);
+    InstanceObject instance2 = findChildClassSetWithName(testHeap, "Class1").getInstancesStream().findFirst().orElse(null);
+    InstanceObject instance3 = findChildClassSetWithName(testHeap, "Class2").getInstancesStream().findFirst().orElse(null);
+    InstanceObject instance4 = classSet4.getInstancesStream().findFirst().orElse(null);
+
+    // The depths are known as soon as the capture is loaded, while the retained sizes are computed in the background, on the same
+    // executor as the instance filters.
+    assertEquals(0, instance1.getDepth());
+    assertEquals(1, instance2.getDepth());
+    assertEquals(1, instance3.getDepth());
+    assertEquals(2, instance4.getDepth());
+    CountDownLatch retainedSizesLatch = new CountDownLatch(1);
+    capture.getInstanceFilterExecutor().execute(retainedSizesLatch::countDown);
+    retainedSizesLatch.await();
+    assertEquals(INVALID_VALUE, instance1.getRetainedSize());
+    assertEquals(0, classSet1.getTotalRetainedSize());
+    assertFalse(joinerTasks.isEmpty());
+    joinerTasks.forEach(Runnable::run);
+
+    assertEquals(instance2.getShallowSize(), instance2.getRetainedSize());
+    assertEquals(instance3.getShallowSize(), instance3.getRetainedSize());
+    assertEquals(instance4.getShallowSize(), instance4.getRetainedSize());
+    long totalSize = instance1.getShallowSize() + instance2.getShallowSize() + instance3.getShallowSize() + instance4.getShallowSize();
+    assertEquals(totalSize, instance1.getRetainedSize());
+    assertEquals(totalSize, classSet1.getTotalRetainedSize());
+    assertEquals(instance4.getShallowSize(), classSet4.getTotalRetainedSize());
+    assertEquals(2, instance4.getReferences().size());
+  }
+
+  @Test
+  public void testInstancesAreCreatedWhenTheirClassIsExpanded() throws Exception {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()), ProfilersTestData.SESSION_DATA, dumpInfo,
+                                null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myTransportService.addFile(Long.toString(3), ByteString.copyFrom(snapshotBuilder.getByteBuffer()));
+    capture.load(null, null);
+    assertFalse(capture.isError());
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    ClassSet classSet0 = findChildClassSetWithName(testHeap, "Class0");
+    ClassSet classSet1 = findChildClassSetWithName(testHeap, "Class1");
+    HeapDumpInstanceIndex instanceIndex = capture.getInstanceIndex();
+    assertNotNull(instanceIndex);
+    // The class sets are counted without creating their instances.
+    assertEquals(0, instanceIndex.getCreatedInstanceCount());
+    assertEquals(1, classSet0.getTotalObjectCount());
+    assertEquals(1, classSet1.getTotalObjectCount());
+    assertEquals(classSet1.getTotalShallowSize(), classSet1.getTotalRetainedSize());
+
+    InstanceObject instance0 = classSet0.getInstancesStream().findFirst().orElse(null);
+    assertNotNull(instance0);
+    assertEquals(1, instanceIndex.getCreatedInstanceCount());
+    assertEquals(classSet0.getTotalRetainedSize(), instance0.getRetainedSize());
+
+    // Following a reference creates the referenced instance, which is then listed by its class set.
+    InstanceObject instance1 = instance0.getFields().get(0).getAsInstance();
+    assertEquals(2, instanceIndex.getCreatedInstanceCount());
+    assertEquals(instance1, classSet1.getInstancesStream().findFirst().orElse(null));
+    assertEquals(2, instanceIndex.getCreatedInstanceCount());
+  }
+
+  @Test
+  public void testSummaryWaitsForRetainedSizes() throws Exception {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getName()), ProfilersTestData.SESSION_DATA, dumpInfo,
+                                null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myTransportService.addFile(Long.toString(3), ByteString.copyFrom(snapshotBuilder.getByteBuffer()));
+    List<Runnable> joinerTasks = Collections.synchronizedList(new ArrayList<>());
+    capture.load(null, joinerTasks::add);
+    CompletableFuture<HeapDumpSummary> summaryFuture = capture.summarize();
+
+    CountDownLatch retainedSizesLatch = new CountDownLatch(1);
+    capture.getInstanceFilterExecutor().execute(retainedSizesLatch::countDown);
+    retainedSizesLatch.await();
+    assertFalse(summaryFuture.isDone());
+    new ArrayList<>(joinerTasks).forEach(Runnable::run);
+
+    HeapDumpSummary summary = summaryFuture.get(10, TimeUnit.SECONDS);
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    InstanceObject instance1 = findChildClassSetWithName(testHeap, "Class0").getInstancesStream().findFirst().orElse(null);
+    for (int i = 0; i < summary.getClassCount(); ++i) {
+      if ("Class0".equals(summary.getClassName(i))) {
+        assertEquals(instance1.getRetainedSize(), summary.getRetainedSize(i));
+        return;
+      }
+    }
+    fail("Class0 is not summarized");
+  }
+
   @Test
   public void testLoadingFailure() throws Exception {
     HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
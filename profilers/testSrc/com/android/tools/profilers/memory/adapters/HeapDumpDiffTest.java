@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class HeapDumpDiffTest {
+  private static final int APP_HEAP_ID = 1;
+
+  @Test
+  public void testSummaryGroupsInstancesByHeapAndClass() {
+    FakeCaptureObject capture = createCapture();
+    Set<InstanceObject> instances = new HashSet<>();
+    instances.add(createInstance(capture, 1, "Foo", FakeCaptureObject.Builder.DEFAULT_HEAP_ID, 10, 20));
+    instances.add(createInstance(capture, 1, "Foo", APP_HEAP_ID, 10, 20));
+    instances.add(createInstance(capture, 1, "Foo", APP_HEAP_ID, 10, 30));
+    instances.add(createInstance(capture, 2, "Bar", APP_HEAP_ID, 5, MemoryObject.INVALID_VALUE));
+    capture.addInstanceObjects(instances);
+
+    HeapDumpSummary summary = HeapDumpSummary.create(capture);
+    assertEquals(3, summary.getClassCount());
+    // The retained size of Bar is still being computed.
+    checkClass(summary, 0, "app", "Bar", 1, 5, MemoryObject.INVALID_VALUE);
+    checkClass(summary, 1, "app", "Foo", 2, 20, 50);
+    checkClass(summary, 2, FakeCaptureObject.Builder.DEFAULT_HEAP_NAME, "Foo", 1, 10, 20);
+  }
+
+  @Test
+  public void testDiffMatchesClassesByName() {
+    FakeCaptureObject before = createCapture();
+    Set<InstanceObject> beforeInstances = new HashSet<>();
+    beforeInstances.add(createInstance(before, 1, "Foo", APP_HEAP_ID, 10, 20));
+    beforeInstances.add(createInstance(before, 1, "Foo", APP_HEAP_ID, 10, 20));
+    beforeInstances.add(createInstance(before, 2, "Bar", APP_HEAP_ID, 5, 5));
+    beforeInstances.add(createInstance(before, 3, "Baz", APP_HEAP_ID, 8, 8));
+    before.addInstanceObjects(beforeInstances);
+
+    // The ids of the classes are different in the later dump.
+    FakeCaptureObject after = createCapture();
+    Set<InstanceObject> afterInstances = new HashSet<>();
+    afterInstances.add(createInstance(after, 11, "Foo", APP_HEAP_ID, 10, 20));
+    afterInstances.add(createInstance(after, 11, "Foo", APP_HEAP_ID, 10, 20));
+    afterInstances.add(createInstance(after, 11, "Foo", APP_HEAP_ID, 10, 20));
+    afterInstances.add(createInstance(after, 12, "Bar", APP_HEAP_ID, 5, 5));
+    afterInstances.add(createInstance(after, 14, "Qux", APP_HEAP_ID, 4, 12));
+    after.addInstanceObjects(afterInstances);
+
+    HeapDumpDiff diff = new HeapDumpDiff(HeapDumpSummary.create(before), HeapDumpSummary.create(after));
+    List<HeapDumpDiff.ClassDelta> deltas = diff.getClassDeltas();
+    assertEquals(3, deltas.size());
+    checkDelta(deltas.get(0), "Baz", -1, -8, -8);
+    checkDelta(deltas.get(1), "Foo", 1, 10, 20);
+    checkDelta(deltas.get(2), "Qux", 1, 4, 12);
+
+    List<HeapDumpDiff.ClassDelta> sortedDeltas = new ArrayList<>(deltas);
+    sortedDeltas.sort(HeapDumpDiff.LARGEST_GROWTH_FIRST);
+    assertEquals("Foo", sortedDeltas.get(0).getClassName());
+    assertEquals("Qux", sortedDeltas.get(1).getClassName());
+    assertEquals("Baz", sortedDeltas.get(2).getClassName());
+  }
+
+  @Test
+  public void testDiffIgnoresUnknownRetainedSizes() {
+    FakeCaptureObject before = createCapture();
+    Set<InstanceObject> beforeInstances = new HashSet<>();
+    beforeInstances.add(createInstance(before, 1, "Foo", APP_HEAP_ID, 10, MemoryObject.INVALID_VALUE));
+    beforeInstances.add(createInstance(before, 2, "Bar", APP_HEAP_ID, 5, 5));
+    before.addInstanceObjects(beforeInstances);
+
+    FakeCaptureObject after = createCapture();
+    Set<InstanceObject> afterInstances = new HashSet<>();
+    afterInstances.add(createInstance(after, 1, "Foo", APP_HEAP_ID, 10, 1000));
+    afterInstances.add(createInstance(after, 1, "Foo", APP_HEAP_ID, 10, 1000));
+    afterInstances.add(createInstance(after, 2, "Bar", APP_HEAP_ID, 5, 4));
+    after.addInstanceObjects(afterInstances);
+
+    List<HeapDumpDiff.ClassDelta> deltas =
+      new ArrayList<>(new HeapDumpDiff(HeapDumpSummary.create(before), HeapDumpSummary.create(after)).getClassDeltas());
+    assertEquals(2, deltas.size());
+    checkDelta(deltas.get(0), "Bar", 0, 0, -1);
+    assertTrue(deltas.get(0).hasRetainedSizeDelta());
+    checkDelta(deltas.get(1), "Foo", 1, 10, 0);
+    assertFalse(deltas.get(1).hasRetainedSizeDelta());
+
+    // Classes whose retained size delta is unknown come last.
+    deltas.sort(HeapDumpDiff.LARGEST_GROWTH_FIRST);
+    assertEquals("Bar", deltas.get(0).getClassName());
+    assertEquals("Foo", deltas.get(1).getClassName());
+  }
+
+  @Test
+  public void testDiffOfSameCaptureIsEmpty() {
+    FakeCaptureObject capture = createCapture();
+    Set<InstanceObject> instances = new HashSet<>();
+    instances.add(createInstance(capture, 1, "Foo", APP_HEAP_ID, 10, 20));
+    capture.addInstanceObjects(instances);
+
+    HeapDumpSummary summary = HeapDumpSummary.create(capture);
+    assertEquals(0, new HeapDumpDiff(summary, summary).getClassDeltas().size());
+  }
+
+  @NotNull
+  private static FakeCaptureObject createCapture() {
+    return new FakeCaptureObject.Builder()
+      .setHeapIdToNameMap(
+        ImmutableMap.of(FakeCaptureObject.Builder.DEFAULT_HEAP_ID, FakeCaptureObject.Builder.DEFAULT_HEAP_NAME, APP_HEAP_ID, "app"))
+      .build();
+  }
+
+  @NotNull
+  private static InstanceObject createInstance(@NotNull FakeCaptureObject capture,
+                                               long classId,
+                                               @NotNull String className,
+                                               int heapId,
+                                               int shallowSize,
+                                               long retainedSize) {
+    return new FakeInstanceObject.Builder(capture, classId, className)
+      .setHeapId(heapId)
+      .setShallowSize(shallowSize)
+      .setRetainedSize(retainedSize)
+      .build();
+  }
+
+  private static void checkClass(@NotNull HeapDumpSummary summary,
+                                 int index,
+                                 @NotNull String heapName,
+                                 @NotNull String className,
+                                 int instanceCount,
+                                 long shallowSize,
+                                 long retainedSize) {
+    assertEquals(heapName, summary.getHeapName(index));
+    assertEquals(className, summary.getClassName(index));
+    assertEquals(instanceCount, summary.getInstanceCount(index));
+    assertEquals(shallowSize, summary.getShallowSize(index));
+    assertEquals(retainedSize, summary.getRetainedSize(index));
+  }
+
+  private static void checkDelta(@NotNull HeapDumpDiff.ClassDelta delta,
+                                 @NotNull String className,
+                                 int instanceCountDelta,
+                                 long shallowSizeDelta,
+                                 long retainedSizeDelta) {
+    assertEquals("app", delta.getHeapName());
+    assertEquals(className, delta.getClassName());
+    assertEquals(instanceCountDelta, delta.getInstanceCountDelta());
+    assertEquals(shallowSizeDelta, delta.getShallowSizeDelta());
+    assertEquals(retainedSizeDelta, delta.getRetainedSizeDelta());
+  }
+}
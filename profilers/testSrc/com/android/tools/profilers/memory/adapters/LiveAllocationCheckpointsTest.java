@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class LiveAllocationCheckpointsTest {
+  @Test
+  public void testLiveSetKeepsAllocationOrder() {
+    LiveAllocationCheckpoints.LiveSet liveSet = new LiveAllocationCheckpoints.LiveSet();
+    liveSet.allocate(0, 1, 2, 3, 0, 10, 100);
+    liveSet.allocate(1, 1, 2, 3, 0, 20, 200);
+    liveSet.allocate(2, 4, 5, 6, 1, 30, 300);
+    liveSet.free(1);
+    // Freeing an unknown tag is a no-op.
+    liveSet.free(42);
+
+    assertThat(liveSet.getLiveCount()).isEqualTo(2);
+    assertThat(getLiveTags(liveSet)).containsExactly(0, 2).inOrder();
+    int row = liveSet.getRowCount() - 1;
+    assertThat(liveSet.getClassTag(row)).isEqualTo(4);
+    assertThat(liveSet.getStackId(row)).isEqualTo(5);
+    assertThat(liveSet.getThreadId(row)).isEqualTo(6);
+    assertThat(liveSet.getHeapId(row)).isEqualTo(1);
+    assertThat(liveSet.getSize(row)).isEqualTo(30);
+    assertThat(liveSet.getAllocationTime(row)).isEqualTo(300);
+  }
+
+  @Test
+  public void testLiveSetCompactsFreedRows() {
+    LiveAllocationCheckpoints.LiveSet liveSet = new LiveAllocationCheckpoints.LiveSet();
+    int count = 10000;
+    for (int tag = 0; tag < count; ++tag) {
+      liveSet.allocate(tag, 1, 0, 0, 0, 8, tag);
+    }
+    for (int tag = 0; tag < count; tag += 3) {
+      liveSet.free(tag);
+    }
+    for (int tag = 1; tag < count; tag += 3) {
+      liveSet.free(tag);
+    }
+
+    assertThat(liveSet.getLiveCount()).isEqualTo(count / 3);
+    assertThat(liveSet.getRowCount()).isLessThan(count);
+    List<Integer> expected = new ArrayList<>();
+    for (int tag = 2; tag < count; tag += 3) {
+      expected.add(tag);
+    }
+    assertThat(getLiveTags(liveSet)).containsExactlyElementsIn(expected).inOrder();
+
+    // Tags can still be freed after the rows have moved.
+    liveSet.free(2);
+    assertThat(getLiveTags(liveSet)).doesNotContain(2);
+  }
+
+  @Test
+  public void testCheckpointsAreIndependentOfLaterChanges() {
+    LiveAllocationCheckpoints checkpoints = new LiveAllocationCheckpoints(0, 10);
+    LiveAllocationCheckpoints.LiveSet liveSet = new LiveAllocationCheckpoints.LiveSet();
+    liveSet.allocate(1, 1, 0, 0, 0, 8, 1);
+    liveSet.allocate(2, 1, 0, 0, 0, 8, 2);
+    checkpoints.addCheckpoint(10, liveSet);
+    liveSet.free(1);
+    liveSet.allocate(3, 1, 0, 0, 0, 8, 11);
+
+    assertThat(checkpoints.getCheckpoint(9)).isNull();
+    Map.Entry<Long, LiveAllocationCheckpoints.LiveSet> checkpoint = checkpoints.getCheckpoint(15);
+    assertThat(checkpoint.getKey()).isEqualTo(10L);
+    assertThat(getLiveTags(checkpoint.getValue())).containsExactly(1, 2).inOrder();
+
+    // Restoring a checkpoint gives a modifiable copy.
+    LiveAllocationCheckpoints.LiveSet restored = new LiveAllocationCheckpoints.LiveSet(checkpoint.getValue());
+    restored.free(2);
+    restored.allocate(4, 1, 0, 0, 0, 8, 12);
+    assertThat(getLiveTags(restored)).containsExactly(1, 4).inOrder();
+    assertThat(getLiveTags(checkpoints.getCheckpoint(15).getValue())).containsExactly(1, 2).inOrder();
+  }
+
+  @Test
+  public void testIntervalDoublesWhenThereAreTooManyCheckpoints() {
+    LiveAllocationCheckpoints checkpoints = new LiveAllocationCheckpoints(100, 10);
+    assertThat(checkpoints.getNextCheckpointTime(50)).isEqualTo(100);
+    assertThat(checkpoints.getNextCheckpointTime(100)).isEqualTo(110);
+    assertThat(checkpoints.getNextCheckpointTime(115)).isEqualTo(120);
+
+    LiveAllocationCheckpoints.LiveSet liveSet = new LiveAllocationCheckpoints.LiveSet();
+    long time = checkpoints.getNextCheckpointTime(100);
+    for (int i = 0; i <= LiveAllocationCheckpoints.MAX_CHECKPOINT_COUNT; ++i) {
+      checkpoints.addCheckpoint(time, liveSet);
+      time = checkpoints.getNextCheckpointTime(time);
+    }
+
+    assertThat(checkpoints.getIntervalNs()).isEqualTo(20);
+    assertThat(checkpoints.getCheckpointCount()).isEqualTo(LiveAllocationCheckpoints.MAX_CHECKPOINT_COUNT / 2);
+    assertThat(checkpoints.getCheckpoint(135).getKey()).isEqualTo(120L);
+    assertThat(checkpoints.getNextCheckpointTime(120)).isEqualTo(140);
+  }
+
+  @Test
+  public void testIntervalDoublesWhenCheckpointsTakeTooMuchMemory() {
+    LiveAllocationCheckpoints.LiveSet liveSet = new LiveAllocationCheckpoints.LiveSet();
+    for (int tag = 0; tag < 100; ++tag) {
+      liveSet.allocate(tag, 1, 0, 0, 0, 8, tag);
+    }
+    long checkpointBytes = liveSet.compactCopy().getEstimatedBytes();
+
+    LiveAllocationCheckpoints checkpoints = new LiveAllocationCheckpoints(0, 10, checkpointBytes * 4);
+    for (long time = 0; time <= 40; time += 10) {
+      checkpoints.addCheckpoint(time, liveSet);
+    }
+    // The fifth checkpoint goes over the budget.
+    assertThat(checkpoints.getIntervalNs()).isEqualTo(20);
+    assertThat(checkpoints.getCheckpointCount()).isEqualTo(3);
+    assertThat(checkpoints.getCheckpoint(35).getKey()).isEqualTo(20L);
+
+    // A checkpoint larger than the budget is still kept if it is the only one.
+    checkpoints = new LiveAllocationCheckpoints(0, 10, checkpointBytes - 1);
+    checkpoints.addCheckpoint(0, liveSet);
+    checkpoints.addCheckpoint(10, liveSet);
+    assertThat(checkpoints.getCheckpointCount()).isEqualTo(1);
+    assertThat(checkpoints.getCheckpoint(15).getKey()).isEqualTo(0L);
+  }
+
+  @NotNull
+  private static List<Integer> getLiveTags(@NotNull LiveAllocationCheckpoints.LiveSet liveSet) {
+    List<Integer> tags = new ArrayList<>();
+    for (int row = 0; row < liveSet.getRowCount(); ++row) {
+      if (liveSet.isLive(row)) {
+        tags.add(liveSet.getTag(row));
+      }
+    }
+    return tags;
+  }
+}
@@ -51,6 +51,8 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 import org.junit.Before;
 import org.junit.Rule;
@@ -410,6 +412,73 @@ public class NetworkProfilerStageTest {
     assertThat(output).isEqualTo(unzippedPayload);
   }
 
+  @Test
+  public void largeGzipEncodingResponsePayloadIsFullyDecoded() throws IOException {
+    HttpData.Builder builder = TestHttpData.newBuilder(1, 2, 20);
+    builder.setResponsePayloadId(TEST_PAYLOAD_ID);
+    builder.setResponseFields("null  =  HTTP/1.1 302 Found \n content-encoding=gzip \n");
+    HttpData data = builder.build();
+
+    StringBuilder unzippedPayload = new StringBuilder();
+    for (int i = 0; unzippedPayload.length() < 4 * 1024 * 1024; ++i) {
+      unzippedPayload.append("{\"index\": ").append(i).append("}\n");
+    }
+    myTransportService.addFile(TEST_PAYLOAD_ID, gzip(unzippedPayload.toString()));
+
+    myStage.setSelectedConnection(data);
+    String output = Payload.newResponsePayload(myStage.getConnectionsModel(), data).getBytes().toString(StandardCharsets.UTF_8);
+    assertThat(output).isEqualTo(unzippedPayload.toString());
+  }
+
+  @Test
+  public void setSelectionWithDeflateEncodingResponsePayload() throws IOException {
+    HttpData.Builder builder = TestHttpData.newBuilder(1, 2, 20);
+    builder.setResponsePayloadId(TEST_PAYLOAD_ID);
+    builder.setResponseFields("null  =  HTTP/1.1 302 Found \n content-encoding=deflate \n");
+    HttpData data = builder.build();
+    String unzippedPayload = "Deflated payload";
+
+    // Both zlib wrapped and raw deflate data are accepted.
+    for (boolean nowrap : new boolean[]{false, true}) {
+      ByteArrayOutputStream deflatedBytes = new ByteArrayOutputStream();
+      try (DeflaterOutputStream compressor = new DeflaterOutputStream(deflatedBytes, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap))) {
+        compressor.write(unzippedPayload.getBytes(StandardCharsets.UTF_8));
+      }
+      myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFrom(deflatedBytes.toByteArray()));
+
+      String output = Payload.newResponsePayload(myStage.getConnectionsModel(), data).getBytes().toString(StandardCharsets.UTF_8);
+      assertThat(output).isEqualTo(unzippedPayload);
+    }
+  }
+
+  @Test
+  public void responsePayloadContentTypeIsGuessedIfHeaderHasNone() {
+    HttpData.Builder builder = TestHttpData.newBuilder(1, 2, 20);
+    builder.setResponsePayloadId(TEST_PAYLOAD_ID);
+    builder.setResponseFields("null  =  HTTP/1.1 302 Found \n");
+    HttpData data = builder.build();
+
+    myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFromUtf8("\uFEFF  \n{\"key\": [1, 2, 3]}"));
+    assertThat(Payload.newResponsePayload(myStage.getConnectionsModel(), data).getContentType().getMimeType())
+      .isEqualTo("application/json");
+
+    myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFrom(new byte[]{(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}));
+    assertThat(Payload.newResponsePayload(myStage.getConnectionsModel(), data).getContentType().getMimeType()).isEqualTo("image/png");
+
+    myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFromUtf8("<!DOCTYPE html><html></html>"));
+    assertThat(Payload.newResponsePayload(myStage.getConnectionsModel(), data).getContentType().getMimeType()).isEqualTo("text/html");
+
+    myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFromUtf8("Plain text"));
+    assertThat(Payload.newResponsePayload(myStage.getConnectionsModel(), data).getContentType().isEmpty()).isTrue();
+
+    // The header's content type is used when there is one.
+    builder.setResponseFields("null  =  HTTP/1.1 302 Found \n content-type = text/plain \n");
+    HttpData dataWithContentType = builder.build();
+    myTransportService.addFile(TEST_PAYLOAD_ID, ByteString.copyFromUtf8("{}"));
+    assertThat(Payload.newResponsePayload(myStage.getConnectionsModel(), dataWithContentType).getContentType().getMimeType())
+      .isEqualTo("text/plain");
+  }
+
   private static ByteString gzip(String input) {
     ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
     try (GZIPOutputStream compressor = new GZIPOutputStream(byteOutputStream)) {
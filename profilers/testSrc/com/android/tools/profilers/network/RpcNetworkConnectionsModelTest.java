@@ -39,6 +39,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -174,6 +176,87 @@ public class RpcNetworkConnectionsModelTest {
     checkGetData(6, 8, 1, 3, 4, 5);
   }
 
+  @Test
+  public void laterQueriesPickUpNewAndUpdatedConnections() {
+    Assume.assumeTrue(myUseNewEventPipeline);
+    Range range = new Range(0, TimeUnit.SECONDS.toMicros(30));
+    List<HttpData> firstData = myModel.getData(range);
+    assertThat(firstData.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(1L, 2L, 3L, 4L, 5L).inOrder();
+    assertThat(firstData.get(2).getConnectionEndTimeUs()).isEqualTo(0);
+
+    // Connection 3 completes, and a new connection 6 starts and completes.
+    HttpData completedData = TestHttpData.newBuilder(3, 3, 20, 21, 22, 23, new HttpData.JavaThread(3, "threadC")).build();
+    for (Common.Event event : generateNetworkConnectionData(completedData).getEventsList()) {
+      if (event.getTimestamp() > TimeUnit.SECONDS.toNanos(3)) {
+        myTransportService.addEventToStream(0, event);
+      }
+    }
+    HttpData newData = TestHttpData.newBuilder(6, 24, 25, new HttpData.JavaThread(6, "threadF")).build();
+    generateNetworkConnectionData(newData).getEventsList().forEach(event -> myTransportService.addEventToStream(0, event));
+    myTransportService.addEventToStream(0, generateNetworkThreadData(newData).build());
+
+    List<HttpData> secondData = myModel.getData(range);
+    assertThat(secondData.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(1L, 2L, 3L, 4L, 5L, 6L).inOrder();
+    assertThat(secondData.get(2).getRequestStartTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(3));
+    assertThat(secondData.get(2).getConnectionEndTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(23));
+    assertThat(secondData.get(2).getJavaThreads().get(0).getName()).isEqualTo("threadC");
+    assertThat(secondData.get(5).getConnectionEndTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(25));
+    assertThat(secondData.get(5).getJavaThreads().get(0).getName()).isEqualTo("threadF");
+    // Connections that didn't change are not rebuilt.
+    assertThat(secondData.get(0)).isSameAs(firstData.get(0));
+    assertThat(secondData.get(4)).isSameAs(firstData.get(4));
+  }
+
+  @Test
+  public void lateCompletedConnectionIsPickedUpByTheNextFullQuery() {
+    Assume.assumeTrue(myUseNewEventPipeline);
+    long[] clockNs = new long[1];
+    RpcNetworkConnectionsModel model = new RpcNetworkConnectionsModel(
+      new ProfilerClient(myGrpcChannel.getName()).getTransportClient(), Common.Session.getDefaultInstance(), () -> clockNs[0]);
+    Range range = new Range(0, TimeUnit.SECONDS.toMicros(30));
+    assertThat(model.getData(range).stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(1L, 2L, 3L, 4L, 5L);
+
+    // Connection 7 started and completed long before the latest event seen, but its events only reach the datastore now.
+    HttpData lateData = TestHttpData.newBuilder(7, 1, 2, new HttpData.JavaThread(7, "threadG")).build();
+    generateNetworkConnectionData(lateData).getEventsList().forEach(event -> myTransportService.addEventToStream(0, event));
+    myTransportService.addEventToStream(0, generateNetworkThreadData(lateData).build());
+
+    // Incremental queries only look at the events close to the latest one.
+    clockNs[0] = RpcNetworkConnectionsModel.FULL_QUERY_INTERVAL_NS - 1;
+    assertThat(model.getData(range).stream().map(HttpData::getId).collect(Collectors.toList())).doesNotContain(7L);
+
+    clockNs[0] = RpcNetworkConnectionsModel.FULL_QUERY_INTERVAL_NS;
+    List<HttpData> data = model.getData(range);
+    assertThat(data.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(1L, 2L, 3L, 4L, 5L, 7L).inOrder();
+    HttpData lateConnection = data.stream().filter(d -> d.getId() == 7).findFirst().get();
+    assertThat(lateConnection.getConnectionEndTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(2));
+    assertThat(lateConnection.getJavaThreads().get(0).getName()).isEqualTo("threadG");
+  }
+
+  @Test
+  public void connectionsEndedBeforeTheWindowAreEvictedAndQueriedAgain() {
+    Assume.assumeTrue(myUseNewEventPipeline);
+    RpcNetworkConnectionsModel model = new RpcNetworkConnectionsModel(
+      new ProfilerClient(myGrpcChannel.getName()).getTransportClient(), Common.Session.getDefaultInstance(), () -> 0);
+    // The window starts at 10s, after connections 1 and 2 ended, so only the unfinished connections and connection 5 are cached.
+    Range range = new Range(TimeUnit.SECONDS.toMicros(20), TimeUnit.SECONDS.toMicros(30));
+    assertThat(model.getData(range).stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(3L, 4L);
+    assertThat(model.getCachedConnectionCount()).isEqualTo(3);
+
+    // Moving the window past the end of connection 5 evicts it.
+    range.set(TimeUnit.SECONDS.toMicros(30), TimeUnit.SECONDS.toMicros(40));
+    assertThat(model.getData(range).stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(3L, 4L);
+    assertThat(model.getCachedConnectionCount()).isEqualTo(2);
+
+    // A range before the window queries the evicted connections again.
+    range.set(0, TimeUnit.SECONDS.toMicros(10));
+    List<HttpData> data = model.getData(range);
+    assertThat(data.stream().map(HttpData::getId).collect(Collectors.toList())).containsExactly(1L, 2L, 3L, 4L, 5L);
+    HttpData connection = data.stream().filter(d -> d.getId() == 5).findFirst().get();
+    assertThat(connection.getRequestStartTimeUs()).isEqualTo(TimeUnit.SECONDS.toMicros(8));
+    assertThat(connection.getJavaThreads().get(0).getName()).isEqualTo("threadE");
+  }
+
   private void checkGetData(long startTimeS, long endTimeS, long... expectedIds) {
     Range range = new Range(TimeUnit.SECONDS.toMicros(startTimeS), TimeUnit.SECONDS.toMicros(endTimeS));
     List<HttpData> actualData = myModel.getData(range);
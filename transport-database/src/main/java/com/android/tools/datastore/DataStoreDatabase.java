@@ -16,14 +16,33 @@
 package com.android.tools.datastore;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.function.Consumer;
 
 public class DataStoreDatabase {
+  /**
+   * Version of the schema of {@link Characteristic#DURABLE} databases, stored in the file header. Files of another version are deleted
+   * on load, while files of this version are reopened so data from previous Studio runs can be queried. This must be bumped whenever the
+   * schema of a table changes.
+   */
+  public static final int SCHEMA_VERSION = 1;
+
+  /**
+   * Maximum number of read connections opened on a {@link Characteristic#DURABLE} database, see {@link #acquireReadConnection()}.
+   */
+  public static final int MAX_READ_CONNECTIONS = 4;
+
   public enum Characteristic {
     // TODO handle potential db file name clashes
     DURABLE,
@@ -37,8 +56,24 @@ public class DataStoreDatabase {
 
   @NotNull private final LogService myLogService;
 
+  /**
+   * The main connection, shared by every table of the database. Writes and commits on it synchronize on the connection itself so a commit
+   * never runs while another thread is in the middle of a write, see {@link com.android.tools.datastore.database.DataStoreTable}.
+   */
   private final Connection myConnection;
 
+  /**
+   * Url of the backing file, or null if the database has no read connections.
+   */
+  @Nullable private final String myReadUrl;
+
+  /**
+   * Read connections that are not borrowed, guarded by itself along with {@link #myReadConnectionCount} and {@link #myIsDisconnected}.
+   */
+  private final Deque<Connection> myIdleReadConnections = new ArrayDeque<>();
+  private int myReadConnectionCount;
+  private boolean myIsDisconnected;
+
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
    */
@@ -54,6 +89,7 @@ public class DataStoreDatabase {
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
     myLogService = logService;
     Connection connection = null;
+    String readUrl = null;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
       // the JDBC driver with the java DriverMangaer.
@@ -65,13 +101,6 @@ public class DataStoreDatabase {
           break;
         case DURABLE:
           File dbFile = new File(dbPath);
-          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio.
-          // As a intermediate measure we delete the file until we support loading existing databases.
-          // TODO: Investigate removing this when we add a feature to restore sessions from prior Studio runs.
-          if (dbFile.exists()) {
-            dbFile.delete();
-          }
-
           File parent = dbFile.getParentFile();
           if (parent != null) {
             if (!parent.mkdirs() && !parent.exists()) {
@@ -79,6 +108,29 @@ public class DataStoreDatabase {
             }
           }
           connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          if (getSchemaVersion(connection) != SCHEMA_VERSION) {
+            // Files from other versions of studio (or that are not databases at all) cannot be reopened, so we start over.
+            connection.close();
+            // The write-ahead log and its index belong to the old file, and SQLite would replay them into the new one.
+            for (String suffix : new String[]{"", "-wal", "-shm"}) {
+              File file = new File(dbFile.getPath() + suffix);
+              if (file.exists()) {
+                file.delete();
+              }
+            }
+            connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+            try (Statement statement = connection.createStatement()) {
+              statement.execute(String.format("PRAGMA user_version = %d", SCHEMA_VERSION));
+            }
+          }
+          // Write-ahead logging lets read connections query the last committed state while the main connection is writing, instead of
+          // waiting for its transaction to end. The journal mode is persistent and can only be changed outside of a transaction.
+          try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = WAL");
+            // Commits only sync the log on checkpoints, which is enough to never corrupt the database in WAL mode.
+            statement.execute("PRAGMA synchronous = NORMAL");
+          }
+          readUrl = String.format("jdbc:sqlite:%s", dbFile.getPath());
           break;
         default:
           throw new RuntimeException("Characteristic not handled!");
@@ -98,24 +150,133 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+    myReadUrl = readUrl;
   }
 
-  public void disconnect() {
+  /**
+   * @return the schema version of the database, or -1 if it cannot be read.
+   */
+  private static int getSchemaVersion(@NotNull Connection connection) {
+    try (Statement statement = connection.createStatement(); ResultSet results = statement.executeQuery("PRAGMA user_version")) {
+      return results.next() ? results.getInt(1) : -1;
+    }
+    catch (SQLException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * Commits the pending changes, so they survive Studio exiting without a call to {@link #disconnect()}.
+   */
+  public void commit() {
+    if (myConnection == null) {
+      return;
+    }
+    synchronized (myConnection) {
+      try {
+        if (!myConnection.isClosed()) {
+          myConnection.commit();
+        }
+      }
+      catch (SQLException e) {
+        getLogger().error(e);
+      }
+    }
+  }
+
+  /**
+   * Borrows a read-only connection for the length of one query, which must give it back with {@link #releaseReadConnection(Connection)}
+   * once its results are read. Up to {@link #MAX_READ_CONNECTIONS} connections are opened as needed and then reused by any thread, so
+   * queries run in parallel with each other and with writes on the main connection. Read connections only see the changes committed on
+   * the main connection.
+   *
+   * @return a connection no other query is using, or null if the query should run on {@link #getConnection()}. This is the case when
+   * every read connection is borrowed, and always for {@link Characteristic#PERFORMANT} databases, whose in-memory data cannot be shared
+   * between connections.
+   */
+  @Nullable
+  public Connection acquireReadConnection() {
+    if (myReadUrl == null) {
+      return null;
+    }
+    synchronized (myIdleReadConnections) {
+      if (myIsDisconnected) {
+        return null;
+      }
+      Connection connection = myIdleReadConnections.pollFirst();
+      if (connection == null && myReadConnectionCount < MAX_READ_CONNECTIONS) {
+        connection = openReadConnection();
+        if (connection != null) {
+          myReadConnectionCount++;
+        }
+      }
+      return connection;
+    }
+  }
+
+  /**
+   * Gives back a connection returned by {@link #acquireReadConnection()}. Connections given back after {@link #disconnect()} are closed.
+   */
+  public void releaseReadConnection(@NotNull Connection connection) {
+    synchronized (myIdleReadConnections) {
+      if (!myIsDisconnected) {
+        myIdleReadConnections.addFirst(connection);
+        return;
+      }
+    }
+    closeReadConnection(connection);
+  }
+
+  @Nullable
+  private Connection openReadConnection() {
     try {
-      myConnection.commit();
+      Connection connection = DriverManager.getConnection(myReadUrl);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("PRAGMA query_only = 1");
+      }
+      return connection;
     }
     catch (SQLException e) {
       getLogger().error(e);
+      return null;
+    }
+  }
+
+  private void closeReadConnection(@NotNull Connection connection) {
+    try {
+      connection.close();
+    }
+    catch (SQLException e) {
+      getLogger().error(e);
+    }
+  }
+
+  public void disconnect() {
+    List<Connection> idleConnections;
+    synchronized (myIdleReadConnections) {
+      myIsDisconnected = true;
+      idleConnections = new ArrayList<>(myIdleReadConnections);
+      myIdleReadConnections.clear();
     }
-    finally {
+    // Borrowed connections are closed when they are given back.
+    idleConnections.forEach(this::closeReadConnection);
+    synchronized (myConnection) {
       try {
-        if (!myConnection.isClosed()) {
-          myConnection.close();
-        }
+        myConnection.commit();
       }
       catch (SQLException e) {
         getLogger().error(e);
       }
+      finally {
+        try {
+          if (!myConnection.isClosed()) {
+            myConnection.close();
+          }
+        }
+        catch (SQLException e) {
+          getLogger().error(e);
+        }
+      }
     }
   }
 
@@ -19,6 +19,7 @@ import static com.android.tools.datastore.DataStoreDatabase.Characteristic.DURAB
 import static com.android.tools.idea.flags.StudioFlags.PROFILER_UNIFIED_PIPELINE;
 
 import com.android.tools.analytics.UsageTracker;
+import com.android.tools.datastore.database.BlobStore;
 import com.android.tools.datastore.database.DataStoreTable;
 import com.android.tools.datastore.database.UnifiedEventsTable;
 import com.android.tools.datastore.service.CpuService;
@@ -77,6 +78,14 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
    */
   private static final long REPORT_INITIAL_DELAY = TimeUnit.MINUTES.toMillis(15);
   private static final long REPORT_PERIOD = TimeUnit.HOURS.toMillis(1);
+  /**
+   * Directory, under the datastore directory, of the {@link BlobStore} holding large byte contents.
+   */
+  private static final String BLOB_DIRECTORY_NAME = "blobs";
+  /**
+   * How often durable databases are committed, bounding how much data is lost if Studio exits without shutting the datastore down.
+   */
+  private static final long COMMIT_PERIOD = TimeUnit.SECONDS.toMillis(30);
   /**
    * Stream 0 is reserved for datastore metadata. Events stored in this stream are generated by the datastore
    * and can be queried via the events pipeline. Example data pushed into this stream are stream connected / disconnected events.
@@ -131,6 +140,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   private final Map<Long, DataStoreClient> myConnectedClients = new HashMap<>();
 
   private final Timer myReportTimer;
+  private final Timer myCommitTimer;
 
   /**
    * @param fetchExecutor A callback which is given a {@link Runnable} for each datastore service.
@@ -169,6 +179,8 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
 
     myReportTimer = new Timer("DataStoreReportTimer");
     myReportTimer.schedule(new ReportTimerTask(), REPORT_INITIAL_DELAY, REPORT_PERIOD);
+    myCommitTimer = new Timer("DataStoreCommitTimer", true);
+    myCommitTimer.schedule(new CommitTimerTask(), COMMIT_PERIOD, COMMIT_PERIOD);
     DataStoreTable.addDataStoreErrorCallback(this);
   }
 
@@ -196,7 +208,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   public void createPollers() {
     // TODO b/73538507 shared between all services to support inserting file content into generic byte cache (e.g. importing hprof)
     // We should be able to keep this inside TransportService after legacy pipeline removal.
-    UnifiedEventsTable unifiedTable = new UnifiedEventsTable();
+    UnifiedEventsTable unifiedTable = new UnifiedEventsTable(new BlobStore(new File(myDatastoreDirectory, BLOB_DIRECTORY_NAME)));
     myTransportService = new TransportService(this, unifiedTable, myFetchExecutor, !PROFILER_UNIFIED_PIPELINE.get());
     registerService(myTransportService);
     registerService(new ProfilerService(this, myLogService));
@@ -227,7 +239,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
       assert !namespace.myNamespace.isEmpty();
       DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> createDatabase(
         myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHandler));
-      service.setBackingStore(namespace, db.getConnection());
+      service.setBackingStore(namespace, db);
     });
 
     // Build server and start listening for RPC calls for the registered service
@@ -268,11 +280,13 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
 
   public void shutdown() {
     myReportTimer.cancel();
+    myCommitTimer.cancel();
     myServer.shutdownNow();
     for (DataStoreClient client : myConnectedClients.values()) {
       client.getChannel().shutdownNow();
     }
     myConnectedClients.clear();
+    myTransportService.shutdown();
     myDatabases.forEach((name, db) -> db.disconnect());
     DataStoreTable.removeDataStoreErrorCallback(this);
   }
@@ -387,6 +401,13 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     }
   }
 
+  private final class CommitTimerTask extends TimerTask {
+    @Override
+    public void run() {
+      myDatabases.values().forEach(DataStoreDatabase::commit);
+    }
+  }
+
   private final class ReportTimerTask extends TimerTask {
     private long myStartTime = System.nanoTime();
 
@@ -43,4 +43,14 @@ public interface ServicePassThrough {
    * @param connection {@link Connection} to the backing store
    */
   void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection);
+
+  /**
+   * Same as {@link #setBackingStore(DataStoreService.BackingNamespace, Connection)}, for services whose tables query the read connections
+   * of the database (see {@link DataStoreDatabase#acquireReadConnection()}) instead of its main connection.
+   *
+   * @param database {@link DataStoreDatabase} of the backing store
+   */
+  default void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+    setBackingStore(namespace, database.getConnection());
+  }
 }
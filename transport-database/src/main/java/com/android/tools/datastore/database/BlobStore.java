@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.idea.protobuf.ByteString;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Content-addressed store for large payloads (e.g. traces and heap dumps) that would otherwise be kept as single BLOBs in the database.
+ * Each payload is written once to a file named after its SHA-256 digest, and read back through memory-mapped or channel views so the
+ * payload never has to be copied onto the heap.
+ */
+public final class BlobStore {
+  /**
+   * Payloads are written in chunks of this size. Writing a heap buffer to a {@link FileChannel} copies it to a temporary direct buffer
+   * first, so writing a whole payload at once would allocate as much native memory as the payload itself.
+   */
+  @VisibleForTesting static final int CHUNK_SIZE = 1024 * 1024;
+  private static final String PENDING_PREFIX = "pending-";
+  private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+  @NotNull private final File myDirectory;
+
+  public BlobStore(@NotNull File directory) {
+    myDirectory = directory;
+  }
+
+  /**
+   * Deletes every stored payload. Views handed out earlier stay readable on platforms that allow deleting mapped files.
+   */
+  public void clear() {
+    File[] files = myDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+  }
+
+  /**
+   * Deletes every payload whose key is not in the given set, along with any write left pending by a previous session.
+   */
+  public void retainAll(@NotNull Set<String> keys) {
+    File[] files = myDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!keys.contains(file.getName())) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * @return the size of every stored payload.
+   */
+  public long getTotalSize() {
+    File[] files = myDirectory.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    return size;
+  }
+
+  /**
+   * Writes the contents to the store, unless identical contents were written before.
+   *
+   * @return the key to read the contents back with.
+   */
+  @NotNull
+  public String write(@NotNull ByteString contents) throws IOException {
+    if (!myDirectory.mkdirs() && !myDirectory.isDirectory()) {
+      throw new IOException("Unable to create blob directory");
+    }
+    MessageDigest digest = createDigest();
+    File pending = File.createTempFile(PENDING_PREFIX, null, myDirectory);
+    try {
+      try (FileChannel channel = FileChannel.open(pending.toPath(), StandardOpenOption.WRITE)) {
+        for (ByteBuffer buffer : contents.asReadOnlyByteBufferList()) {
+          while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.slice();
+            chunk.limit(Math.min(chunk.remaining(), CHUNK_SIZE));
+            buffer.position(buffer.position() + chunk.remaining());
+            digest.update(chunk.duplicate());
+            while (chunk.hasRemaining()) {
+              channel.write(chunk);
+            }
+          }
+        }
+      }
+
+      String key = toHex(digest.digest());
+      File blob = getFile(key);
+      if (!blob.exists()) {
+        try {
+          Files.move(pending.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex) {
+          // Another writer may have stored the same contents in the meantime.
+          if (!blob.exists()) {
+            throw ex;
+          }
+        }
+      }
+      return key;
+    }
+    finally {
+      //noinspection ResultOfMethodCallIgnored
+      pending.delete();
+    }
+  }
+
+  /**
+   * @return a read-only view of the whole payload. The view is memory-mapped, so it does not count towards the heap.
+   */
+  @NotNull
+  public ByteBuffer map(@NotNull String key) throws IOException {
+    try (FileChannel channel = open(key)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Blob is too large to be mapped: " + size);
+      }
+      // The mapping stays valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  /**
+   * @return a channel to stream the payload from. The caller is responsible for closing it.
+   */
+  @NotNull
+  public FileChannel open(@NotNull String key) throws IOException {
+    return FileChannel.open(getFile(key).toPath(), StandardOpenOption.READ);
+  }
+
+  /**
+   * Reads the payload starting at the given offset into the destination buffer.
+   *
+   * @return the number of bytes read, or -1 if the offset is past the end of the payload.
+   */
+  public int read(@NotNull String key, long offset, @NotNull ByteBuffer destination) throws IOException {
+    try (FileChannel channel = open(key)) {
+      int total = 0;
+      while (destination.hasRemaining()) {
+        int read = channel.read(destination, offset + total);
+        if (read < 0) {
+          return total == 0 ? -1 : total;
+        }
+        total += read;
+      }
+      return total;
+    }
+  }
+
+  public long size(@NotNull String key) throws IOException {
+    File blob = getFile(key);
+    if (!blob.isFile()) {
+      throw new FileNotFoundException("Unknown blob " + key);
+    }
+    return blob.length();
+  }
+
+  @NotNull
+  private File getFile(@NotNull String key) throws IOException {
+    // Keys are file names, make sure they cannot point outside of the store.
+    if (!KEY_PATTERN.matcher(key).matches()) {
+      throw new IOException("Invalid blob key " + key);
+    }
+    return new File(myDirectory, key);
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException ex) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @NotNull
+  private static String toHex(@NotNull byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
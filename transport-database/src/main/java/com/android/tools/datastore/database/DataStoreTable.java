@@ -15,8 +15,11 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,10 +38,35 @@ public abstract class DataStoreTable<T extends Enum> {
   // Cache custom queries we have a limited number and we call the same query multiple times.
   private final ThreadLocal<Map<String, PreparedStatement>> myCustomQueryCache = new ThreadLocal<>();
 
+  /**
+   * Database whose read connections {@link #executeReadQuery} runs on, see {@link #initialize(DataStoreDatabase)}. Null if every query
+   * runs on myConnection.
+   */
+  @Nullable private DataStoreDatabase myDatabase;
+  private final Map<T, String> myStatementSql = new ConcurrentHashMap<>();
+  /**
+   * Statements prepared on each read connection. A connection is only used by the query that borrowed it, which is the only one to access
+   * its statements.
+   */
+  private final Map<Connection, Map<String, PreparedStatement>> myReadStatements = new ConcurrentHashMap<>();
+  /**
+   * Whether writes were made since the last {@link #commitPendingWrites()}. Only set for tables initialized with a DataStoreDatabase.
+   */
+  private volatile boolean myHasPendingWrites;
+
   public interface DataStoreTableErrorCallback {
     void onDataStoreError(Throwable t);
   }
 
+  /**
+   * Reads the results of a query run by {@link #executeReadQuery} or {@link #executeOneTimeReadQuery}. The results are only valid
+   * until this returns.
+   */
+  @FunctionalInterface
+  protected interface ResultSetReader<R> {
+    R read(@NotNull ResultSet results) throws SQLException, IOException;
+  }
+
   /**
    * Initialization function to create tables for the Database.
    *
@@ -46,6 +74,20 @@ public abstract class DataStoreTable<T extends Enum> {
    */
   public void initialize(@NotNull Connection connection) {
     myConnection = connection;
+    myDatabase = null;
+  }
+
+  /**
+   * Same as {@link #initialize(Connection)} with the main connection of the database, except that {@link #executeReadQuery} and
+   * {@link #executeOneTimeReadQuery} then borrow a read connection of the database (see {@link DataStoreDatabase#acquireReadConnection()}),
+   * so they do not wait for writes from other threads. Writes are only visible to the read connections once committed by
+   * {@link #commitPendingWrites()}.
+   */
+  public void initialize(@NotNull DataStoreDatabase database) {
+    initialize(database.getConnection());
+    // The read connections need to see the created tables.
+    commit();
+    myDatabase = database;
   }
 
   /**
@@ -99,10 +141,13 @@ public abstract class DataStoreTable<T extends Enum> {
     return myStatementMap.get();
   }
 
+  /**
+   * Creates the table unless it exists already, in which case its content is kept. Durable databases are reopened with the data of
+   * previous sessions, see {@link com.android.tools.datastore.DataStoreDatabase#SCHEMA_VERSION}.
+   */
   protected void createTable(@NotNull String table, String... columns) throws SQLException {
-    myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s ", table));
     StringBuilder statement = new StringBuilder();
-    statement.append(String.format("CREATE TABLE %s", table));
+    statement.append(String.format("CREATE TABLE IF NOT EXISTS %s", table));
     executeUniqueStatement(statement, columns);
   }
 
@@ -119,15 +164,19 @@ public abstract class DataStoreTable<T extends Enum> {
   }
 
   private void executeUniqueStatement(@NotNull StringBuilder statement, @NotNull String[] params) throws SQLException {
-    myConnection.createStatement().execute(String.format("%s ( %s )", statement, String.join(",", params)));
+    synchronized (myConnection) {
+      myConnection.createStatement().execute(String.format("%s ( %s )", statement, String.join(",", params)));
+    }
   }
 
   protected void createStatement(@NotNull T statement, @NotNull String stmt) throws SQLException {
     getStatementMap().put(statement, myConnection.prepareStatement(stmt));
+    myStatementSql.put(statement, stmt);
   }
 
   protected void createStatement(@NotNull T statement, @NotNull String stmt, int statementFlags) throws SQLException {
     getStatementMap().put(statement, myConnection.prepareStatement(stmt, statementFlags));
+    myStatementSql.put(statement, stmt);
   }
 
   /**
@@ -142,25 +191,29 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
-    try {
-      PreparedStatement stmt = getStatementMap().get(statement);
-      batchParams.forEach((object) -> {
-        try {
-          applyParams(stmt, paramConverter.apply(object));
-          stmt.addBatch();
-        } catch (SQLException ex) {
-          onError(ex);
-        }
-      });
-      int[] results = stmt.executeBatch();
-      for(int i = 0; i < results.length; i++) {
-        if (results[i] == Statement.EXECUTE_FAILED) {
-          throw new SQLException(String.format("Failed to insert batch element %d with result %d", i, results[i]));
+    // Writes hold the connection's lock so that commits from other threads, which take it too, never run in the middle of one.
+    synchronized (myConnection) {
+      try {
+        PreparedStatement stmt = getStatementMap().get(statement);
+        batchParams.forEach((object) -> {
+          try {
+            applyParams(stmt, paramConverter.apply(object));
+            stmt.addBatch();
+          } catch (SQLException ex) {
+            onError(ex);
+          }
+        });
+        int[] results = stmt.executeBatch();
+        for(int i = 0; i < results.length; i++) {
+          if (results[i] == Statement.EXECUTE_FAILED) {
+            throw new SQLException(String.format("Failed to insert batch element %d with result %d", i, results[i]));
+          }
         }
+        markPendingWrites();
+      }
+      catch (SQLException ex) {
+        onError(ex);
       }
-    }
-    catch (SQLException ex) {
-      onError(ex);
     }
   }
 
@@ -168,16 +221,36 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
-    try {
-      PreparedStatement stmt = getStatementMap().get(statement);
-      applyParams(stmt, params);
-      stmt.execute();
-      // Clear parameters on exit so cached statements don't keep potentially large objects in memory.
-      // Example: Inserting a payload into the database.
-      stmt.clearParameters();
+    synchronized (myConnection) {
+      try {
+        PreparedStatement stmt = getStatementMap().get(statement);
+        applyParams(stmt, params);
+        stmt.execute();
+        // Clear parameters on exit so cached statements don't keep potentially large objects in memory.
+        // Example: Inserting a payload into the database.
+        stmt.clearParameters();
+        markPendingWrites();
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
     }
-    catch (SQLException ex) {
-      onError(ex);
+  }
+
+  /**
+   * Same as {@link #execute(Enum, Object...)} for a statement that is only run once, e.g. on a table that is created by another
+   * DataStoreTable.
+   */
+  protected void executeOneTimeStatement(@NotNull String sql, Object... params) throws SQLException {
+    if (isClosed()) {
+      return;
+    }
+    synchronized (myConnection) {
+      try (PreparedStatement stmt = myConnection.prepareStatement(sql)) {
+        applyParams(stmt, params);
+        stmt.execute();
+      }
+      markPendingWrites();
     }
   }
 
@@ -208,6 +281,107 @@ public abstract class DataStoreTable<T extends Enum> {
     return statement.executeQuery();
   }
 
+  /**
+   * Same as {@link #executeQuery(Enum, Object...)}, except that the results are passed to the reader rather than returned. For tables
+   * initialized with a {@link DataStoreDatabase}, the query borrows a read connection until the reader returns, so it does not wait for
+   * writes from other threads.
+   */
+  protected <R> R executeReadQuery(@NotNull T statement, @NotNull ResultSetReader<R> reader, Object... params)
+    throws SQLException, IOException {
+    // Statements are recorded when prepared on the main connection.
+    getStatementMap();
+    return executeReadQuery(myStatementSql.get(statement), params, reader, () -> executeQuery(statement, params));
+  }
+
+  /**
+   * Same as {@link #executeOneTimeQuery(String, Object[])}, with the results passed to the reader as in
+   * {@link #executeReadQuery(Enum, ResultSetReader, Object...)}.
+   */
+  protected <R> R executeOneTimeReadQuery(@NotNull String sql, Object[] params, @NotNull ResultSetReader<R> reader)
+    throws SQLException, IOException {
+    return executeReadQuery(sql, params, reader, () -> executeOneTimeQuery(sql, params));
+  }
+
+  private <R> R executeReadQuery(@NotNull String sql,
+                                 Object[] params,
+                                 @NotNull ResultSetReader<R> reader,
+                                 @NotNull MainConnectionQuery mainConnectionQuery) throws SQLException, IOException {
+    DataStoreDatabase database = myDatabase;
+    Connection readConnection = database == null || isClosed() ? null : database.acquireReadConnection();
+    if (readConnection == null) {
+      try (ResultSet results = mainConnectionQuery.execute()) {
+        return reader.read(results);
+      }
+    }
+    try {
+      Map<String, PreparedStatement> statements = myReadStatements.computeIfAbsent(readConnection, connection -> new HashMap<>());
+      PreparedStatement statement = statements.get(sql);
+      if (statement == null) {
+        statement = readConnection.prepareStatement(sql);
+        statements.put(sql, statement);
+      }
+      applyParams(statement, params);
+      // Closing the results ends the read transaction, so the next query on this connection sees the latest commits.
+      try (ResultSet results = statement.executeQuery()) {
+        return reader.read(results);
+      }
+    }
+    finally {
+      database.releaseReadConnection(readConnection);
+    }
+  }
+
+  @FunctionalInterface
+  private interface MainConnectionQuery {
+    ResultSet execute() throws SQLException;
+  }
+
+  private void markPendingWrites() {
+    if (myDatabase != null) {
+      myHasPendingWrites = true;
+    }
+  }
+
+  /**
+   * @return whether writes since the last {@link #commitPendingWrites()} are still invisible to the read connections.
+   */
+  public boolean hasPendingWrites() {
+    return myHasPendingWrites;
+  }
+
+  /**
+   * Commits the writes made since the last call, so the read connections of the database see them. Writes are not committed one by one,
+   * as each commit syncs the write-ahead log. Instead, the thread that owns the writes of the table commits them once in a while, e.g.
+   * {@link UnifiedEventsWriter} after each flush.
+   */
+  public void commitPendingWrites() {
+    if (!myHasPendingWrites || isClosed()) {
+      return;
+    }
+    // SQLite refuses to commit while a write statement is in progress, which the lock rules out, but not while other threads are reading
+    // results of the main connection.
+    synchronized (myConnection) {
+      try {
+        myHasPendingWrites = false;
+        myConnection.commit();
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+  }
+
+  private void commit() {
+    synchronized (myConnection) {
+      try {
+        myConnection.commit();
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+  }
+
   protected void applyParams(@NotNull PreparedStatement statement, Object... params) throws SQLException {
     for (int i = 0; params != null && i < params.length; i++) {
       if (params[i] == null) {
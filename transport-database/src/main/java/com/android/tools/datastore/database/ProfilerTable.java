@@ -21,6 +21,8 @@ import com.android.tools.profiler.proto.Profiler.GetSessionsResponse;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -34,8 +36,12 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     SELECT_SESSIONS,
     SELECT_SESSION_BY_ID,
     DELETE_SESSION_BY_ID,
+    SELECT_SESSIONS_STARTED_BEFORE,
   }
 
+  // The column that every legacy table with per-session data is keyed by.
+  private static final String SESSION_COLUMN = "Session";
+
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
@@ -67,6 +73,8 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
                       "SELECT * from Profiler_Sessions WHERE SessionId = ?");
       createStatement(ProfilerStatements.DELETE_SESSION_BY_ID,
                       "DELETE from Profiler_Sessions WHERE SessionId = ?");
+      createStatement(ProfilerStatements.SELECT_SESSIONS_STARTED_BEFORE,
+                      "SELECT SessionId from Profiler_Sessions WHERE StartTimeEpochMs < ?");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -155,6 +163,52 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     execute(ProfilerStatements.DELETE_SESSION_BY_ID, sessionId);
   }
 
+  /**
+   * Deletes the sessions that started more than maxAgeMs ago, with their rows in every legacy table keyed by session. This runs when the
+   * database is opened, so every stored session is from a previous Studio run and has ended. Unlike the unified events table, the legacy
+   * tables are not compacted by size, as the size of their data isn't tracked per session.
+   */
+  public void compact(long maxAgeMs) {
+    long minEpochMs = System.currentTimeMillis() - maxAgeMs;
+    try {
+      try (ResultSet results = executeQuery(ProfilerStatements.SELECT_SESSIONS_STARTED_BEFORE, minEpochMs)) {
+        if (!results.next()) {
+          return;
+        }
+      }
+
+      // The other legacy tables are created by the services that own them, and may not have been opened yet.
+      List<String> tables = new ArrayList<>();
+      try (ResultSet results = executeOneTimeQuery("SELECT name FROM sqlite_master WHERE type = 'table'", new Object[0])) {
+        while (results.next()) {
+          tables.add(results.getString(1));
+        }
+      }
+      for (String table : tables) {
+        if (hasSessionColumn(table)) {
+          String sql = String.format("DELETE FROM %s WHERE %s IN (SELECT SessionId FROM Profiler_Sessions WHERE StartTimeEpochMs < ?)",
+                                     table, SESSION_COLUMN);
+          executeOneTimeStatement(sql, minEpochMs);
+        }
+      }
+      executeOneTimeStatement("DELETE FROM Profiler_Sessions WHERE StartTimeEpochMs < ?", minEpochMs);
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
+
+  private boolean hasSessionColumn(@NotNull String table) throws SQLException {
+    try (ResultSet columns = executeOneTimeQuery(String.format("PRAGMA table_info(%s)", table), new Object[0])) {
+      while (columns.next()) {
+        if (SESSION_COLUMN.equals(columns.getString("name"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public void insertOrUpdateSession(@NotNull Common.Session session,
                                     @NotNull String name,
                                     long startTimeUtc,
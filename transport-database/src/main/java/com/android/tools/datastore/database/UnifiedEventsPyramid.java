@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.Common.Event;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Levels of detail for the numeric timeline series stored in {@link UnifiedEventsTable}. For each (stream, pid, kind, group) series,
+ * every level splits time into buckets and remembers the timestamps of the events holding the min, max and last value of each bucket.
+ * Kinds whose events carry several series, e.g. the memory categories, keep the min and max of each of their values.
+ * A zoomed-out query then only needs to read those events instead of every event in the range. Bucket widths grow by
+ * {@link #LEVEL_FACTOR} from {@link #BASE_BUCKET_WIDTH_NS}.
+ * <p>
+ * Only kinds with a known numeric value are tracked. Kinds whose samples are cumulative counters (e.g. cpu usage) use a constant value,
+ * so each bucket keeps its first and last event, which preserves the average over the bucket.
+ */
+final class UnifiedEventsPyramid {
+  @VisibleForTesting static final long BASE_BUCKET_WIDTH_NS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final int LEVEL_FACTOR = 4;
+  private static final int LEVEL_COUNT = 6;
+  private static final int CHUNK_SIZE = 64;
+  private static final int INITIAL_COLLECTOR_CAPACITY = 64;
+
+  private static final Map<Event.Kind, List<ToLongFunction<Event>>> VALUE_EXTRACTORS = new EnumMap<>(Event.Kind.class);
+
+  static {
+    putValueExtractors(Event.Kind.CPU_USAGE, event -> 0);
+    // The memory monitor stacks every category, so the peaks of each of them are kept rather than only those of the total.
+    putValueExtractors(Event.Kind.MEMORY_USAGE,
+                       event -> event.getMemoryUsage().getJavaMem(),
+                       event -> event.getMemoryUsage().getNativeMem(),
+                       event -> event.getMemoryUsage().getGraphicsMem(),
+                       event -> event.getMemoryUsage().getStackMem(),
+                       event -> event.getMemoryUsage().getCodeMem(),
+                       event -> event.getMemoryUsage().getOthersMem(),
+                       event -> event.getMemoryUsage().getTotalMem());
+    putValueExtractors(Event.Kind.NETWORK_SPEED, event -> event.getNetworkSpeed().getThroughput());
+    putValueExtractors(Event.Kind.NETWORK_CONNECTION_COUNT, event -> event.getNetworkConnections().getNumConnections());
+    putValueExtractors(Event.Kind.ENERGY_USAGE, event -> (long)event.getEnergyUsage().getCpuUsage() +
+                                                         event.getEnergyUsage().getNetworkUsage() +
+                                                         event.getEnergyUsage().getLocationUsage());
+    putValueExtractors(Event.Kind.USER_COUNTERS, event -> event.getUserCounters().getRecordedValue());
+  }
+
+  @NotNull private final Map<SeriesKey, Series> mySeries = new ConcurrentHashMap<>();
+  /**
+   * Series that had events deleted. Their pyramids can no longer be trusted so queries on them read every event.
+   */
+  @NotNull private final Set<SeriesKey> myInvalidatedSeries = ConcurrentHashMap.newKeySet();
+  /**
+   * Processes, as (stream, pid) series keys, with events the pyramids have not seen, e.g. restored from a previous session or compacted.
+   * Queries on any of their series read every event.
+   */
+  @NotNull private final Set<SeriesKey> myInvalidatedProcesses = ConcurrentHashMap.newKeySet();
+
+  @SafeVarargs
+  private static void putValueExtractors(@NotNull Event.Kind kind, @NotNull ToLongFunction<Event>... valueExtractors) {
+    VALUE_EXTRACTORS.put(kind, Arrays.asList(valueExtractors));
+  }
+
+  void record(long streamId, @NotNull Event event) {
+    List<ToLongFunction<Event>> valueExtractors = VALUE_EXTRACTORS.get(event.getKind());
+    if (valueExtractors == null) {
+      return;
+    }
+    SeriesKey key = new SeriesKey(streamId, event.getPid(), event.getKind(), event.getGroupId());
+    mySeries.computeIfAbsent(key, k -> new Series(valueExtractors.size())).record(event, valueExtractors);
+  }
+
+  void clear() {
+    mySeries.clear();
+    myInvalidatedSeries.clear();
+    myInvalidatedProcesses.clear();
+  }
+
+  void invalidateProcess(long streamId, int pid) {
+    myInvalidatedProcesses.add(new SeriesKey(streamId, pid, Event.Kind.NONE, 0));
+    mySeries.keySet().removeIf(key -> key.myStreamId == streamId && key.myPid == pid);
+  }
+
+  void invalidate(long streamId, int pid, @NotNull Event.Kind kind, long groupId) {
+    SeriesKey key = new SeriesKey(streamId, pid, kind, groupId);
+    if (mySeries.remove(key) != null) {
+      myInvalidatedSeries.add(key);
+    }
+  }
+
+  /**
+   * @param groupId the group to select from, 0 selects from every group of the kind.
+   * @return the sorted timestamps of the events representing [fromNs, toNs] at the given resolution, or null if the events in the range
+   * should be read in full. This is the case if the resolution is finer than the base level or the series is not tracked.
+   */
+  @Nullable
+  long[] selectTimestamps(long streamId, int pid, @NotNull Event.Kind kind, long groupId, long fromNs, long toNs, long resolutionNs) {
+    if (resolutionNs < BASE_BUCKET_WIDTH_NS || !VALUE_EXTRACTORS.containsKey(kind) ||
+        myInvalidatedProcesses.contains(new SeriesKey(streamId, pid, Event.Kind.NONE, 0))) {
+      return null;
+    }
+    int level = 0;
+    while (level + 1 < LEVEL_COUNT && bucketWidth(level + 1) <= resolutionNs) {
+      level++;
+    }
+
+    TimestampCollector collector = new TimestampCollector();
+    for (Map.Entry<SeriesKey, Series> entry : mySeries.entrySet()) {
+      SeriesKey key = entry.getKey();
+      if (key.matches(streamId, pid, kind, groupId)) {
+        entry.getValue().collect(level, fromNs, toNs, collector);
+      }
+    }
+    for (SeriesKey key : myInvalidatedSeries) {
+      if (key.matches(streamId, pid, kind, groupId)) {
+        return null;
+      }
+    }
+    return collector.toSortedArray();
+  }
+
+  private static long bucketWidth(int level) {
+    long width = BASE_BUCKET_WIDTH_NS;
+    for (int i = 0; i < level; i++) {
+      width *= LEVEL_FACTOR;
+    }
+    return width;
+  }
+
+  private static final class SeriesKey {
+    private final long myStreamId;
+    private final int myPid;
+    @NotNull private final Event.Kind myKind;
+    private final long myGroupId;
+
+    private SeriesKey(long streamId, int pid, @NotNull Event.Kind kind, long groupId) {
+      myStreamId = streamId;
+      myPid = pid;
+      myKind = kind;
+      myGroupId = groupId;
+    }
+
+    private boolean matches(long streamId, int pid, @NotNull Event.Kind kind, long groupId) {
+      return myStreamId == streamId && myPid == pid && myKind == kind && (groupId == 0 || myGroupId == groupId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof SeriesKey)) {
+        return false;
+      }
+      SeriesKey other = (SeriesKey)o;
+      return myStreamId == other.myStreamId && myPid == other.myPid && myKind == other.myKind && myGroupId == other.myGroupId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myStreamId, myPid, myKind, myGroupId);
+    }
+  }
+
+  private static final class Series {
+    @NotNull private final Level[] myLevels = new Level[LEVEL_COUNT];
+    // The values of the event being recorded, reused across events.
+    @NotNull private final long[] myValues;
+
+    private Series(int valueCount) {
+      myValues = new long[valueCount];
+      for (int i = 0; i < LEVEL_COUNT; i++) {
+        myLevels[i] = new Level(bucketWidth(i), valueCount);
+      }
+    }
+
+    private synchronized void record(@NotNull Event event, @NotNull List<ToLongFunction<Event>> valueExtractors) {
+      for (int i = 0; i < myValues.length; i++) {
+        myValues[i] = valueExtractors.get(i).applyAsLong(event);
+      }
+      for (Level level : myLevels) {
+        level.record(event.getTimestamp(), myValues);
+      }
+    }
+
+    private synchronized void collect(int level, long fromNs, long toNs, @NotNull TimestampCollector collector) {
+      myLevels[level].collect(fromNs, toNs, collector);
+    }
+  }
+
+  /**
+   * The buckets of one level, stored in chunks of {@link #CHUNK_SIZE} consecutive buckets. Only the chunks with events are allocated, so
+   * an outlier timestamp far from the others costs one chunk rather than every bucket in between.
+   */
+  private static final class Level {
+    private final long myBucketWidthNs;
+    private final int myValueCount;
+    @NotNull private final TreeMap<Long, Chunk> myChunks = new TreeMap<>();
+
+    private Level(long bucketWidthNs, int valueCount) {
+      myBucketWidthNs = bucketWidthNs;
+      myValueCount = valueCount;
+    }
+
+    private void record(long timestampNs, @NotNull long[] values) {
+      long bucket = Math.floorDiv(timestampNs, myBucketWidthNs);
+      long chunkIndex = Math.floorDiv(bucket, (long)CHUNK_SIZE);
+      Chunk chunk = myChunks.computeIfAbsent(chunkIndex, k -> new Chunk(myValueCount));
+      chunk.record((int)(bucket - chunkIndex * CHUNK_SIZE), timestampNs, values);
+    }
+
+    private void collect(long fromNs, long toNs, @NotNull TimestampCollector collector) {
+      long firstBucket = Math.floorDiv(fromNs, myBucketWidthNs);
+      long lastBucket = Math.floorDiv(toNs, myBucketWidthNs);
+      if (firstBucket > lastBucket) {
+        return;
+      }
+      for (Map.Entry<Long, Chunk> entry : myChunks.subMap(Math.floorDiv(firstBucket, (long)CHUNK_SIZE), true,
+                                                          Math.floorDiv(lastBucket, (long)CHUNK_SIZE), true).entrySet()) {
+        long chunkFirstBucket = entry.getKey() * CHUNK_SIZE;
+        int from = (int)Math.max(0, firstBucket - chunkFirstBucket);
+        int to = (int)Math.min(CHUNK_SIZE - 1, lastBucket - chunkFirstBucket);
+        entry.getValue().collect(from, to, fromNs, toNs, collector);
+      }
+    }
+  }
+
+  /**
+   * {@link #CHUNK_SIZE} consecutive buckets of a level, stored in parallel arrays. The min and max of value v of bucket i are at
+   * v * CHUNK_SIZE + i. Empty buckets have a last timestamp of Long.MIN_VALUE.
+   */
+  private static final class Chunk {
+    @NotNull private final long[] myMinTimestamps;
+    @NotNull private final long[] myMinValues;
+    @NotNull private final long[] myMaxTimestamps;
+    @NotNull private final long[] myMaxValues;
+    @NotNull private final long[] myLastTimestamps = new long[CHUNK_SIZE];
+
+    private Chunk(int valueCount) {
+      myMinTimestamps = new long[valueCount * CHUNK_SIZE];
+      myMinValues = new long[valueCount * CHUNK_SIZE];
+      myMaxTimestamps = new long[valueCount * CHUNK_SIZE];
+      myMaxValues = new long[valueCount * CHUNK_SIZE];
+      Arrays.fill(myLastTimestamps, Long.MIN_VALUE);
+    }
+
+    private void record(int index, long timestampNs, @NotNull long[] values) {
+      boolean isEmpty = myLastTimestamps[index] == Long.MIN_VALUE;
+      for (int v = 0, slot = index; v < values.length; v++, slot += CHUNK_SIZE) {
+        if (isEmpty || values[v] < myMinValues[slot]) {
+          myMinValues[slot] = values[v];
+          myMinTimestamps[slot] = timestampNs;
+        }
+        if (isEmpty || values[v] > myMaxValues[slot]) {
+          myMaxValues[slot] = values[v];
+          myMaxTimestamps[slot] = timestampNs;
+        }
+      }
+      if (isEmpty || timestampNs >= myLastTimestamps[index]) {
+        myLastTimestamps[index] = timestampNs;
+      }
+    }
+
+    private void collect(int fromIndex, int toIndex, long fromNs, long toNs, @NotNull TimestampCollector collector) {
+      for (int index = fromIndex; index <= toIndex; index++) {
+        if (myLastTimestamps[index] == Long.MIN_VALUE) {
+          continue;
+        }
+        for (int slot = index; slot < myMinTimestamps.length; slot += CHUNK_SIZE) {
+          collector.add(myMinTimestamps[slot], fromNs, toNs);
+          collector.add(myMaxTimestamps[slot], fromNs, toNs);
+        }
+        collector.add(myLastTimestamps[index], fromNs, toNs);
+      }
+    }
+  }
+
+  private static final class TimestampCollector {
+    @NotNull private long[] myTimestamps = new long[INITIAL_COLLECTOR_CAPACITY];
+    private int mySize;
+
+    private void add(long timestampNs, long fromNs, long toNs) {
+      if (timestampNs < fromNs || timestampNs > toNs) {
+        return;
+      }
+      if (mySize == myTimestamps.length) {
+        myTimestamps = Arrays.copyOf(myTimestamps, mySize * 2);
+      }
+      myTimestamps[mySize++] = timestampNs;
+    }
+
+    @NotNull
+    private long[] toSortedArray() {
+      long[] timestamps = Arrays.copyOf(myTimestamps, mySize);
+      Arrays.sort(timestamps);
+      int size = 0;
+      for (int i = 0; i < timestamps.length; i++) {
+        if (size == 0 || timestamps[size - 1] != timestamps[i]) {
+          timestamps[size++] = timestamps[i];
+        }
+      }
+      return Arrays.copyOf(timestamps, size);
+    }
+  }
+}
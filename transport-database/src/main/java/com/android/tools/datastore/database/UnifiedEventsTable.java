@@ -16,20 +16,27 @@
 package com.android.tools.datastore.database;
 
 import com.android.tools.idea.protobuf.InvalidProtocolBufferException;
+import com.android.tools.idea.protobuf.UnsafeByteOperations;
 import com.android.tools.profiler.proto.Common.Event;
 import com.android.tools.profiler.proto.Transport.BytesRequest;
 import com.android.tools.profiler.proto.Transport.BytesResponse;
 import com.android.tools.profiler.proto.Transport.EventGroup;
 import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Predicates;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,8 +52,28 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
       "WHERE StreamId = ? AND ProcessId = ? And GroupId = ? And Kind = ? AND Timestamp >= ? AND Timestamp <= ?"),
     // Only used for test.
     QUERY_EVENTS("SELECT Data FROM [UnifiedEventsTable]"),
-    INSERT_BYTES("INSERT OR IGNORE INTO [BytesTable] (StreamId, Id, Data) VALUES (?, ?, ?)"),
-    GET_BYTES("SELECT Data FROM [BytesTable] WHERE StreamId = ? AND Id = ?");
+    INSERT_BYTES("INSERT OR IGNORE INTO [BytesTable] (StreamId, Id, Data, BlobKey, StoredEpochMs) VALUES (?, ?, ?, ?, ?)"),
+    GET_BYTES("SELECT Data, BlobKey FROM [BytesTable] WHERE StreamId = ? AND Id = ?"),
+    QUERY_BLOB_KEYS("SELECT BlobKey FROM [BytesTable] WHERE BlobKey IS NOT NULL"),
+    QUERY_OLDEST_BYTES_EPOCH_MS("SELECT MIN(StoredEpochMs) FROM [BytesTable]"),
+    DELETE_BYTES_BEFORE("DELETE FROM [BytesTable] WHERE StoredEpochMs < ?"),
+    DELETE_OLDEST_BYTES("DELETE FROM [BytesTable] WHERE ROWID IN (SELECT ROWID FROM [BytesTable] ORDER BY StoredEpochMs LIMIT 1)"),
+    QUERY_MAX_COMMAND_ID("SELECT MAX(CommandId) FROM [UnifiedEventsTable]"),
+    QUERY_PROCESSES("SELECT DISTINCT StreamId, ProcessId FROM [UnifiedEventsTable]"),
+    // Groups left open by a previous session, along with the last timestamp of their stream (for STREAM groups) or process data. The
+    // last timestamp is only looked up for open groups, which there are few of.
+    QUERY_INTERRUPTED_GROUPS(
+      "SELECT StreamId, ProcessId, GroupId, Kind, COALESCE(MAX(LastTimestamp, CASE WHEN Kind = ? " +
+      "THEN (SELECT MAX(Timestamp) FROM [UnifiedEventsTable] WHERE StreamId = g.GroupId) " +
+      "ELSE (SELECT MAX(Timestamp) FROM [UnifiedEventsTable] WHERE StreamId = g.StreamId AND ProcessId = g.ProcessId) END), " +
+      "LastTimestamp) FROM (SELECT StreamId, ProcessId, GroupId, Kind, MAX(Timestamp) AS LastTimestamp, IsEnded " +
+      "FROM [UnifiedEventsTable] WHERE Kind IN (?, ?) GROUP BY StreamId, Kind, GroupId) g WHERE IsEnded = 0"),
+    QUERY_ENDED_SESSIONS(
+      "SELECT s.StreamId, s.ProcessId, s.GroupId, s.Timestamp, e.Timestamp, s.Data FROM [UnifiedEventsTable] s " +
+      "JOIN [UnifiedEventsTable] e ON e.Kind = s.Kind AND e.StreamId = s.StreamId AND e.GroupId = s.GroupId AND e.IsEnded = 1 " +
+      "WHERE s.Kind = ? AND s.IsEnded = 0"),
+    DELETE_PROCESS_EVENTS("DELETE FROM [UnifiedEventsTable] WHERE StreamId = ? AND ProcessId = ? AND Timestamp >= ? AND Timestamp <= ?"),
+    DELETE_GROUP("DELETE FROM [UnifiedEventsTable] WHERE Kind = ? AND StreamId = ? AND GroupId = ?");
 
     @NotNull private final String mySqlStatement;
 
@@ -60,6 +87,25 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
   }
 
+  /**
+   * Contents at least this large are kept in the {@link BlobStore} instead of the database.
+   */
+  @VisibleForTesting static final int BLOB_THRESHOLD_BYTES = 64 * 1024;
+
+  @NotNull private final UnifiedEventsPyramid myPyramid = new UnifiedEventsPyramid();
+  @Nullable private final BlobStore myBlobStore;
+
+  public UnifiedEventsTable() {
+    this(null);
+  }
+
+  /**
+   * @param blobStore where to keep large byte contents, or null to keep every content in the database.
+   */
+  public UnifiedEventsTable(@Nullable BlobStore blobStore) {
+    myBlobStore = blobStore;
+  }
+
   @Override
   public void prepareStatements() {
     try {
@@ -75,6 +121,7 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
+    myPyramid.clear();
     try {
       createTable("UnifiedEventsTable",
                   "StreamId INTEGER NOT NULL", // Optional filter, required for all data.
@@ -85,15 +132,53 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
                   "Timestamp INTEGER NOT NULL", // Optional filter, required for all data.
                   "IsEnded INTEGER NOT NULL", // Optional filter, required for all data.
                   "Data BLOB");
-      createTable("BytesTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "Data BLOB");
+      // For contents kept in the blob store, Data holds the response without its contents.
+      createTable("BytesTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "Data BLOB", "BlobKey STRING",
+                  "StoredEpochMs INTEGER NOT NULL");
       createUniqueIndex("UnifiedEventsTable", "Kind", "StreamId", "ProcessId", "GroupId", "Timestamp", "IsEnded");
+      // Covers the filter, range and group boundary columns of queryUnifiedEventGroups so only matching rows are read from the table.
+      createIndex("UnifiedEventsTable", 0, "Kind", "StreamId", "ProcessId", "Timestamp", "GroupId", "IsEnded", "CommandId");
       createUniqueIndex("BytesTable", "StreamId", "Id");
+      restore();
     }
-    catch (SQLException ex) {
+    catch (SQLException | IOException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Prepares the data kept from previous sessions, if any, to be queried along with the data streamed in this session.
+   */
+  private void restore() throws SQLException, IOException {
+    // The pyramids only know about the events inserted since initialization.
+    try (ResultSet processes = executeQuery(Statements.QUERY_PROCESSES)) {
+      while (processes.next()) {
+        myPyramid.invalidateProcess(processes.getLong(1), processes.getInt(2));
+      }
+    }
+
+    // Streams and sessions that were still open when the previous session exited would otherwise appear alive forever.
+    List<Object[]> interruptedGroups = new ArrayList<>();
+    try (ResultSet results = executeQuery(Statements.QUERY_INTERRUPTED_GROUPS, Event.Kind.STREAM.getNumber(),
+                                          Event.Kind.STREAM.getNumber(), Event.Kind.SESSION.getNumber())) {
+      while (results.next()) {
+        interruptedGroups.add(
+          new Object[]{results.getLong(1), results.getInt(2), results.getLong(3), results.getInt(4), results.getLong(5)});
+      }
+    }
+    for (Object[] group : interruptedGroups) {
+      insertUnifiedEvent((long)group[0], Event.newBuilder()
+        .setPid((int)group[1])
+        .setGroupId((long)group[2])
+        .setKind(Event.Kind.forNumber((int)group[3]))
+        .setIsEnded(true)
+        .setTimestamp((long)group[4])
+        .build());
+    }
+
+    collectBlobGarbage();
+  }
+
   public void insertUnifiedEvent(long streamId, @NotNull Event event) {
     execute(Statements.INSERT_EVENT,
             streamId,
@@ -104,10 +189,28 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
             event.getTimestamp(),
             event.getIsEnded() ? 1 : 0,
             event.toByteArray());
+    myPyramid.record(streamId, event);
+  }
+
+  /**
+   * Inserts all the events of a stream with a single batched statement, see {@link UnifiedEventsWriter}.
+   */
+  public void insertUnifiedEvents(long streamId, @NotNull List<Event> events) {
+    executeBatch(Statements.INSERT_EVENT, events, event -> new Object[]{
+      streamId,
+      event.getPid(),
+      event.getGroupId(),
+      event.getKind().getNumber(),
+      event.getCommandId(),
+      event.getTimestamp(),
+      event.getIsEnded() ? 1 : 0,
+      event.toByteArray()});
+    events.forEach(event -> myPyramid.record(streamId, event));
   }
 
   public void deleteEvents(long streamId, int pid, long groupId, Event.Kind kind, long fromTimestamp, long toTimestamp) {
     execute(Statements.DELETE_EVENTS, streamId, pid, groupId, kind.getNumber(), fromTimestamp, toTimestamp);
+    myPyramid.invalidate(streamId, pid, kind, groupId);
   }
 
   @VisibleForTesting
@@ -154,105 +257,142 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
    * @param request
    */
   public List<EventGroup> queryUnifiedEventGroups(@NotNull GetEventGroupsRequest request) {
-    ArrayList<Object> baseParams = new ArrayList<>();
-    List<Object> beforeRangeParams = null;
-    List<Object> afterRangeParams = null;
-
-    HashMap<Long, EventGroup.Builder> builderGroups = new HashMap<>();
-    // The string format allows for altering the group by results for +1 and -1 queries.
-    String sql = "SELECT Data, GroupId%s From [UnifiedEventsTable] WHERE Kind = ? %s";
-    StringBuilder filter = new StringBuilder();
-    baseParams.add(request.getKind().getNumber());
-
-    if (request.getStreamId() != 0) {
-      filter.append(" AND StreamId = ?");
-      baseParams.add(request.getStreamId());
+    EventGroupsQuery query = EventGroupsQuery.forRequest(request);
+    // Events of each group are collected by pass so that the -1 and +1 events end up first and last no matter the row order.
+    Map<Long, GroupRows> groups = new LinkedHashMap<>();
+    try {
+      executeOneTimeReadQuery(query.getSql(), query.getParams(request), collector(groups));
     }
-
-    if (request.getPid() != 0) {
-      filter.append(" AND ProcessId = ?");
-      baseParams.add(request.getPid());
+    catch (SQLException | IOException ex) {
+      onError(ex);
     }
+    return buildGroups(groups);
+  }
 
-    if (request.getGroupId() != 0) {
-      filter.append(" AND GroupId = ?");
-      baseParams.add(request.getGroupId());
+  /**
+   * Same as {@link #queryUnifiedEventGroups(GetEventGroupsRequest)}, but if the range spans more than one event per
+   * {@code resolutionNs} for a numeric series, only the events holding the min, max and last value of each resolution sized bucket are
+   * returned within the range. The X-1 and X+1 events are returned as usual.
+   *
+   * @param resolutionNs the duration covered by one point (e.g. one pixel) of the consumer of the events.
+   */
+  public List<EventGroup> queryUnifiedEventGroups(@NotNull GetEventGroupsRequest request, long resolutionNs) {
+    long[] timestamps = null;
+    // Levels of detail are kept per series, so requests that could mix series fall back to reading every event.
+    if (request.getStreamId() != 0 && request.getPid() != 0 && request.getCommandId() == 0) {
+      long toTimestamp = request.getToTimestamp() > 0 ? request.getToTimestamp() : Long.MAX_VALUE;
+      timestamps = myPyramid.selectTimestamps(request.getStreamId(), request.getPid(), request.getKind(), request.getGroupId(),
+                                              request.getFromTimestamp(), toTimestamp, resolutionNs);
     }
-
-    if (request.getCommandId() != 0) {
-      filter.append(" AND CommandId = ?");
-      baseParams.add(request.getCommandId());
+    if (timestamps == null) {
+      return queryUnifiedEventGroups(request);
     }
 
-    String sqlBefore = String.format(sql, ", IsEnded, MAX(Timestamp), MAX(ROWID)", filter + " AND Timestamp < ? GROUP BY GroupId");
-    String sqlAfter = String.format(sql, ", MIN(Timestamp), MIN(ROWID)", filter + " AND Timestamp > ? GROUP BY GroupId");
-    ArrayList<Object> inRangeQueryParams = new ArrayList<>(baseParams);
-    if (request.getFromTimestamp() > 0) {
-      beforeRangeParams = new ArrayList<>(baseParams);
-      beforeRangeParams.add(request.getFromTimestamp());
-      filter.append(" AND Timestamp >= ?");
-      inRangeQueryParams.add(request.getFromTimestamp());
+    EventGroupsQuery query = EventGroupsQuery.forRequest(request);
+    Map<Long, GroupRows> groups = new LinkedHashMap<>();
+    try {
+      if (query.getBoundariesSql() != null) {
+        executeOneTimeReadQuery(query.getBoundariesSql(), query.getBoundariesParams(request), collector(groups));
+      }
+      for (int offset = 0; offset < timestamps.length; offset += EventGroupsQuery.LOOKUP_BATCH_SIZE) {
+        executeOneTimeReadQuery(query.getLookupSql(), query.getLookupParams(request, timestamps, offset), collector(groups));
+      }
     }
-
-    if (request.getToTimestamp() > 0 && request.getToTimestamp() != Long.MAX_VALUE) {
-      afterRangeParams = new ArrayList<>(baseParams);
-      afterRangeParams.add(request.getToTimestamp());
-      filter.append(" AND Timestamp <= ?");
-      inRangeQueryParams.add(request.getToTimestamp());
+    catch (SQLException | IOException ex) {
+      onError(ex);
     }
+    return buildGroups(groups);
+  }
 
-    // Gather before range events if needed.
-    // Query before example:
-    // SELECT [Data], [GroupId], [IsEnded], MAX(Timestamp), MAX(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp < ?
-    // GROUP BY GroupId;
-    if (beforeRangeParams != null) {
-      gatherEvents(sqlBefore, beforeRangeParams, builderGroups, resultSet -> {
-        try {
-          return !resultSet.getBoolean("IsEnded");
-        }
-        catch (SQLException e) {
-          onError(e);
-        }
-        return false;
-      });
-    }
-
-    // Query example:
-    // SELECT [Data], [GroupId] From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp >= ? AND Timestamp <= ?;
-    String query = String.format(sql, "", filter);
-    gatherEvents(query, inRangeQueryParams, builderGroups, Predicates.alwaysTrue());
-
-    // Gather after range events if needed.
-    // Query after example:
-    // SELECT [Data], [GroupId], MIN(Timestamp), MIN(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp > ? GROUP BY GroupId;
-    if (afterRangeParams != null) {
-      gatherEvents(sqlAfter, afterRangeParams, builderGroups, resultSet -> {
-        try {
-          return builderGroups.containsKey(resultSet.getLong("GroupId"));
-        }
-        catch (SQLException e) {
-          onError(e);
-        }
-        return false;
-      });
+  @NotNull
+  private static ResultSetReader<Void> collector(@NotNull Map<Long, GroupRows> groups) {
+    return results -> {
+      collectRows(results, groups);
+      return null;
+    };
+  }
+
+  /**
+   * Adds the rows returned by an {@link EventGroupsQuery} to their group.
+   */
+  private static void collectRows(@NotNull ResultSet results, @NotNull Map<Long, GroupRows> groups)
+    throws SQLException, InvalidProtocolBufferException {
+    while (results.next()) {
+      long groupId = results.getLong(EventGroupsQuery.GROUP_ID_COLUMN);
+      switch (results.getInt(EventGroupsQuery.PASS_COLUMN)) {
+        case EventGroupsQuery.BEFORE_RANGE_PASS:
+          // Ended groups are discarded so no X-1 event is returned for them.
+          if (!results.getBoolean(EventGroupsQuery.IS_ENDED_COLUMN)) {
+            groups.computeIfAbsent(groupId, id -> new GroupRows()).myBeforeRange = parseEvent(results);
+          }
+          break;
+        case EventGroupsQuery.IN_RANGE_PASS:
+          groups.computeIfAbsent(groupId, id -> new GroupRows()).myInRange.add(parseEvent(results));
+          break;
+        case EventGroupsQuery.AFTER_RANGE_PASS:
+          groups.computeIfAbsent(groupId, id -> new GroupRows()).myAfterRange = parseEvent(results);
+          break;
+      }
     }
+  }
 
-    return builderGroups.values().stream().map(EventGroup.Builder::build).collect(Collectors.toList());
+  @NotNull
+  private static List<EventGroup> buildGroups(@NotNull Map<Long, GroupRows> groups) {
+    List<EventGroup> eventGroups = new ArrayList<>(groups.size());
+    groups.forEach((groupId, rows) -> {
+      // The X+1 event is only returned for groups that have events before it.
+      if (rows.myBeforeRange == null && rows.myInRange.isEmpty()) {
+        return;
+      }
+      EventGroup.Builder group = EventGroup.newBuilder().setGroupId(groupId);
+      if (rows.myBeforeRange != null) {
+        group.addEvents(rows.myBeforeRange);
+      }
+      group.addAllEvents(rows.myInRange);
+      if (rows.myAfterRange != null) {
+        group.addEvents(rows.myAfterRange);
+      }
+      eventGroups.add(group.build());
+    });
+    return eventGroups;
   }
 
   public void insertBytes(long streamId, @NotNull String id, @NotNull BytesResponse response) {
-    execute(Statements.INSERT_BYTES, streamId, id, response.toByteArray());
+    if (myBlobStore != null && response.getContents().size() >= BLOB_THRESHOLD_BYTES) {
+      try {
+        String blobKey = myBlobStore.write(response.getContents());
+        execute(Statements.INSERT_BYTES, streamId, id, response.toBuilder().clearContents().build().toByteArray(), blobKey,
+                System.currentTimeMillis());
+        return;
+      }
+      catch (IOException ex) {
+        // Keep the contents in the database instead.
+        onError(ex);
+      }
+    }
+    execute(Statements.INSERT_BYTES, streamId, id, response.toByteArray(), null, System.currentTimeMillis());
   }
 
+  /**
+   * @return the stored response, or null if there is none. Contents kept in the blob store are backed by a read-only memory-mapped view
+   * of the blob rather than a copy on the heap.
+   */
   @Nullable
   public BytesResponse getBytes(@NotNull BytesRequest request) {
     try {
-      ResultSet results = executeQuery(Statements.GET_BYTES, request.getStreamId(), request.getId());
-      if (results.next()) {
-        return BytesResponse.parseFrom(results.getBytes(1));
-      }
+      return executeReadQuery(Statements.GET_BYTES, results -> {
+        if (!results.next()) {
+          return null;
+        }
+        BytesResponse response = BytesResponse.parseFrom(results.getBytes(1));
+        String blobKey = results.getString(2);
+        if (blobKey != null && myBlobStore != null) {
+          response = response.toBuilder().setContents(UnsafeByteOperations.unsafeWrap(myBlobStore.map(blobKey))).build();
+        }
+        return response;
+      }, request.getStreamId(), request.getId());
     }
-    catch (InvalidProtocolBufferException | SQLException ex) {
+    catch (SQLException | IOException ex) {
       onError(ex);
     }
 
@@ -260,45 +400,346 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   }
 
   /**
-   * Executes the sql statement and passes each event through the filter. If the filter returns true, the event is added
-   * to the hashmap. Otherwise it is ignored.
-   *
-   * @param sql           Statement to execute and gather a list of events
-   * @param params        List of params to pass to the sql statement.
-   * @param builderGroups map of event group ids to event groups used to collect events into respective groups.
-   * @param filter        predicate to determine which events are included in the event group.
+   * @return the largest command id of the stored events, so commands issued in this session can be told apart from restored ones.
    */
-  private void gatherEvents(String sql,
-                            List<Object> params,
-                            HashMap<Long, EventGroup.Builder> builderGroups,
-                            Predicate<ResultSet> filter) {
+  public int queryMaxCommandId() {
+    try (ResultSet results = executeQuery(Statements.QUERY_MAX_COMMAND_ID)) {
+      if (results.next()) {
+        return results.getInt(1);
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+    return 0;
+  }
+
+  /**
+   * Deletes the data of ended sessions that started more than maxAgeMs ago, and the bytes stored more than maxAgeMs ago. Then, while the
+   * stored data takes more than maxSizeBytes, deletes the oldest of the remaining ended sessions and bytes. Freed database pages are
+   * reused for new data rather than returned to the file system.
+   * <p>
+   * This must not run concurrently with {@link #insertBytes(long, String, BytesResponse)}.
+   */
+  public void compact(long maxAgeMs, long maxSizeBytes) {
+    long minEpochMs = System.currentTimeMillis() - maxAgeMs;
     try {
-      ResultSet results = executeOneTimeQuery(sql, params.toArray());
-      while (results.next()) {
-        Long groupId = results.getLong("GroupId");
-        if (filter.test(results)) {
-          EventGroup.Builder group =
-            builderGroups.computeIfAbsent(groupId, EventGroup.newBuilder()::setGroupId);
-          group.addEvents(Event.parser().parseFrom(results.getBytes("Data")));
+      List<StoredSession> sessions = queryEndedSessions();
+      int next = 0;
+      while (next < sessions.size() && sessions.get(next).myStartEpochMs < minEpochMs) {
+        deleteSession(sessions.get(next++));
+      }
+      execute(Statements.DELETE_BYTES_BEFORE, minEpochMs);
+      collectBlobGarbage();
+
+      while (getStoredSize() > maxSizeBytes) {
+        long oldestBytesEpochMs = Long.MAX_VALUE;
+        try (ResultSet results = executeQuery(Statements.QUERY_OLDEST_BYTES_EPOCH_MS)) {
+          if (results.next() && results.getObject(1) != null) {
+            oldestBytesEpochMs = results.getLong(1);
+          }
+        }
+        if (next < sessions.size() && sessions.get(next).myStartEpochMs <= oldestBytesEpochMs) {
+          deleteSession(sessions.get(next++));
+        }
+        else if (oldestBytesEpochMs != Long.MAX_VALUE) {
+          execute(Statements.DELETE_OLDEST_BYTES);
+          collectBlobGarbage();
+        }
+        else {
+          break;
         }
       }
     }
-    catch (SQLException | InvalidProtocolBufferException ex) {
+    catch (SQLException | IOException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * @return the ended sessions, oldest first.
+   */
+  @NotNull
+  private List<StoredSession> queryEndedSessions() throws SQLException, InvalidProtocolBufferException {
+    List<StoredSession> sessions = new ArrayList<>();
+    try (ResultSet results = executeQuery(Statements.QUERY_ENDED_SESSIONS, Event.Kind.SESSION.getNumber())) {
+      while (results.next()) {
+        long startEpochMs = Event.parser().parseFrom(results.getBytes(6)).getSession().getSessionStarted().getStartTimestampEpochMs();
+        sessions.add(new StoredSession(results.getLong(1), results.getInt(2), results.getLong(3), results.getLong(4), results.getLong(5),
+                                       startEpochMs));
+      }
+    }
+    sessions.sort(Comparator.comparingLong(session -> session.myStartEpochMs));
+    return sessions;
+  }
+
+  private void deleteSession(@NotNull StoredSession session) {
+    execute(Statements.DELETE_PROCESS_EVENTS, session.myStreamId, session.myPid, session.myStartTimestamp, session.myEndTimestamp);
+    execute(Statements.DELETE_GROUP, Event.Kind.SESSION.getNumber(), session.myStreamId, session.myGroupId);
+    myPyramid.invalidateProcess(session.myStreamId, session.myPid);
+  }
+
+  /**
+   * @return the size of the used database pages and of the blobs.
+   */
+  private long getStoredSize() throws SQLException, IOException {
+    long pageCount = queryPragma("page_count");
+    long freePageCount = queryPragma("freelist_count");
+    long size = (pageCount - freePageCount) * queryPragma("page_size");
+    return myBlobStore == null ? size : size + myBlobStore.getTotalSize();
+  }
+
+  private long queryPragma(@NotNull String pragma) throws SQLException {
+    try (ResultSet results = executeOneTimeQuery("PRAGMA " + pragma, new Object[0])) {
+      return results.next() ? results.getLong(1) : 0;
+    }
+  }
+
+  /**
+   * Deletes the blobs no longer referenced by the bytes table.
+   */
+  private void collectBlobGarbage() throws SQLException, IOException {
+    if (myBlobStore == null || isClosed()) {
+      return;
+    }
+    Set<String> blobKeys = new HashSet<>();
+    try (ResultSet results = executeQuery(Statements.QUERY_BLOB_KEYS)) {
+      while (results.next()) {
+        blobKeys.add(results.getString(1));
+      }
+    }
+    myBlobStore.retainAll(blobKeys);
+  }
+
+  @NotNull
+  private static Event parseEvent(@NotNull ResultSet results) throws SQLException, InvalidProtocolBufferException {
+    return Event.parser().parseFrom(results.getBytes(EventGroupsQuery.DATA_COLUMN));
+  }
+
   private List<Event> queryUnifiedEvents(Statements stmt, Object... args) {
     List<Event> records = new ArrayList<>();
     try {
-      ResultSet results = executeQuery(stmt, args);
-      while (results.next()) {
-        records.add(Event.parser().parseFrom(results.getBytes(1)));
-      }
+      executeReadQuery(stmt, results -> {
+        while (results.next()) {
+          records.add(Event.parser().parseFrom(results.getBytes(1)));
+        }
+        return null;
+      }, args);
     }
-    catch (SQLException | InvalidProtocolBufferException ex) {
+    catch (SQLException | IOException ex) {
       onError(ex);
     }
     return records;
   }
+
+  /**
+   * An ended session kept in the database, with the range of timestamps of its events and the wall-clock time it started at.
+   */
+  private static final class StoredSession {
+    private final long myStreamId;
+    private final int myPid;
+    private final long myGroupId;
+    private final long myStartTimestamp;
+    private final long myEndTimestamp;
+    private final long myStartEpochMs;
+
+    private StoredSession(long streamId, int pid, long groupId, long startTimestamp, long endTimestamp, long startEpochMs) {
+      myStreamId = streamId;
+      myPid = pid;
+      myGroupId = groupId;
+      myStartTimestamp = startTimestamp;
+      myEndTimestamp = endTimestamp;
+      myStartEpochMs = startEpochMs;
+    }
+  }
+
+  /**
+   * The events of a group, split by the pass of {@link EventGroupsQuery} that returned them.
+   */
+  private static final class GroupRows {
+    @Nullable private Event myBeforeRange;
+    @NotNull private final List<Event> myInRange = new ArrayList<>();
+    @Nullable private Event myAfterRange;
+  }
+
+  /**
+   * Plans the single statement used by {@link #queryUnifiedEventGroups(GetEventGroupsRequest)}. The latest event of each group before the
+   * range (X-1), the events in the range and the first event of each group after the range (X+1) are selected as three parts of one
+   * UNION ALL, tagged by a pass column. Each part is a range scan on the (Kind, StreamId, ProcessId, Timestamp) index, and the X-1/X+1
+   * parts only visit the boundary row of each group.
+   * <p>
+   * The SQL only depends on which filters a request sets, so it is built once per filter shape and the prepared statement is reused
+   * through {@link #executeOneTimeQuery(String, Object[])}.
+   */
+  private static final class EventGroupsQuery {
+    static final int DATA_COLUMN = 1;
+    static final int GROUP_ID_COLUMN = 2;
+    static final int IS_ENDED_COLUMN = 3;
+    static final int PASS_COLUMN = 6;
+
+    /**
+     * Number of timestamps looked up per execution of {@link #getLookupSql()}, well below SQLite's limit on parameters.
+     */
+    static final int LOOKUP_BATCH_SIZE = 256;
+
+    static final int BEFORE_RANGE_PASS = 0;
+    static final int IN_RANGE_PASS = 1;
+    static final int AFTER_RANGE_PASS = 2;
+
+    private static final int HAS_STREAM_ID = 1;
+    private static final int HAS_PID = 1 << 1;
+    private static final int HAS_GROUP_ID = 1 << 2;
+    private static final int HAS_COMMAND_ID = 1 << 3;
+    private static final int HAS_FROM_TIMESTAMP = 1 << 4;
+    private static final int HAS_TO_TIMESTAMP = 1 << 5;
+    private static final EventGroupsQuery[] QUERIES_BY_SHAPE = new EventGroupsQuery[HAS_TO_TIMESTAMP << 1];
+
+    private final int myShape;
+    @NotNull private final String mySql;
+    @Nullable private final String myBoundariesSql;
+    @NotNull private final String myLookupSql;
+
+    private EventGroupsQuery(int shape) {
+      myShape = shape;
+      StringBuilder filter = new StringBuilder("Kind = ?");
+      if ((shape & HAS_STREAM_ID) != 0) {
+        filter.append(" AND StreamId = ?");
+      }
+      if ((shape & HAS_PID) != 0) {
+        filter.append(" AND ProcessId = ?");
+      }
+      if ((shape & HAS_GROUP_ID) != 0) {
+        filter.append(" AND GroupId = ?");
+      }
+      if ((shape & HAS_COMMAND_ID) != 0) {
+        filter.append(" AND CommandId = ?");
+      }
+
+      // The bare Data and IsEnded columns of the aggregate parts come from the row holding the MAX/MIN timestamp of each group.
+      String select = "SELECT Data, GroupId, IsEnded, %s, %d FROM [UnifiedEventsTable] WHERE %s%s";
+      String beforeRange = (shape & HAS_FROM_TIMESTAMP) == 0 ? null : String.format(
+        select, "MAX(Timestamp), MAX(ROWID)", BEFORE_RANGE_PASS, filter, " AND Timestamp < ? GROUP BY GroupId");
+      String range = ((shape & HAS_FROM_TIMESTAMP) != 0 ? " AND Timestamp >= ?" : "") +
+                     ((shape & HAS_TO_TIMESTAMP) != 0 ? " AND Timestamp <= ?" : "");
+      String inRange = String.format(select, "Timestamp, ROWID", IN_RANGE_PASS, filter, range);
+      String afterRange = (shape & HAS_TO_TIMESTAMP) == 0 ? null : String.format(
+        select, "MIN(Timestamp), MIN(ROWID)", AFTER_RANGE_PASS, filter, " AND Timestamp > ? GROUP BY GroupId");
+      mySql = joinParts(beforeRange, inRange, afterRange);
+      myBoundariesSql = beforeRange == null && afterRange == null ? null : joinParts(beforeRange, afterRange);
+      String lookup = " AND Timestamp IN (" + String.join(", ", Collections.nCopies(LOOKUP_BATCH_SIZE, "?")) + ") ORDER BY Timestamp";
+      myLookupSql = String.format(select, "Timestamp, ROWID", IN_RANGE_PASS, filter, lookup);
+    }
+
+    @NotNull
+    private static String joinParts(@Nullable String... parts) {
+      return Arrays.stream(parts).filter(Objects::nonNull).collect(Collectors.joining(" UNION ALL "));
+    }
+
+    @NotNull
+    static EventGroupsQuery forRequest(@NotNull GetEventGroupsRequest request) {
+      int shape = 0;
+      shape |= request.getStreamId() != 0 ? HAS_STREAM_ID : 0;
+      shape |= request.getPid() != 0 ? HAS_PID : 0;
+      shape |= request.getGroupId() != 0 ? HAS_GROUP_ID : 0;
+      shape |= request.getCommandId() != 0 ? HAS_COMMAND_ID : 0;
+      shape |= request.getFromTimestamp() > 0 ? HAS_FROM_TIMESTAMP : 0;
+      shape |= request.getToTimestamp() > 0 && request.getToTimestamp() != Long.MAX_VALUE ? HAS_TO_TIMESTAMP : 0;
+      synchronized (QUERIES_BY_SHAPE) {
+        if (QUERIES_BY_SHAPE[shape] == null) {
+          QUERIES_BY_SHAPE[shape] = new EventGroupsQuery(shape);
+        }
+        return QUERIES_BY_SHAPE[shape];
+      }
+    }
+
+    @NotNull
+    String getSql() {
+      return mySql;
+    }
+
+    /**
+     * @return the X-1 and X+1 parts of {@link #getSql()}, or null if the request has no range.
+     */
+    @Nullable
+    String getBoundariesSql() {
+      return myBoundariesSql;
+    }
+
+    /**
+     * @return a query for the events with a timestamp in a batch of {@link #LOOKUP_BATCH_SIZE} timestamps.
+     */
+    @NotNull
+    String getLookupSql() {
+      return myLookupSql;
+    }
+
+    /**
+     * @return the parameters of {@link #getSql()}, the filter parameters are repeated for each part of the query.
+     */
+    @NotNull
+    Object[] getParams(@NotNull GetEventGroupsRequest request) {
+      return getParams(request, true);
+    }
+
+    @NotNull
+    Object[] getBoundariesParams(@NotNull GetEventGroupsRequest request) {
+      return getParams(request, false);
+    }
+
+    /**
+     * @return the parameters of {@link #getLookupSql()} for the timestamps starting at offset. The last batch is padded by repeating its
+     * last timestamp.
+     */
+    @NotNull
+    Object[] getLookupParams(@NotNull GetEventGroupsRequest request, @NotNull long[] timestamps, int offset) {
+      List<Object> params = getFilterParams(request);
+      for (int i = 0; i < LOOKUP_BATCH_SIZE; i++) {
+        params.add(timestamps[Math.min(offset + i, timestamps.length - 1)]);
+      }
+      return params.toArray();
+    }
+
+    @NotNull
+    private Object[] getParams(@NotNull GetEventGroupsRequest request, boolean includeInRange) {
+      List<Object> filterParams = getFilterParams(request);
+      List<Object> params = new ArrayList<>();
+      if ((myShape & HAS_FROM_TIMESTAMP) != 0) {
+        params.addAll(filterParams);
+        params.add(request.getFromTimestamp());
+      }
+      if (includeInRange) {
+        params.addAll(filterParams);
+        if ((myShape & HAS_FROM_TIMESTAMP) != 0) {
+          params.add(request.getFromTimestamp());
+        }
+        if ((myShape & HAS_TO_TIMESTAMP) != 0) {
+          params.add(request.getToTimestamp());
+        }
+      }
+      if ((myShape & HAS_TO_TIMESTAMP) != 0) {
+        params.addAll(filterParams);
+        params.add(request.getToTimestamp());
+      }
+      return params.toArray();
+    }
+
+    @NotNull
+    private List<Object> getFilterParams(@NotNull GetEventGroupsRequest request) {
+      List<Object> filterParams = new ArrayList<>();
+      filterParams.add(request.getKind().getNumber());
+      if ((myShape & HAS_STREAM_ID) != 0) {
+        filterParams.add(request.getStreamId());
+      }
+      if ((myShape & HAS_PID) != 0) {
+        filterParams.add(request.getPid());
+      }
+      if ((myShape & HAS_GROUP_ID) != 0) {
+        filterParams.add(request.getGroupId());
+      }
+      if ((myShape & HAS_COMMAND_ID) != 0) {
+        filterParams.add(request.getCommandId());
+      }
+      return filterParams;
+    }
+  }
 }
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.Common.Event;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Batches {@link Event}s bound for a {@link UnifiedEventsTable}. Pollers enqueue events into a lock-free ring buffer and a writer thread
+ * drains it into the table with one batched insert per stream, either every flush interval or as soon as the flush threshold is reached.
+ * <p>
+ * Readers must call {@link #flush()} before querying the table so they observe every event enqueued before the query.
+ * <p>
+ * While the writer thread runs, it is the only one to commit the table (see {@link DataStoreTable#commitPendingWrites()}): once after
+ * each flush, which also commits the writes other threads made to the table since, e.g. deletes. Threads that flush wait for the writer
+ * thread to commit their events.
+ */
+public class UnifiedEventsWriter {
+  public static final long DEFAULT_FLUSH_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100);
+  public static final int DEFAULT_FLUSH_THRESHOLD = 512;
+  private static final int DEFAULT_CAPACITY = 8192;
+  private static final long COMMIT_WAIT_MS = 50;
+
+  @NotNull private final UnifiedEventsTable myTable;
+  @NotNull private final EventRingBuffer myBuffer;
+  private final long myFlushIntervalNs;
+  private final int myFlushThreshold;
+  /**
+   * Serializes flushes between the writer thread and readers flushing before a query.
+   */
+  @NotNull private final ReentrantLock myFlushLock = new ReentrantLock();
+  /**
+   * Guards the commits requested by threads that flushed while the writer thread runs, and the last one the writer thread has committed.
+   */
+  @NotNull private final Object myCommitLock = new Object();
+  private long myRequestedCommit;
+  private long myCompletedCommit;
+  @Nullable private volatile Thread myWriterThread;
+  private volatile boolean myIsRunning;
+
+  // Metrics
+  @NotNull private final AtomicLong myFlushCount = new AtomicLong();
+  @NotNull private final AtomicLong myFlushedRowCount = new AtomicLong();
+  @NotNull private final AtomicLong myTotalFlushLatencyNs = new AtomicLong();
+  private volatile long myLastFlushLatencyNs;
+  private volatile long myMaxFlushLatencyNs;
+  private volatile int myLastFlushRowCount;
+
+  public UnifiedEventsWriter(@NotNull UnifiedEventsTable table) {
+    this(table, DEFAULT_FLUSH_INTERVAL_NS, DEFAULT_FLUSH_THRESHOLD, DEFAULT_CAPACITY);
+  }
+
+  @VisibleForTesting
+  public UnifiedEventsWriter(@NotNull UnifiedEventsTable table, long flushIntervalNs, int flushThreshold, int capacity) {
+    assert flushThreshold <= capacity;
+    myTable = table;
+    myFlushIntervalNs = flushIntervalNs;
+    myFlushThreshold = flushThreshold;
+    myBuffer = new EventRingBuffer(capacity);
+  }
+
+  /**
+   * Starts the writer thread. Until this is called, or after {@link #stop()}, events are written through on the calling thread.
+   */
+  public synchronized void start() {
+    if (myIsRunning) {
+      return;
+    }
+    myIsRunning = true;
+    Thread writerThread = new Thread(this::runWriter, "UnifiedEventsWriter");
+    writerThread.setDaemon(true);
+    myWriterThread = writerThread;
+    writerThread.start();
+  }
+
+  /**
+   * Stops the writer thread after it has flushed every pending event.
+   */
+  public synchronized void stop() {
+    Thread writerThread = myWriterThread;
+    if (!myIsRunning || writerThread == null) {
+      return;
+    }
+    myIsRunning = false;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join();
+    }
+    catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    myWriterThread = null;
+    flush();
+  }
+
+  public void insertUnifiedEvent(long streamId, @NotNull Event event) {
+    PendingEvent pending = new PendingEvent(streamId, event);
+    while (!myBuffer.offer(pending)) {
+      // The writer is falling behind, drain the buffer on the calling thread to apply backpressure to the poller. The writer thread still
+      // commits the events.
+      writePendingEvents();
+    }
+    Thread writerThread = myWriterThread;
+    if (!myIsRunning || writerThread == null) {
+      flush();
+    }
+    else if (myBuffer.size() >= myFlushThreshold) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  /**
+   * Writes every pending event to the table, and waits for the writer thread to commit them along with any other write to the table.
+   * When the writer thread is not running, the writes are committed on the calling thread instead.
+   */
+  public void flush() {
+    writePendingEvents();
+    if (!myTable.hasPendingWrites()) {
+      return;
+    }
+    Thread writerThread = myWriterThread;
+    if (!myIsRunning || writerThread == null) {
+      myTable.commitPendingWrites();
+      return;
+    }
+    if (Thread.currentThread() == writerThread) {
+      commit();
+      return;
+    }
+
+    synchronized (myCommitLock) {
+      long request = ++myRequestedCommit;
+      LockSupport.unpark(writerThread);
+      while (myCompletedCommit < request && writerThread.isAlive()) {
+        try {
+          myCommitLock.wait(COMMIT_WAIT_MS);
+        }
+        catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      if (myCompletedCommit < request) {
+        // The writer thread stopped before getting to the request.
+        myTable.commitPendingWrites();
+      }
+    }
+  }
+
+  private void writePendingEvents() {
+    myFlushLock.lock();
+    try {
+      if (myBuffer.size() == 0) {
+        return;
+      }
+      long startTimeNs = System.nanoTime();
+      // Group events by stream, keeping their order, so each stream is written with a single batched statement.
+      Map<Long, List<Event>> streamEvents = new LinkedHashMap<>();
+      int rowCount = 0;
+      PendingEvent pending;
+      while ((pending = myBuffer.poll()) != null) {
+        streamEvents.computeIfAbsent(pending.myStreamId, id -> new ArrayList<>()).add(pending.myEvent);
+        rowCount++;
+      }
+      streamEvents.forEach(myTable::insertUnifiedEvents);
+
+      long latencyNs = System.nanoTime() - startTimeNs;
+      myFlushCount.incrementAndGet();
+      myFlushedRowCount.addAndGet(rowCount);
+      myTotalFlushLatencyNs.addAndGet(latencyNs);
+      myLastFlushLatencyNs = latencyNs;
+      myLastFlushRowCount = rowCount;
+      myMaxFlushLatencyNs = Math.max(myMaxFlushLatencyNs, latencyNs);
+    }
+    finally {
+      myFlushLock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of events waiting to be written.
+   */
+  public int getQueueDepth() {
+    return myBuffer.size();
+  }
+
+  public long getFlushCount() {
+    return myFlushCount.get();
+  }
+
+  public long getFlushedRowCount() {
+    return myFlushedRowCount.get();
+  }
+
+  public int getLastFlushRowCount() {
+    return myLastFlushRowCount;
+  }
+
+  public double getAverageRowsPerFlush() {
+    long flushCount = myFlushCount.get();
+    return flushCount == 0 ? 0 : (double)myFlushedRowCount.get() / flushCount;
+  }
+
+  public long getLastFlushLatencyNs() {
+    return myLastFlushLatencyNs;
+  }
+
+  public long getMaxFlushLatencyNs() {
+    return myMaxFlushLatencyNs;
+  }
+
+  public long getAverageFlushLatencyNs() {
+    long flushCount = myFlushCount.get();
+    return flushCount == 0 ? 0 : myTotalFlushLatencyNs.get() / flushCount;
+  }
+
+  private void runWriter() {
+    while (myIsRunning) {
+      // Woken up early by producers once the flush threshold is reached, and by threads waiting for a commit.
+      LockSupport.parkNanos(this, myFlushIntervalNs);
+      writePendingEvents();
+      commit();
+    }
+  }
+
+  /**
+   * Commits the table on the writer thread, completing the commits requested until now.
+   */
+  private void commit() {
+    long request;
+    synchronized (myCommitLock) {
+      request = myRequestedCommit;
+    }
+    myTable.commitPendingWrites();
+    synchronized (myCommitLock) {
+      myCompletedCommit = Math.max(myCompletedCommit, request);
+      myCommitLock.notifyAll();
+    }
+  }
+
+  @VisibleForTesting
+  static final class PendingEvent {
+    private final long myStreamId;
+    @NotNull private final Event myEvent;
+
+    PendingEvent(long streamId, @NotNull Event event) {
+      myStreamId = streamId;
+      myEvent = event;
+    }
+
+    @NotNull
+    Event getEvent() {
+      return myEvent;
+    }
+  }
+
+  /**
+   * Bounded multi-producer multi-consumer queue. Each slot carries a sequence number that tells producers and consumers whether the slot
+   * is free for the lap they are on, so both sides only need a compare-and-set on their own cursor.
+   */
+  @VisibleForTesting
+  static final class EventRingBuffer {
+    @NotNull private final AtomicReferenceArray<PendingEvent> mySlots;
+    @NotNull private final AtomicLongArray mySequences;
+    private final int myMask;
+    @NotNull private final AtomicLong myHead = new AtomicLong();
+    @NotNull private final AtomicLong myTail = new AtomicLong();
+
+    EventRingBuffer(int capacity) {
+      int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+      mySlots = new AtomicReferenceArray<>(size);
+      mySequences = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++) {
+        mySequences.set(i, i);
+      }
+      myMask = size - 1;
+    }
+
+    /**
+     * @return false if the buffer is full.
+     */
+    boolean offer(@NotNull PendingEvent event) {
+      long position = myTail.get();
+      while (true) {
+        int index = (int)(position & myMask);
+        long difference = mySequences.get(index) - position;
+        if (difference == 0) {
+          if (myTail.compareAndSet(position, position + 1)) {
+            mySlots.set(index, event);
+            mySequences.set(index, position + 1);
+            return true;
+          }
+        }
+        else if (difference < 0) {
+          return false;
+        }
+        position = myTail.get();
+      }
+    }
+
+    /**
+     * @return null if the buffer is empty.
+     */
+    @Nullable
+    PendingEvent poll() {
+      long position = myHead.get();
+      while (true) {
+        int index = (int)(position & myMask);
+        long difference = mySequences.get(index) - (position + 1);
+        if (difference == 0) {
+          if (myHead.compareAndSet(position, position + 1)) {
+            PendingEvent event = mySlots.getAndSet(index, null);
+            mySequences.set(index, position + myMask + 1);
+            return event;
+          }
+        }
+        else if (difference < 0) {
+          return null;
+        }
+        position = myHead.get();
+      }
+    }
+
+    int size() {
+      return (int)Math.max(0, myTail.get() - myHead.get());
+    }
+  }
+}
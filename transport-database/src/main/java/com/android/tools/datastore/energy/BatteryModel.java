@@ -26,7 +26,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -38,14 +37,16 @@ import org.jetbrains.annotations.Nullable;
  * {@link #handleEvent(long, Event, Object)}. Each {@link Event} takes an argument; read the
  * enumeration's comment to see what it expects.
  * <p>
- * Once events have been added, use {@link #getSamplesBetween(long, long)} to retrieve
- * all energy values between two times. Samples will automatically be bucketed at a regular
+ * Once events have been added, use {@link #getSamplesBetween(long, long)} or
+ * {@link #getSampleRange(long, long, SampleRange)} to retrieve all energy values between two times. Samples will automatically be bucketed at a regular
  * interval - that is, the results will give the appearance of being sampled periodically and
  * discretely, as opposed to returning exact timestamps that an event happened at.
  * <p>
  * Note that this means, if a couple of events happen within microseconds of each other,
  * they can be merged into a single bucket.
  * <p>
+ * Use {@link #getAverageUsageBetween(long, long)} to retrieve the average energy use over any time range.
+ * <p>
  * TODO(b/73538823): Move battery model out of the datastore
  */
 public final class BatteryModel {
@@ -56,12 +57,32 @@ public final class BatteryModel {
   // The total number of forward smoothing samples we will use to amortize the cost of the GPS energy use.
   private static final int LOCATION_SMOOTHING_SAMPLES = 4;
 
+  private static final int INITIAL_CAPACITY = 64;
+
+  // Indices of the power components in the usage and energy columns.
+  private static final int CPU = 0;
+  private static final int NETWORK = 1;
+  private static final int LOCATION = 2;
+  private static final int COMPONENT_COUNT = 3;
+
+  /**
+   * Sparse samples, sorted by timestamp, with one usage column per power component. Sparse samples
+   * will be converted to dense samples on the fly when the user calls {@link #getSampleRange(long, long, SampleRange)}.
+   */
+  @NotNull
+  private long[] mySampleTimestamps = new long[INITIAL_CAPACITY];
+  @NotNull
+  private final int[][] mySampleUsages = new int[COMPONENT_COUNT][INITIAL_CAPACITY];
+  private int mySampleCount;
+
   /**
-   * Sparse samples will be converted to dense samples on the fly when the user calls
-   * {@link #getSamplesBetween(long, long)}.
+   * The energy used, as usage times nanoseconds, from the first sparse sample until each sparse sample.
+   * Only the first {@link #myValidEnergyCount} entries are up to date; the rest are recomputed when needed,
+   * which is cheap as events mostly change the latest samples.
    */
   @NotNull
-  private final List<EnergySample> mySparseSamples = new ArrayList<>();
+  private final long[][] myEnergyBeforeSample = new long[COMPONENT_COUNT][INITIAL_CAPACITY];
+  private int myValidEnergyCount;
   @NotNull
   private final PowerProfile myPowerProfile;
   private final long mySampleIntervalNs;
@@ -73,7 +94,7 @@ public final class BatteryModel {
   private long mySendingBps;
 
   private Map<Long, Long> myGpsLockonMap = new HashMap<>(); // event ID -> initial GPS location request timestamp
-  private Map<Long, EnergySample> myLocationSmoothingMap = new HashMap<>(); // event ID -> event/smoothing start sample
+  private Map<Long, Long> myLocationSmoothingMap = new HashMap<>(); // event ID -> event/smoothing start sample timestamp
   private long myLastNetworkLocationOffTime = 0;
   private final long mySmoothingEndDeltaTime;
   private long myLastGpsOffTime = 0;
@@ -87,7 +108,8 @@ public final class BatteryModel {
     myPowerProfile = powerProfile;
     mySampleIntervalNs = sampleIntervalNs;
     mySmoothingEndDeltaTime = LOCATION_SMOOTHING_SAMPLES * mySampleIntervalNs;
-    mySparseSamples.add(0, EnergySample.newBuilder().setEnergyUsage(Energy.EnergyUsageData.getDefaultInstance()).build());
+    // Start with a sample that uses no energy.
+    mySampleCount = 1;
   }
 
   /**
@@ -167,115 +189,176 @@ public final class BatteryModel {
 
   @NotNull
   public List<EnergySample> getSamplesBetween(long startInclusiveNs, long endExclusiveNs) {
-    int currIndex = getSampleIndexFor(startInclusiveNs);
-    List<EnergySample> samples = new ArrayList<>();
-    // By aligning start time to our bucket interval and incrementing by that interval, every
-    // intermediate for-loop value will be aligned as well.
-    for (long timestampNs = alignToSampleInterval(startInclusiveNs); timestampNs < endExclusiveNs; timestampNs += mySampleIntervalNs) {
-      EnergySample nearestSample = mySparseSamples.get(currIndex);
-      int nextIndex = currIndex + 1;
-      if (nextIndex < mySparseSamples.size()) {
-        EnergySample nextSample = mySparseSamples.get(nextIndex);
-        if (nextSample.getTimestamp() <= timestampNs) {
-          ++currIndex;
-          nearestSample = nextSample;
-        }
-      }
-      samples.add(nearestSample.toBuilder().setTimestamp(timestampNs).build());
+    SampleRange range = getSampleRange(startInclusiveNs, endExclusiveNs, null);
+    List<EnergySample> samples = new ArrayList<>(range.size());
+    for (int i = 0; i < range.size(); ++i) {
+      samples.add(range.getSample(i));
     }
     return samples;
   }
 
+  /**
+   * Returns a view of the samples between two times, without creating a sample per bucket like
+   * {@link #getSamplesBetween(long, long)} does. The view is only valid until the next event is handled.
+   *
+   * @param reuse a range returned by a previous call, which is updated and returned instead of creating a new one
+   */
+  @NotNull
+  public SampleRange getSampleRange(long startInclusiveNs, long endExclusiveNs, @Nullable SampleRange reuse) {
+    SampleRange range = reuse != null ? reuse : new SampleRange(this);
+    assert range.myModel == this;
+    // By aligning start time to our bucket interval and incrementing by that interval, every
+    // intermediate bucket will be aligned as well.
+    long firstTimestampNs = alignToSampleInterval(startInclusiveNs);
+    long bucketCount = endExclusiveNs > firstTimestampNs ? (endExclusiveNs - firstTimestampNs - 1) / mySampleIntervalNs + 1 : 0;
+    range.reset(firstTimestampNs, (int)bucketCount, getSampleIndexFor(firstTimestampNs));
+    return range;
+  }
+
+  /**
+   * Returns the average usage of each power component between two times. Both ends are looked up with a binary search over the sparse
+   * samples, so this takes O(log n) rather than summing every bucket in between, plus a one-off pass over the samples added since the
+   * previous call to extend the running energy totals. Nothing in the profilers calls this yet; it is
+   * meant for callers that only need an aggregate over a range, e.g. a tooltip for a selection.
+   */
+  @NotNull
+  public Energy.EnergyUsageData getAverageUsageBetween(long startInclusiveNs, long endExclusiveNs) {
+    if (endExclusiveNs <= startInclusiveNs) {
+      return Energy.EnergyUsageData.getDefaultInstance();
+    }
+    updateEnergyBeforeSamples();
+    int startIndex = getSampleIndexFor(startInclusiveNs);
+    int endIndex = getSampleIndexFor(endExclusiveNs);
+    int[] averages = new int[COMPONENT_COUNT];
+    for (int component = 0; component < COMPONENT_COUNT; ++component) {
+      long energy = getEnergyBefore(component, endIndex, endExclusiveNs) - getEnergyBefore(component, startIndex, startInclusiveNs);
+      averages[component] = (int)Math.round((double)energy / (endExclusiveNs - startInclusiveNs));
+    }
+    return Energy.EnergyUsageData.newBuilder()
+      .setCpuUsage(averages[CPU])
+      .setNetworkUsage(averages[NETWORK])
+      .setLocationUsage(averages[LOCATION])
+      .build();
+  }
+
+  /**
+   * Returns the index of the latest sparse sample at or before {@code timestampNs}, or 0 if there is none.
+   */
   private int getSampleIndexFor(long timestampNs) {
-    for (int i = mySparseSamples.size() - 1; i >= 0; i--) {
-      EnergySample sample = mySparseSamples.get(i);
-      if (sample.getTimestamp() <= timestampNs) {
-        // TODO (b/73486903): How slow is this? Replace with binary search?
-        return i;
+    return getSampleIndexFor(timestampNs, 0, mySampleCount);
+  }
+
+  private int getSampleIndexFor(long timestampNs, int fromIndex, int toIndex) {
+    int index = Arrays.binarySearch(mySampleTimestamps, fromIndex, toIndex, timestampNs);
+    if (index >= 0) {
+      return index;
+    }
+    // binarySearch returns -(insertion point) - 1, and the sample before the insertion point is the one we want.
+    return Math.max(fromIndex, -index - 2);
+  }
+
+  private long getEnergyBefore(int component, int sampleIndex, long timestampNs) {
+    return myEnergyBeforeSample[component][sampleIndex] +
+           mySampleUsages[component][sampleIndex] * (timestampNs - mySampleTimestamps[sampleIndex]);
+  }
+
+  private void updateEnergyBeforeSamples() {
+    for (int component = 0; component < COMPONENT_COUNT; ++component) {
+      long[] energies = myEnergyBeforeSample[component];
+      int[] usages = mySampleUsages[component];
+      for (int i = Math.max(1, myValidEnergyCount); i < mySampleCount; ++i) {
+        energies[i] = energies[i - 1] + usages[i - 1] * (mySampleTimestamps[i] - mySampleTimestamps[i - 1]);
       }
     }
-    return 0;
+    myValidEnergyCount = mySampleCount;
   }
 
   private void addNewCpuSample(long timestampNs) {
-    addNewSample(timestampNs, usage -> usage.setCpuUsage(myPowerProfile.getCpuUsage(myLastCpuCoresUsage)));
+    addNewSample(timestampNs, CPU, myPowerProfile.getCpuUsage(myLastCpuCoresUsage));
   }
 
   private void addNewNetworkSample(long timestampNs, @NotNull PowerProfile.NetworkStats networkStats) {
-    addNewSample(timestampNs, usage -> usage.setNetworkUsage(myPowerProfile.getNetworkUsage(networkStats)));
+    addNewSample(timestampNs, NETWORK, myPowerProfile.getNetworkUsage(networkStats));
   }
 
-  @NotNull
-  private EnergySample addNewLocationSample(long timestampNs, @NotNull LocationStats locationStats) {
-    return addNewSample(timestampNs, usage -> usage.setLocationUsage(myPowerProfile.getLocationUsage(locationStats)));
+  /**
+   * @return the timestamp of the sample, aligned to its bucket.
+   */
+  private long addNewLocationSample(long timestampNs, @NotNull LocationStats locationStats) {
+    return addNewSample(timestampNs, LOCATION, myPowerProfile.getLocationUsage(locationStats));
   }
 
   private void removeLocationSample(long timestampNs) {
-    removeDataFromSample(timestampNs, sample -> sample.setLocationUsage(0));
+    timestampNs = alignToSampleInterval(timestampNs);
+
+    int sampleIndex = getSampleIndexFor(timestampNs);
+    if (timestampNs != mySampleTimestamps[sampleIndex]) {
+      // There were no valid samples at this timestamp, so just ignore.
+      return;
+    }
+    mySampleUsages[LOCATION][sampleIndex] = 0;
+    invalidateEnergyAfter(sampleIndex);
   }
 
-  @NotNull
-  private EnergySample addNewSample(long timestampNs,
-                                    @NotNull Function<Energy.EnergyUsageData.Builder, Energy.EnergyUsageData.Builder> produceNewUsage) {
+  /**
+   * Sets the usage of one power component from {@code timestampNs} onward, until the next sample.
+   *
+   * @return the timestamp of the sample, aligned to its bucket.
+   */
+  private long addNewSample(long timestampNs, int component, int usage) {
     timestampNs = alignToSampleInterval(timestampNs);
 
     int prevSampleIndex = getSampleIndexFor(timestampNs);
-    EnergySample prevSample = mySparseSamples.get(prevSampleIndex);
-    if (timestampNs < prevSample.getTimestamp()) {
+    if (timestampNs < mySampleTimestamps[prevSampleIndex]) {
       throw new IllegalArgumentException("Received energy events out of order");
     }
 
-    EnergySample newSample = EnergySample.newBuilder()
-      .setTimestamp(timestampNs)
-      .setEnergyUsage(produceNewUsage.apply(prevSample.getEnergyUsage().toBuilder()))
-      .build();
+    if (mySampleUsages[component][prevSampleIndex] == usage) {
+      // The usage amounts of the new sample would be the same as the previous one.
+      return timestampNs;
+    }
 
-    // We want to compare samples to see if their usage amounts are the same even if they are at
-    // different timestamps. The easiest way to do this is to make a copy of the two samples
-    // with their timestamps stubbed out.
-    EnergySample prevSampleNoTime = prevSample.toBuilder().setTimestamp(0).build();
-    EnergySample newSampleNoTime = newSample.toBuilder().setTimestamp(0).build();
-
-    if (!prevSampleNoTime.equals(newSampleNoTime)) {
-      if (prevSample.getTimestamp() == newSample.getTimestamp()) {
-        // This means we had multiple events occur at the same time. Replace with the latest sample
-        // in that case.
-        mySparseSamples.set(prevSampleIndex, newSample);
-      }
-      else {
-        mySparseSamples.add(prevSampleIndex + 1, newSample);
+    if (mySampleTimestamps[prevSampleIndex] == timestampNs) {
+      // This means we had multiple events occur at the same time. Replace with the latest sample
+      // in that case.
+      mySampleUsages[component][prevSampleIndex] = usage;
+      invalidateEnergyAfter(prevSampleIndex);
+    }
+    else {
+      int index = prevSampleIndex + 1;
+      insertSample(index, timestampNs);
+      for (int i = 0; i < COMPONENT_COUNT; ++i) {
+        mySampleUsages[i][index] = mySampleUsages[i][prevSampleIndex];
       }
+      mySampleUsages[component][index] = usage;
+      invalidateEnergyAfter(prevSampleIndex);
     }
-
-    return newSample;
+    return timestampNs;
   }
 
-  private void removeDataFromSample(long timestampNs,
-                                    @NotNull Function<Energy.EnergyUsageData.Builder, Energy.EnergyUsageData.Builder> resetSample) {
-    timestampNs = alignToSampleInterval(timestampNs);
-
-    int sampleIndex = getSampleIndexFor(timestampNs);
-    EnergySample originalSample = mySparseSamples.get(sampleIndex);
-    if (timestampNs != originalSample.getTimestamp()) {
-      // There were no valid samples at this timestamp, so just ignore.
-      return;
-    }
-
-    EnergySample updatedSample = EnergySample.newBuilder()
-      .setTimestamp(timestampNs)
-      .setEnergyUsage(resetSample.apply(originalSample.getEnergyUsage().toBuilder()))
-      .build();
-
-    // If the sample usage amounts are all the default values, we want to remove the sample.
-    // This is easiest done by removing the time value and comparing against the default EnergySample.
-    EnergySample updatedSampleNoTime = updatedSample.toBuilder().setTimestamp(0).build();
-
-    if (updatedSampleNoTime.equals(EnergySample.getDefaultInstance())) {
-      mySparseSamples.remove(sampleIndex);
+  private void insertSample(int index, long timestampNs) {
+    if (mySampleCount == mySampleTimestamps.length) {
+      int capacity = mySampleCount * 2;
+      mySampleTimestamps = Arrays.copyOf(mySampleTimestamps, capacity);
+      for (int i = 0; i < COMPONENT_COUNT; ++i) {
+        mySampleUsages[i] = Arrays.copyOf(mySampleUsages[i], capacity);
+        myEnergyBeforeSample[i] = Arrays.copyOf(myEnergyBeforeSample[i], capacity);
+      }
     }
-    else {
-      mySparseSamples.set(sampleIndex, updatedSample);
+    int movedCount = mySampleCount - index;
+    System.arraycopy(mySampleTimestamps, index, mySampleTimestamps, index + 1, movedCount);
+    for (int i = 0; i < COMPONENT_COUNT; ++i) {
+      System.arraycopy(mySampleUsages[i], index, mySampleUsages[i], index + 1, movedCount);
     }
+    mySampleTimestamps[index] = timestampNs;
+    mySampleCount++;
+  }
+
+  /**
+   * Marks the energy used before every sample after {@code sampleIndex} as out of date.
+   */
+  private void invalidateEnergyAfter(int sampleIndex) {
+    myValidEnergyCount = Math.min(myValidEnergyCount, sampleIndex + 1);
   }
 
   private void handleLocationUpdateEvent(long timestampNs, @NotNull PowerProfile.LocationEvent locationEvent) {
@@ -292,13 +375,13 @@ public final class BatteryModel {
           // accounting as to how samples are retrieved, as well as allowing modification of events that have occurred. To fix this,
           // we will need to implement a way to tentatively associate GPS power information to the app, and only when we get a GPS event
           // do we actually charge the power cost to the app.
-          EnergySample previousSample = myLocationSmoothingMap.get(locationEvent.myEventId);
-          long residualTime = calculateResidualSmoothingTime(previousSample, timestampNs);
+          Long previousSampleTimestamp = myLocationSmoothingMap.get(locationEvent.myEventId);
+          long residualTime = calculateResidualSmoothingTime(previousSampleTimestamp, timestampNs);
           if (residualTime > 0) {
             // Remove stale smoothing end sample.
-            removeLocationSample(previousSample.getTimestamp() + mySmoothingEndDeltaTime);
+            removeLocationSample(previousSampleTimestamp + mySmoothingEndDeltaTime);
           }
-          EnergySample eventSample = addNewLocationSample(
+          long eventSampleTimestamp = addNewLocationSample(
             timestampNs,
             // Use the minimum of the time since the last GPS sample or the estimated time it takes the GPS to lock.
             // This basically means that if the time since the last sample is longer than the average lock time, we assume the OS turned
@@ -307,7 +390,7 @@ public final class BatteryModel {
               LocationType.GPS,
               Math.min(GPS_LOCK_DURATION_NS, timestampNs - myLastGpsOffTime) + residualTime,
               mySampleIntervalNs * LOCATION_SMOOTHING_SAMPLES));
-          myLocationSmoothingMap.put(locationEvent.myEventId, eventSample);
+          myLocationSmoothingMap.put(locationEvent.myEventId, eventSampleTimestamp);
           // Add an artificial end time for GPS energy forward smoothing.
           addNewLocationSample(timestampNs + mySmoothingEndDeltaTime,
                                new LocationStats(LocationType.NONE, 0, mySampleIntervalNs));
@@ -342,12 +425,86 @@ public final class BatteryModel {
     return align(timestampNs, mySampleIntervalNs);
   }
 
-  private long calculateResidualSmoothingTime(@Nullable EnergySample previousSample, long currentTime) {
-    if (previousSample == null) {
+  private long calculateResidualSmoothingTime(@Nullable Long previousSampleTimestamp, long currentTime) {
+    if (previousSampleTimestamp == null) {
       return 0;
     }
 
-    return Math.max(0, alignToSampleInterval(previousSample.getTimestamp() + mySmoothingEndDeltaTime) - alignToSampleInterval(currentTime));
+    return Math.max(0, alignToSampleInterval(previousSampleTimestamp + mySmoothingEndDeltaTime) - alignToSampleInterval(currentTime));
+  }
+
+  /**
+   * A view of the dense samples between two times, as returned by {@link #getSampleRange(long, long, SampleRange)}.
+   */
+  public static final class SampleRange {
+    @NotNull private final BatteryModel myModel;
+    private long myFirstTimestampNs;
+    private int mySize;
+    private int myFirstSampleIndex;
+    // The bucket looked up last and its sparse sample, so that walking the range in order doesn't need a search per bucket.
+    private int myCursorBucket;
+    private int myCursorSampleIndex;
+
+    private SampleRange(@NotNull BatteryModel model) {
+      myModel = model;
+    }
+
+    private void reset(long firstTimestampNs, int size, int firstSampleIndex) {
+      myFirstTimestampNs = firstTimestampNs;
+      mySize = size;
+      myFirstSampleIndex = firstSampleIndex;
+      myCursorBucket = 0;
+      myCursorSampleIndex = firstSampleIndex;
+    }
+
+    public int size() {
+      return mySize;
+    }
+
+    public long getTimestamp(int bucket) {
+      return myFirstTimestampNs + bucket * myModel.mySampleIntervalNs;
+    }
+
+    public int getCpuUsage(int bucket) {
+      return myModel.mySampleUsages[CPU][getSampleIndex(bucket)];
+    }
+
+    public int getNetworkUsage(int bucket) {
+      return myModel.mySampleUsages[NETWORK][getSampleIndex(bucket)];
+    }
+
+    public int getLocationUsage(int bucket) {
+      return myModel.mySampleUsages[LOCATION][getSampleIndex(bucket)];
+    }
+
+    @NotNull
+    public EnergySample getSample(int bucket) {
+      int sampleIndex = getSampleIndex(bucket);
+      return EnergySample.newBuilder()
+        .setTimestamp(getTimestamp(bucket))
+        .setEnergyUsage(Energy.EnergyUsageData.newBuilder()
+                          .setCpuUsage(myModel.mySampleUsages[CPU][sampleIndex])
+                          .setNetworkUsage(myModel.mySampleUsages[NETWORK][sampleIndex])
+                          .setLocationUsage(myModel.mySampleUsages[LOCATION][sampleIndex]))
+        .build();
+    }
+
+    private int getSampleIndex(int bucket) {
+      if (bucket < 0 || bucket >= mySize) {
+        throw new IndexOutOfBoundsException("Bucket " + bucket + " is not in range [0, " + mySize + ")");
+      }
+      long timestampNs = getTimestamp(bucket);
+      if (bucket == myCursorBucket + 1) {
+        while (myCursorSampleIndex + 1 < myModel.mySampleCount && myModel.mySampleTimestamps[myCursorSampleIndex + 1] <= timestampNs) {
+          myCursorSampleIndex++;
+        }
+      }
+      else if (bucket != myCursorBucket) {
+        myCursorSampleIndex = myModel.getSampleIndexFor(timestampNs, myFirstSampleIndex, myModel.mySampleCount);
+      }
+      myCursorBucket = bucket;
+      return myCursorSampleIndex;
+    }
   }
 
   public enum Event {
@@ -113,5 +113,12 @@ public class CpuDataPoller extends PollRunner {
     }
 
     myDataRequestStartTimestampNs = Math.max(Math.max(myDataRequestStartTimestampNs + 1, getDataStartNs), getThreadsStartNs);
+
+    int activityCount = 0;
+    for (CpuProfiler.GetThreadsResponse.Thread thread : threadsResponse.getThreadsList()) {
+      activityCount += thread.getActivitiesCount();
+    }
+    recordPayload(response.getDataCount() + activityCount + traceInfoResponse.getTraceInfoCount(),
+                  response.getSerializedSize() + threadsResponse.getSerializedSize() + traceInfoResponse.getSerializedSize());
   }
 }
@@ -53,6 +53,8 @@ public final class EnergyDataPoller extends PollRunner {
   @Nullable
   private Cpu.CpuUsageData myLastData = null;
   private PowerProfile.NetworkType myLastKnownNetworkType = PowerProfile.NetworkType.NONE;
+  // Reused by every poll to read the latest samples out of the battery model.
+  @Nullable private BatteryModel.SampleRange mySampleRange;
 
   @NotNull private TransportServiceGrpc.TransportServiceBlockingStub myTransportService;
   @NotNull private CpuServiceGrpc.CpuServiceBlockingStub myCpuService;
@@ -213,9 +215,11 @@ public final class EnergyDataPoller extends PollRunner {
       }
     }
 
-    for (EnergyProfiler.EnergySample sample : myBatteryModel.getSamplesBetween(request.getStartTimestamp(), request.getEndTimestamp())) {
-      myEnergyTable.insertOrReplace(mySession, sample);
+    BatteryModel.SampleRange samples = myBatteryModel.getSampleRange(request.getStartTimestamp(), request.getEndTimestamp(), mySampleRange);
+    for (int i = 0; i < samples.size(); ++i) {
+      myEnergyTable.insertOrReplace(mySession, samples.getSample(i));
     }
+    mySampleRange = samples;
   }
 
   @NotNull
@@ -83,5 +83,7 @@ public class EventDataPoller extends PollRunner {
       long id = data.getEventId();
       myEventsTable.insertOrReplace(id, mySession, data);
     }
+    recordPayload(activityResponse.getDataCount() + systemResponse.getDataCount(),
+                  activityResponse.getSerializedSize() + systemResponse.getSerializedSize());
   }
 }
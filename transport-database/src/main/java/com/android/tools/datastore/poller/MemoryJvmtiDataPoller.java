@@ -62,5 +62,7 @@ public class MemoryJvmtiDataPoller extends PollRunner {
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
+    recordPayload(response.getBatchAllocationContextsCount() + response.getBatchAllocationEventsCount() +
+                  response.getJniReferenceEventBatchesCount() + response.getAllocSamplingRateEventsCount(), response.getSerializedSize());
   }
 }
\ No newline at end of file
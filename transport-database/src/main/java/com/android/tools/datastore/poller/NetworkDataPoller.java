@@ -52,6 +52,7 @@ public class NetworkDataPoller extends PollRunner {
       myDataRequestStartTimestampNs = Math.max(myDataRequestStartTimestampNs, data.getEndTimestamp());
       myNetworkTable.insert(mySession, data);
     }
+    recordPayload(response.getDataCount(), response.getSerializedSize());
     pollHttpRange();
   }
 
@@ -59,6 +60,7 @@ public class NetworkDataPoller extends PollRunner {
     HttpRangeRequest.Builder requestBuilder = HttpRangeRequest
       .newBuilder().setSession(mySession).setStartTimestamp(myHttpRangeRequestStartTimeNs).setEndTimestamp(Long.MAX_VALUE);
     HttpRangeResponse httpRange = myPollingService.getHttpRange(requestBuilder.build());
+    recordPayload(httpRange.getDataCount(), httpRange.getSerializedSize());
 
     for (HttpConnectionData connection : httpRange.getDataList()) {
       myHttpRangeRequestStartTimeNs = Math.max(myHttpRangeRequestStartTimeNs, connection.getStartTimestamp() + 1);
@@ -90,6 +92,8 @@ public class NetworkDataPoller extends PollRunner {
   private HttpDetailsResponse pollHttpDetails(long id, HttpDetailsRequest.Type type) {
     HttpDetailsRequest request = HttpDetailsRequest
       .newBuilder().setConnId(id).setType(type).build();
-    return myPollingService.getHttpDetails(request);
+    HttpDetailsResponse response = myPollingService.getHttpDetails(request);
+    recordPayload(0, response.getSerializedSize());
+    return response;
   }
 }
\ No newline at end of file
@@ -15,31 +15,91 @@
  */
 package com.android.tools.datastore.poller;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.StatusRuntimeException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link RunnableFuture} which, while running, triggers a callback at a specified period
  * (which can be used to poll a target service at some frequency).
+ *
+ * Running a poller does not hold on to the calling thread: the callbacks of every poller are multiplexed over a small shared pool. Pollers
+ * that report their payload (see {@link #recordPayload(int, int)}) back off exponentially, up to a maximum period, while the target
+ * service has no new data, and return to their period as soon as data flows again.
  */
 public abstract class PollRunner implements RunnableFuture<Void> {
 
   public static final long POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(250);
 
-  private long myPollPeriodNs;
+  /**
+   * Longest period pollers back off to while the target service returns no data.
+   */
+  public static final long MAX_POLLING_DELAY_NS = TimeUnit.SECONDS.toNanos(2);
+
+  private static final ScheduledExecutorService SHARED_SCHEDULER = createScheduler();
+
+  private final long myPollPeriodNs;
+
+  private final long myMaxPollPeriodNs;
+
+  @NotNull private final ScheduledExecutorService myScheduler;
+
+  private volatile boolean myIsRunning = false;
+
+  private final CountDownLatch myRunning = new CountDownLatch(1);
 
-  private boolean myIsRunning = false;
+  private final CountDownLatch myIsDone = new CountDownLatch(1);
 
-  private CountDownLatch myRunning = new CountDownLatch(1);
+  /**
+   * The next scheduled poll, guarded by this.
+   */
+  @Nullable private ScheduledFuture<?> myNextPoll;
 
-  private CountDownLatch myIsDone = new CountDownLatch(1);
+  private long myCurrentPeriodNs;
 
+  // Payload recorded by the poll in progress, see recordPayload.
+  private boolean myPayloadRecorded;
+  private int myPayloadItemCount;
+  private long myPayloadSizeBytes;
+
+  // Statistics, guarded by this.
+  private long myPollCount;
+  private long myLastPollTimeNs;
+  private long myTotalPollTimeNs;
+  private long myLastPayloadSizeBytes;
+  private long myTotalPayloadSizeBytes;
 
   public PollRunner(long pollPeriodNs) {
+    this(pollPeriodNs, Math.max(pollPeriodNs, MAX_POLLING_DELAY_NS), SHARED_SCHEDULER);
+  }
+
+  @VisibleForTesting
+  PollRunner(long pollPeriodNs, long maxPollPeriodNs, @NotNull ScheduledExecutorService scheduler) {
     myPollPeriodNs = pollPeriodNs;
+    myMaxPollPeriodNs = maxPollPeriodNs;
+    myScheduler = scheduler;
+    myCurrentPeriodNs = pollPeriodNs;
+  }
+
+  @NotNull
+  private static ScheduledExecutorService createScheduler() {
+    // Polls mostly wait on grpc calls to the device, a few threads are enough for every connected device.
+    int threadCount = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    ScheduledThreadPoolExecutor scheduler =
+      new ScheduledThreadPoolExecutor(threadCount, new ThreadFactoryBuilder().setNameFormat("DataStorePoller-%d").setDaemon(true).build());
+    // Stopped pollers should not keep their backed off polls in the queue.
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
   }
 
   public void stop() {
@@ -52,31 +112,114 @@ public abstract class PollRunner implements RunnableFuture<Void> {
     }
   }
 
+  /**
+   * Starts polling and returns right away, the polls run on the shared scheduler until the runner is stopped.
+   */
   @Override
   public void run() {
-    try {
+    synchronized (this) {
+      if (myIsRunning || isCancelled()) {
+        return;
+      }
       myIsRunning = true;
-      while (myRunning.getCount() > 0) {
-        long startTimeNs = System.nanoTime();
-        poll();
-        long sleepTime = Math.max(myPollPeriodNs - (System.nanoTime() - startTimeNs), 0L);
-        myRunning.await(sleepTime, TimeUnit.NANOSECONDS);
+      scheduleNextPoll(0);
+    }
+  }
+
+  private void pollOnce() {
+    synchronized (this) {
+      if (isCancelled()) {
+        finish();
+        return;
       }
+      // Running polls cannot be cancelled, see cancel.
+      myNextPoll = null;
     }
-    catch (InterruptedException | StatusRuntimeException e) {
-      Thread.currentThread().interrupt();
+    long startTimeNs = System.nanoTime();
+    myPayloadRecorded = false;
+    myPayloadItemCount = 0;
+    myPayloadSizeBytes = 0;
+    try {
+      poll();
+    }
+    catch (StatusRuntimeException e) {
+      finish();
+      return;
+    }
+    catch (RuntimeException | Error e) {
+      finish();
+      throw e;
+    }
+    long pollTimeNs = System.nanoTime() - startTimeNs;
+
+    synchronized (this) {
+      if (!myPayloadRecorded || myPayloadItemCount > 0) {
+        myCurrentPeriodNs = myPollPeriodNs;
+      }
+      else {
+        myCurrentPeriodNs = Math.min(myCurrentPeriodNs * 2, myMaxPollPeriodNs);
+      }
+      myPollCount++;
+      myLastPollTimeNs = pollTimeNs;
+      myTotalPollTimeNs += pollTimeNs;
+      myLastPayloadSizeBytes = myPayloadSizeBytes;
+      myTotalPayloadSizeBytes += myPayloadSizeBytes;
+      // The next poll is only scheduled once this one is over, so a slow device or database never piles up polls in the queue.
+      scheduleNextPoll(Math.max(myCurrentPeriodNs - pollTimeNs, 0L));
+    }
+  }
+
+  private synchronized void scheduleNextPoll(long delayNs) {
+    if (isCancelled()) {
+      finish();
+      return;
+    }
+    try {
+      myNextPoll = myScheduler.schedule(this::pollOnce, delayNs, TimeUnit.NANOSECONDS);
     }
-    finally {
-      myIsRunning = false;
-      myIsDone.countDown();
+    catch (RejectedExecutionException e) {
+      finish();
     }
   }
 
+  private void finish() {
+    myIsRunning = false;
+    myIsDone.countDown();
+  }
+
   public abstract void poll();
 
+  /**
+   * Records the payload the poll in progress received. Pollers that never record a payload poll at their period, the others back off
+   * while their polls have no items.
+   *
+   * @param itemCount number of new items (e.g. samples) received
+   * @param sizeBytes serialized size of the responses the items were received in
+   */
+  protected void recordPayload(int itemCount, int sizeBytes) {
+    myPayloadRecorded = true;
+    myPayloadItemCount += itemCount;
+    myPayloadSizeBytes += sizeBytes;
+  }
+
+  /**
+   * @return the latency and payload statistics of the polls so far.
+   */
+  @NotNull
+  public synchronized Statistics getStatistics() {
+    return new Statistics(myPollCount, myLastPollTimeNs, myTotalPollTimeNs, myLastPayloadSizeBytes, myTotalPayloadSizeBytes,
+                          myCurrentPeriodNs);
+  }
+
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
-    myRunning.countDown();
+    synchronized (this) {
+      myRunning.countDown();
+      // A poll in progress finishes the runner once it is over, a poll that has not started yet never will.
+      if (myNextPoll != null && myNextPoll.cancel(false)) {
+        finish();
+      }
+    }
     return true;
   }
 
@@ -105,4 +248,54 @@ public abstract class PollRunner implements RunnableFuture<Void> {
     }
     return null;
   }
+
+  public static final class Statistics {
+    private final long myPollCount;
+    private final long myLastPollTimeNs;
+    private final long myTotalPollTimeNs;
+    private final long myLastPayloadSizeBytes;
+    private final long myTotalPayloadSizeBytes;
+    private final long myCurrentPeriodNs;
+
+    Statistics(long pollCount,
+               long lastPollTimeNs,
+               long totalPollTimeNs,
+               long lastPayloadSizeBytes,
+               long totalPayloadSizeBytes,
+               long currentPeriodNs) {
+      myPollCount = pollCount;
+      myLastPollTimeNs = lastPollTimeNs;
+      myTotalPollTimeNs = totalPollTimeNs;
+      myLastPayloadSizeBytes = lastPayloadSizeBytes;
+      myTotalPayloadSizeBytes = totalPayloadSizeBytes;
+      myCurrentPeriodNs = currentPeriodNs;
+    }
+
+    public long getPollCount() {
+      return myPollCount;
+    }
+
+    public long getLastPollTimeNs() {
+      return myLastPollTimeNs;
+    }
+
+    public long getAveragePollTimeNs() {
+      return myPollCount == 0 ? 0 : myTotalPollTimeNs / myPollCount;
+    }
+
+    public long getLastPayloadSizeBytes() {
+      return myLastPayloadSizeBytes;
+    }
+
+    public long getTotalPayloadSizeBytes() {
+      return myTotalPayloadSizeBytes;
+    }
+
+    /**
+     * @return the period the runner currently polls at, longer than its initial period while it backs off.
+     */
+    public long getCurrentPeriodNs() {
+      return myCurrentPeriodNs;
+    }
+  }
 }
@@ -141,5 +141,7 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
   public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
     myTable.initialize(connection);
+    // Legacy sessions from previous Studio runs are kept as long as the sessions of the unified pipeline, see TransportService.
+    myTable.compact(TransportService.STORED_DATA_MAX_AGE_MS);
   }
 }
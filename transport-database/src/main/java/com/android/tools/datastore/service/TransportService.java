@@ -15,11 +15,13 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.DataStoreTable;
 import com.android.tools.datastore.database.DeviceProcessTable;
 import com.android.tools.datastore.database.UnifiedEventsTable;
+import com.android.tools.datastore.database.UnifiedEventsWriter;
 import com.android.tools.datastore.poller.DeviceProcessPoller;
 import com.android.tools.datastore.poller.UnifiedEventsDataPoller;
 import com.android.tools.idea.flags.StudioFlags;
@@ -49,12 +51,21 @@ import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.stub.StreamObserver;
 import java.sql.Connection;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
@@ -65,9 +76,28 @@ import org.jetbrains.annotations.NotNull;
  * {@link #getDevices(GetDevicesRequest, StreamObserver)}, {@link #getProcesses(GetProcessesRequest, StreamObserver)}, etc.
  */
 public class TransportService extends TransportServiceGrpc.TransportServiceImplBase implements ServicePassThrough {
+  /**
+   * Optional call header of {@link #getEventGroups(GetEventGroupsRequest, StreamObserver)} carrying the duration, in nanoseconds, covered by
+   * one point of the caller's view. When set, numeric series are downsampled to that resolution instead of returning every event.
+   * The profilers' UnifiedEventDataSeries defines the same key on the client side.
+   */
+  public static final Metadata.Key<String> TARGET_RESOLUTION_HEADER =
+    Metadata.Key.of("transport-target-resolution-ns", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Context.Key<Long> TARGET_RESOLUTION_KEY = Context.key("transport-target-resolution-ns");
+  /**
+   * Sessions from previous Studio runs are kept up to this age, and the oldest ones are deleted while the stored data exceeds
+   * {@link #STORED_DATA_MAX_SIZE_BYTES}.
+   */
+  static final long STORED_DATA_MAX_AGE_MS = TimeUnit.DAYS.toMillis(7);
+  private static final long STORED_DATA_MAX_SIZE_BYTES = 4L * 1024 * 1024 * 1024;
+
   private final Map<Channel, DeviceProcessPoller> myLegacyPollers = Maps.newHashMap();
   private final Consumer<Runnable> myFetchExecutor;
   @NotNull private final UnifiedEventsTable myTable;
+  /**
+   * Batches the events streamed in by the pollers. Queries must flush it first so they observe every event received so far.
+   */
+  @NotNull private final UnifiedEventsWriter myWriter;
   @NotNull private final DeviceProcessTable myLegacyTable;
   @NotNull private final DataStoreService myService;
   private final boolean myLegacyPipelineForProfilers;
@@ -89,10 +119,16 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
     myService = service;
     myFetchExecutor = fetchExecutor;
     myTable = unifiedTable;
+    myWriter = new UnifiedEventsWriter(unifiedTable);
     myLegacyTable = new DeviceProcessTable();
     myLegacyPipelineForProfilers = legacyPipelineForProfilers;
   }
 
+  @Override
+  public ServerServiceDefinition bindService() {
+    return ServerInterceptors.intercept(super.bindService(), new TargetResolutionInterceptor());
+  }
+
   @NotNull
   @Override
   public List<DataStoreService.BackingNamespace> getBackingNamespaces() {
@@ -103,12 +139,32 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
   public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
     myTable.initialize(connection);
+    startTable();
 
     if (myLegacyPipelineForProfilers) {
       myLegacyTable.initialize(connection);
     }
   }
 
+  @Override
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+    assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
+    // Timeline queries run on read connections, so they are not held up by the events the pollers keep inserting.
+    myTable.initialize(database);
+    startTable();
+
+    if (myLegacyPipelineForProfilers) {
+      myLegacyTable.initialize(database.getConnection());
+    }
+  }
+
+  private void startTable() {
+    myTable.compact(STORED_DATA_MAX_AGE_MS, STORED_DATA_MAX_SIZE_BYTES);
+    // Events of restored sessions can be looked up by command id too, so new commands are numbered after them.
+    myNextCommandId.set(myTable.queryMaxCommandId());
+    myWriter.start();
+  }
+
   /**
    * Connects the datastore layer to a channel. By default ths starts the {@link UnifiedEventsDataPoller} for the transport pipeline which
    * streams Events into the database. If the profiler is using the legacy pipeline ({@link StudioFlags#PROFILER_UNIFIED_PIPELINE} flag),
@@ -119,7 +175,7 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
     TransportServiceGrpc.TransportServiceBlockingStub stub = myService.getTransportClient(streamId);
     assert (stub != null);
     streamConnected(stream);
-    UnifiedEventsDataPoller unifiedPoller = new UnifiedEventsDataPoller(stream.getStreamId(), myTable, stub, myService);
+    UnifiedEventsDataPoller unifiedPoller = new UnifiedEventsDataPoller(stream.getStreamId(), myWriter, stub, myService);
     myUnifiedEventsPollers.put(channel, unifiedPoller);
     myChannelToStream.put(channel, stream);
     DataStoreTable.addDataStoreErrorCallback(unifiedPoller);
@@ -145,8 +201,15 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
     }
   }
 
+  /**
+   * Stops batching events, writing any that are still pending. Should be called before the backing store is disconnected.
+   */
+  public void shutdown() {
+    myWriter.stop();
+  }
+
   private void streamConnected(Stream stream) {
-    myTable.insertUnifiedEvent(DataStoreService.DATASTORE_RESERVED_STREAM_ID, Event.newBuilder()
+    myWriter.insertUnifiedEvent(DataStoreService.DATASTORE_RESERVED_STREAM_ID, Event.newBuilder()
       .setKind(Event.Kind.STREAM)
       .setGroupId(stream.getStreamId())
       .setTimestamp(System.nanoTime())
@@ -157,7 +220,7 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
   }
 
   private void streamDisconnected(Stream stream) {
-    myTable.insertUnifiedEvent(DataStoreService.DATASTORE_RESERVED_STREAM_ID, Event.newBuilder()
+    myWriter.insertUnifiedEvent(DataStoreService.DATASTORE_RESERVED_STREAM_ID, Event.newBuilder()
       .setKind(Event.Kind.STREAM)
       .setGroupId(stream.getStreamId())
       .setIsEnded(true)
@@ -250,7 +313,11 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
   @Override
   public void getEventGroups(GetEventGroupsRequest request, StreamObserver<GetEventGroupsResponse> responseObserver) {
     GetEventGroupsResponse.Builder response = GetEventGroupsResponse.newBuilder();
-    Collection<EventGroup> events = myTable.queryUnifiedEventGroups(request);
+    myWriter.flush();
+    Long resolutionNs = TARGET_RESOLUTION_KEY.get();
+    Collection<EventGroup> events = resolutionNs != null && resolutionNs > 0
+                                    ? myTable.queryUnifiedEventGroups(request, resolutionNs)
+                                    : myTable.queryUnifiedEventGroups(request);
     response.addAllGroups(events);
     responseObserver.onNext(response.build());
     responseObserver.onCompleted();
@@ -258,6 +325,8 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
 
   @Override
   public void deleteEvents(Transport.DeleteEventsRequest request, StreamObserver<Transport.DeleteEventsResponse> responseObserver) {
+    // Flush first so pending events within the range are deleted too.
+    myWriter.flush();
     myTable.deleteEvents(request.getStreamId(),
                          request.getPid(),
                          request.getGroupId(),
@@ -267,4 +336,26 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
     responseObserver.onNext(Transport.DeleteEventsResponse.getDefaultInstance());
     responseObserver.onCompleted();
   }
+
+  /**
+   * Exposes the {@link #TARGET_RESOLUTION_HEADER} of a call to the service methods through the grpc {@link Context}.
+   */
+  private static final class TargetResolutionInterceptor implements ServerInterceptor {
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+      String resolution = headers.get(TARGET_RESOLUTION_HEADER);
+      if (resolution == null) {
+        return next.startCall(call, headers);
+      }
+      try {
+        return Contexts.interceptCall(Context.current().withValue(TARGET_RESOLUTION_KEY, Long.parseLong(resolution)), call, headers, next);
+      }
+      catch (NumberFormatException ignored) {
+        // Malformed resolutions are ignored, the call returns every event as if the header was not set.
+        return next.startCall(call, headers);
+      }
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.android.tools.idea.protobuf.ByteString
+import com.android.tools.profiler.proto.Transport.BytesRequest
+import com.android.tools.profiler.proto.Transport.BytesResponse
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class BlobStoreTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun contentsAreReadBack() {
+    val store = BlobStore(File(temporaryFolder.root, "blobs"))
+    // Spans several chunks, with a partial last one.
+    val contents = createContents(BlobStore.CHUNK_SIZE * 2 + 123)
+    val key = store.write(contents)
+
+    assertThat(store.size(key)).isEqualTo(contents.size().toLong())
+    assertThat(ByteString.copyFrom(store.map(key))).isEqualTo(contents)
+    store.open(key).use { assertThat(it.size()).isEqualTo(contents.size().toLong()) }
+  }
+
+  @Test
+  fun identicalContentsAreStoredOnce() {
+    val directory = File(temporaryFolder.root, "blobs")
+    val store = BlobStore(directory)
+    val key = store.write(createContents(1000))
+    assertThat(store.write(createContents(1000))).isEqualTo(key)
+    assertThat(store.write(createContents(1001))).isNotEqualTo(key)
+    assertThat(directory.list()).hasLength(2)
+  }
+
+  @Test
+  fun readByOffset() {
+    val store = BlobStore(File(temporaryFolder.root, "blobs"))
+    val contents = createContents(100)
+    val key = store.write(contents)
+
+    val buffer = ByteBuffer.allocate(30)
+    assertThat(store.read(key, 80, buffer)).isEqualTo(20)
+    buffer.flip()
+    assertThat(ByteString.copyFrom(buffer)).isEqualTo(contents.substring(80))
+    assertThat(store.read(key, 100, ByteBuffer.allocate(1))).isEqualTo(-1)
+  }
+
+  @Test
+  fun clearDeletesContents() {
+    val store = BlobStore(File(temporaryFolder.root, "blobs"))
+    val key = store.write(createContents(10))
+    store.clear()
+    try {
+      store.size(key)
+      throw AssertionError("Expected the blob to be deleted")
+    }
+    catch (expected: IOException) {
+    }
+  }
+
+  @Test(expected = IOException::class)
+  fun keysCannotLeaveTheStore() {
+    BlobStore(File(temporaryFolder.root, "blobs")).open("../default.sql")
+  }
+
+  @Test
+  fun largeBytesAreKeptOutOfTheDatabase() {
+    val database = DataStoreDatabase(File(temporaryFolder.root, "test.sql").absolutePath, DataStoreDatabase.Characteristic.DURABLE,
+                                     FakeLogService())
+    val directory = File(temporaryFolder.root, "blobs")
+    val table = UnifiedEventsTable(BlobStore(directory))
+    table.initialize(database.connection)
+    try {
+      val small = BytesResponse.newBuilder().setContents(createContents(10)).build()
+      val large = BytesResponse.newBuilder().setContents(createContents(UnifiedEventsTable.BLOB_THRESHOLD_BYTES)).build()
+      table.insertBytes(1, "small", small)
+      table.insertBytes(1, "large", large)
+
+      assertThat(directory.list()).hasLength(1)
+      assertThat(table.getBytes(BytesRequest.newBuilder().setStreamId(1).setId("small").build())).isEqualTo(small)
+      val response = table.getBytes(BytesRequest.newBuilder().setStreamId(1).setId("large").build())!!
+      assertThat(response).isEqualTo(large)
+      assertThat(response.contents.asReadOnlyByteBuffer().isDirect).isTrue()
+    }
+    finally {
+      database.disconnect()
+    }
+  }
+
+  private fun createContents(size: Int) = ByteString.copyFrom(ByteArray(size) { it.toByte() })
+}
@@ -15,11 +15,14 @@ package com.android.tools.datastore.database
 
 import com.android.tools.datastore.DataStoreDatabase
 import com.android.tools.datastore.FakeLogService
+import com.android.tools.profiler.proto.Common
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import java.io.BufferedOutputStream
 import java.io.File
 import java.io.FileOutputStream
+import java.sql.Connection
+import java.util.concurrent.Executors
 
 class DataStoreDatabaseTest {
 
@@ -34,17 +37,30 @@ class DataStoreDatabaseTest {
   }
 
   @Test
-  fun testDatabaseDeletesExisitingFileOnLoad() {
+  fun testDatabaseDeletesIncompatibleFileOnLoad() {
     val outputStream = BufferedOutputStream(FileOutputStream(myDatabaseFile))
     outputStream.write(ByteArray(1024))
     outputStream.close()
     assertThat(myDatabaseFile.length()).isEqualTo(1024)
     val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
-    assertThat(myDatabaseFile.length()).isEqualTo(0)
+    assertThat(db.connection.createStatement().executeQuery("PRAGMA user_version").getInt(1)).isEqualTo(DataStoreDatabase.SCHEMA_VERSION)
     db.disconnect()
     assertThat(myDatabaseFile.exists()).isTrue()
   }
 
+  @Test
+  fun testDatabaseRestoresFileOfSameVersion() {
+    myDatabaseFile.delete()
+    var db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    db.connection.createStatement().execute("CREATE TABLE Restored (Value INTEGER)")
+    db.connection.createStatement().execute("INSERT INTO Restored VALUES (42)")
+    db.disconnect()
+
+    db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    assertThat(db.connection.createStatement().executeQuery("SELECT Value FROM Restored").getInt(1)).isEqualTo(42)
+    db.disconnect()
+  }
+
   @Test
   fun testConnectionIsOpen() {
     // Verify persistent database
@@ -63,4 +79,105 @@ class DataStoreDatabaseTest {
     db.disconnect()
     assertThat(db.connection.isClosed).isTrue()
   }
+
+  @Test
+  fun testReadConnectionsArePooled() {
+    myDatabaseFile.delete()
+    val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    assertThat(db.connection.createStatement().executeQuery("PRAGMA journal_mode").getString(1)).isEqualTo("wal")
+    val readConnection = db.acquireReadConnection()!!
+    assertThat(readConnection).isNotSameAs(db.connection)
+    db.releaseReadConnection(readConnection)
+
+    // A released connection is borrowed again by whichever thread asks next.
+    val executor = Executors.newSingleThreadExecutor()
+    try {
+      val otherThreadConnection = executor.submit<Connection?> { db.acquireReadConnection() }.get()
+      assertThat(otherThreadConnection).isSameAs(readConnection)
+      db.releaseReadConnection(otherThreadConnection!!)
+    }
+    finally {
+      executor.shutdown()
+    }
+
+    // Once every connection is borrowed, queries run on the main connection until one is released.
+    val borrowed = (1..DataStoreDatabase.MAX_READ_CONNECTIONS).map { db.acquireReadConnection()!! }
+    assertThat(borrowed.toSet()).hasSize(DataStoreDatabase.MAX_READ_CONNECTIONS)
+    assertThat(db.acquireReadConnection()).isNull()
+    db.releaseReadConnection(borrowed[0])
+    assertThat(db.acquireReadConnection()).isSameAs(borrowed[0])
+
+    // Idle connections are closed on disconnect, borrowed ones when they are released.
+    db.releaseReadConnection(borrowed[1])
+    db.disconnect()
+    assertThat(borrowed[1].isClosed).isTrue()
+    assertThat(borrowed[2].isClosed).isFalse()
+    db.releaseReadConnection(borrowed[2])
+    assertThat(borrowed[2].isClosed).isTrue()
+    assertThat(db.acquireReadConnection()).isNull()
+    listOf(borrowed[0], borrowed[3]).forEach { db.releaseReadConnection(it) }
+
+    val memoryDb = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.PERFORMANT, FakeLogService())
+    assertThat(memoryDb.acquireReadConnection()).isNull()
+    memoryDb.disconnect()
+  }
+
+  @Test
+  fun testTableQueriesSeeWritesFromOtherThreads() {
+    myDatabaseFile.delete()
+    val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    val table = UnifiedEventsTable()
+    table.initialize(db)
+    val executor = Executors.newSingleThreadExecutor()
+    try {
+      assertThat(table.queryUnifiedEvents()).isEmpty()
+      val event = Common.Event.newBuilder().setPid(1).setKind(Common.Event.Kind.SESSION).setGroupId(1).setTimestamp(10).build()
+      executor.submit { table.insertUnifiedEvent(1, event) }.get()
+      // Writes are only visible to the read connections once committed.
+      assertThat(table.hasPendingWrites()).isTrue()
+      assertThat(table.queryUnifiedEvents()).isEmpty()
+      executor.submit { table.commitPendingWrites() }.get()
+      assertThat(table.hasPendingWrites()).isFalse()
+      assertThat(table.queryUnifiedEvents()).containsExactly(event)
+    }
+    finally {
+      executor.shutdown()
+      db.disconnect()
+    }
+  }
+
+  @Test
+  fun testTableQueriesAndWritesFromManyThreads() {
+    myDatabaseFile.delete()
+    val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    val table = UnifiedEventsTable()
+    table.initialize(db)
+    val errors = mutableListOf<Throwable>()
+    val errorCallback = DataStoreTable.DataStoreTableErrorCallback { synchronized(errors) { errors.add(it) } }
+    DataStoreTable.addDataStoreErrorCallback(errorCallback)
+    // More threads than read connections, so some queries fall back to the main connection while others write to it.
+    val threadCount = DataStoreDatabase.MAX_READ_CONNECTIONS * 2
+    val executor = Executors.newFixedThreadPool(threadCount)
+    try {
+      val events = (1..threadCount).map {
+        Common.Event.newBuilder().setPid(1).setKind(Common.Event.Kind.SESSION).setGroupId(it.toLong()).setTimestamp(10).build()
+      }
+      events.map { event ->
+        executor.submit {
+          repeat(20) {
+            table.insertUnifiedEvent(1, event)
+            table.commitPendingWrites()
+            assertThat(table.queryUnifiedEvents()).contains(event)
+          }
+        }
+      }.forEach { it.get() }
+      assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(events)
+      assertThat(errors).isEmpty()
+    }
+    finally {
+      DataStoreTable.removeDataStoreErrorCallback(errorCallback)
+      executor.shutdown()
+      db.disconnect()
+    }
+  }
 }
@@ -20,6 +20,8 @@ import static com.google.common.truth.Truth.assertThat;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler;
 import com.android.tools.profiler.proto.Profiler.GetSessionsResponse;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -48,6 +50,7 @@ public class ProfilerTableTest extends DatabaseTest<ProfilerTable> {
                              Common.SessionMetaData.SessionType.UNSPECIFIED));
     methodCalls.add((table) -> table.updateSessionEndTime(0, 0));
     methodCalls.add((table) -> table.deleteSession(-1));
+    methodCalls.add((table) -> table.compact(0));
     return methodCalls;
   }
 
@@ -145,6 +148,36 @@ public class ProfilerTableTest extends DatabaseTest<ProfilerTable> {
     }
   }
 
+  @Test
+  public void testCompactDeletesOldSessions() throws Exception {
+    long now = System.currentTimeMillis();
+    Common.Session oldSession = Common.Session.newBuilder().setSessionId(1).build();
+    Common.Session newSession = Common.Session.newBuilder().setSessionId(2).build();
+    getTable().insertOrUpdateSession(oldSession, "Old", now - 2000, "x86", true, false, Common.SessionMetaData.SessionType.FULL);
+    getTable().insertOrUpdateSession(newSession, "New", now, "x86", true, false, Common.SessionMetaData.SessionType.FULL);
+
+    // Another legacy table keyed by session, and one that isn't.
+    try (Statement statement = getDatabase().getConnection().createStatement()) {
+      statement.execute("CREATE TABLE Test_Data (Session INTEGER, Data INTEGER)");
+      statement.execute("INSERT INTO Test_Data VALUES (1, 10), (2, 20)");
+      statement.execute("CREATE TABLE Test_Other (Id INTEGER)");
+      statement.execute("INSERT INTO Test_Other VALUES (1)");
+    }
+
+    getTable().compact(1000);
+    assertThat(getTable().getSessionById(1)).isEqualTo(Common.Session.getDefaultInstance());
+    assertThat(getTable().getSessionById(2)).isEqualTo(newSession);
+    try (Statement statement = getDatabase().getConnection().createStatement()) {
+      ResultSet results = statement.executeQuery("SELECT Session FROM Test_Data");
+      assertThat(results.next()).isTrue();
+      assertThat(results.getLong(1)).isEqualTo(2);
+      assertThat(results.next()).isFalse();
+      results = statement.executeQuery("SELECT COUNT(*) FROM Test_Other");
+      assertThat(results.next()).isTrue();
+      assertThat(results.getInt(1)).isEqualTo(1);
+    }
+  }
+
   @Test
   public void testInsertAndGetSessionMetaData() {
     List<Common.SessionMetaData> metaDatas = new ArrayList<>();
@@ -16,11 +16,14 @@
 package com.android.tools.datastore.database
 
 import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Memory
+import com.android.tools.profiler.proto.Network
 import com.android.tools.profiler.proto.Transport.BytesRequest
 import com.android.tools.profiler.proto.Transport.BytesResponse
 import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 
 class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
@@ -61,13 +64,21 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
     val events = mutableListOf(Common.Event.newBuilder().build())
     return mutableListOf(
       (Consumer { it.insertUnifiedEvent(1, events[0]) }),
+      (Consumer { it.insertUnifiedEvents(1, events) }),
       (Consumer { it.deleteEvents(1, 1, 1, Common.Event.Kind.SESSION, 1, 1) }),
       (Consumer {
         it.queryUnifiedEventGroups(
           GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setStreamId(1).setPid(1).setToTimestamp(
             10).build())
       }),
+      (Consumer {
+        it.queryUnifiedEventGroups(
+          GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setStreamId(1).setPid(1).setToTimestamp(
+            10).build(), TimeUnit.SECONDS.toNanos(1))
+      }),
       (Consumer { it.queryUnifiedEvents() }),
+      (Consumer { it.queryMaxCommandId() }),
+      (Consumer { it.compact(0, 0) }),
       (Consumer { assertThat(it.getBytes(BytesRequest.getDefaultInstance())).isEqualTo(null) }),
       (Consumer { it.insertBytes(0, "id", BytesResponse.getDefaultInstance()) }))
   }
@@ -282,6 +293,168 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
                    SESSION_1_1_4)
   }
 
+  @Test
+  fun boundaryEventsAreFirstAndLastInGroup() {
+    for (event in events) {
+      table.insertUnifiedEvent(1, event)
+    }
+    val result = table.queryUnifiedEventGroups(
+      GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setPid(1).setGroupId(1).setFromTimestamp(2).setToTimestamp(3)
+        .build())
+    assertThat(result).hasSize(1)
+    assertThat(result[0].eventsList).containsExactly(events[SESSION_1_1_1],
+                                                     events[SESSION_1_1_2],
+                                                     events[SESSION_1_1_3],
+                                                     events[SESSION_1_1_4]).inOrder()
+  }
+
+  @Test
+  fun queryWithResolutionReturnsMinMaxAndLastOfEachBucket() {
+    // One increasing sample every 10ms, so the min of each 100ms bucket is its first sample and the max is its last.
+    val intervalNs = TimeUnit.MILLISECONDS.toNanos(10)
+    for (i in 0 until 100) {
+      table.insertUnifiedEvent(1, Common.Event.newBuilder()
+        .setKind(Common.Event.Kind.NETWORK_SPEED)
+        .setPid(1)
+        .setGroupId(1)
+        .setTimestamp(i * intervalNs)
+        .setNetworkSpeed(Network.NetworkSpeedData.newBuilder().setThroughput(i.toLong()))
+        .build())
+    }
+    val request = GetEventGroupsRequest.newBuilder()
+      .setKind(Common.Event.Kind.NETWORK_SPEED)
+      .setStreamId(1)
+      .setPid(1)
+      .setGroupId(1)
+      .setFromTimestamp(10 * intervalNs)
+      .setToTimestamp(90 * intervalNs)
+      .build()
+
+    val expectedSamples = mutableListOf(9L)
+    for (bucket in 1 until 9) {
+      expectedSamples.add(bucket * 10L)
+      expectedSamples.add(bucket * 10L + 9)
+    }
+    // The last bucket is cut by the end of the range, followed by the +1 sample.
+    expectedSamples.addAll(listOf(90L, 91L))
+    val result = table.queryUnifiedEventGroups(request, TimeUnit.MILLISECONDS.toNanos(100))
+    assertThat(result).hasSize(1)
+    assertThat(result[0].eventsList.map { it.timestamp / intervalNs }).containsExactlyElementsIn(expectedSamples).inOrder()
+
+    // Resolutions finer than the pyramid return every event.
+    assertThat(table.queryUnifiedEventGroups(request, 1)).isEqualTo(table.queryUnifiedEventGroups(request))
+    assertThat(table.queryUnifiedEventGroups(request)[0].eventsCount).isEqualTo(83)
+  }
+
+  @Test
+  fun queryWithResolutionKeepsThePeaksOfEveryMemoryCategory() {
+    // The java and native memory trade places while the total stays the same, so the total alone would only keep the first and last
+    // samples.
+    val intervalNs = TimeUnit.MILLISECONDS.toNanos(10)
+    for (i in 0 until 10) {
+      val javaMem = if (i == 4) 90 else 50
+      table.insertUnifiedEvent(1, Common.Event.newBuilder()
+        .setKind(Common.Event.Kind.MEMORY_USAGE)
+        .setPid(1)
+        .setTimestamp(i * intervalNs)
+        .setMemoryUsage(Memory.MemoryUsageData.newBuilder().setJavaMem(javaMem).setNativeMem(100 - javaMem).setTotalMem(100))
+        .build())
+    }
+    val request = GetEventGroupsRequest.newBuilder()
+      .setKind(Common.Event.Kind.MEMORY_USAGE)
+      .setStreamId(1)
+      .setPid(1)
+      .setToTimestamp(9 * intervalNs)
+      .build()
+    val result = table.queryUnifiedEventGroups(request, TimeUnit.MILLISECONDS.toNanos(100))
+    assertThat(result[0].eventsList.map { it.timestamp / intervalNs }).containsExactly(0L, 4L, 9L).inOrder()
+  }
+
+  @Test
+  fun queryWithResolutionHandlesOutlierTimestamps() {
+    // Before, the pyramid levels were dense from the earliest bucket, so a single far away timestamp allocated every bucket in between.
+    val timestamps = listOf(0L, TimeUnit.MILLISECONDS.toNanos(150), Long.MAX_VALUE / 2)
+    for (timestamp in timestamps) {
+      table.insertUnifiedEvent(1, Common.Event.newBuilder()
+        .setKind(Common.Event.Kind.NETWORK_SPEED)
+        .setPid(1)
+        .setGroupId(1)
+        .setTimestamp(timestamp)
+        .build())
+    }
+    val request = GetEventGroupsRequest.newBuilder()
+      .setKind(Common.Event.Kind.NETWORK_SPEED)
+      .setStreamId(1)
+      .setPid(1)
+      .setGroupId(1)
+      .setToTimestamp(TimeUnit.SECONDS.toNanos(1))
+      .build()
+    val result = table.queryUnifiedEventGroups(request, TimeUnit.MILLISECONDS.toNanos(100))
+    assertThat(result[0].eventsList.map { it.timestamp }).containsExactlyElementsIn(timestamps).inOrder()
+  }
+
+  @Test
+  fun queryWithResolutionReadsEveryEventAfterDelete() {
+    for (i in 0 until 10) {
+      table.insertUnifiedEvent(1, Common.Event.newBuilder()
+        .setKind(Common.Event.Kind.NETWORK_SPEED)
+        .setPid(1)
+        .setGroupId(1)
+        .setTimestamp(TimeUnit.MILLISECONDS.toNanos(i * 10L))
+        .build())
+    }
+    table.deleteEvents(1, 1, 1, Common.Event.Kind.NETWORK_SPEED, 0, 0)
+    val request = GetEventGroupsRequest.newBuilder()
+      .setKind(Common.Event.Kind.NETWORK_SPEED)
+      .setStreamId(1)
+      .setPid(1)
+      .setGroupId(1)
+      .setToTimestamp(TimeUnit.SECONDS.toNanos(1))
+      .build()
+    assertThat(table.queryUnifiedEventGroups(request, TimeUnit.SECONDS.toNanos(1))[0].eventsCount).isEqualTo(9)
+  }
+
+  @Test
+  fun interruptedGroupsAreEndedOnRestore() {
+    table.insertUnifiedEvent(-1, eventBuilder(Common.Event.Kind.STREAM, false, 0, 5, 0, 10))
+    table.insertUnifiedEvent(5, eventBuilder(Common.Event.Kind.SESSION, false, 100, 77, 0, 30))
+    table.insertUnifiedEvent(5, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 100, 0, 0, 900))
+    // Reopening the same database restores its events.
+    table.initialize(database.connection)
+
+    val streams = table.queryUnifiedEventGroups(GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.STREAM).build())
+    assertThat(streams).hasSize(1)
+    assertThat(streams[0].eventsList.last()).isEqualTo(eventBuilder(Common.Event.Kind.STREAM, true, 0, 5, 0, 900))
+    val sessions = table.queryUnifiedEventGroups(GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).build())
+    assertThat(sessions).hasSize(1)
+    assertThat(sessions[0].eventsList.last()).isEqualTo(eventBuilder(Common.Event.Kind.SESSION, true, 100, 77, 0, 900))
+  }
+
+  @Test
+  fun compactDeletesOldSessions() {
+    val nowMs = System.currentTimeMillis()
+    insertSession(1, nowMs - TimeUnit.DAYS.toMillis(10), 100, 200)
+    insertSession(2, nowMs, 300, 400)
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 0, 150))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 8, 350))
+    assertThat(table.queryMaxCommandId()).isEqualTo(8)
+
+    table.compact(TimeUnit.DAYS.toMillis(7), Long.MAX_VALUE)
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(300L, 350L, 400L)
+
+    // The remaining session is deleted to fit the size limit, leaving no events.
+    table.compact(TimeUnit.DAYS.toMillis(7), 0)
+    assertThat(table.queryUnifiedEvents()).isEmpty()
+  }
+
+  private fun insertSession(sessionId: Long, startEpochMs: Long, startTimestamp: Long, endTimestamp: Long) {
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, sessionId, 0, startTimestamp).toBuilder()
+      .setSession(Common.SessionData.newBuilder().setSessionStarted(
+        Common.SessionData.SessionStarted.newBuilder().setSessionId(sessionId).setStartTimestampEpochMs(startEpochMs)))
+      .build())
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, true, 1, sessionId, 0, endTimestamp))
+  }
+
   @Test
   fun queryReturnsSameStatement() {
     val results = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsTable]", arrayOf())
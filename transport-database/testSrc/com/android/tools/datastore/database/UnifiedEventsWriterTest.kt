@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.android.tools.profiler.proto.Common
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+class UnifiedEventsWriterTest {
+  private lateinit var dbFile: File
+  private lateinit var database: DataStoreDatabase
+  private lateinit var table: UnifiedEventsTable
+
+  @Before
+  fun before() {
+    dbFile = File.createTempFile("UnifiedEventsWriterTest", "mysql")
+    dbFile.deleteOnExit()
+    database = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+  }
+
+  @After
+  fun after() {
+    database.disconnect()
+  }
+
+  @Test
+  fun eventsAreWrittenThroughWhenNotStarted() {
+    val writer = UnifiedEventsWriter(table)
+    val event = sessionEvent(1)
+    writer.insertUnifiedEvent(1, event)
+    assertThat(writer.queueDepth).isEqualTo(0)
+    assertThat(table.queryUnifiedEvents()).containsExactly(event)
+  }
+
+  @Test
+  fun pendingEventsAreVisibleAfterFlush() {
+    // Long interval and high threshold so nothing is written until we flush.
+    val writer = UnifiedEventsWriter(table, TimeUnit.HOURS.toNanos(1), 1024, 1024)
+    writer.start()
+    val events = (1..10L).map { sessionEvent(it) }
+    events.forEach { writer.insertUnifiedEvent(it.groupId, it) }
+    assertThat(writer.queueDepth).isEqualTo(events.size)
+    assertThat(table.queryUnifiedEvents()).isEmpty()
+
+    writer.flush()
+    assertThat(writer.queueDepth).isEqualTo(0)
+    assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(events)
+    assertThat(writer.flushCount).isEqualTo(1)
+    assertThat(writer.lastFlushRowCount).isEqualTo(events.size)
+    assertThat(writer.flushedRowCount).isEqualTo(events.size.toLong())
+    assertThat(writer.maxFlushLatencyNs).isAtLeast(writer.lastFlushLatencyNs)
+    writer.stop()
+  }
+
+  @Test
+  fun fullBufferIsFlushedByProducer() {
+    val writer = UnifiedEventsWriter(table, TimeUnit.HOURS.toNanos(1), 4, 4)
+    writer.start()
+    val events = (1..100L).map { sessionEvent(it) }
+    events.forEach { writer.insertUnifiedEvent(1, it) }
+    assertThat(writer.queueDepth).isAtMost(4)
+    writer.stop()
+    assertThat(writer.queueDepth).isEqualTo(0)
+    assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(events)
+  }
+
+  @Test
+  fun writerThreadFlushesOnInterval() {
+    val writer = UnifiedEventsWriter(table, TimeUnit.MILLISECONDS.toNanos(10), 1024, 1024)
+    writer.start()
+    val event = sessionEvent(1)
+    writer.insertUnifiedEvent(1, event)
+    var retryAttempts = 50
+    while (writer.flushCount == 0L && retryAttempts-- > 0) {
+      Thread.sleep(20)
+    }
+    writer.stop()
+    assertThat(table.queryUnifiedEvents()).containsExactly(event)
+  }
+
+  @Test
+  fun flushWaitsForTheWriterThreadToCommit() {
+    // Queries then run on read connections, which only see committed events.
+    table.initialize(database)
+    val writer = UnifiedEventsWriter(table, TimeUnit.HOURS.toNanos(1), 1024, 1024)
+    writer.start()
+    val events = (1..10L).map { sessionEvent(it) }
+    events.forEach { writer.insertUnifiedEvent(it.groupId, it) }
+    writer.flush()
+    assertThat(table.hasPendingWrites()).isFalse()
+    assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(events)
+
+    // Writes from other threads are committed along with the next flush.
+    table.deleteEvents(1, 1, 1, Common.Event.Kind.SESSION, 0, Long.MAX_VALUE)
+    assertThat(table.hasPendingWrites()).isTrue()
+    writer.flush()
+    assertThat(table.hasPendingWrites()).isFalse()
+    assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(events.drop(1))
+    writer.stop()
+  }
+
+  @Test
+  fun ringBufferReturnsEventsInOrder() {
+    val buffer = UnifiedEventsWriter.EventRingBuffer(4)
+    val events = (1..4L).map { sessionEvent(it) }
+    events.forEach { assertThat(buffer.offer(UnifiedEventsWriter.PendingEvent(1, it))).isTrue() }
+    assertThat(buffer.offer(UnifiedEventsWriter.PendingEvent(1, sessionEvent(5)))).isFalse()
+    assertThat(buffer.size()).isEqualTo(4)
+    events.forEach { assertThat(buffer.poll()!!.event).isEqualTo(it) }
+    assertThat(buffer.poll()).isNull()
+  }
+
+  private fun sessionEvent(groupId: Long): Common.Event {
+    return Common.Event.newBuilder()
+      .setKind(Common.Event.Kind.SESSION)
+      .setPid(1)
+      .setGroupId(groupId)
+      .setTimestamp(groupId)
+      .build()
+  }
+}
@@ -185,4 +185,56 @@ class BatteryModelTest {
     assertThat(sample.energyUsage.networkUsage).isEqualTo(0)
     assertThat(sample.energyUsage.cpuUsage).isGreaterThan(0)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun sampleRangeMatchesSamplesBetweenAndCanBeReused() {
+    val batteryModel = BatteryModel(PowerProfile.DefaultPowerProfile(), SAMPLE_INTERVAL_NS)
+    val timeStartNs = TimeUnit.SECONDS.toNanos(10)
+
+    batteryModel.handleEvent(fastForward(timeStartNs, 1), BatteryModel.Event.NETWORK_USAGE,
+                             PowerProfile.NetworkStats(PowerProfile.NetworkType.WIFI, 100, 10))
+    batteryModel.handleEvent(
+      fastForward(timeStartNs, 3),
+      BatteryModel.Event.CPU_USAGE,
+      arrayOf(PowerProfile.CpuCoreUsage(0, 1.0, 1.0, MIN_CPU_FREQUENCY, MAX_CPU_FREQUENCY, MAX_CPU_FREQUENCY, false))
+    )
+
+    val range = batteryModel.getSampleRange(timeStartNs, fastForward(timeStartNs, 5), null)
+    val samples = batteryModel.getNSamplesStartingAt(timeStartNs, 5)
+    assertThat(range.size()).isEqualTo(5)
+    assertThat((0 until range.size()).map { range.getSample(it) }).containsExactlyElementsIn(samples).inOrder()
+    assertThat(range.getNetworkUsage(0)).isEqualTo(0)
+    assertThat(range.getNetworkUsage(1)).isGreaterThan(0)
+    assertThat(range.getCpuUsage(2)).isEqualTo(0)
+    assertThat(range.getCpuUsage(3)).isGreaterThan(0)
+
+    // A reused range is updated in place.
+    val laterStartNs = fastForward(timeStartNs, 2)
+    val reused = batteryModel.getSampleRange(laterStartNs, fastForward(laterStartNs, 2), range)
+    assertThat(reused).isSameAs(range)
+    assertThat(reused.size()).isEqualTo(2)
+    assertThat(reused.getTimestamp(0)).isEqualTo(laterStartNs)
+    assertThat((0 until reused.size()).map { reused.getSample(it) })
+      .containsExactlyElementsIn(batteryModel.getNSamplesStartingAt(laterStartNs, 2)).inOrder()
+  }
+
+  @Test
+  fun averageUsageIsWeightedByTime() {
+    val batteryModel = BatteryModel(PowerProfile.DefaultPowerProfile(), SAMPLE_INTERVAL_NS)
+    val timeStartNs = TimeUnit.SECONDS.toNanos(20)
+
+    batteryModel.handleEvent(timeStartNs, BatteryModel.Event.NETWORK_USAGE,
+                             PowerProfile.NetworkStats(PowerProfile.NetworkType.WIFI, 100, 10))
+    batteryModel.handleEvent(fastForward(timeStartNs, 1), BatteryModel.Event.NETWORK_USAGE,
+                             PowerProfile.NetworkStats(PowerProfile.NetworkType.WIFI, 0, 0))
+    val usage = batteryModel.getNSamplesStartingAt(timeStartNs, 1)[0].energyUsage.networkUsage
+    assertThat(usage).isGreaterThan(0)
+
+    // One busy bucket out of four.
+    val average = batteryModel.getAverageUsageBetween(timeStartNs, fastForward(timeStartNs, 4))
+    assertThat(average.networkUsage).isEqualTo(Math.round(usage / 4.0).toInt())
+    assertThat(average.cpuUsage).isEqualTo(0)
+    assertThat(batteryModel.getAverageUsageBetween(timeStartNs, fastForward(timeStartNs, 1)).networkUsage).isEqualTo(usage)
+    assertThat(batteryModel.getAverageUsageBetween(fastForward(timeStartNs, 1), fastForward(timeStartNs, 4)).networkUsage).isEqualTo(0)
+  }
+}
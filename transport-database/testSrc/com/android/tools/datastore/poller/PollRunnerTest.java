@@ -17,6 +17,12 @@ package com.android.tools.datastore.poller;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
@@ -42,6 +48,59 @@ public class PollRunnerTest {
     assertEquals(runner.get(1, TimeUnit.SECONDS), null); // For code completion
   }
 
+  @Test
+  public void testBackOffWhileEmpty() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      // Four empty polls followed by one with data.
+      PayloadPollRunner runner = new PayloadPollRunner(new int[]{0, 0, 0, 0, 1}, scheduler);
+      runner.run();
+      runner.myPolled.await();
+      runner.stop();
+      assertEquals(true, runner.isDone());
+
+      // The period doubles after each empty poll, up to the maximum.
+      assertEquals(Arrays.asList(TEST_PERIOD_NS * 2, TEST_PERIOD_NS * 4, TEST_PERIOD_NS * 8, TEST_PERIOD_NS * 8),
+                   runner.myPeriodsNs.subList(1, 5));
+
+      PollRunner.Statistics statistics = runner.getStatistics();
+      assertEquals(5, statistics.getPollCount());
+      assertEquals(5 * PayloadPollRunner.PAYLOAD_SIZE_BYTES, statistics.getTotalPayloadSizeBytes());
+      assertEquals(PayloadPollRunner.PAYLOAD_SIZE_BYTES, statistics.getLastPayloadSizeBytes());
+      // Back to the initial period once data flows again.
+      assertEquals(TEST_PERIOD_NS, statistics.getCurrentPeriodNs());
+    }
+    finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private static class PayloadPollRunner extends PollRunner {
+    private static final int PAYLOAD_SIZE_BYTES = 10;
+
+    private final int[] myItemCounts;
+    private final List<Long> myPeriodsNs = new ArrayList<>();
+    private final CountDownLatch myPolled;
+
+    PayloadPollRunner(int[] itemCounts, ScheduledExecutorService scheduler) {
+      super(TEST_PERIOD_NS, TEST_PERIOD_NS * 8, scheduler);
+      myItemCounts = itemCounts;
+      myPolled = new CountDownLatch(itemCounts.length);
+    }
+
+    @Override
+    public void poll() {
+      // Period the runner waited for since the previous poll.
+      myPeriodsNs.add(getStatistics().getCurrentPeriodNs());
+      recordPayload(myItemCounts[myPeriodsNs.size() - 1], PAYLOAD_SIZE_BYTES);
+      if (myPeriodsNs.size() == myItemCounts.length) {
+        // Stops the runner once this poll is over.
+        cancel(false);
+      }
+      myPolled.countDown();
+    }
+  }
+
   private static class PollRunnerMinimalImpl extends PollRunner {
     private long myLastCallbackTime = 0;
     private long myTickCallCount = 0;